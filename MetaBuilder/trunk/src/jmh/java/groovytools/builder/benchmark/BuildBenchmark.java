@@ -0,0 +1,81 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovytools.builder.MetaBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building small and large object graphs: wide lists, map-keyed collections and deep recursive trees.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class BuildBenchmark {
+
+    /**
+     * The number of objects in the graph, roughly.
+     */
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    /**
+     * Whether to build with the lightweight builder.
+     */
+    @Param({"false", "true"})
+    public boolean lightweight;
+
+    private MetaBuilder mb;
+    private Class wideList;
+    private Class keyedMap;
+    private Class tree;
+
+    @Setup
+    public void setup() {
+        mb = Scripts.createMetaBuilder();
+        mb.setLightweight(lightweight);
+        mb.define(Scripts.compile(mb, Scripts.ITEM_SCHEMA));
+        mb.seal();
+        wideList = Scripts.compile(mb, Scripts.wideList(size));
+        keyedMap = Scripts.compile(mb, Scripts.keyedMap(size));
+        // a binary tree of depth d has 2^(d+1) - 1 items
+        int depth = 31 - Integer.numberOfLeadingZeros(size);
+        tree = Scripts.compile(mb, Scripts.tree(depth));
+    }
+
+    @Benchmark
+    public Object wideList() {
+        return mb.build(wideList);
+    }
+
+    @Benchmark
+    public Object keyedMap() {
+        return mb.build(keyedMap);
+    }
+
+    @Benchmark
+    public Object tree() {
+        return mb.build(tree);
+    }
+}
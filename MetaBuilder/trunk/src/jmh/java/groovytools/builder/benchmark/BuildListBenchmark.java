@@ -0,0 +1,60 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovytools.builder.MetaBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures <code>buildList</code> over script files, with and without the compiled script in the
+ * {@link groovytools.builder.ScriptCache}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildListBenchmark {
+
+    private MetaBuilder mb;
+    private URL orders;
+
+    @Setup
+    public void setup() throws IOException {
+        mb = Scripts.createMetaBuilder();
+        mb.define(getClass().getResource("OrderSchema.dsl"));
+        mb.seal();
+        orders = getClass().getResource("Orders.dsl");
+    }
+
+    @Benchmark
+    public Object cached() throws IOException {
+        return mb.buildList(orders);
+    }
+
+    @Benchmark
+    public Object compiled() throws IOException {
+        mb.getScriptCache().clear();
+        return mb.buildList(orders);
+    }
+}
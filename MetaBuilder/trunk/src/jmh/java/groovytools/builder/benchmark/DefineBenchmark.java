@@ -0,0 +1,72 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovytools.builder.MetaBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating the default meta schema and defining schemas with it.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class DefineBenchmark {
+
+    /**
+     * The number of schemas in the inheritance chain.
+     */
+    @Param({"2", "16", "64"})
+    public int depth;
+
+    private Class itemSchema;
+    private Class chain;
+
+    @Setup
+    public void setup() {
+        MetaBuilder mb = Scripts.createMetaBuilder();
+        itemSchema = Scripts.compile(mb, Scripts.ITEM_SCHEMA);
+        chain = Scripts.compile(mb, Scripts.inheritanceChain(depth));
+    }
+
+    @Benchmark
+    public Object defaultMetaSchema() {
+        return Scripts.createMetaBuilder().getDefaultMetaSchema();
+    }
+
+    @Benchmark
+    public Object itemSchema() {
+        return Scripts.createMetaBuilder().define(itemSchema);
+    }
+
+    /**
+     * Defines the chain and compiles its last schema, so that the inherited properties are resolved too.
+     */
+    @Benchmark
+    public Object inheritanceChain() {
+        MetaBuilder mb = Scripts.createMetaBuilder();
+        mb.define(chain);
+        return mb.getCompiledSchema(mb.getSchema("level" + (depth - 1)));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovytools.builder.MetaBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures instantiating the nodes of a list of 1000 items, for each kind of <code>factory</code> attribute.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class FactoryBenchmark {
+
+    /**
+     * The <code>factory</code> attribute of the item schema.
+     */
+    @Param({"groovytools.builder.benchmark.Item", "'groovytools.builder.benchmark.Item'",
+        "{ new groovytools.builder.benchmark.Item() }", "{ n, v, a -> new groovytools.builder.benchmark.Item() }"})
+    public String factory;
+
+    /**
+     * Whether to build with the lightweight builder.
+     */
+    @Param({"false", "true"})
+    public boolean lightweight;
+
+    private MetaBuilder mb;
+    private Class wideList;
+
+    @Setup
+    public void setup() {
+        mb = Scripts.createMetaBuilder();
+        mb.setLightweight(lightweight);
+        mb.define(Scripts.compile(mb, Scripts.ITEM_SCHEMA.replace("factory: groovytools.builder.benchmark.Item", "factory: " + factory)));
+        wideList = Scripts.compile(mb, Scripts.wideList(1000));
+    }
+
+    @Benchmark
+    public Object build() {
+        return mb.build(wideList);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovytools.builder.MetaConfigBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building <code>ConfigObject</code>s with {@link MetaConfigBuilder}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings("rawtypes")
+public class MetaConfigBuilderBenchmark {
+
+    private MetaConfigBuilder mb;
+    private Class config;
+
+    @Setup
+    public void setup() {
+        mb = new MetaConfigBuilder();
+        mb.setClassLoader(getClass().getClassLoader());
+        mb.define(Scripts.compile(mb, Scripts.CONFIG_SCHEMA));
+        mb.seal();
+        config = Scripts.compile(mb, Scripts.CONFIG);
+    }
+
+    @Benchmark
+    public Object config() {
+        return mb.build(config);
+    }
+}
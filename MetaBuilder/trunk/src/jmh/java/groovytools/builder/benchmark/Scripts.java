@@ -0,0 +1,163 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovy.lang.GroovyClassLoader;
+import groovytools.builder.MetaBuilder;
+
+/**
+ * Schemas and scripts shared by the benchmarks.  Scripts are compiled once during setup so that the benchmarks
+ * measure the builder rather than the Groovy compiler.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("rawtypes")
+final class Scripts {
+
+    /**
+     * An {@link Item} with a list of child items and a map of child items keyed by name.
+     */
+    static final String ITEM_SCHEMA =
+        "item(factory: groovytools.builder.benchmark.Item) {\n" +
+        "    properties {\n" +
+        "        name(req: true)\n" +
+        "        value(def: 0, min: 0)\n" +
+        "    }\n" +
+        "    collections {\n" +
+        "        items {\n" +
+        "            item(schema: 'item')\n" +
+        "        }\n" +
+        "        entries(key: 'name') {\n" +
+        "            entry(schema: 'item')\n" +
+        "        }\n" +
+        "    }\n" +
+        "}\n";
+
+    /**
+     * A server configuration for {@link groovytools.builder.MetaConfigBuilder}.
+     */
+    static final String CONFIG_SCHEMA =
+        "server {\n" +
+        "    properties {\n" +
+        "        host(req: true)\n" +
+        "        port(def: 8080, min: 1, max: 65535)\n" +
+        "        threads(def: 10, check: 1..1000)\n" +
+        "        database {\n" +
+        "            properties {\n" +
+        "                url(req: true, check: ~/jdbc:.*/)\n" +
+        "                user()\n" +
+        "                password()\n" +
+        "                poolSize(def: 5)\n" +
+        "            }\n" +
+        "        }\n" +
+        "        logging {\n" +
+        "            properties {\n" +
+        "                level(def: 'INFO', check: ['DEBUG', 'INFO', 'WARN', 'ERROR'])\n" +
+        "                file()\n" +
+        "            }\n" +
+        "        }\n" +
+        "    }\n" +
+        "}\n";
+
+    static final String CONFIG =
+        "server {\n" +
+        "    host = 'localhost'\n" +
+        "    port = 9090\n" +
+        "    database {\n" +
+        "        url = 'jdbc:h2:mem:test'\n" +
+        "        user = 'sa'\n" +
+        "    }\n" +
+        "    logging {\n" +
+        "        level = 'DEBUG'\n" +
+        "    }\n" +
+        "}\n";
+
+    private Scripts() {
+    }
+
+    static MetaBuilder createMetaBuilder() {
+        return new MetaBuilder(Scripts.class.getClassLoader());
+    }
+
+    static Class compile(MetaBuilder mb, String text) {
+        return ((GroovyClassLoader)mb.getClassLoader()).parseClass(text);
+    }
+
+    /**
+     * Returns a schema script defining a chain of <code>depth</code> schemas, each one inheriting from the previous.
+     */
+    static String inheritanceChain(int depth) {
+        StringBuilder script = new StringBuilder();
+        script.append("level0(factory: groovytools.builder.benchmark.Item) {\n")
+            .append("    properties {\n")
+            .append("        name(req: true)\n")
+            .append("    }\n")
+            .append("}\n");
+        for(int i = 1; i < depth; i++) {
+            script.append("level").append(i).append("(schema: 'level").append(i - 1).append("') {\n")
+                .append("    properties {\n")
+                .append("        value(def: ").append(i).append(")\n")
+                .append("    }\n")
+                .append("}\n");
+        }
+        return script.toString();
+    }
+
+    /**
+     * Returns a build script creating one item with <code>size</code> child items in its <code>items</code> list.
+     */
+    static String wideList(int size) {
+        return "item(name: 'root') {\n" +
+            "    items {\n" +
+            "        for(int i = 0; i < " + size + "; i++) {\n" +
+            "            item(name: 'item' + i, value: i)\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n";
+    }
+
+    /**
+     * Returns a build script creating one item with <code>size</code> child items in its <code>entries</code> map.
+     */
+    static String keyedMap(int size) {
+        return "item(name: 'root') {\n" +
+            "    entries {\n" +
+            "        for(int i = 0; i < " + size + "; i++) {\n" +
+            "            entry(name: 'entry' + i, value: i)\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n";
+    }
+
+    /**
+     * Returns a build script creating a binary tree of items of the given depth, like
+     * <code>CollectionRecursionTest</code> but deeper.
+     */
+    static String tree(int depth) {
+        return "def node\n" +
+            "node = { String name, int depth ->\n" +
+            "    item(name: name) {\n" +
+            "        if(depth > 0) {\n" +
+            "            items {\n" +
+            "                node(name + '.1', depth - 1)\n" +
+            "                node(name + '.2', depth - 1)\n" +
+            "            }\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n" +
+            "node('1', " + depth + ")\n";
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder.benchmark;
+
+import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.Script;
+import groovytools.builder.MetaBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a small graph of about 20 items, as a service would per request, with a new builder each time
+ * and with the thread's {@link groovytools.builder.BuildSession}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+
+    /**
+     * Whether to build with the lightweight builder.
+     */
+    @Param({"false", "true"})
+    public boolean lightweight;
+
+    private MetaBuilder mb;
+    private Closure smallGraph;
+
+    @Setup
+    public void setup() {
+        mb = Scripts.createMetaBuilder();
+        mb.setLightweight(lightweight);
+        mb.define(Scripts.compile(mb, Scripts.ITEM_SCHEMA));
+        mb.seal();
+        Script script = InvokerHelper.createScript(Scripts.compile(mb, "return {\n" + Scripts.wideList(20) + "}\n"), new Binding());
+        smallGraph = (Closure)script.run();
+    }
+
+    @Benchmark
+    public Object newBuilder() {
+        return mb.build(smallGraph);
+    }
+
+    @Benchmark
+    public Object session() {
+        return mb.getSession().build(smallGraph);
+    }
+}
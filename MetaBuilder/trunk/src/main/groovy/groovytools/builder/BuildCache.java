@@ -0,0 +1,543 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.Closure;
+import groovy.lang.MetaBeanProperty;
+import groovy.lang.MetaProperty;
+import groovy.util.Node;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.ResourceGroovyMethods;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Caches what build scripts loaded from a {@link URL} build, so that an unchanged script building with unchanged
+ * schemas needn't be run again, even after a restart, see {@link MetaBuilder#setBuildCacheDirectory(File)}.
+ * <p/>
+ * While a script runs, the nodes and properties it gives the builder are recorded in a compact binary form and
+ * saved to a file named by a hash of the script's content, the defined schemas and the classes they use, such as
+ * factory classes.  When the same script is built again, the recording is replayed by a
+ * {@link LightweightMetaObjectGraphBuilder} instead, which creates and checks the same objects without compiling or
+ * running the script.
+ * <p/>
+ * Builds that can't be recorded, see {@link BuildRecording}, or whose script returns neither null nor the last root,
+ * are not saved and simply run again the next time.  Classes are identified by the bytes of their class files,
+ * if available, and otherwise by their names and members.  Closures defined by schema scripts therefore don't
+ * change the hash unless their members change: {@link #clear()} the cache if they do.
+ * <p/>
+ * Scripts may also change the objects they built outside the builder, for example by setting a property of a node
+ * they built, which a recording can't replay.  Before a build is saved, its recording is therefore replayed once and
+ * the replayed objects are compared with those the script returned: their nodes, collections, maps and simple values,
+ * and the properties of any other objects, as far as they are reachable from the result.  Builds that differ are not
+ * saved.  Changes to state that isn't reachable through properties, such as private fields without getters, can't be
+ * detected: don't cache builds of scripts making such changes.
+ * <p/>
+ * <code>BuildCache</code>s are thread-safe.
+ *
+ * @version $Id$
+ * @see MetaBuilder#setBuildCacheDirectory(File)
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class BuildCache {
+    private static final String EXTENSION = ".build";
+    private static final int MAGIC = 0x4d424252;
+    private static final int FORMAT = 1;
+
+    private static final int MISS = -1;
+    private static final int RESULT_LIST = 0;
+    private static final int RESULT_NULL = 1;
+    private static final int RESULT_LAST_ROOT = 2;
+
+    private final MetaBuilder metaBuilder;
+    private final File directory;
+
+    /**
+     * The hash of the schemas, kept once the {@link MetaBuilder} is sealed.
+     */
+    private volatile byte[] sealedSchemaHash;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong saves;
+
+    /**
+     * Constructs a <code>BuildCache</code>.
+     *
+     * @param metaBuilder the {@link MetaBuilder} building the scripts
+     * @param directory where to save the recorded builds
+     */
+    public BuildCache(MetaBuilder metaBuilder, File directory) {
+        if(directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        this.metaBuilder = metaBuilder;
+        this.directory = directory;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.saves = new AtomicLong();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the last root built by the script, replaying the saved build if there is one.
+     *
+     * @param url the script
+     * @param encoding the script's encoding, or null for the default
+     * @return see above
+     * @throws IOException if the script or the directory can't be read or written to
+     */
+    public Object build(URL url, String encoding) throws IOException {
+        File file = getFile(url, encoding, false);
+        List roots = new ArrayList();
+        int result = load(file, null, roots);
+        if(result != MISS) {
+            return result == RESULT_NULL || roots.isEmpty() ? null : roots.get(roots.size() - 1);
+        }
+        BuildRecording recording = new BuildRecording();
+        Object built = metaBuilder.build(metaBuilder.loadClass(url, encoding), recording);
+        if(built == null) {
+            save(file, RESULT_NULL, recording);
+        }
+        else if(built == recording.getLastRoot() && replays(recording, null, built, false)) {
+            save(file, RESULT_LAST_ROOT, recording);
+        }
+        return built;
+    }
+
+    /**
+     * Returns the roots built by the script, replaying the saved build if there is one.
+     *
+     * @param report where to record violations, or null to throw
+     * @param url the script
+     * @param encoding the script's encoding, or null for the default
+     * @return see above
+     * @throws IOException if the script or the directory can't be read or written to
+     */
+    public List buildList(ValidationReport report, URL url, String encoding) throws IOException {
+        File file = getFile(url, encoding, true);
+        List roots = new ArrayList();
+        if(load(file, report, roots) != MISS) {
+            return roots;
+        }
+        BuildRecording recording = new BuildRecording();
+        List built = metaBuilder.buildList(report, metaBuilder.loadClass(url, encoding), recording);
+        if(replays(recording, report, built, true)) {
+            save(file, RESULT_LIST, recording);
+        }
+        return built;
+    }
+
+    /**
+     * Returns the number of builds replayed.
+     *
+     * @return see above
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of builds that had to run their scripts.
+     *
+     * @return see above
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of builds recorded and saved.
+     *
+     * @return see above
+     */
+    public long getSaveCount() {
+        return saves.get();
+    }
+
+    /**
+     * Deletes all saved builds.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(int i = 0; i < files.length; i++) {
+            if(files[i].getName().endsWith(EXTENSION)) {
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Replays the build saved to the file, if any, adding the roots to the given list.
+     *
+     * @return the kind of result saved, or {@link #MISS}
+     */
+    private int load(File file, ValidationReport report, List roots) throws IOException {
+        if(!file.isFile()) {
+            misses.incrementAndGet();
+            return MISS;
+        }
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        catch(FileNotFoundException e) {
+            // deleted in the meantime
+            misses.incrementAndGet();
+            return MISS;
+        }
+        int result;
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new StreamCorruptedException(file.getPath());
+            }
+            result = in.readUnsignedByte();
+            roots.addAll(BuildRecording.replay(metaBuilder, report, in));
+        }
+        catch(IOException e) {
+            result = MISS;
+        }
+        finally {
+            in.close();
+        }
+        if(result == MISS) {
+            // unreadable, build and save it again
+            file.delete();
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if replaying the recording builds objects with the same state as those the script built, which it
+     * doesn't if the script changed them outside the builder.
+     *
+     * @param report the report the script's violations were recorded in, or null
+     * @param built the last root or the roots built by the script
+     * @param list true if <code>built</code> are the roots
+     */
+    private boolean replays(BuildRecording recording, ValidationReport report, Object built, boolean list) throws IOException {
+        if(!recording.isComplete()) {
+            return false;
+        }
+        try {
+            List roots = BuildRecording.replay(metaBuilder, report != null ? new ValidationReport() : null,
+                    new DataInputStream(new ByteArrayInputStream(recording.toByteArray())));
+            Object replayed = list ? roots : roots.isEmpty() ? null : roots.get(roots.size() - 1);
+            return Arrays.equals(getStateHash(built), getStateHash(replayed));
+        }
+        catch(RuntimeException e) {
+            // the objects couldn't be built or compared
+            return false;
+        }
+    }
+
+    /**
+     * Returns a hash of the state of the object graph.
+     */
+    private static byte[] getStateHash(Object graph) throws IOException {
+        MessageDigest digest = createDigest();
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            public void write(int b) {
+            }
+        }, digest));
+        writeState(out, graph, new IdentityHashMap());
+        out.close();
+        return digest.digest();
+    }
+
+    /**
+     * Writes the state of the object, referring to objects already written by the order in which they were written.
+     */
+    private static void writeState(DataOutputStream out, Object value, Map written) throws IOException {
+        if(value == null) {
+            out.writeUTF("null");
+            return;
+        }
+        Class c = value.getClass();
+        if(value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Date || value instanceof Class) {
+            out.writeUTF(c.getName());
+            out.writeUTF(value.toString());
+            return;
+        }
+        Integer index = (Integer)written.get(value);
+        if(index != null) {
+            out.writeUTF("ref");
+            out.writeInt(index.intValue());
+            return;
+        }
+        written.put(value, Integer.valueOf(written.size()));
+        out.writeUTF(c.getName());
+        if(value instanceof Node) {
+            Node node = (Node)value;
+            writeState(out, node.name(), written);
+            writeState(out, node.attributes(), written);
+            writeState(out, node.value(), written);
+        }
+        else if(value instanceof Collection) {
+            out.writeInt(((Collection)value).size());
+            for(Iterator i = ((Collection)value).iterator(); i.hasNext();) {
+                writeState(out, i.next(), written);
+            }
+        }
+        else if(value instanceof Map) {
+            out.writeInt(((Map)value).size());
+            for(Iterator i = ((Map)value).entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                writeState(out, entry.getKey(), written);
+                writeState(out, entry.getValue(), written);
+            }
+        }
+        else if(c.isArray()) {
+            int length = Array.getLength(value);
+            out.writeInt(length);
+            for(int i = 0; i < length; i++) {
+                writeState(out, Array.get(value, i), written);
+            }
+        }
+        else if(value instanceof Closure || c.getName().startsWith("java.") || c.getName().startsWith("javax.")
+                || c.getName().startsWith("groovy.") || c.getName().startsWith("org.codehaus.groovy.")) {
+            // compared by what they print, e.g. their identity
+            out.writeUTF(value.toString());
+        }
+        else {
+            // beans, by their properties
+            SortedMap properties = new TreeMap();
+            for(Iterator i = InvokerHelper.getMetaClass(value).getProperties().iterator(); i.hasNext();) {
+                MetaProperty property = (MetaProperty)i.next();
+                if(!"class".equals(property.getName()) && !"metaClass".equals(property.getName()) && isReadable(property)) {
+                    properties.put(property.getName(), property);
+                }
+            }
+            for(Iterator i = properties.values().iterator(); i.hasNext();) {
+                MetaProperty property = (MetaProperty)i.next();
+                out.writeUTF(property.getName());
+                writeState(out, property.getProperty(value), written);
+            }
+        }
+    }
+
+    private static boolean isReadable(MetaProperty property) {
+        if(property instanceof MetaBeanProperty) {
+            MetaBeanProperty beanProperty = (MetaBeanProperty)property;
+            return beanProperty.getGetter() != null || beanProperty.getField() != null;
+        }
+        return true;
+    }
+
+    /**
+     * Writes to a temporary file first so that concurrent readers never see a partial file.
+     */
+    private void save(File file, int result, BuildRecording recording) throws IOException {
+        if(!recording.isComplete()) {
+            return;
+        }
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create build cache directory " + directory);
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeByte(result);
+            out.write(recording.toByteArray());
+        }
+        finally {
+            out.close();
+        }
+        if(!temp.renameTo(file)) {
+            // someone else saved it first
+            temp.delete();
+        }
+        saves.incrementAndGet();
+    }
+
+    /**
+     * @param list true for the roots built by <code>buildList</code>, which are saved separately from the last root
+     * returned by <code>build</code>, since only the objects returned are compared before saving
+     */
+    private File getFile(URL url, String encoding, boolean list) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update((byte)(list ? 1 : 0));
+        digest.update(String.valueOf(encoding).getBytes("UTF-8"));
+        digest.update(ResourceGroovyMethods.getBytes(url));
+        digest.update(getSchemaHash());
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2 + EXTENSION.length());
+        for(int i = 0; i < hash.length; i++) {
+            hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return new File(directory, hex.append(EXTENSION).toString());
+    }
+
+    /**
+     * Returns a hash of the defined schemas, the classes they use and the default build node factory's class.
+     */
+    private byte[] getSchemaHash() throws IOException {
+        byte[] schemaHash = sealedSchemaHash;
+        if(schemaHash != null) {
+            return schemaHash;
+        }
+        boolean sealed = metaBuilder.isSealed();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT);
+        writeClass(out, metaBuilder.getDefaultBuildNodeFactory().getClass());
+        Map schemas = new TreeMap(metaBuilder.getSchemas());
+        Set visited = Collections.newSetFromMap(new IdentityHashMap());
+        for(Iterator i = schemas.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            out.writeUTF((String)entry.getKey());
+            writeValue(out, entry.getValue(), false, visited);
+        }
+        out.close();
+        schemaHash = createDigest().digest(bytes.toByteArray());
+        if(sealed) {
+            sealedSchemaHash = schemaHash;
+        }
+        return schemaHash;
+    }
+
+    private void writeValue(DataOutputStream out, Object value, boolean factory, Set visited) throws IOException {
+        if(value == null) {
+            out.writeUTF("null");
+        }
+        else if(value instanceof Node) {
+            Node node = (Node)value;
+            out.writeUTF(String.valueOf(node.name()));
+            if(!visited.add(node)) {
+                // a schema referred to by another, e.g. by its schema attribute, which is written only once
+                return;
+            }
+            Map attributes = new TreeMap(node.attributes());
+            out.writeInt(attributes.size());
+            for(Iterator i = attributes.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                out.writeUTF(String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue(), "factory".equals(entry.getKey()), visited);
+            }
+            List children = node.children();
+            out.writeInt(children.size());
+            for(int i = 0; i < children.size(); i++) {
+                writeValue(out, children.get(i), false, visited);
+            }
+        }
+        else if(value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            out.writeUTF(value.getClass().getName());
+            out.writeUTF(value.toString());
+            if(factory && value instanceof String) {
+                try {
+                    writeClass(out, metaBuilder.getClassLoader().loadClass((String)value));
+                }
+                catch(ClassNotFoundException e) {
+                    // fails when building, too
+                }
+            }
+        }
+        else if(value instanceof Class) {
+            writeClass(out, (Class)value);
+        }
+        else if(value instanceof Pattern) {
+            out.writeUTF(((Pattern)value).pattern());
+            out.writeInt(((Pattern)value).flags());
+        }
+        else if(value instanceof Collection) {
+            out.writeUTF(value.getClass().getName());
+            out.writeInt(((Collection)value).size());
+            for(Iterator i = ((Collection)value).iterator(); i.hasNext();) {
+                writeValue(out, i.next(), false, visited);
+            }
+        }
+        else if(value instanceof Map) {
+            out.writeUTF(value.getClass().getName());
+            out.writeInt(((Map)value).size());
+            for(Iterator i = ((Map)value).entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                writeValue(out, entry.getKey(), false, visited);
+                writeValue(out, entry.getValue(), false, visited);
+            }
+        }
+        else {
+            // closures, factories and any other objects
+            writeClass(out, value.getClass());
+        }
+    }
+
+    /**
+     * Writes the class file of the class or, if it can't be found, the class's members.
+     */
+    private static void writeClass(DataOutputStream out, Class c) throws IOException {
+        out.writeUTF(c.getName());
+        String resource = c.getName().replace('.', '/') + ".class";
+        ClassLoader loader = c.getClassLoader();
+        InputStream in = loader != null ? loader.getResourceAsStream(resource) : ClassLoader.getSystemResourceAsStream(resource);
+        if(in != null) {
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            finally {
+                in.close();
+            }
+            return;
+        }
+        SortedSet members = new TreeSet();
+        Field[] fields = c.getDeclaredFields();
+        for(int i = 0; i < fields.length; i++) {
+            members.add(fields[i].toString());
+        }
+        Method[] methods = c.getDeclaredMethods();
+        for(int i = 0; i < methods.length; i++) {
+            members.add(methods[i].toString());
+        }
+        for(Iterator i = members.iterator(); i.hasNext();) {
+            out.writeUTF((String)i.next());
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+/**
+ * Receives timings from {@link MetaObjectGraphBuilder} while it builds, see {@link MetaBuilder#setBuildMetrics}.
+ * Each method is passed the schema involved and the time taken, in nanoseconds.
+ * <p/>
+ * Builds don't measure anything unless a <code>BuildMetrics</code> is set.  When one is, it is called by every
+ * building thread, so implementations must be thread-safe and should return quickly.
+ *
+ * @version $Id$
+ * @see DefaultBuildMetrics
+ */
+public interface BuildMetrics {
+
+    /**
+     * Called after the schema of a new node has been resolved by name.
+     *
+     * @param schema the resolved schema
+     * @param nanos the time taken
+     */
+    void schemaResolved(SchemaNode schema, long nanos);
+
+    /**
+     * Called after a factory has created a new node.
+     *
+     * @param schema the node's schema
+     * @param nanos the time taken by the factory's <code>newInstance</code> method
+     */
+    void nodeCreated(SchemaNode schema, long nanos);
+
+    /**
+     * Called after a property has been checked and set.
+     *
+     * @param schema the property's schema
+     * @param nanos the time taken
+     */
+    void propertySet(SchemaNode schema, long nanos);
+
+    /**
+     * Called after a <code>check</code> attribute has been evaluated, whether or not the check passed.
+     *
+     * @param schema the schema of the checked property or node
+     * @param nanos the time taken
+     */
+    void checkEvaluated(SchemaNode schema, long nanos);
+
+    /**
+     * Called after a completed node has been added to its collection.
+     *
+     * @param schema the collection's schema
+     * @param nanos the time taken
+     */
+    void collectionAdded(CollectionSchemaNode schema, long nanos);
+
+    /**
+     * Called after a node has been completed, that is after its collection has been updated and it has been checked.
+     *
+     * @param schema the node's schema
+     * @param nanos the time taken
+     */
+    void nodeCompleted(SchemaNode schema, long nanos);
+}
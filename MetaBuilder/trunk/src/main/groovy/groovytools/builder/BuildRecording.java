@@ -0,0 +1,406 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * The nodes and properties given to a {@link MetaObjectGraphBuilder} by a build script, recorded in a compact binary
+ * form so that the same objects may be built again without running the script, see {@link BuildCache}.
+ * <p/>
+ * Each node is recorded with its name, value and attributes when it is created, followed by the properties set
+ * within its closure, its children and its end.  Names and {@link String}s are written once and referred to by index
+ * afterwards.  Only values of the following types can be recorded: {@link String}, the primitive wrappers,
+ * {@link BigDecimal}, {@link BigInteger}, {@link Date} and {@link ArrayList}s and {@link LinkedHashMap}s of these.
+ * A build that sets any other value, such as a {@link groovy.lang.GString}, a {@link groovy.lang.Closure} or another
+ * node by <code>metaId</code>, can't be recorded, see {@link #isComplete()}.
+ * <p/>
+ * A recording is replayed by a {@link LightweightMetaObjectGraphBuilder}, so the objects are created, added to their
+ * parents and checked again, just like by the script.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+class BuildRecording {
+    private static final int BEGIN = 1;
+    private static final int SET = 2;
+    private static final int END = 3;
+
+    private static final int NULL = 0;
+    private static final int NEW_STRING = 1;
+    private static final int STRING = 2;
+    private static final int INTEGER = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int FLOAT = 6;
+    private static final int SHORT = 7;
+    private static final int BYTE = 8;
+    private static final int CHARACTER = 9;
+    private static final int TRUE = 10;
+    private static final int FALSE = 11;
+    private static final int BIG_DECIMAL = 12;
+    private static final int BIG_INTEGER = 13;
+    private static final int DATE = 14;
+    private static final int LIST = 15;
+    private static final int MAP = 16;
+
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream out;
+
+    /**
+     * The index of each {@link String} written so far.
+     */
+    private Map strings;
+
+    private int depth;
+    private Object lastRoot;
+
+    BuildRecording() {
+        this.bytes = new ByteArrayOutputStream();
+        this.out = new DataOutputStream(bytes);
+        this.strings = new HashMap();
+    }
+
+    /**
+     * Returns true if everything the script did was recorded, so that the recording builds the same objects.
+     *
+     * @return see above
+     */
+    public boolean isComplete() {
+        return out != null && depth == 0;
+    }
+
+    /**
+     * Returns the last root node built while recording.
+     *
+     * @return see above, or null if no root was built
+     */
+    Object getLastRoot() {
+        return lastRoot;
+    }
+
+    /**
+     * Returns the recorded nodes and properties.
+     *
+     * @return see above
+     * @throws IllegalStateException if the recording is not {@link #isComplete() complete}
+     */
+    byte[] toByteArray() {
+        if(!isComplete()) {
+            throw new IllegalStateException("The build could not be recorded.");
+        }
+        return bytes.toByteArray();
+    }
+
+    void begin(String name, Map attributes, Object value) {
+        depth++;
+        if(out == null) {
+            return;
+        }
+        try {
+            out.writeByte(BEGIN);
+            writeString(name);
+            writeValue(value);
+            int size = attributes != null ? attributes.size() : 0;
+            writeInt(size);
+            if(size > 0) {
+                for(Iterator i = attributes.entrySet().iterator(); i.hasNext();) {
+                    Map.Entry attribute = (Map.Entry)i.next();
+                    if(attribute.getKey() instanceof String == false) {
+                        throw new NotSerializableException(String.valueOf(attribute.getKey()));
+                    }
+                    writeString((String)attribute.getKey());
+                    writeValue(attribute.getValue());
+                }
+            }
+        }
+        catch(IOException e) {
+            abandon();
+        }
+    }
+
+    void set(String name, Object value) {
+        if(out == null) {
+            return;
+        }
+        try {
+            out.writeByte(SET);
+            writeString(name);
+            writeValue(value);
+        }
+        catch(IOException e) {
+            abandon();
+        }
+    }
+
+    void end(Object node) {
+        if(--depth == 0) {
+            lastRoot = node;
+        }
+        if(out == null) {
+            return;
+        }
+        try {
+            out.writeByte(END);
+        }
+        catch(IOException e) {
+            abandon();
+        }
+    }
+
+    /**
+     * Stops recording once something couldn't be recorded, keeping only the depth and the last root.
+     */
+    private void abandon() {
+        out = null;
+        bytes = null;
+        strings = null;
+    }
+
+    private void writeString(String s) throws IOException {
+        Integer index = (Integer)strings.get(s);
+        if(index != null) {
+            out.writeByte(STRING);
+            writeInt(index.intValue());
+        }
+        else {
+            strings.put(s, Integer.valueOf(strings.size()));
+            out.writeByte(NEW_STRING);
+            byte[] utf8 = s.getBytes("UTF-8");
+            writeInt(utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    /**
+     * Writes a non-negative <code>int</code> in as few bytes as possible, seven bits at a time.
+     */
+    private void writeInt(int i) throws IOException {
+        while((i & ~0x7f) != 0) {
+            out.writeByte((i & 0x7f) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    /**
+     * @throws NotSerializableException if the value can't be recorded
+     */
+    private void writeValue(Object value) throws IOException {
+        if(value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class c = value.getClass();
+        if(c == String.class) {
+            writeString((String)value);
+        }
+        else if(c == Integer.class) {
+            out.writeByte(INTEGER);
+            out.writeInt(((Integer)value).intValue());
+        }
+        else if(c == Long.class) {
+            out.writeByte(LONG);
+            out.writeLong(((Long)value).longValue());
+        }
+        else if(c == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double)value).doubleValue());
+        }
+        else if(c == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((Float)value).floatValue());
+        }
+        else if(c == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort(((Short)value).shortValue());
+        }
+        else if(c == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte(((Byte)value).byteValue());
+        }
+        else if(c == Character.class) {
+            out.writeByte(CHARACTER);
+            out.writeChar(((Character)value).charValue());
+        }
+        else if(c == Boolean.class) {
+            out.writeByte(((Boolean)value).booleanValue() ? TRUE : FALSE);
+        }
+        else if(c == BigDecimal.class) {
+            BigDecimal decimal = (BigDecimal)value;
+            out.writeByte(BIG_DECIMAL);
+            writeBytes(decimal.unscaledValue().toByteArray());
+            out.writeInt(decimal.scale());
+        }
+        else if(c == BigInteger.class) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(((BigInteger)value).toByteArray());
+        }
+        else if(c == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date)value).getTime());
+        }
+        else if(c == ArrayList.class) {
+            List list = (List)value;
+            out.writeByte(LIST);
+            writeInt(list.size());
+            for(int i = 0; i < list.size(); i++) {
+                writeValue(list.get(i));
+            }
+        }
+        else if(c == LinkedHashMap.class) {
+            Map map = (Map)value;
+            out.writeByte(MAP);
+            writeInt(map.size());
+            for(Iterator i = map.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+        else {
+            throw new NotSerializableException(c.getName());
+        }
+    }
+
+    private void writeBytes(byte[] b) throws IOException {
+        writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Builds the recorded nodes again.
+     *
+     * @param metaBuilder the {@link MetaBuilder} providing the schemas
+     * @param report where to record violations, or null to throw
+     * @param in the recorded nodes and properties, see {@link #toByteArray()}
+     * @return the root nodes, in the order they were built
+     * @throws IOException if the recording can't be read
+     */
+    static List replay(MetaBuilder metaBuilder, ValidationReport report, DataInput in) throws IOException {
+        LightweightMetaObjectGraphBuilder builder = new LightweightMetaObjectGraphBuilder(metaBuilder, null, metaBuilder.getDefaultBuildNodeFactory());
+        builder.setValidationReport(report);
+        List strings = new ArrayList();
+        List roots = new ArrayList();
+        int depth = 0;
+        int event;
+        while((event = readEvent(in)) != -1) {
+            switch(event) {
+                case BEGIN:
+                    String name = (String)readValue(in, strings);
+                    Object value = readValue(in, strings);
+                    int size = readInt(in);
+                    Map attributes = new LinkedHashMap(size * 4 / 3 + 1);
+                    for(int i = 0; i < size; i++) {
+                        String key = (String)readValue(in, strings);
+                        attributes.put(key, readValue(in, strings));
+                    }
+                    builder.beginNode(name, attributes, value);
+                    depth++;
+                    break;
+                case SET:
+                    String property = (String)readValue(in, strings);
+                    builder.setVariable(property, readValue(in, strings));
+                    break;
+                case END:
+                    Object node = builder.endNode();
+                    if(--depth == 0) {
+                        roots.add(node);
+                    }
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown event " + event);
+            }
+        }
+        if(depth != 0) {
+            throw new EOFException("Recording ends within a node.");
+        }
+        return roots;
+    }
+
+    private static int readEvent(DataInput in) throws IOException {
+        try {
+            return in.readUnsignedByte();
+        }
+        catch(EOFException e) {
+            return -1;
+        }
+    }
+
+    private static int readInt(DataInput in) throws IOException {
+        int i = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            i |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0) {
+                return i;
+            }
+        }
+        throw new StreamCorruptedException("Bad int");
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] b = new byte[readInt(in)];
+        in.readFully(b);
+        return b;
+    }
+
+    private static Object readValue(DataInput in, List strings) throws IOException {
+        int type = in.readUnsignedByte();
+        switch(type) {
+            case NULL: return null;
+            case NEW_STRING:
+                String s = new String(readBytes(in), "UTF-8");
+                strings.add(s);
+                return s;
+            case STRING: return strings.get(readInt(in));
+            case INTEGER: return Integer.valueOf(in.readInt());
+            case LONG: return Long.valueOf(in.readLong());
+            case DOUBLE: return Double.valueOf(in.readDouble());
+            case FLOAT: return Float.valueOf(in.readFloat());
+            case SHORT: return Short.valueOf(in.readShort());
+            case BYTE: return Byte.valueOf(in.readByte());
+            case CHARACTER: return Character.valueOf(in.readChar());
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            case BIG_DECIMAL:
+                BigInteger unscaled = new BigInteger(readBytes(in));
+                return new BigDecimal(unscaled, in.readInt());
+            case BIG_INTEGER: return new BigInteger(readBytes(in));
+            case DATE: return new Date(in.readLong());
+            case LIST:
+                int size = readInt(in);
+                List list = new ArrayList(size);
+                for(int i = 0; i < size; i++) {
+                    list.add(readValue(in, strings));
+                }
+                return list;
+            case MAP:
+                int entries = readInt(in);
+                Map map = new LinkedHashMap(entries * 4 / 3 + 1);
+                for(int i = 0; i < entries; i++) {
+                    Object key = readValue(in, strings);
+                    map.put(key, readValue(in, strings));
+                }
+                return map;
+            default:
+                throw new StreamCorruptedException("Unknown value type " + type);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.Closure;
+import groovy.lang.IntRange;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
+import org.codehaus.groovy.runtime.metaclass.ClosureMetaClass;
+import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled <code>check</code> attribute.  Returns the same result as Groovy's <code>isCase</code> method of the
+ * original value, but specialized by the type of the value:
+ * <ul>
+ * <li>{@link Class}: instanceof</li>
+ * <li>{@link Pattern}: a {@link Matcher}, reused per thread</li>
+ * <li>{@link IntRange}: <code>int</code> bounds</li>
+ * <li>{@link Collection}: a {@link HashSet} of its elements</li>
+ * <li>{@link Closure}: its <code>doCall</code> method, called directly</li>
+ * </ul>
+ * Anything else is checked with {@link ScriptBytecodeAdapter#isCase(Object, Object)}.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public abstract class Check {
+
+    /**
+     * Compiles the given <code>check</code> attribute.
+     *
+     * @param check the check
+     * @return see above
+     */
+    public static Check compile(Object check) {
+        if(check instanceof Class) {
+            return new ClassCheck((Class)check);
+        }
+        if(check instanceof Pattern) {
+            return new PatternCheck((Pattern)check);
+        }
+        if(check != null && check.getClass() == IntRange.class) {
+            return new IntRangeCheck((IntRange)check);
+        }
+        if(check instanceof Collection && check.getClass().getName().startsWith("java.util.")) {
+            return new CollectionCheck((Collection)check);
+        }
+        if(check instanceof Closure) {
+            return new ClosureCheck((Closure)check);
+        }
+        return new DefaultCheck(check);
+    }
+
+    /**
+     * Returns true if the value passes the check.
+     *
+     * @param value the value
+     * @return see above
+     * @throws Throwable if the check itself fails
+     */
+    public abstract boolean isCase(Object value) throws Throwable;
+
+    private static class ClassCheck extends Check {
+        private final Class type;
+
+        ClassCheck(Class type) {
+            this.type = type;
+        }
+
+        public boolean isCase(Object value) {
+            if(value instanceof Class) {
+                return type.isAssignableFrom((Class)value);
+            }
+            return type.isInstance(value);
+        }
+    }
+
+    private static class PatternCheck extends Check {
+        private final ThreadLocal matcher;
+
+        PatternCheck(final Pattern pattern) {
+            matcher = new ThreadLocal() {
+                protected Object initialValue() {
+                    return pattern.matcher("");
+                }
+            };
+        }
+
+        public boolean isCase(Object value) {
+            if(value == null) {
+                return false;
+            }
+            return ((Matcher)matcher.get()).reset(value.toString()).matches();
+        }
+    }
+
+    private static class IntRangeCheck extends Check {
+        private final IntRange range;
+        private final int from;
+        private final int to;
+
+        IntRangeCheck(IntRange range) {
+            this.range = range;
+            this.from = range.getFrom().intValue();
+            this.to = range.getTo().intValue();
+        }
+
+        public boolean isCase(Object value) {
+            if(value instanceof Integer) {
+                int i = ((Integer)value).intValue();
+                return i >= from && i <= to;
+            }
+            return range.contains(value);
+        }
+    }
+
+    private static class CollectionCheck extends Check {
+        private final Set values;
+
+        CollectionCheck(Collection values) {
+            this.values = new HashSet(values);
+        }
+
+        public boolean isCase(Object value) {
+            return values.contains(value);
+        }
+    }
+
+    private static class ClosureCheck extends Check {
+        private final Closure closure;
+        private final Method doCall;
+        private final Class parameterType;
+
+        ClosureCheck(Closure closure) {
+            this.closure = closure;
+            Method doCall = null;
+            Method[] methods = closure.getClass().getDeclaredMethods();
+            for(int i = 0; i < methods.length; i++) {
+                Method method = methods[i];
+                if(method.getName().equals("doCall") && method.getParameterTypes().length == 1) {
+                    if(doCall != null) {
+                        // overloaded, let the MetaClass choose
+                        doCall = null;
+                        break;
+                    }
+                    doCall = method;
+                }
+            }
+            if(doCall != null) {
+                try {
+                    doCall.setAccessible(true);
+                }
+                catch(SecurityException e) {
+                    doCall = null;
+                }
+            }
+            this.doCall = doCall;
+            this.parameterType = doCall != null ? doCall.getParameterTypes()[0] : null;
+        }
+
+        public boolean isCase(Object value) {
+            Object result;
+            if(doCall != null && parameterType.isInstance(value) && closure.getMetaClass().getClass() == ClosureMetaClass.class) {
+                result = PropertyAccessor.invoke(doCall, closure, new Object[]{value});
+            }
+            else {
+                result = closure.call(value);
+            }
+            return DefaultTypeTransformation.castToBoolean(result);
+        }
+    }
+
+    private static class DefaultCheck extends Check {
+        private final Object check;
+
+        DefaultCheck(Object check) {
+            this.check = check;
+        }
+
+        public boolean isCase(Object value) throws Throwable {
+            return ScriptBytecodeAdapter.isCase(value, check);
+        }
+    }
+}
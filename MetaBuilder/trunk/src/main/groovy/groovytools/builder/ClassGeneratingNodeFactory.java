@@ -0,0 +1,271 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.util.AbstractFactory;
+import groovy.util.FactoryBuilderSupport;
+import groovyjarjarasm.asm.ClassWriter;
+import groovyjarjarasm.asm.MethodVisitor;
+import groovyjarjarasm.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A build node factory that creates, for each schema without a <code>factory</code> attribute, an instance of a class
+ * generated from the schema, rather than a {@link SchemaNode}.  Each generated class is a plain Java bean with:
+ * <ul><li>a private <code>Object</code> field, getter and setter for each of the schema's merged properties
+ * </li><li>a private {@link List} or, for keyed collections, {@link Map} field, getter and setter for each of its
+ * merged collections, created empty by the constructor and presized like any other collection, see
+ * <code>sizeHint</code>
+ * </li></ul>
+ * Collections with an <code>add</code> attribute or a {@link groovy.lang.Closure} <code>collection</code> attribute
+ * get no field.  Built objects hold no attribute map, and their properties are set and read through their accessors,
+ * see {@link PropertyAccessor}.
+ * <p/>
+ * Classes are generated when a schema is first built, or for every schema defined at the top level as soon as the
+ * {@link MetaBuilder} is {@link MetaBuilder#seal sealed}, and are cached for as long as the factory is in use.  A
+ * factory belongs to one {@link MetaBuilder} and defines its classes with its own class loader, a child of the
+ * {@link MetaBuilder}'s:
+ * <pre>
+ * MetaBuilder mb = new MetaBuilder()
+ * mb.defaultBuildNodeFactory = new ClassGeneratingNodeFactory(mb)
+ * </pre>
+ *
+ * @version $Id$
+ * @see <a href="MetaBuilder.html#generatedClasses">Generated Classes</a>
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ClassGeneratingNodeFactory extends AbstractFactory implements Opcodes {
+
+    /**
+     * The package of the generated classes.
+     */
+    public static final String PACKAGE = "groovytools.builder.generated";
+
+    private final GeneratedClassLoader classLoader;
+
+    /**
+     * Generated classes by {@link SchemaNode}.
+     */
+    private final ConcurrentMap generatedClasses;
+
+    /**
+     * The simple names of the generated classes.
+     */
+    private final Set classNames;
+
+    /**
+     * Constructs a {@link ClassGeneratingNodeFactory} for the given {@link MetaBuilder}.
+     *
+     * @param metaBuilder see above
+     */
+    public ClassGeneratingNodeFactory(MetaBuilder metaBuilder) {
+        classLoader = new GeneratedClassLoader(metaBuilder.getClassLoader());
+        generatedClasses = new ConcurrentHashMap();
+        classNames = new HashSet();
+    }
+
+    public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
+        CompiledSchema schema = ((MetaObjectGraphBuilder)builder).getCurrentCompiledSchema();
+        return getGeneratedClass(schema).newInstance();
+    }
+
+    /**
+     * Sets the child as the property of the same name of the parent, if the parent is an instance of a generated
+     * class.
+     */
+    public void setParent(FactoryBuilderSupport builder, Object parent, Object child) {
+        if(parent.getClass().getClassLoader() == classLoader) {
+            MetaObjectGraphBuilder metaObjectGraphBuilder = (MetaObjectGraphBuilder)builder;
+            metaObjectGraphBuilder.setBeanProperty(parent, (String)metaObjectGraphBuilder.getCurrentSchema().name(), child);
+        }
+    }
+
+    /**
+     * Returns the class generated for the given schema, generating it if needed.
+     *
+     * @param schema see above
+     * @return see above
+     */
+    public Class getGeneratedClass(CompiledSchema schema) {
+        Class generatedClass = (Class)generatedClasses.get(schema.getSchema());
+        if(generatedClass == null) {
+            synchronized(classNames) {
+                generatedClass = (Class)generatedClasses.get(schema.getSchema());
+                if(generatedClass == null) {
+                    generatedClass = generateClass(schema);
+                    generatedClasses.put(schema.getSchema(), generatedClass);
+                }
+            }
+        }
+        return generatedClass;
+    }
+
+    /**
+     * Returns the number of classes generated so far.
+     *
+     * @return see above
+     */
+    public int getGeneratedClassCount() {
+        return generatedClasses.size();
+    }
+
+    /**
+     * Generates and defines the class for the given schema.
+     *
+     * @param schema see above
+     * @return see above
+     */
+    protected Class generateClass(CompiledSchema schema) {
+        String className = PACKAGE + "." + createClassName((String)schema.getSchema().name());
+        String internalName = className.replace('.', '/');
+
+        Map fields = new LinkedHashMap();
+        Map capacities = new HashMap();
+        for(Iterator i = schema.getProperties().values().iterator(); i.hasNext();) {
+            SchemaNode property = (SchemaNode)i.next();
+            Object propertyAttr = property.attribute("property");
+            String fieldName = propertyAttr instanceof String ? (String)propertyAttr : (String)property.name();
+            fields.put(checkFieldName(schema, fieldName), Object.class);
+        }
+        for(Iterator i = schema.getCollections().iterator(); i.hasNext();) {
+            CollectionSchemaNode collection = (CollectionSchemaNode)i.next();
+            Object collectionAttr = collection.attribute("collection");
+            if(collectionAttr == null) {
+                collectionAttr = collection.name();
+            }
+            if(collection.attribute("add") != null || collectionAttr instanceof String == false) {
+                continue;
+            }
+            String fieldName = checkFieldName(schema, (String)collectionAttr);
+            fields.put(fieldName, collection.attribute("key") != null ? Map.class : List.class);
+            capacities.put(fieldName, Integer.valueOf(CompiledSchema.initialCapacity(collection.attributes())));
+        }
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_SUPER, internalName, null, "java/lang/Object", null);
+        cw.visitSource(schema.fqn(), null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        for(Iterator i = fields.entrySet().iterator(); i.hasNext();) {
+            Map.Entry field = (Map.Entry)i.next();
+            if(field.getValue() == Object.class) continue;
+            String implementation = field.getValue() == Map.class ? "java/util/LinkedHashMap" : "java/util/ArrayList";
+            int capacity = ((Integer)capacities.get(field.getKey())).intValue();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitTypeInsn(NEW, implementation);
+            mv.visitInsn(DUP);
+            if(capacity < 0) {
+                mv.visitMethodInsn(INVOKESPECIAL, implementation, "<init>", "()V");
+            }
+            else {
+                mv.visitLdcInsn(Integer.valueOf(field.getValue() == Map.class ? (int)(capacity / 0.75f) + 1 : capacity));
+                mv.visitMethodInsn(INVOKESPECIAL, implementation, "<init>", "(I)V");
+            }
+            mv.visitFieldInsn(PUTFIELD, internalName, (String)field.getKey(), descriptor((Class)field.getValue()));
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for(Iterator i = fields.entrySet().iterator(); i.hasNext();) {
+            Map.Entry field = (Map.Entry)i.next();
+            String fieldName = (String)field.getKey();
+            String descriptor = descriptor((Class)field.getValue());
+            String suffix = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+
+            cw.visitField(ACC_PRIVATE, fieldName, descriptor, null, null).visitEnd();
+
+            mv = cw.visitMethod(ACC_PUBLIC, "get" + suffix, "()" + descriptor, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, internalName, fieldName, descriptor);
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(ACC_PUBLIC, "set" + suffix, "(" + descriptor + ")V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitFieldInsn(PUTFIELD, internalName, fieldName, descriptor);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+
+        return classLoader.define(className, cw.toByteArray());
+    }
+
+    /**
+     * Returns a simple class name for the schema name, unique among the classes generated by this factory, e.g.
+     * <code>Child</code> for <code>child</code>, or <code>Child2</code> if <code>Child</code> is taken.
+     *
+     * @param name the schema name
+     * @return see above
+     */
+    protected String createClassName(String name) {
+        StringBuilder base = new StringBuilder(name.length());
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(Character.isJavaIdentifierPart(c)) {
+                base.append(base.length() == 0 ? Character.toUpperCase(c) : c);
+            }
+        }
+        if(base.length() == 0 || !Character.isJavaIdentifierStart(base.charAt(0))) {
+            base.insert(0, "Node");
+        }
+        String className = base.toString();
+        for(int i = 2; !classNames.add(className); i++) {
+            className = base.toString() + i;
+        }
+        return className;
+    }
+
+    private static String checkFieldName(CompiledSchema schema, String name) {
+        boolean valid = name.length() > 0 && Character.isJavaIdentifierStart(name.charAt(0));
+        for(int i = 1; valid && i < name.length(); i++) {
+            valid = Character.isJavaIdentifierPart(name.charAt(i));
+        }
+        if(!valid) {
+            throw MetaBuilder.createFactoryException(schema.fqn(name), "property name is not a Java identifier.");
+        }
+        return name;
+    }
+
+    private static String descriptor(Class type) {
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * Defines the generated classes.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -17,10 +17,11 @@ package groovytools.builder;
 
 import groovy.util.*;
 import groovy.lang.*;
+import org.codehaus.groovy.runtime.metaclass.ClosureMetaClass;
 
+import java.lang.reflect.Method;
 import java.util.*;
 
-import org.codehaus.groovy.runtime.InvokerHelper;
 
 /**
  * Adapts a given {@link Closure} such that it can support the {@link Factory#newInstance(FactoryBuilderSupport, Object, Object, Map)}
@@ -32,6 +33,9 @@ import org.codehaus.groovy.runtime.InvokerHelper;
  * <li>If two arguments are supported, they are the node's name and value.</li>
  * <li>If three arguments are supported, they are the node's name, value, and attributes.</li>
  * </ol>
+ * The number of arguments is looked up once, when the adapter is constructed.  If the {@link Closure} has a single
+ * <code>doCall</code> method taking that many arguments, it is called directly rather than through the
+ * {@link MetaClass}, as long as the arguments fit its parameter types and the {@link MetaClass} hasn't been replaced.
  *
  * @author didge
  * @version $Id$
@@ -39,9 +43,36 @@ import org.codehaus.groovy.runtime.InvokerHelper;
 @SuppressWarnings("rawtypes")
 public class ClosureFactoryAdapter extends AbstractFactory {
 	protected Closure closure;
+    private final int parameterCount;
+    private final Method doCall;
+    private final Class[] parameterTypes;
 
     public ClosureFactoryAdapter(Closure closure) {
         this.closure = closure;
+        this.parameterCount = Math.min(closure.getMaximumNumberOfParameters(), 3);
+        Method doCall = null;
+        Method[] methods = closure.getClass().getDeclaredMethods();
+        for(int i = 0; i < methods.length; i++) {
+            Method method = methods[i];
+            if(method.getName().equals("doCall") && method.getParameterTypes().length == parameterCount) {
+                if(doCall != null) {
+                    // overloaded, let the MetaClass choose
+                    doCall = null;
+                    break;
+                }
+                doCall = method;
+            }
+        }
+        if(doCall != null) {
+            try {
+                doCall.setAccessible(true);
+            }
+            catch(SecurityException e) {
+                doCall = null;
+            }
+        }
+        this.doCall = doCall;
+        this.parameterTypes = doCall != null ? doCall.getParameterTypes() : null;
     }
     
     @Override
@@ -49,7 +80,7 @@ public class ClosureFactoryAdapter extends AbstractFactory {
 			MetaObjectGraphBuilder mogb = (MetaObjectGraphBuilder) builder;
 			SchemaNode node = mogb.getCurrentSchema();
 			String propertyName = (String) node.name();
-			InvokerHelper.setProperty(parent, propertyName, child);
+			mogb.setBeanProperty(parent, propertyName, child);
     }
 
     /**
@@ -66,11 +97,25 @@ public class ClosureFactoryAdapter extends AbstractFactory {
      * @throws IllegalAccessException
      */
     public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
-        switch (closure.getMaximumNumberOfParameters()) {
-            case 0: return closure.call();
-            case 1: return closure.call(new Object[] {name});
-            case 2: return closure.call(new Object[] {name, value});
-            default: return closure.call(new Object[] {name, value, attributes});
+        Object[] args;
+        switch (parameterCount) {
+            case 0: args = new Object[0]; break;
+            case 1: args = new Object[] {name}; break;
+            case 2: args = new Object[] {name, value}; break;
+            default: args = new Object[] {name, value, attributes}; break;
+        }
+        if(doCall != null && accepts(args) && closure.getMetaClass().getClass() == ClosureMetaClass.class) {
+            return PropertyAccessor.invoke(doCall, closure, args);
+        }
+        return closure.call(args);
+    }
+
+    private boolean accepts(Object[] args) {
+        for(int i = 0; i < args.length; i++) {
+            if(args[i] == null ? parameterTypes[i].isPrimitive() : parameterTypes[i].isInstance(args[i]) == false) {
+                return false;
+            }
         }
+        return true;
     }
 }
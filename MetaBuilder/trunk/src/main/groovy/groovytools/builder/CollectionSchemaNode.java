@@ -29,10 +29,6 @@ import java.util.*;
  */
 @SuppressWarnings({"serial","rawtypes","unchecked"})
 public class CollectionSchemaNode extends SchemaNode implements Factory {
-    /**
-     * Holder for the actual parent object.
-     */
-    private Object parentBean;
 
     public CollectionSchemaNode(SchemaNode parent, Object name) {
         super(parent, name);
@@ -69,40 +65,48 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
     }
 
     public void setParent(FactoryBuilderSupport builder, Object parent, Object child) {
-        parentBean = parent;
-        if(parentBean instanceof SchemaNode) {
+        ((MetaObjectGraphBuilder)builder).setParentBean(this, parent);
+        if(parent instanceof SchemaNode) {
             String name = (String)attribute("collection");
             if(name == null) {
                 name = (String)name();
             }
-            new SchemaNode((SchemaNode)parentBean, name);
+            if(parent instanceof CompactSchemaNode) {
+                new CompactSchemaNode((SchemaNode)parent, name, null);
+            }
+            else {
+                new SchemaNode((SchemaNode)parent, name);
+            }
         }
     }
 
     /**
-     * Returns the build-time parent of the collection.
+     * Returns the build-time parent of the collection.  The parent is kept by the builder, not the schema, so that
+     * a schema may be used by several builds at once.
      *
+     * @param builder the builder
      * @return see above
      */
-    public Object getParentBean() {
-        return parentBean;
+    public Object getParentBean(FactoryBuilderSupport builder) {
+        return ((MetaObjectGraphBuilder)builder).getParentBean(this);
     }
 
     /**
      * Returns the key that may be used to add a child to the collection.
      *
+     * @param builder the builder
      * @param keyAttr may be a property name or closure accepting the child as the only argument
      * @param child   the child
      * @return see above
      */
-    protected Object key(Object keyAttr, Object child) {
+    protected Object key(FactoryBuilderSupport builder, Object keyAttr, Object child) {
         Object key = null;
         if(keyAttr instanceof Closure) {
             Closure keyClosure = (Closure)keyAttr;
             key = keyClosure.call(child);
         }
         else if(keyAttr instanceof String) {
-            key = InvokerHelper.getProperty(child, (String)keyAttr);
+            key = ((MetaObjectGraphBuilder)builder).getBeanProperty(child, (String)keyAttr);
         }
         else {
             throw MetaBuilder.createCollectionException(fqn(), "schema's key value is not a supported type");
@@ -135,6 +139,10 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
      * The value returned by calling <code>key</code> on the <code>child</code>, if it exists, is to put the
      * <code>child</code> into the <code>parent</code>'s collection.
      * <p/>
+     * The attributes are resolved only once, see {@link CompiledCollection}, and the collection is looked up only
+     * once per <code>parent</code>, so the <code>collection</code> property or closure should keep returning the same
+     * collection.
+     * <p/>
      * The following shows the different ways in which to use the attributes described above:
      * <pre>
      * parent {
@@ -180,101 +188,57 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
      * @param child
      */
     public void setChild(FactoryBuilderSupport builder, Object parent, Object child) {
-        Object addAttr = attribute("add");
-        Object keyAttr = attribute("key");
-
-        try {
-            // If there is an add attribute, use it
-            if(addAttr != null) {
-                if(addAttr instanceof Closure) {
-                    Closure addClosure = (Closure)addAttr;
-                    if(keyAttr != null) {
-                        Object key = key(keyAttr, child);
-                        addClosure.call(new Object[]{parentBean, key, child});
-                    }
-                    else {
-                        addClosure.call(new Object[]{parentBean, child});
-                    }
-                }
-                else if(addAttr instanceof String) {
-                    if(keyAttr != null) {
-                        Object key = key(keyAttr, child);
-                        InvokerHelper.invokeMethod(parentBean, (String)addAttr, new Object[]{key, child});
-                    }
-                    else {
-                        InvokerHelper.invokeMethod(parentBean, (String)addAttr, child);
-                    }
-                }
-                else {
-                    throw MetaBuilder.createCollectionException(fqn(), "schema's add value is not a String or Closure");
-                }
-            }
-            else {
-                Object collectionAttr = attribute("collection");
-                Object property = null;
-
-                if(collectionAttr == null) {
-                    collectionAttr = name();
-                }
+        BuildMetrics metrics = ((MetaObjectGraphBuilder)builder).getBuildMetrics();
+        if(metrics == null) {
+            addChild(builder, child);
+        }
+        else {
+            long start = System.nanoTime();
+            addChild(builder, child);
+            metrics.collectionAdded(this, System.nanoTime() - start);
+        }
+    }
 
-                if(collectionAttr instanceof Closure) {
-                    Closure collectionClosure = (Closure)collectionAttr;
-                    property = collectionClosure.call(parentBean);
-                }
-                else if(collectionAttr instanceof String) {
-                    // Special handling when both parent and child are SchemaNodes.
-                    // Can't use an 'add' Closure since that would affect non-SchemaNode types, by default.
-                    // Place here so that any 'add' or 'collection' Closures specified have the first chance
-                    // to override this behavior.
-                    if(parentBean instanceof SchemaNode && child instanceof SchemaNode) {
-                        SchemaNode parentNode = (SchemaNode)parentBean;
-                        NodeList nodeList = (NodeList)parentNode.get((String)collectionAttr);
-                        SchemaNode collectionNode = (SchemaNode)nodeList.get(0);
-                        collectionNode.append((Node)child);
-                        return;
-                    }
-                    property = InvokerHelper.getProperty(parentBean, (String)collectionAttr);
-                }
-                else {
-                    throw MetaBuilder.createCollectionException(fqn(), "schema's collection value is not a String or Closure");
-                }
-                
-                if (property == null) {
-                    MetaObjectGraphBuilder mogb = (MetaObjectGraphBuilder)builder;
-                    Map attrs = attributes();
-                    Factory factory = mogb.resolveCollectionFactory(this);
-                    property = factory.newInstance(builder, name(), this, attrs);
-                    // also set the new collection to the parent
-                    InvokerHelper.setProperty(parentBean, (String)collectionAttr, property);
-                }
+    /**
+     * Adds the child to the collection of the current parent bean, see {@link #setChild}.
+     *
+     * @param builder
+     * @param child
+     */
+    protected void addChild(FactoryBuilderSupport builder, Object child) {
+        MetaObjectGraphBuilder mogb = (MetaObjectGraphBuilder)builder;
+        CompiledCollection compiledCollection = mogb.getMetaBuilder().getCompiledSchema(this).getCompiledCollection();
+        compiledCollection.add(mogb, getParentBean(builder), child);
+    }
 
-                if(property != null) {
-                    if(Collection.class.isAssignableFrom(property.getClass())) {
-                        ((Collection)property).add(child);
-                    }
-                    else if(Map.class.isAssignableFrom(property.getClass())) {
-                        Object key = key(keyAttr, child);
-                        ((Map)property).put(key, child);
-                    }
-                }
-                else {
-                    InvokerHelper.setProperty(parentBean, (String)collectionAttr, child);
-                }
-            }
+    /**
+     * Adds all of the children to the collection of the current parent bean, see {@link CompiledCollection#addAll}.
+     *
+     * @param builder
+     * @param children a {@link Collection} or {@link Map} of children
+     */
+    protected void addAllChildren(FactoryBuilderSupport builder, Object children) {
+        MetaObjectGraphBuilder mogb = (MetaObjectGraphBuilder)builder;
+        CompiledCollection compiledCollection = mogb.getMetaBuilder().getCompiledSchema(this).getCompiledCollection();
+        BuildMetrics metrics = mogb.getBuildMetrics();
+        if(metrics == null) {
+            compiledCollection.addAll(mogb, getParentBean(builder), children);
         }
-        catch(Exception e) {
-            throw MetaBuilder.createCollectionException(fqn(), e);
+        else {
+            long start = System.nanoTime();
+            compiledCollection.addAll(mogb, getParentBean(builder), children);
+            metrics.collectionAdded(this, System.nanoTime() - start);
         }
     }
 
-    protected Object size(Object sizeAttr, Object parent) {
+    protected Object size(FactoryBuilderSupport builder, Object sizeAttr, Object parent) {
         Object size = null;
         if(sizeAttr instanceof Closure) {
             Closure sizeClosure = (Closure)sizeAttr;
             size = sizeClosure.call(parent);
         }
         else if(sizeAttr instanceof String) {
-            size = InvokerHelper.getProperty(parent, (String)sizeAttr);
+            size = ((MetaObjectGraphBuilder)builder).getBeanProperty(parent, (String)sizeAttr);
         }
         else {
             throw MetaBuilder.createCollectionException(fqn(), "schema's size value is not a supported type");
@@ -287,7 +251,7 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
         Object defAttr = attribute("def");
         if (defAttr == null) return;
 
-        Integer size = calculateCollectionSize(collectionParent);
+        Integer size = calculateCollectionSize(builder, collectionParent);
 
         if(size != null && size == 0 ) {
             Object value = null;
@@ -300,13 +264,9 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
             if (value != null) {
                 // parentBean is null - does setting the parent has any side effects?
                 setParent(builder, collectionParent, value);
-                if (value instanceof Collection) {
-                    // Value is a collection. Add each element to the parent collection
-                    // Slow for large collections!
-                    for (Iterator iter = ((Collection)value).iterator(); iter.hasNext();) {
-                        Object element = iter.next();
-                        setChild(builder, collectionParent, element);
-                    }
+                if (value instanceof Collection || value instanceof Map) {
+                    // Value is a collection. Add all elements to the parent collection at once
+                    addAllChildren(builder, value);
                 } else {
                     // Value is not a collection. Add single element to parent collection
                     setChild(builder, collectionParent, value);
@@ -318,37 +278,43 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
 
     }
 
-    public void checkSize(Object collectionParent) {
+    public void checkSize(FactoryBuilderSupport builder, Object collectionParent) {
         Integer min = (Integer)attribute("min");
         Integer max = (Integer)attribute("max");
 
         if(min == null && max == null) return;
 
-        Integer size = calculateCollectionSize(collectionParent);
+        Integer size = calculateCollectionSize(builder, collectionParent);
 
         if(min != null) {
             if((min > 0 && (size == null || min.compareTo(size) > 0))) {
-                throw MetaBuilder.createCollectionException(fqn(), "min check failed");
+                ((MetaObjectGraphBuilder)builder).collectionViolation(fqn(), (String)name(), "min check failed");
+                return;
             }
         }
 
         if(max != null) {
             if(max.compareTo(size) < 0) {
-                throw MetaBuilder.createCollectionException(fqn(), "max check failed");
+                ((MetaObjectGraphBuilder)builder).collectionViolation(fqn(), (String)name(), "max check failed");
             }
         }
     }
 
-    private Integer calculateCollectionSize(Object collectionParent) {
+    private Integer calculateCollectionSize(FactoryBuilderSupport builder, Object collectionParent) {
         Object sizeAttr = attribute("size");
         Integer size = null;
 
         try {
             // If there is an size attribute, use it
             if(sizeAttr != null) {
-                size = (Integer)size(sizeAttr, collectionParent);
+                size = (Integer)size(builder, sizeAttr, collectionParent);
             }
             else {
+                // known without reflection if children have been added
+                size = ((MetaObjectGraphBuilder)builder).getCollectionSize(this, collectionParent);
+            }
+
+            if(sizeAttr == null && size == null) {
                 Object collectionAttr = attribute("collection");
                 Object property = null;
 
@@ -372,7 +338,7 @@ public class CollectionSchemaNode extends SchemaNode implements Factory {
                         property = collectionNode.children();
                     }
                     else {
-                        property = InvokerHelper.getProperty(collectionParent, (String)collectionAttr);
+                        property = ((MetaObjectGraphBuilder)builder).getBeanProperty(collectionParent, (String)collectionAttr);
                     }
                 }
 
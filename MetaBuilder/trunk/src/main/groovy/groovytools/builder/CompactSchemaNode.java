@@ -0,0 +1,376 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.util.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A {@link SchemaNode} built by default, see {@link MetaBuilder.DefaultBuildSchemaNodeFactory}, which takes less memory
+ * than a plain {@link Node}:
+ * <ul><li>its attributes are kept in an array indexed by a {@link Layout} shared by every node of the same schema,
+ * rather than in a {@link HashMap} of their own.  Attributes not in the layout, if any, are kept in a separate map.
+ * </li><li>its list of children is only created once a child is added or its {@link #children()} or {@link #value()}
+ * are needed.
+ * </li></ul>
+ * It behaves like any other {@link Node}, except that its attributes are iterated in the order of the schema's
+ * properties.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes", "serial"})
+public class CompactSchemaNode extends SchemaNode {
+
+    /**
+     * Constructs a {@link CompactSchemaNode}.
+     *
+     * @param parent the parent node, to which the node is appended, or null
+     * @param name the name of the node
+     * @param layout the attribute names of the node's schema, or null if there are none
+     */
+    public CompactSchemaNode(SchemaNode parent, Object name, Layout layout) {
+        super(parent, name, new Attributes(layout), null);
+    }
+
+    /**
+     * Returns the node's value, creating its list of children first if there is no value yet.
+     *
+     * @return see above
+     */
+    public Object value() {
+        Object value = super.value();
+        if(value == null) {
+            value = new NodeList();
+            setValue(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the node's children, creating its list of children first if there is no value yet, so that children
+     * added to the list are the node's.
+     *
+     * @return see above
+     */
+    public List children() {
+        if(super.value() == null) {
+            return (List)value();
+        }
+        return super.children();
+    }
+
+    /**
+     * Returns a plain {@link Node} copy of the node, whose value is an empty list until the node has a value.
+     *
+     * @return see above
+     */
+    public Object clone() {
+        if(super.value() == null) {
+            return new Node(null, name(), new HashMap(attributes()), new NodeList());
+        }
+        return super.clone();
+    }
+
+    /**
+     * Returns the node's text, which is empty until the node has a value.
+     *
+     * @return see above
+     */
+    public String text() {
+        return super.value() == null ? "" : super.text();
+    }
+
+    public String toString() {
+        return super.value() == null ? name() + "[attributes=" + attributes() + "; value=[]]" : super.toString();
+    }
+
+    /**
+     * The attribute names of the nodes of one schema, each with its index.
+     */
+    public static class Layout implements Serializable {
+        private final String[] names;
+        private final Map indexes;
+
+        /**
+         * Constructs a {@link Layout}.
+         *
+         * @param names the attribute names, duplicates are ignored
+         */
+        public Layout(Collection names) {
+            Map indexes = new LinkedHashMap((int)(names.size() / 0.75f) + 1);
+            for(Iterator i = names.iterator(); i.hasNext();) {
+                Object name = i.next();
+                if(!indexes.containsKey(name)) {
+                    indexes.put(name, Integer.valueOf(indexes.size()));
+                }
+            }
+            this.names = (String[])indexes.keySet().toArray(new String[indexes.size()]);
+            this.indexes = new HashMap(indexes);
+        }
+
+        /**
+         * Returns the index of the attribute name.
+         *
+         * @param name see above
+         * @return see above, or -1 if the name is not in the layout
+         */
+        public int indexOf(Object name) {
+            Integer index = (Integer)indexes.get(name);
+            return index != null ? index.intValue() : -1;
+        }
+
+        public String getName(int index) {
+            return names[index];
+        }
+
+        public int size() {
+            return names.length;
+        }
+    }
+
+    /**
+     * The attributes of one node, which are serialized by name so that unset attributes are never written.
+     */
+    private static class Attributes extends AbstractMap implements Serializable {
+
+        /**
+         * Marks an attribute in the layout which is not set, since attributes may be set to null.
+         */
+        private static final Object UNSET = new Object();
+
+        private transient Layout layout;
+
+        /**
+         * Values by layout index, created once the first one is set.
+         */
+        private transient Object[] values;
+        private transient int count;
+
+        /**
+         * Attributes not in the layout, created once the first one is set.
+         */
+        private transient Map extra;
+
+        Attributes(Layout layout) {
+            this.layout = layout;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeObject(layout);
+            out.writeInt(size());
+            for(Iterator i = entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getValue());
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            layout = (Layout)in.readObject();
+            for(int i = in.readInt(); i > 0; i--) {
+                put(in.readObject(), in.readObject());
+            }
+        }
+
+        private int indexOf(Object key) {
+            return layout != null ? layout.indexOf(key) : -1;
+        }
+
+        private boolean isSet(int index) {
+            return values != null && values[index] != UNSET;
+        }
+
+        public Object get(Object key) {
+            int index = indexOf(key);
+            if(index >= 0) {
+                return isSet(index) ? values[index] : null;
+            }
+            return extra != null ? extra.get(key) : null;
+        }
+
+        public boolean containsKey(Object key) {
+            int index = indexOf(key);
+            if(index >= 0) {
+                return isSet(index);
+            }
+            return extra != null && extra.containsKey(key);
+        }
+
+        public Object put(Object key, Object value) {
+            int index = indexOf(key);
+            if(index >= 0) {
+                if(values == null) {
+                    values = new Object[layout.size()];
+                    Arrays.fill(values, UNSET);
+                }
+                Object previous = values[index];
+                values[index] = value;
+                if(previous == UNSET) {
+                    count++;
+                    return null;
+                }
+                return previous;
+            }
+            if(extra == null) {
+                extra = new LinkedHashMap();
+            }
+            return extra.put(key, value);
+        }
+
+        public Object remove(Object key) {
+            int index = indexOf(key);
+            if(index >= 0) {
+                if(!isSet(index)) {
+                    return null;
+                }
+                return unset(index);
+            }
+            return extra != null ? extra.remove(key) : null;
+        }
+
+        private Object unset(int index) {
+            Object previous = values[index];
+            values[index] = UNSET;
+            count--;
+            return previous;
+        }
+
+        public int size() {
+            return count + (extra != null ? extra.size() : 0);
+        }
+
+        public void clear() {
+            if(values != null) {
+                Arrays.fill(values, UNSET);
+            }
+            count = 0;
+            extra = null;
+        }
+
+        public Set entrySet() {
+            return new AbstractSet() {
+                public Iterator iterator() {
+                    return new EntryIterator();
+                }
+
+                public int size() {
+                    return Attributes.this.size();
+                }
+            };
+        }
+
+        /**
+         * Iterates over the attributes in the layout, in order, and then over the others.
+         */
+        private class EntryIterator implements Iterator {
+            private int next = -1;
+            private int current = -1;
+            private Iterator extraIterator;
+
+            EntryIterator() {
+                advance();
+            }
+
+            private void advance() {
+                next++;
+                while(values != null && next < values.length && values[next] == UNSET) {
+                    next++;
+                }
+            }
+
+            public boolean hasNext() {
+                if(values != null && next < values.length) {
+                    return true;
+                }
+                if(extraIterator == null && extra != null) {
+                    extraIterator = extra.entrySet().iterator();
+                }
+                return extraIterator != null && extraIterator.hasNext();
+            }
+
+            public Object next() {
+                if(values != null && next < values.length) {
+                    current = next;
+                    advance();
+                    return new Entry(current);
+                }
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = -1;
+                return extraIterator.next();
+            }
+
+            public void remove() {
+                if(current >= 0) {
+                    unset(current);
+                    current = -1;
+                }
+                else if(extraIterator != null) {
+                    extraIterator.remove();
+                }
+                else {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+
+        /**
+         * An attribute in the layout, which is written through to the node.
+         */
+        private class Entry implements Map.Entry {
+            private final int index;
+
+            Entry(int index) {
+                this.index = index;
+            }
+
+            public Object getKey() {
+                return layout.getName(index);
+            }
+
+            public Object getValue() {
+                return values[index];
+            }
+
+            public Object setValue(Object value) {
+                Object previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+
+            public boolean equals(Object o) {
+                if(o instanceof Map.Entry == false) {
+                    return false;
+                }
+                Map.Entry e = (Map.Entry)o;
+                return getKey().equals(e.getKey()) && (getValue() == null ? e.getValue() == null : getValue().equals(e.getValue()));
+            }
+
+            public int hashCode() {
+                return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+            }
+
+            public String toString() {
+                return getKey() + "=" + getValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.Closure;
+import groovy.util.Factory;
+import groovy.util.Node;
+import groovy.util.NodeList;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>add</code>, <code>key</code> and <code>collection</code> attributes of a {@link CollectionSchemaNode},
+ * resolved once by {@link CompiledSchema} into a strategy for adding children, see
+ * {@link CollectionSchemaNode#setChild}.
+ * <p/>
+ * Unless an <code>add</code> attribute is specified, the target collection is looked up, or created, only once
+ * per parent bean and is then kept by the {@link MetaObjectGraphBuilder} until the parent is complete.  If the
+ * <code>bulk</code> attribute is true, the children are collected by the builder and added all at once when the parent
+ * bean is complete, see {@link MetaObjectGraphBuilder#deferChild}.
+ * <p/>
+ * Default collections are added all at once too, see {@link #addAll}.
+ * <p/>
+ * The builder also keeps track of the collection's size, so that <code>max</code> is enforced as soon as it is
+ * exceeded, see {@link MetaObjectGraphBuilder#checkCollectionMax}, except for <code>bulk</code> collections, which are
+ * checked once they are filled.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class CompiledCollection {
+    private final CollectionSchemaNode schema;
+
+    private final Closure addClosure;
+    private final String addMethod;
+    private final Closure keyClosure;
+    private final String keyProperty;
+    private final boolean keyed;
+    private final Closure collectionClosure;
+    private final String collectionProperty;
+    private final boolean bulk;
+    private final Closure addAllClosure;
+    private final String addAllMethod;
+    private final boolean shareDef;
+
+    /**
+     * Describes an unsupported attribute value, reported when a child is added just like before compilation.
+     */
+    private final String error;
+
+    CompiledCollection(CollectionSchemaNode schema) {
+        this.schema = schema;
+        Object addAttr = schema.attribute("add");
+        Object addAllAttr = schema.attribute("addAll");
+        Object keyAttr = schema.attribute("key");
+        Object collectionAttr = schema.attribute("collection");
+        if(collectionAttr == null) {
+            collectionAttr = schema.name();
+        }
+
+        String error = null;
+        this.addClosure = addAttr instanceof Closure ? (Closure)addAttr : null;
+        this.addMethod = addAttr instanceof String ? (String)addAttr : null;
+        if(addAttr != null && addClosure == null && addMethod == null) {
+            error = "schema's add value is not a String or Closure";
+        }
+        this.keyed = keyAttr != null;
+        this.keyClosure = keyAttr instanceof Closure ? (Closure)keyAttr : null;
+        this.keyProperty = keyAttr instanceof String ? (String)keyAttr : null;
+        this.collectionClosure = collectionAttr instanceof Closure ? (Closure)collectionAttr : null;
+        this.collectionProperty = collectionAttr instanceof String ? (String)collectionAttr : null;
+        this.bulk = Boolean.TRUE.equals(schema.attribute("bulk"));
+        this.addAllClosure = addAllAttr instanceof Closure ? (Closure)addAllAttr : null;
+        this.addAllMethod = addAllAttr instanceof String ? (String)addAllAttr : null;
+        if(addAllAttr != null && addAllClosure == null && addAllMethod == null) {
+            error = "schema's addAll value is not a String or Closure";
+        }
+        this.shareDef = Boolean.TRUE.equals(schema.attribute("shareDef"));
+        if(addAttr == null && collectionClosure == null && collectionProperty == null) {
+            error = "schema's collection value is not a String or Closure";
+        }
+        this.error = error;
+    }
+
+    public CollectionSchemaNode getSchema() {
+        return schema;
+    }
+
+    /**
+     * Adds the child to the parent bean's collection.
+     *
+     * @param builder the builder
+     * @param parentBean the collection's owner
+     * @param child the child
+     */
+    public void add(MetaObjectGraphBuilder builder, Object parentBean, Object child) {
+        try {
+            if(error != null) {
+                throw MetaBuilder.createCollectionException(schema.fqn(), error);
+            }
+            if(addClosure != null) {
+                if(keyed) {
+                    addClosure.call(new Object[]{parentBean, key(builder, child), child});
+                }
+                else {
+                    addClosure.call(new Object[]{parentBean, child});
+                }
+            }
+            else if(addMethod != null) {
+                if(keyed) {
+                    InvokerHelper.invokeMethod(parentBean, addMethod, new Object[]{key(builder, child), child});
+                }
+                else {
+                    InvokerHelper.invokeMethod(parentBean, addMethod, child);
+                }
+            }
+            else if(collectionProperty != null && parentBean instanceof SchemaNode && child instanceof SchemaNode) {
+                // Special handling when both parent and child are SchemaNodes.
+                // Can't use an 'add' Closure since that would affect non-SchemaNode types, by default.
+                SchemaNode parentNode = (SchemaNode)parentBean;
+                NodeList nodeList = (NodeList)parentNode.get(collectionProperty);
+                SchemaNode collectionNode = (SchemaNode)nodeList.get(0);
+                collectionNode.append((Node)child);
+            }
+            else {
+                Object target = builder.getCollectionTarget(schema, parentBean);
+                if(target == null) {
+                    target = getTarget(builder, parentBean);
+                    if(target == null) {
+                        builder.setBeanProperty(parentBean, collectionProperty, child);
+                        return;
+                    }
+                    builder.setCollectionTarget(schema, parentBean, target);
+                }
+                if(target instanceof Collection) {
+                    if(bulk) {
+                        builder.deferChild(schema, parentBean, null, child);
+                    }
+                    else {
+                        ((Collection)target).add(child);
+                        builder.checkCollectionMax(schema, parentBean);
+                    }
+                }
+                else if(target instanceof Map) {
+                    if(bulk) {
+                        builder.deferChild(schema, parentBean, key(builder, child), child);
+                    }
+                    else {
+                        ((Map)target).put(key(builder, child), child);
+                        builder.checkCollectionMax(schema, parentBean);
+                    }
+                }
+            }
+        }
+        catch(CollectionException e) {
+            throw e;
+        }
+        catch(Exception e) {
+            throw MetaBuilder.createCollectionException(schema.fqn(), e);
+        }
+    }
+
+    /**
+     * Adds all of the children to the parent bean's collection at once, see {@link CollectionSchemaNode#checkDef}.
+     * <p/>
+     * If an <code>addAll</code> attribute is specified, it is called once with all of the children.  Otherwise, if an
+     * <code>add</code> attribute is specified, each child is added with it.  Otherwise, the children are added with
+     * <code>addAll</code>, or with <code>putAll</code> if the collection is a {@link Map}.  A {@link Map} of children
+     * is put as is, any other {@link Map} is added as a single child.
+     * <p/>
+     * If the <code>shareDef</code> attribute is true and the children already have the collection's shape, they are
+     * not copied at all.  Instead, they are set as the parent bean's collection, see {@link #isShareable}.  Other
+     * children are copied as usual.
+     *
+     * @param builder the builder
+     * @param parentBean the collection's owner
+     * @param children a {@link Collection} or {@link Map} of children
+     */
+    public void addAll(MetaObjectGraphBuilder builder, Object parentBean, Object children) {
+        if(addAllClosure == null && addAllMethod == null && (addClosure != null || addMethod != null || parentBean instanceof SchemaNode)) {
+            // no way to add them all at once
+            if(children instanceof Collection) {
+                for(Iterator i = ((Collection)children).iterator(); i.hasNext();) {
+                    add(builder, parentBean, i.next());
+                }
+            }
+            else {
+                add(builder, parentBean, children);
+            }
+            return;
+        }
+        try {
+            if(error != null) {
+                throw MetaBuilder.createCollectionException(schema.fqn(), error);
+            }
+            if(addAllClosure != null) {
+                addAllClosure.call(new Object[]{parentBean, children});
+            }
+            else if(addAllMethod != null) {
+                InvokerHelper.invokeMethod(parentBean, addAllMethod, new Object[]{children});
+            }
+            else if(shareDef && collectionProperty != null && isShareable(builder, parentBean, children)) {
+                builder.setBeanProperty(parentBean, collectionProperty, children);
+            }
+            else {
+                Object target = builder.getCollectionTarget(schema, parentBean);
+                if(target == null) {
+                    target = getTarget(builder, parentBean);
+                }
+                if(target instanceof Map && children instanceof Map) {
+                    ((Map)target).putAll((Map)children);
+                }
+                else if(target instanceof Map && children instanceof Collection) {
+                    Collection elements = (Collection)children;
+                    Map keyed = new LinkedHashMap((int)(elements.size() / 0.75f) + 1);
+                    for(Iterator i = elements.iterator(); i.hasNext();) {
+                        Object child = i.next();
+                        keyed.put(key(builder, child), child);
+                    }
+                    ((Map)target).putAll(keyed);
+                }
+                else if(target instanceof Collection && children instanceof Collection) {
+                    ((Collection)target).addAll((Collection)children);
+                }
+                else {
+                    add(builder, parentBean, children);
+                }
+            }
+        }
+        catch(CollectionException e) {
+            throw e;
+        }
+        catch(Exception e) {
+            throw MetaBuilder.createCollectionException(schema.fqn(), e);
+        }
+    }
+
+    /**
+     * Returns the parent bean's collection, creating it if it doesn't exist yet and a collection property is used.
+     */
+    private Object getTarget(MetaObjectGraphBuilder builder, Object parentBean) throws Exception {
+        if(collectionClosure != null) {
+            return collectionClosure.call(parentBean);
+        }
+        Object target = builder.getBeanProperty(parentBean, collectionProperty);
+        if(target == null) {
+            Factory factory = builder.resolveCollectionFactory(schema);
+            target = factory.newInstance(builder, schema.name(), schema, schema.attributes());
+            // also set the new collection to the parent
+            builder.setBeanProperty(parentBean, collectionProperty, target);
+        }
+        return target;
+    }
+
+    /**
+     * Returns true if the children may be set as the parent bean's collection as they are: the collection isn't
+     * keyed, and the children are a {@link Map} for a {@link Map} property or a {@link Collection} for a
+     * {@link Collection} property, of the type the property is declared with.
+     */
+    private boolean isShareable(MetaObjectGraphBuilder builder, Object parentBean, Object children) {
+        if(keyed || parentBean == null) {
+            return false;
+        }
+        Class type = builder.getMetaBuilder().getPropertyAccessor(parentBean.getClass(), collectionProperty).getType();
+        if(type == null || !type.isInstance(children)) {
+            return false;
+        }
+        return children instanceof Map ? Map.class.isAssignableFrom(type) : Collection.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Returns the key of the child in a map.
+     *
+     * @param builder the builder
+     * @param child the child
+     * @return see above
+     */
+    public Object key(MetaObjectGraphBuilder builder, Object child) {
+        if(keyClosure != null) {
+            return keyClosure.call(child);
+        }
+        if(keyProperty != null) {
+            return builder.getBeanProperty(child, keyProperty);
+        }
+        throw MetaBuilder.createCollectionException(schema.fqn(), "schema's key value is not a supported type");
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import java.util.Map;
+
+/**
+ * The <code>check</code>, <code>min</code>, <code>max</code> and <code>intern</code> attributes of a property schema,
+ * resolved once by {@link CompiledSchema}.
+ * <p/>
+ * When <code>min</code> and <code>max</code> are both {@link Integer}s, or not specified, they are also kept as
+ * <code>int</code>s so that the lengths of {@link String}s, the sizes of collections and {@link Integer} values may
+ * be checked without boxing.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"rawtypes"})
+public class CompiledProperty {
+    private final SchemaNode schema;
+    private final Check check;
+    private final Comparable min;
+    private final Comparable max;
+    private final boolean intBounds;
+    private final int intMin;
+    private final int intMax;
+    private final boolean intern;
+
+    CompiledProperty(SchemaNode schema) {
+        this.schema = schema;
+        Map attributes = schema.attributes();
+        this.check = attributes.containsKey("check") ? Check.compile(attributes.get("check")) : null;
+        this.min = (Comparable)attributes.get("min");
+        this.max = (Comparable)attributes.get("max");
+        this.intBounds = (min == null || min instanceof Integer) && (max == null || max instanceof Integer);
+        this.intMin = min instanceof Integer ? ((Integer)min).intValue() : Integer.MIN_VALUE;
+        this.intMax = max instanceof Integer ? ((Integer)max).intValue() : Integer.MAX_VALUE;
+        this.intern = Boolean.TRUE.equals(attributes.get("intern"));
+    }
+
+    public SchemaNode getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the compiled <code>check</code> attribute.
+     *
+     * @return see above, or null if there is none
+     */
+    public Check getCheck() {
+        return check;
+    }
+
+    public Comparable getMin() {
+        return min;
+    }
+
+    public Comparable getMax() {
+        return max;
+    }
+
+    /**
+     * Returns true if either <code>min</code> or <code>max</code> is specified.
+     *
+     * @return see above
+     */
+    public boolean hasBounds() {
+        return min != null || max != null;
+    }
+
+    /**
+     * Returns true if <code>min</code> and <code>max</code> may be compared as <code>int</code>s, see
+     * {@link #getIntMin()} and {@link #getIntMax()}.
+     *
+     * @return see above
+     */
+    public boolean hasIntBounds() {
+        return intBounds;
+    }
+
+    /**
+     * Returns <code>min</code> as an <code>int</code>, or {@link Integer#MIN_VALUE} if not specified.
+     *
+     * @return see above
+     */
+    public int getIntMin() {
+        return intMin;
+    }
+
+    /**
+     * Returns <code>max</code> as an <code>int</code>, or {@link Integer#MAX_VALUE} if not specified.
+     *
+     * @return see above
+     */
+    public int getIntMax() {
+        return intMax;
+    }
+
+    /**
+     * Returns true if values are shared through the {@link MetaBuilder}'s {@link InternTable}.
+     *
+     * @return see above
+     */
+    public boolean isIntern() {
+        return intern;
+    }
+}
@@ -0,0 +1,807 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.Closure;
+import groovy.util.AbstractFactory;
+import groovy.util.Factory;
+import groovy.util.FactoryBuilderSupport;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * An immutable, pre-resolved view of a {@link SchemaNode} used by {@link MetaObjectGraphBuilder} while building.
+ * <p/>
+ * Compiling a schema resolves its super-schema chain, merges the properties and collections of the chain and
+ * indexes every child schema that may be created beneath it by name, so that the builder can resolve a child in
+ * constant time instead of searching the schema tree for every node.
+ * <p/>
+ * Compiled schemas are obtained from {@link MetaBuilder#getCompiledSchema(SchemaNode)}, which caches them until the
+ * next schema is defined.  A compiled schema never changes once constructed and may be shared by concurrent builds.
+ *
+ * @version $Id$
+ * @see MetaBuilder#seal()
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class CompiledSchema {
+
+    /**
+     * The largest initial capacity taken from a collection's <code>max</code> attribute, which is a limit rather than
+     * an expected size.  <code>sizeHint</code> is not limited.
+     */
+    static final int MAX_PRESIZE = 1024;
+
+    private static final Factory LIST_FACTORY = new AbstractFactory() {
+        public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
+            int capacity = initialCapacity(attributes);
+            return capacity < 0 ? new ArrayList() : new ArrayList(capacity);
+        }
+    };
+
+    private static final Factory MAP_FACTORY = new AbstractFactory() {
+        public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
+            int capacity = initialCapacity(attributes);
+            return capacity < 0 ? new LinkedHashMap() : new LinkedHashMap((int)(capacity / 0.75f) + 1);
+        }
+    };
+
+    private final SchemaNode schema;
+    private final String fqn;
+    private final SchemaNode superSchema;
+
+    /**
+     * Child schemas by name, see {@link #resolveChild(String)}.
+     */
+    private final Map children;
+
+    /**
+     * Child schema to use when a name is not found in {@link #children}.
+     */
+    private final SchemaNode anyChild;
+
+    private final SchemaNode mergedProperties;
+    private final Map properties;
+    private final SchemaNode anyProperty;
+
+    /**
+     * The merged properties in order, see {@link #getPropertyIndex(String)}.
+     */
+    private final SchemaNode[] propertyArray;
+
+    /**
+     * The compiled merged properties by name, see {@link #getCompiledProperty(String)}.
+     */
+    private final Map compiledProperties;
+    private final CompiledProperty anyCompiledProperty;
+
+    /**
+     * The compiled <code>check</code> attribute of the schema itself.
+     */
+    private final Check check;
+
+    /**
+     * Indexes of the merged properties keyed by name.
+     */
+    private final Map propertyIndexes;
+
+    /**
+     * Indexes of the properties which are required and have no default.
+     */
+    private final int[] requiredProperties;
+
+    /**
+     * Indexes of the properties which have a default.
+     */
+    private final int[] defaultedProperties;
+
+    private final SchemaNode mergedCollections;
+    private final List collections;
+
+    /**
+     * The <code>factory</code> attribute of the schema or its super-schemas.
+     */
+    private final Object factoryAttribute;
+
+    /**
+     * The {@link Factory} resolved from {@link #factoryAttribute}, see {@link #getFactory()}.
+     */
+    private final Factory factory;
+
+    /**
+     * The class named by {@link #factoryAttribute}, loaded on first use, see {@link #getFactoryClass(ClassLoader)}.
+     */
+    private volatile Class factoryClass;
+
+    /**
+     * How instances of {@link #factoryClass} are created, looked up on first use: its public no-argument
+     * {@link Constructor}, or the class itself if it has none, see {@link #newFactoryInstance(ClassLoader)}.
+     */
+    private volatile Object factoryInstantiator;
+
+    /**
+     * The attribute names of the {@link CompactSchemaNode}s built from this schema, created when first needed.
+     */
+    private volatile CompactSchemaNode.Layout compactLayout;
+
+    /**
+     * How children are added, if this is the schema of a collection.
+     */
+    private final CompiledCollection compiledCollection;
+
+    /**
+     * The {@link Factory} the {@link LightweightMetaObjectGraphBuilder} creates collections of this schema with,
+     * created when first needed.
+     */
+    private volatile Factory collectionFactory;
+
+    CompiledSchema(MetaBuilder metaBuilder, SchemaNode schema) {
+        this.schema = schema;
+        this.fqn = schema.fqn();
+        this.superSchema = resolveSchemaRef(metaBuilder, schema.attribute("schema"));
+
+        CompiledSchema compiledSuperSchema = superSchema != null ? metaBuilder.getCompiledSchema(superSchema) : null;
+
+        mergedProperties = mergeProperties(compiledSuperSchema);
+        List propertyList = mergedProperties.children();
+        propertyArray = (SchemaNode[])propertyList.toArray(new SchemaNode[propertyList.size()]);
+        Map properties = new HashMap();
+        Map compiledProperties = new HashMap();
+        Map propertyIndexes = new HashMap();
+        int[] required = new int[propertyArray.length];
+        int[] defaulted = new int[propertyArray.length];
+        int requiredCount = 0;
+        int defaultedCount = 0;
+        for(int i = 0; i < propertyArray.length; i++) {
+            SchemaNode property = propertyArray[i];
+            properties.put(property.name(), property);
+            compiledProperties.put(property.name(), new CompiledProperty(property));
+            propertyIndexes.put(property.name(), Integer.valueOf(i));
+            Map attributes = property.attributes();
+            if(attributes.containsKey("def")) {
+                defaulted[defaultedCount++] = i;
+            }
+            else {
+                Boolean req = (Boolean)attributes.get("req");
+                if(req != null && req) {
+                    required[requiredCount++] = i;
+                }
+            }
+        }
+        this.properties = Collections.unmodifiableMap(properties);
+        this.propertyIndexes = propertyIndexes;
+        this.requiredProperties = Arrays.copyOf(required, requiredCount);
+        this.defaultedProperties = Arrays.copyOf(defaulted, defaultedCount);
+        this.compiledProperties = compiledProperties;
+        this.anyProperty = findSchema(metaBuilder, schema, "properties", "%");
+        this.anyCompiledProperty = anyProperty != null ? new CompiledProperty(anyProperty) : null;
+        this.check = schema.attributes().containsKey("check") ? Check.compile(schema.attribute("check")) : null;
+
+        mergedCollections = mergeCollections(compiledSuperSchema);
+        this.collections = Collections.unmodifiableList(new ArrayList(mergedCollections.children()));
+
+        // Every name that one of the lookups below could possibly match.
+        Set names = new LinkedHashSet();
+        collectChildNames(metaBuilder, schema, names, new IdentityHashMap());
+
+        Map children = new HashMap();
+        for(Iterator i = names.iterator(); i.hasNext();) {
+            String name = (String)i.next();
+            SchemaNode child = resolveChild(metaBuilder, schema, name);
+            if(child != null) {
+                children.put(name, child);
+            }
+        }
+        this.children = Collections.unmodifiableMap(children);
+
+        SchemaNode anyChild = findSchema(metaBuilder, schema, "properties", "%");
+        anyChild = anyChild != null ? anyChild : findSchema(metaBuilder, schema, "collections", "%");
+        anyChild = anyChild != null ? anyChild : (SchemaNode)schema.firstChild("%");
+        this.anyChild = anyChild;
+
+        this.factoryAttribute = findSchemaAttribute(metaBuilder, schema, "factory");
+        this.factory = resolveFactory(metaBuilder);
+        this.compiledCollection = schema instanceof CollectionSchemaNode ? new CompiledCollection((CollectionSchemaNode)schema) : null;
+    }
+
+    /**
+     * Returns the initial capacity of a collection, taken from its <code>sizeHint</code> attribute or else its
+     * <code>max</code> attribute, up to {@link #MAX_PRESIZE}.
+     *
+     * @param attributes the collection schema's attributes
+     * @return see above, or -1 if there is neither
+     */
+    static int initialCapacity(Map attributes) {
+        Integer sizeHint = (Integer)attributes.get("sizeHint");
+        if(sizeHint != null) {
+            return Math.max(sizeHint.intValue(), 0);
+        }
+        Integer max = (Integer)attributes.get("max");
+        if(max != null) {
+            return Math.min(Math.max(max.intValue(), 0), MAX_PRESIZE);
+        }
+        return -1;
+    }
+
+    private Factory resolveFactory(MetaBuilder metaBuilder) {
+        if(factoryAttribute instanceof Factory) {
+            return (Factory)factoryAttribute;
+        }
+        if(factoryAttribute instanceof Closure) {
+            return new ClosureFactoryAdapter((Closure)factoryAttribute);
+        }
+        if(factoryAttribute instanceof String || factoryAttribute instanceof Class) {
+            // resolved by the builder
+            return null;
+        }
+        if(schema instanceof CollectionSchemaNode) {
+            //if key attribute is not defined then we assume it is a List, else a Map
+            return findSchemaAttribute(metaBuilder, schema, "key") == null ? LIST_FACTORY : MAP_FACTORY;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the compiled <code>add</code>, <code>key</code> and <code>collection</code> attributes.
+     *
+     * @return see above, or null if the schema isn't a {@link CollectionSchemaNode}
+     */
+    public CompiledCollection getCompiledCollection() {
+        return compiledCollection;
+    }
+
+    /**
+     * Returns the schema that was compiled.
+     *
+     * @return see above
+     */
+    public SchemaNode getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the schema's resolved super-schema, if any.
+     *
+     * @return see above
+     */
+    public SchemaNode getSuperSchema() {
+        return superSchema;
+    }
+
+    /**
+     * Returns the fully qualified name of the schema.
+     *
+     * @return see above
+     */
+    public String fqn() {
+        return fqn;
+    }
+
+    /**
+     * Returns the fully qualified name of the schema appended by name.
+     *
+     * @param name
+     * @return see above
+     */
+    public String fqn(String name) {
+        return fqn + '.' + name;
+    }
+
+    /**
+     * Returns the child schema to use for a node with the given name, searching in order:
+     * <ol>
+     * <li>properties</li>
+     * <li>named collections</li>
+     * <li>collection members (when the schema is a collection)</li>
+     * <li>members of all collections</li>
+     * <li>unnamed properties</li>
+     * <li>unnamed collections</li>
+     * <li>unnamed schema nodes</li>
+     * </ol>
+     * Super-schemas are searched as well.
+     *
+     * @param name the name of the child
+     * @return see above, or null if there is no such child
+     */
+    public SchemaNode resolveChild(String name) {
+        SchemaNode child = (SchemaNode)children.get(name);
+        return child != null ? child : anyChild;
+    }
+
+    /**
+     * Returns the properties of the schema merged with those of its super-schemas.
+     *
+     * @return see above
+     */
+    public SchemaNode getMergedProperties() {
+        return mergedProperties;
+    }
+
+    /**
+     * Returns the merged property schema with the given name, or the unnamed property schema, if any.
+     *
+     * @param name the name of the property
+     * @return see above
+     */
+    public SchemaNode getProperty(String name) {
+        SchemaNode property = (SchemaNode)properties.get(name);
+        return property != null ? property : anyProperty;
+    }
+
+    /**
+     * Returns a read-only map of the merged property schemas keyed by name.
+     *
+     * @return see above
+     */
+    public Map getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the compiled merged property with the given name, or the compiled unnamed property, if any.
+     *
+     * @param name the name of the property
+     * @return see above
+     */
+    public CompiledProperty getCompiledProperty(String name) {
+        CompiledProperty property = (CompiledProperty)compiledProperties.get(name);
+        return property != null ? property : anyCompiledProperty;
+    }
+
+    /**
+     * Returns the compiled <code>check</code> attribute of the schema.
+     *
+     * @return see above, or null if there is none
+     */
+    public Check getCheck() {
+        return check;
+    }
+
+    /**
+     * Returns the number of merged properties.
+     *
+     * @return see above
+     */
+    public int getPropertyCount() {
+        return propertyArray.length;
+    }
+
+    /**
+     * Returns the index of the merged property with the given name.  Indexes range from 0 to
+     * {@link #getPropertyCount()} - 1 and allow builders to keep track of properties without maps.
+     *
+     * @param name the name of the property
+     * @return see above, or -1 if there is no such property
+     */
+    public int getPropertyIndex(String name) {
+        Integer index = (Integer)propertyIndexes.get(name);
+        return index != null ? index.intValue() : -1;
+    }
+
+    /**
+     * Returns the merged property schema at the given index.
+     *
+     * @param index see {@link #getPropertyIndex(String)}
+     * @return see above
+     */
+    public SchemaNode getProperty(int index) {
+        return propertyArray[index];
+    }
+
+    /**
+     * Returns the indexes of the merged properties that are required and have no default.  Do not modify.
+     *
+     * @return see above
+     */
+    public int[] getRequiredProperties() {
+        return requiredProperties;
+    }
+
+    /**
+     * Returns the indexes of the merged properties that have a default.  Do not modify.
+     *
+     * @return see above
+     */
+    public int[] getDefaultedProperties() {
+        return defaultedProperties;
+    }
+
+    /**
+     * Returns the collections of the schema merged with those of its super-schemas.
+     *
+     * @return see above
+     */
+    public SchemaNode getMergedCollections() {
+        return mergedCollections;
+    }
+
+    /**
+     * Returns a read-only list of the merged {@link CollectionSchemaNode}s.
+     *
+     * @return see above
+     */
+    public List getCollections() {
+        return collections;
+    }
+
+    /**
+     * Returns the <code>factory</code> attribute of the schema or its super-schemas.
+     *
+     * @return see above
+     */
+    public Object getFactoryAttribute() {
+        return factoryAttribute;
+    }
+
+    /**
+     * Returns the {@link Factory} specified by the <code>factory</code> attribute when it is a {@link Factory} or a
+     * {@link Closure}, which is wrapped by a {@link ClosureFactoryAdapter}.  For {@link CollectionSchemaNode}s, this
+     * is the factory of the collection object itself, which defaults to an {@link ArrayList} or, if <code>key</code>
+     * is specified, a {@link LinkedHashMap}.
+     * <p/>
+     * Returns null when the factory is a class or class name, which must be resolved by the builder.
+     *
+     * @return see above
+     */
+    public Factory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Returns the class given or named by the <code>factory</code> attribute.  A class name is loaded the first time it
+     * is needed, by the given class loader or else, like {@link groovy.util.ObjectGraphBuilder}, by this class's class loader or
+     * the thread's context class loader.
+     *
+     * @param classLoader the class loader to try first if the class is named
+     * @return see above, or null if the <code>factory</code> attribute is neither a class nor a class name
+     * @throws ClassNotFoundException if the named class can't be loaded
+     */
+    public Class getFactoryClass(ClassLoader classLoader) throws ClassNotFoundException {
+        if(factoryAttribute instanceof Class) {
+            return (Class)factoryAttribute;
+        }
+        if(factoryAttribute instanceof String == false) {
+            return null;
+        }
+        Class factoryClass = this.factoryClass;
+        if(factoryClass == null) {
+            factoryClass = loadClass(classLoader, (String)factoryAttribute);
+            if(factoryClass == null) {
+                factoryClass = loadClass(CompiledSchema.class.getClassLoader(), (String)factoryAttribute);
+            }
+            if(factoryClass == null) {
+                factoryClass = loadClass(Thread.currentThread().getContextClassLoader(), (String)factoryAttribute);
+            }
+            if(factoryClass == null) {
+                throw new ClassNotFoundException((String)factoryAttribute);
+            }
+            this.factoryClass = factoryClass;
+        }
+        return factoryClass;
+    }
+
+    /**
+     * Creates an instance of the class given or named by the <code>factory</code> attribute.  Its public no-argument
+     * constructor is looked up the first time and called directly from then on, instead of being looked up and
+     * access checked by {@link Class#newInstance()} for every node.  Classes without one are still instantiated by
+     * {@link Class#newInstance()}, so that they fail as before.
+     *
+     * @param classLoader the class loader to try first if the class is named, see {@link #getFactoryClass(ClassLoader)}
+     * @return see above, or null if the <code>factory</code> attribute is neither a class nor a class name
+     * @throws ClassNotFoundException if the named class can't be loaded
+     * @throws InstantiationException if the class can't be instantiated
+     * @throws IllegalAccessException if the class or its constructor isn't accessible
+     */
+    public Object newFactoryInstance(ClassLoader classLoader) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        Object factoryInstantiator = this.factoryInstantiator;
+        if(factoryInstantiator == null) {
+            Class factoryClass = getFactoryClass(classLoader);
+            if(factoryClass == null) {
+                return null;
+            }
+            factoryInstantiator = findConstructor(factoryClass);
+            this.factoryInstantiator = factoryInstantiator;
+        }
+        if(factoryInstantiator instanceof Class) {
+            return ((Class)factoryInstantiator).newInstance();
+        }
+        try {
+            return ((Constructor)factoryInstantiator).newInstance((Object[])null);
+        }
+        catch(InvocationTargetException e) {
+            // same as Class.newInstance() would, except that checked exceptions are wrapped
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new InvokerInvocationException(e);
+        }
+    }
+
+    /**
+     * Returns the public no-argument constructor of a public, concrete class, made accessible so that it isn't
+     * access checked again, or else the class itself.
+     */
+    private static Object findConstructor(Class factoryClass) {
+        if(Modifier.isPublic(factoryClass.getModifiers()) == false || Modifier.isAbstract(factoryClass.getModifiers())) {
+            return factoryClass;
+        }
+        try {
+            Constructor constructor = factoryClass.getConstructor((Class[])null);
+            constructor.setAccessible(true);
+            return constructor;
+        }
+        catch(NoSuchMethodException e) {
+            return factoryClass;
+        }
+        catch(SecurityException e) {
+            return factoryClass;
+        }
+    }
+
+    /**
+     * Returns the attribute names of the {@link CompactSchemaNode}s built from this schema: the names of the merged
+     * properties, in index order and as renamed by their <code>property</code> attributes.
+     *
+     * @return see above
+     */
+    public CompactSchemaNode.Layout getCompactLayout() {
+        CompactSchemaNode.Layout compactLayout = this.compactLayout;
+        if(compactLayout == null) {
+            List names = new ArrayList(getPropertyCount());
+            for(int i = 0; i < getPropertyCount(); i++) {
+                SchemaNode property = getProperty(i);
+                Object propertyAttr = property.attribute("property");
+                names.add(propertyAttr instanceof String ? propertyAttr : property.name());
+            }
+            compactLayout = new CompactSchemaNode.Layout(names);
+            this.compactLayout = compactLayout;
+        }
+        return compactLayout;
+    }
+
+    Factory getCollectionFactory() {
+        return collectionFactory;
+    }
+
+    void setCollectionFactory(Factory collectionFactory) {
+        this.collectionFactory = collectionFactory;
+    }
+
+    private static Class loadClass(ClassLoader classLoader, String name) {
+        if(classLoader == null) {
+            return null;
+        }
+        try {
+            return classLoader.loadClass(name);
+        }
+        catch(ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a container node for merged children whose {@link SchemaNode#parent()} is the schema, without adding it
+     * to the schema's children.
+     */
+    private SchemaNode createMergedNode(String name) {
+        SchemaNode merged = new SchemaNode(null, name);
+        merged._parent = schema;
+        return merged;
+    }
+
+    private SchemaNode mergeProperties(CompiledSchema compiledSuperSchema) {
+        SchemaNode mergedProperties = createMergedNode("mergedProperties");
+
+        if(compiledSuperSchema != null) {
+            // add all of the super schema's properties first
+            for(Iterator children = compiledSuperSchema.getMergedProperties().children().iterator(); children.hasNext();) {
+                SchemaNode property = (SchemaNode)children.next();
+                new SchemaNode(mergedProperties, property.name(), property.attributes());
+            }
+        }
+        SchemaNode properties = (SchemaNode)schema.firstChild("properties");
+        if(properties != null) {
+            for(Iterator children = properties.children().iterator(); children.hasNext();) {
+                SchemaNode property = (SchemaNode)children.next();
+                SchemaNode mergedProperty = (SchemaNode)mergedProperties.firstChild((String)property.name());
+                if(mergedProperty == null) {
+                    // simple copy
+                    new SchemaNode(mergedProperties, property.name(), property.attributes());
+                }
+                else {
+                    // Copies and overwrites any previous attributes, if present
+                    Map mergedPropertyAttributes = new HashMap(mergedProperty.attributes());
+                    mergedPropertyAttributes.putAll(property.attributes());
+                    mergedProperties.remove(mergedProperty);
+                    new SchemaNode(mergedProperties, property.name(), mergedPropertyAttributes);
+                }
+            }
+        }
+        return mergedProperties;
+    }
+
+    private SchemaNode mergeCollections(CompiledSchema compiledSuperSchema) {
+        SchemaNode mergedCollections = createMergedNode("mergedCollections");
+
+        if(compiledSuperSchema != null) {
+            // add all of the super schema's collections first
+            for(Iterator children = compiledSuperSchema.getMergedCollections().children().iterator(); children.hasNext();) {
+                SchemaNode collection = (SchemaNode)children.next();
+                new CollectionSchemaNode(mergedCollections, collection.name(), collection.attributes());
+            }
+        }
+
+        SchemaNode collections = (SchemaNode)schema.firstChild("collections");
+        if(collections != null) {
+            for(Iterator children = collections.children().iterator(); children.hasNext();) {
+                SchemaNode collection = (SchemaNode)children.next();
+                SchemaNode mergedCollection = (SchemaNode)mergedCollections.firstChild((String)collection.name());
+                if(mergedCollection == null) {
+                    // simple copy
+                    new CollectionSchemaNode(mergedCollections, collection.name(), collection.attributes());
+                }
+                else {
+                    // Copies and overwrites any previous attributes, if present
+                    Map mergedCollectionAttributes = new HashMap(mergedCollection.attributes());
+                    mergedCollectionAttributes.putAll(collection.attributes());
+                    mergedCollections.remove(mergedCollection);
+                    new CollectionSchemaNode(mergedCollections, collection.name(), mergedCollectionAttributes);
+                }
+            }
+        }
+        return mergedCollections;
+    }
+
+    /**
+     * Collects the names of all of the schemas that {@link #resolveChild(MetaBuilder, SchemaNode, String)} could
+     * return for the given schema.
+     */
+    private static void collectChildNames(MetaBuilder metaBuilder, SchemaNode schema, Set names, Map visited) {
+        if(schema == null || visited.put(schema, schema) != null) return;
+
+        addNames(schema, names);
+        addNames((SchemaNode)schema.firstChild("properties"), names);
+        SchemaNode collections = (SchemaNode)schema.firstChild("collections");
+        if(collections != null) {
+            addNames(collections, names);
+            for(Iterator i = collections.children().iterator(); i.hasNext();) {
+                Object o = i.next();
+                if(o instanceof SchemaNode == false) continue;
+                SchemaNode collection = (SchemaNode)o;
+                addNames(collection, names);
+                collectChildNames(metaBuilder, resolveSchemaRef(metaBuilder, collection.attribute("schema")), names, visited);
+            }
+        }
+        collectChildNames(metaBuilder, resolveSchemaRef(metaBuilder, schema.attribute("schema")), names, visited);
+    }
+
+    private static void addNames(SchemaNode schema, Set names) {
+        if(schema == null) return;
+        for(Iterator i = schema.children().iterator(); i.hasNext();) {
+            Object child = i.next();
+            if(child instanceof SchemaNode) {
+                names.add(((SchemaNode)child).name());
+            }
+        }
+    }
+
+    private static SchemaNode resolveChild(MetaBuilder metaBuilder, SchemaNode schema, String name) {
+        // search for a property
+        SchemaNode child = findSchema(metaBuilder, schema, "properties", name);
+
+        // search for a named collection
+        child = child != null ? child : findSchema(metaBuilder, schema, "collections", name);
+
+        // search for a collection member (schema is a collection node)
+        child = child != null ? child : (SchemaNode)schema.firstChild(name);
+
+        // search all collections for a named collection member
+        child = child != null ? child : findCollectionSchema(metaBuilder, schema, "collections", name);
+
+        return child;
+    }
+
+    /**
+     * Returns the schema referenced by name.
+     *
+     * @param metaBuilder used to look up schemas by name
+     * @param schemaRef the schema reference
+     * @return see above
+     */
+    static SchemaNode resolveSchemaRef(MetaBuilder metaBuilder, Object schemaRef) {
+        return schemaRef instanceof String
+                ? metaBuilder.getSchema((String)schemaRef)
+                : (SchemaNode)schemaRef;
+    }
+
+    /**
+     * Finds and returns a child schema with the given name, in the specified container or null if not found.  This
+     * method will also search any super-schemas specified with the 'schema' attribute.
+     *
+     * @param metaBuilder used to look up schemas by name
+     * @param parentSchema  the parent schema
+     * @param containerName the name of a container of child schemas, e.g. collections, properties
+     * @param name          the name of the child schema
+     * @return see above
+     */
+    static SchemaNode findSchema(MetaBuilder metaBuilder, SchemaNode parentSchema, String containerName, String name) {
+        SchemaNode childSchema = null;
+        SchemaNode containerSchema = (SchemaNode)parentSchema.firstChild(containerName);
+        if(containerSchema != null) {
+            childSchema = (SchemaNode)containerSchema.firstChild(name);
+        }
+        if(childSchema == null) {
+            // Search super schemas for name
+            SchemaNode extendSchema = resolveSchemaRef(metaBuilder, parentSchema.attribute("schema"));
+            if(extendSchema != null) childSchema = findSchema(metaBuilder, extendSchema, containerName, name);
+        }
+
+        return childSchema;
+    }
+
+    static SchemaNode findCollectionSchema(MetaBuilder metaBuilder, SchemaNode parentSchema, String containerName, String name) {
+        SchemaNode result = null;
+        SchemaNode collectionsSchema = (SchemaNode)parentSchema.firstChild(containerName);
+        List collectionList = collectionsSchema != null ? collectionsSchema.children() : null;
+
+        /*
+            Priority :
+            1. parentSchema's collection
+            2. parentSchema's super schema's collection
+         */
+
+        if(collectionList != null) {
+            // have a collection, so check each member
+            for(int i = 0; i < collectionList.size(); i++) {
+                Object o = collectionList.get(i);
+                if(o instanceof SchemaNode == false) continue;
+                SchemaNode collectionSchema = (SchemaNode)o;
+                result = (SchemaNode)collectionSchema.firstChild(name);
+
+                if(result == null) {
+                    // Search the collection's super schemas for name
+                    SchemaNode extendSchema = resolveSchemaRef(metaBuilder, collectionSchema.attribute("schema"));
+                    if(extendSchema != null) {
+                        result = findCollectionSchema(metaBuilder, extendSchema, containerName, name);
+                    }
+                }
+                if(result != null) return result;
+            }
+        }
+        // still no result, check the parentSchema's super schema
+        SchemaNode extendSchema = resolveSchemaRef(metaBuilder, parentSchema.attribute("schema"));
+        if(extendSchema != null) {
+            result = findCollectionSchema(metaBuilder, extendSchema, containerName, name);
+        }
+        return result;
+    }
+
+    static Object findSchemaAttribute(MetaBuilder metaBuilder, SchemaNode parentSchema, String name) {
+        Object attribute = parentSchema.attribute(name);
+        if(attribute == null) {
+            SchemaNode extendedSchema = resolveSchemaRef(metaBuilder, parentSchema.attribute("schema"));
+            if(extendedSchema != null) attribute = findSchemaAttribute(metaBuilder, extendedSchema, name);
+        }
+        return attribute;
+    }
+}
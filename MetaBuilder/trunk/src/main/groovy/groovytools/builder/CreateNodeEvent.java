@@ -1,5 +1,11 @@
 package groovytools.builder;
 
+/**
+ * Passed to the object visitor of a build, see {@link MetaBuilder#build(groovy.lang.Closure, groovy.lang.Closure)},
+ * each time a node is created.
+ *
+ * @version $Id$
+ */
 public class CreateNodeEvent {
     protected String name;
     protected Object parent;
@@ -0,0 +1,287 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link BuildMetrics} that counts and times each event by schema and keeps a histogram of the times with one
+ * bucket per power of two nanoseconds.  Results are reported by fully qualified schema name, see
+ * {@link SchemaNode#fqn()}, and are also available through {@link MetaBuilderStatsMBean}.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class DefaultBuildMetrics implements BuildMetrics {
+    public static final String SCHEMA_RESOLUTION = "schemaResolution";
+    public static final String NODE_CREATION = "nodeCreation";
+    public static final String PROPERTY_SET = "propertySet";
+    public static final String CHECK = "check";
+    public static final String COLLECTION_ADD = "collectionAdd";
+    public static final String NODE_COMPLETION = "nodeCompletion";
+
+    private static final String[] EVENTS = {
+        SCHEMA_RESOLUTION, NODE_CREATION, PROPERTY_SET, CHECK, COLLECTION_ADD, NODE_COMPLETION
+    };
+
+    /**
+     * {@link Timer}s by event index, by fully qualified schema name.  Keyed by name rather than by {@link SchemaNode} so
+     * that schemas replaced by {@link MetaBuilder#addSchema(String, Object)} are not kept alive by their timers.
+     */
+    private volatile ConcurrentMap timers;
+
+    public DefaultBuildMetrics() {
+        timers = new ConcurrentHashMap();
+    }
+
+    /**
+     * Returns the names of the events, in the order of the {@link BuildMetrics} methods.
+     *
+     * @return see above
+     */
+    public static String[] getEvents() {
+        return EVENTS.clone();
+    }
+
+    public void schemaResolved(SchemaNode schema, long nanos) {
+        record(schema, 0, nanos);
+    }
+
+    public void nodeCreated(SchemaNode schema, long nanos) {
+        record(schema, 1, nanos);
+    }
+
+    public void propertySet(SchemaNode schema, long nanos) {
+        record(schema, 2, nanos);
+    }
+
+    public void checkEvaluated(SchemaNode schema, long nanos) {
+        record(schema, 3, nanos);
+    }
+
+    public void collectionAdded(CollectionSchemaNode schema, long nanos) {
+        record(schema, 4, nanos);
+    }
+
+    public void nodeCompleted(SchemaNode schema, long nanos) {
+        record(schema, 5, nanos);
+    }
+
+    private void record(SchemaNode schema, int event, long nanos) {
+        ConcurrentMap timers = this.timers;
+        String fqn = schema.fqn();
+        Timer[] schemaTimers = (Timer[])timers.get(fqn);
+        if(schemaTimers == null) {
+            schemaTimers = new Timer[EVENTS.length];
+            for(int i = 0; i < schemaTimers.length; i++) {
+                schemaTimers[i] = new Timer();
+            }
+            Timer[] previous = (Timer[])timers.putIfAbsent(fqn, schemaTimers);
+            if(previous != null) {
+                schemaTimers = previous;
+            }
+        }
+        schemaTimers[event].record(nanos);
+    }
+
+    /**
+     * Returns the sorted names of all schemas with at least one event.
+     *
+     * @return see above
+     */
+    public String[] getSchemaNames() {
+        Set names = new TreeSet(byName().keySet());
+        return (String[])names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Returns the number of times the event occurred for the named schema.
+     *
+     * @param fqn the fully qualified schema name
+     * @param event the event, e.g. {@link #PROPERTY_SET}
+     * @return see above
+     */
+    public long getCount(String fqn, String event) {
+        return getSummary(fqn, event).count;
+    }
+
+    /**
+     * Returns the total time taken by the event for the named schema.
+     *
+     * @param fqn the fully qualified schema name
+     * @param event the event, e.g. {@link #PROPERTY_SET}
+     * @return see above, in nanoseconds
+     */
+    public long getTotalNanos(String fqn, String event) {
+        return getSummary(fqn, event).total;
+    }
+
+    /**
+     * Returns the mean time taken by the event for the named schema.
+     *
+     * @param fqn the fully qualified schema name
+     * @param event the event, e.g. {@link #PROPERTY_SET}
+     * @return see above, in nanoseconds, or 0 if the event never occurred
+     */
+    public double getMeanNanos(String fqn, String event) {
+        Summary summary = getSummary(fqn, event);
+        return summary.count == 0 ? 0 : (double)summary.total / summary.count;
+    }
+
+    /**
+     * Returns the maximum time taken by the event for the named schema.
+     *
+     * @param fqn the fully qualified schema name
+     * @param event the event, e.g. {@link #PROPERTY_SET}
+     * @return see above, in nanoseconds
+     */
+    public long getMaxNanos(String fqn, String event) {
+        return getSummary(fqn, event).max;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the times taken by the event for the named schema.  The bound
+     * is the upper end of the histogram bucket containing the percentile, so it is at most twice the actual value.
+     *
+     * @param fqn the fully qualified schema name
+     * @param event the event, e.g. {@link #PROPERTY_SET}
+     * @param percentile the percentile, from 0 to 100
+     * @return see above, in nanoseconds
+     */
+    public long getPercentileNanos(String fqn, String event, double percentile) {
+        Summary summary = getSummary(fqn, event);
+        if(summary.count == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(summary.count * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for(int i = 0; i < summary.buckets.length; i++) {
+            seen += summary.buckets[i];
+            if(seen >= Math.max(rank, 1)) {
+                return Math.min(Timer.upperBound(i), summary.max);
+            }
+        }
+        return summary.max;
+    }
+
+    /**
+     * Returns the names of the schemas which took the most time, over all events, slowest first.
+     *
+     * @param count the maximum number of names to return
+     * @return see above
+     */
+    public String[] getSlowestSchemas(int count) {
+        Map byName = byName();
+        final Map totals = new HashMap();
+        for(Iterator i = byName.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            Summary[] summaries = (Summary[])entry.getValue();
+            long total = 0;
+            for(int j = 0; j < summaries.length; j++) {
+                total += summaries[j].total;
+            }
+            totals.put(entry.getKey(), Long.valueOf(total));
+        }
+        List names = new ArrayList(totals.keySet());
+        Collections.sort(names, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((Long)totals.get(o2)).compareTo((Long)totals.get(o1));
+            }
+        });
+        names = names.subList(0, Math.min(Math.max(count, 0), names.size()));
+        return (String[])names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public void reset() {
+        timers = new ConcurrentHashMap();
+    }
+
+    private Summary getSummary(String fqn, String event) {
+        int index = Arrays.asList(EVENTS).indexOf(event);
+        if(index < 0) {
+            throw new IllegalArgumentException("Unknown event '" + event + "'.");
+        }
+        Summary[] summaries = (Summary[])byName().get(fqn);
+        return summaries != null ? summaries[index] : new Summary();
+    }
+
+    /**
+     * Merges the timers of schemas with the same name.
+     */
+    private Map byName() {
+        Map byName = new HashMap();
+        for(Iterator i = timers.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            Summary[] summaries = new Summary[EVENTS.length];
+            for(int j = 0; j < summaries.length; j++) {
+                summaries[j] = new Summary();
+            }
+            byName.put(entry.getKey(), summaries);
+            Timer[] schemaTimers = (Timer[])entry.getValue();
+            for(int j = 0; j < schemaTimers.length; j++) {
+                schemaTimers[j].addTo(summaries[j]);
+            }
+        }
+        return byName;
+    }
+
+    private static class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(65);
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            buckets.incrementAndGet(nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos));
+            long m = max.get();
+            while(nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        void addTo(Summary summary) {
+            summary.count += count.get();
+            summary.total += total.get();
+            summary.max = Math.max(summary.max, max.get());
+            for(int i = 0; i < summary.buckets.length; i++) {
+                summary.buckets[i] += buckets.get(i);
+            }
+        }
+
+        /**
+         * Returns the largest time that falls into the given bucket.
+         */
+        static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+
+    private static class Summary {
+        long count;
+        long total;
+        long max;
+        final long[] buckets = new long[65];
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import java.util.*;
+
+/**
+ * Builds objects from Java, without closures or scripts.  Each call names the next node, its properties or the end
+ * of the current node, in the order the DSL would, for example:
+ * <pre>
+ * Order order = (Order)mb.fluent()
+ *     .root("order").set("id", 1)
+ *         .child("lines")
+ *             .child("line").set("upc", "0001").set("quantity", 2).end()
+ *         .end()
+ *     .build();
+ * </pre>
+ * is the same as:
+ * <pre>
+ * Order order = mb.build {
+ *     order(id: 1) {
+ *         lines {
+ *             line(upc: '0001', quantity: 2)
+ *         }
+ *     }
+ * }
+ * </pre>
+ * Properties set before a node's first child are passed to its factory as attributes, just like the attributes of a
+ * DSL node; properties set afterwards are set as if assigned within the node's closure.  Nodes are built by a
+ * {@link LightweightMetaObjectGraphBuilder}, so the same objects are created, added to their parents and checked as
+ * by the DSL, and each name is resolved against its parent's {@link CompiledSchema} only once for as long as the
+ * <code>FluentBuilder</code> is used.
+ * <p>
+ * A <code>FluentBuilder</code> may build any number of roots, one after another, but is not thread-safe.  If a node
+ * fails to build, any roots still open are discarded and the builder may be used again from {@link #root}.
+ *
+ * @version $Id$
+ * @see MetaBuilder#fluent()
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class FluentBuilder {
+    private final MetaBuilder metaBuilder;
+    private final ValidationReport validationReport;
+
+    private LightweightMetaObjectGraphBuilder builder;
+
+    /**
+     * The number of open nodes, including a pending one.
+     */
+    private int depth;
+
+    /**
+     * The node named last, which is created only once its attributes are known.
+     */
+    private String pendingName;
+    private Object pendingValue;
+    private Map pendingAttributes;
+
+    private List roots;
+
+    /**
+     * Constructs a {@link FluentBuilder}.
+     *
+     * @param metaBuilder      the {@link MetaBuilder} providing the schemas
+     * @param validationReport where to record violations, or null to throw
+     */
+    public FluentBuilder(MetaBuilder metaBuilder, ValidationReport validationReport) {
+        this.metaBuilder = metaBuilder;
+        this.validationReport = validationReport;
+        this.roots = new ArrayList();
+    }
+
+    /**
+     * Opens a new root node.
+     *
+     * @param name the name of the root's schema
+     * @return this builder
+     * @throws IllegalStateException if a root is still open
+     */
+    public FluentBuilder root(String name) {
+        return root(name, null);
+    }
+
+    /**
+     * Opens a new root node with a value, see {@link #child(String, Object)}.
+     *
+     * @param name  the name of the root's schema
+     * @param value the value of the node
+     * @return this builder
+     * @throws IllegalStateException if a root is still open
+     */
+    public FluentBuilder root(String name, Object value) {
+        if(depth > 0) {
+            throw new IllegalStateException("'" + name + "' can't be a root while another root is open.");
+        }
+        return open(name, value);
+    }
+
+    /**
+     * Opens a child node of the current node.
+     *
+     * @param name the name of the child, a property, collection or collection element of the current node
+     * @return this builder
+     * @throws IllegalStateException if no node is open
+     */
+    public FluentBuilder child(String name) {
+        return child(name, null);
+    }
+
+    /**
+     * Opens a child node of the current node with a value, which is passed to the child's factory just like the
+     * value of a DSL node, as in <code>name(value)</code>.
+     *
+     * @param name  the name of the child, a property, collection or collection element of the current node
+     * @param value the value of the node
+     * @return this builder
+     * @throws IllegalStateException if no node is open
+     */
+    public FluentBuilder child(String name, Object value) {
+        if(depth == 0) {
+            throw new IllegalStateException("'" + name + "' can't be a child without a root.");
+        }
+        return open(name, value);
+    }
+
+    /**
+     * Sets a property of the current node.
+     *
+     * @param name  the name of the property
+     * @param value the value of the property
+     * @return this builder
+     * @throws IllegalStateException if no node is open
+     */
+    public FluentBuilder set(String name, Object value) {
+        if(depth == 0) {
+            throw new IllegalStateException("Property '" + name + "' can't be set without a root.");
+        }
+        if(pendingName != null) {
+            pendingAttributes.put(name, value);
+        }
+        else {
+            try {
+                builder.setVariable(name, value);
+            }
+            catch(RuntimeException e) {
+                throw reset(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets properties of the current node, in iteration order.
+     *
+     * @param properties the names and values of the properties
+     * @return this builder
+     * @throws IllegalStateException if no node is open
+     */
+    public FluentBuilder set(Map properties) {
+        for(Iterator iterator = properties.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            set((String)entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Completes the current node, checking it and adding it to its parent.  The parent, if any, becomes the current
+     * node.
+     *
+     * @return this builder
+     * @throws IllegalStateException if no node is open
+     */
+    public FluentBuilder end() {
+        if(depth == 0) {
+            throw new IllegalStateException("There is no node to end.");
+        }
+        try {
+            flush();
+            Object node = builder.endNode();
+            if(--depth == 0) {
+                roots.add(node);
+            }
+        }
+        catch(RuntimeException e) {
+            throw reset(e);
+        }
+        return this;
+    }
+
+    /**
+     * Ends any open nodes and returns the last root built.
+     *
+     * @return the last root, or null if none was built
+     */
+    public Object build() {
+        List built = buildList();
+        return built.isEmpty() ? null : built.get(built.size() - 1);
+    }
+
+    /**
+     * Ends any open nodes and returns the roots built since the last call to <code>build</code> or
+     * <code>buildList</code>.
+     *
+     * @return the roots, in the order they were built
+     */
+    public List buildList() {
+        while(depth > 0) {
+            end();
+        }
+        List built = roots;
+        roots = new ArrayList();
+        return built;
+    }
+
+    public MetaBuilder getMetaBuilder() {
+        return metaBuilder;
+    }
+
+    /**
+     * Returns the number of open nodes.
+     *
+     * @return see above
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Subclasses may override this to build with another {@link LightweightMetaObjectGraphBuilder}.
+     *
+     * @return see above
+     */
+    protected LightweightMetaObjectGraphBuilder createBuilder() {
+        LightweightMetaObjectGraphBuilder builder = new LightweightMetaObjectGraphBuilder(metaBuilder, null, metaBuilder.getDefaultBuildNodeFactory());
+        builder.setValidationReport(validationReport);
+        return builder;
+    }
+
+    private FluentBuilder open(String name, Object value) {
+        try {
+            flush();
+        }
+        catch(RuntimeException e) {
+            throw reset(e);
+        }
+        pendingName = name;
+        pendingValue = value;
+        pendingAttributes = new LinkedHashMap();
+        depth++;
+        return this;
+    }
+
+    /**
+     * Creates the pending node, if any.
+     */
+    private void flush() {
+        if(pendingName != null) {
+            if(builder == null) {
+                builder = createBuilder();
+            }
+            String name = pendingName;
+            pendingName = null;
+            builder.beginNode(name, pendingAttributes, pendingValue);
+            pendingValue = null;
+            pendingAttributes = null;
+        }
+    }
+
+    /**
+     * Discards the open nodes and the builder holding them after <code>e</code>, which is returned to be rethrown.
+     */
+    private RuntimeException reset(RuntimeException e) {
+        builder = null;
+        depth = 0;
+        pendingName = null;
+        pendingValue = null;
+        pendingAttributes = null;
+        return e;
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.util.ConfigObject;
+import groovy.util.Node;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A read-only graph of {@link SchemaNode}s or {@link ConfigObject}s mapped from a file, see
+ * <a href="MetaBuilder.html#snapshots">Graph Snapshots</a>.
+ * <p/>
+ * {@link #write(Object, File)} lays out every node of a built graph as a record: the index of the node's layout,
+ * which lists the attribute names of all nodes of the same name, followed by the offset of each attribute's value
+ * and those of the node's children.  {@link #open(File)} maps the file into memory and returns views of the records,
+ * which read names, attributes and children straight from the mapped file as they are navigated.  Nothing but the
+ * names in the layouts is read when the file is opened, so opening a large graph is fast and the graph itself is
+ * kept in the operating system's page cache, shared by every process that maps the same file, rather than on the
+ * heap.
+ * <p/>
+ * {@link SchemaNode}s are viewed as {@link NodeView}s and {@link ConfigObject}s, such as those built by
+ * {@link MetaConfigBuilder}, as {@link ConfigView}s.  Attribute values may be {@link String}s and other
+ * {@link CharSequence}s, which are read back as strings, numbers, {@link Boolean}s, {@link Character}s,
+ * {@link Date}s, nodes and {@link List}s and {@link Map}s of these.  Views are created as they are reached, so the
+ * same node may be returned as different, but equal views: {@link NodeView}s are equal if they view the same record
+ * of the same snapshot, {@link ConfigView}s if their entries are.
+ * <p/>
+ * Files are mapped in segments of up to 1 GB, none of which a single node with its attribute values may exceed.
+ * Segments are unmapped once the snapshot and all of its views are no longer referenced.
+ * <p/>
+ * <code>GraphSnapshot</code>s and their views are thread-safe.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes", "serial"})
+public class GraphSnapshot {
+    static final int MAGIC = 0x4d424753;
+    static final int FORMAT = 1;
+
+    /**
+     * Maps files in segments of 1 GB.
+     */
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    /**
+     * The size of a record before its attribute offsets: the index of its layout and the offset of its value.
+     */
+    static final int RECORD_HEADER = 8;
+
+    static final int NULL = 0;
+    static final int STRING = 1;
+    static final int INTEGER = 2;
+    static final int LONG = 3;
+    static final int DOUBLE = 4;
+    static final int FLOAT = 5;
+    static final int SHORT = 6;
+    static final int BYTE = 7;
+    static final int CHARACTER = 8;
+    static final int TRUE = 9;
+    static final int FALSE = 10;
+    static final int BIG_DECIMAL = 11;
+    static final int BIG_INTEGER = 12;
+    static final int DATE = 13;
+    static final int LIST = 14;
+    static final int MAP = 15;
+    static final int NODE = 16;
+    static final int CHILDREN = 17;
+
+    private final File file;
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final Layout[] layouts;
+    private final int rootCount;
+
+    /**
+     * The index of the root offsets in the first segment.
+     */
+    private final int rootIndex;
+
+    private GraphSnapshot(File file, ByteBuffer[] segments, int segmentShift) throws IOException {
+        this.file = file;
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+
+        ByteBuffer header = segments[0].duplicate();
+        header.position(12);
+        String[] strings = new String[header.getInt()];
+        for(int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[header.getInt()];
+            header.get(utf8);
+            strings[i] = new String(utf8, "UTF-8");
+        }
+        this.layouts = new Layout[header.getInt()];
+        for(int i = 0; i < layouts.length; i++) {
+            boolean config = header.getInt() != 0;
+            int name = header.getInt();
+            List names = new ArrayList();
+            for(int j = header.getInt(); j > 0; j--) {
+                names.add(strings[header.getInt()]);
+            }
+            layouts[i] = new Layout(config, name >= 0 ? strings[name] : null, new CompactSchemaNode.Layout(names));
+        }
+        this.rootCount = header.getInt();
+        this.rootIndex = header.position();
+    }
+
+    /**
+     * Writes a graph to a file, replacing it, so that it can be {@link #open(File) opened} as a snapshot.
+     *
+     * @param graph a {@link Node}, a {@link ConfigObject}, or a {@link List} of these, which are written as roots
+     * @param file see above
+     * @throws IllegalArgumentException if the graph contains values which can't be written
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Object graph, File file) throws IOException {
+        write(graph, file, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    static void write(Object graph, File file, int segmentShift) throws IOException {
+        GraphSnapshotWriter writer = new GraphSnapshotWriter(segmentShift);
+        if(graph instanceof List) {
+            for(Iterator i = ((List)graph).iterator(); i.hasNext();) {
+                writer.addRoot(i.next());
+            }
+        }
+        else {
+            writer.addRoot(graph);
+        }
+        writer.write(file);
+    }
+
+    /**
+     * Maps a file written by {@link #write(Object, File)}.
+     *
+     * @param file see above
+     * @return see above
+     * @throws IOException if the file can't be read or was not written by {@link #write(Object, File)}
+     */
+    public static GraphSnapshot open(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if(size < 12) {
+                throw new StreamCorruptedException(file.getPath());
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12);
+            if(header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw new StreamCorruptedException(file.getPath());
+            }
+            int segmentShift = header.getInt();
+            if(segmentShift < 8 || segmentShift > DEFAULT_SEGMENT_SHIFT) {
+                throw new StreamCorruptedException(file.getPath());
+            }
+            long segmentSize = 1L << segmentShift;
+            ByteBuffer[] segments = new ByteBuffer[(int)((size + segmentSize - 1) >>> segmentShift)];
+            for(int i = 0; i < segments.length; i++) {
+                long position = (long)i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+            return new GraphSnapshot(file, segments, segmentShift);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns views of the roots, in the order they were written.
+     *
+     * @return a read-only list of {@link NodeView}s and {@link ConfigView}s
+     */
+    public List getRoots() {
+        return new AbstractList() {
+            public Object get(int index) {
+                if(index < 0 || index >= rootCount) {
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                }
+                return view(segments[0].getLong(rootIndex + 8 * index), null);
+            }
+
+            public int size() {
+                return rootCount;
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the first root, such as the single root of a graph built by <code>build</code>.
+     *
+     * @return see above, or null if there are no roots
+     */
+    public Object getRoot() {
+        return rootCount > 0 ? getRoots().get(0) : null;
+    }
+
+    /**
+     * Returns a view of the record at the given offset.
+     */
+    private Object view(long offset, Object owner) {
+        ByteBuffer segment = segments[(int)(offset >>> segmentShift)];
+        int record = (int)(offset & segmentMask);
+        Layout layout = layouts[segment.getInt(record)];
+        if(layout.config) {
+            return new ConfigView(this, segment, record, layout);
+        }
+        return new NodeView(this, offset, segment, record, layout, owner instanceof SchemaNode ? (SchemaNode)owner : null);
+    }
+
+    /**
+     * Reads the value at the given position, see {@link GraphSnapshotWriter}, advancing it past the value.
+     *
+     * @param position the index of the value in the segment, followed by the index of the value's record
+     * @param owner the view the value belongs to
+     */
+    private Object read(ByteBuffer segment, int[] position, Object owner) throws IOException {
+        int p = position[0];
+        int type = segment.get(p++);
+        Object value;
+        switch(type) {
+            case NULL:
+                value = null;
+                break;
+            case STRING: {
+                int length = segment.getInt(p);
+                value = new String(getBytes(segment, p + 4, length), "UTF-8");
+                p += 4 + length;
+                break;
+            }
+            case INTEGER:
+                value = Integer.valueOf(segment.getInt(p));
+                p += 4;
+                break;
+            case LONG:
+                value = Long.valueOf(segment.getLong(p));
+                p += 8;
+                break;
+            case DOUBLE:
+                value = Double.valueOf(segment.getDouble(p));
+                p += 8;
+                break;
+            case FLOAT:
+                value = Float.valueOf(segment.getFloat(p));
+                p += 4;
+                break;
+            case SHORT:
+                value = Short.valueOf(segment.getShort(p));
+                p += 2;
+                break;
+            case BYTE:
+                value = Byte.valueOf(segment.get(p));
+                p += 1;
+                break;
+            case CHARACTER:
+                value = Character.valueOf(segment.getChar(p));
+                p += 2;
+                break;
+            case TRUE:
+                value = Boolean.TRUE;
+                break;
+            case FALSE:
+                value = Boolean.FALSE;
+                break;
+            case BIG_DECIMAL: {
+                int length = segment.getInt(p);
+                value = new BigDecimal(new BigInteger(getBytes(segment, p + 4, length)), segment.getInt(p + 4 + length));
+                p += 8 + length;
+                break;
+            }
+            case BIG_INTEGER: {
+                int length = segment.getInt(p);
+                value = new BigInteger(getBytes(segment, p + 4, length));
+                p += 4 + length;
+                break;
+            }
+            case DATE:
+                value = new Date(segment.getLong(p));
+                p += 8;
+                break;
+            case NODE:
+                value = view(segment.getLong(p), owner);
+                p += 8;
+                break;
+            case LIST: {
+                int size = segment.getInt(p);
+                List list = new ArrayList(size);
+                position[0] = p + 4;
+                for(int i = 0; i < size; i++) {
+                    list.add(read(segment, position, owner));
+                }
+                return Collections.unmodifiableList(list);
+            }
+            case MAP: {
+                int size = segment.getInt(p);
+                Map map = new LinkedHashMap((int)(size / 0.75f) + 1);
+                position[0] = p + 4;
+                for(int i = 0; i < size; i++) {
+                    Object key = read(segment, position, owner);
+                    map.put(key, read(segment, position, owner));
+                }
+                return Collections.unmodifiableMap(map);
+            }
+            case CHILDREN:
+                value = new Children(segment, position[1], p - 1, owner);
+                break;
+            default:
+                throw new StreamCorruptedException("Unknown value type " + type + " in " + file);
+        }
+        position[0] = p;
+        return value;
+    }
+
+    /**
+     * Reads the value at the given offset from the start of the record.
+     */
+    private Object read(ByteBuffer segment, int record, int offset, Object owner) {
+        try {
+            return read(segment, new int[] {record + offset, record}, owner);
+        }
+        catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer segment, int index, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer b = segment.duplicate();
+        b.position(index);
+        b.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The attribute names of the records of one name and the name's kind.
+     */
+    private static class Layout {
+        final boolean config;
+        final String name;
+        final CompactSchemaNode.Layout attributes;
+
+        Layout(boolean config, String name, CompactSchemaNode.Layout attributes) {
+            this.config = config;
+            this.name = name;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * The children of a {@link NodeView}, read as they are accessed.
+     */
+    private class Children extends AbstractList {
+        private final ByteBuffer segment;
+        private final int record;
+        private final int index;
+        private final Object owner;
+
+        Children(ByteBuffer segment, int record, int index, Object owner) {
+            this.segment = segment;
+            this.record = record;
+            this.index = index;
+            this.owner = owner;
+        }
+
+        public Object get(int i) {
+            if(i < 0 || i >= size()) {
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+            }
+            return read(segment, record, segment.getInt(index + 5 + 4 * i), owner);
+        }
+
+        public int size() {
+            return segment.getInt(index + 1);
+        }
+    }
+
+    /**
+     * The attributes of a record, read as they are accessed.
+     */
+    public static class AttributeMap extends AbstractMap {
+        private final GraphSnapshot snapshot;
+        private final ByteBuffer segment;
+        private final int record;
+        private final Layout layout;
+
+        /**
+         * The view to which the attributes belong, which is the parent of nodes among their values.
+         */
+        private Object owner;
+
+        AttributeMap(GraphSnapshot snapshot, ByteBuffer segment, int record, Layout layout) {
+            this.snapshot = snapshot;
+            this.segment = segment;
+            this.record = record;
+            this.layout = layout;
+            this.owner = this;
+        }
+
+        /**
+         * Returns the offset of the attribute's value from the start of the record.
+         *
+         * @return see above, or 0 if the attribute is not set
+         */
+        private int offsetOf(int index) {
+            return segment.getInt(record + RECORD_HEADER + 4 * index);
+        }
+
+        public Object get(Object key) {
+            int index = layout.attributes.indexOf(key);
+            if(index < 0) {
+                return null;
+            }
+            int offset = offsetOf(index);
+            return offset != 0 ? snapshot.read(segment, record, offset, owner) : null;
+        }
+
+        public boolean containsKey(Object key) {
+            int index = layout.attributes.indexOf(key);
+            return index >= 0 && offsetOf(index) != 0;
+        }
+
+        public int size() {
+            int size = 0;
+            for(int i = 0; i < layout.attributes.size(); i++) {
+                if(offsetOf(i) != 0) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        public Set entrySet() {
+            return new AbstractSet() {
+                public Iterator iterator() {
+                    return new Iterator() {
+                        private int next = advance(0);
+
+                        private int advance(int index) {
+                            while(index < layout.attributes.size() && offsetOf(index) == 0) {
+                                index++;
+                            }
+                            return index;
+                        }
+
+                        public boolean hasNext() {
+                            return next < layout.attributes.size();
+                        }
+
+                        public Object next() {
+                            if(!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next;
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry(layout.attributes.getName(index), snapshot.read(segment, record, offsetOf(index), owner));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return AttributeMap.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * A read-only view of a {@link SchemaNode} in a snapshot.  Its parent is the node from which it was reached, if
+     * any.  Views of the same record are equal, whichever node they were reached from.
+     */
+    public static class NodeView extends SchemaNode {
+        private final GraphSnapshot snapshot;
+        private final long offset;
+
+        NodeView(GraphSnapshot snapshot, long offset, ByteBuffer segment, int record, Layout layout, SchemaNode parent) {
+            super(null, layout.name, new AttributeMap(snapshot, segment, record, layout), null);
+            this.snapshot = snapshot;
+            this.offset = offset;
+            _parent = parent;
+            ((AttributeMap)attributes()).owner = this;
+            int valueOffset = segment.getInt(record + 4);
+            if(valueOffset != 0) {
+                super.setValue(snapshot.read(segment, record, valueOffset, this));
+            }
+        }
+
+        public void setValue(Object value) {
+            throw new UnsupportedOperationException("Snapshots are read-only.");
+        }
+
+        public boolean equals(Object o) {
+            if(o instanceof NodeView == false) {
+                return false;
+            }
+            NodeView view = (NodeView)o;
+            return snapshot == view.snapshot && offset == view.offset;
+        }
+
+        public int hashCode() {
+            return (int)(offset ^ (offset >>> 32));
+        }
+    }
+
+    /**
+     * A read-only view of a {@link ConfigObject} in a snapshot, whose nested {@link ConfigObject}s are looked up as
+     * {@link ConfigView}s.  Unlike a {@link ConfigObject}, it returns null for keys that aren't set.
+     */
+    public static class ConfigView extends AttributeMap {
+        private final String name;
+
+        ConfigView(GraphSnapshot snapshot, ByteBuffer segment, int record, Layout layout) {
+            super(snapshot, segment, record, layout);
+            this.name = layout.name;
+        }
+
+        /**
+         * Returns the key of the {@link ConfigObject} in the one containing it.
+         *
+         * @return see above, or null for a root
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Returns the values, with the keys of nested values prefixed by the keys of the views containing them, like
+         * {@link ConfigObject#flatten()}.
+         *
+         * @return see above
+         */
+        public Map flatten() {
+            Map flat = new LinkedHashMap();
+            flatten(flat, "");
+            return flat;
+        }
+
+        private void flatten(Map flat, String prefix) {
+            for(Iterator i = entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                String key = prefix + entry.getKey();
+                if(entry.getValue() instanceof ConfigView) {
+                    ((ConfigView)entry.getValue()).flatten(flat, key + '.');
+                }
+                else {
+                    flat.put(key, entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Returns the {@link #flatten() flattened} values which are not null as strings, like
+         * {@link ConfigObject#toProperties()}.
+         *
+         * @return see above
+         */
+        public Properties toProperties() {
+            Properties properties = new Properties();
+            for(Iterator i = flatten().entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                if(entry.getValue() != null) {
+                    properties.put(entry.getKey(), entry.getValue().toString());
+                }
+            }
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.util.ConfigObject;
+import groovy.util.Node;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Writes a graph for {@link GraphSnapshot#write(Object, File)} in three passes over its records, that is
+ * {@link Node}s and {@link ConfigObject}s: the first finds the records and the attribute names of each record name,
+ * the second places each record so that none spans two segments, and the third writes them.
+ * <p/>
+ * The file starts with a header: the magic number, the format, the segment shift, the strings used by the layouts,
+ * the layouts and the offsets of the roots.  Each record follows at its offset: the index of its layout, the offset
+ * of its value, the offset of each attribute's value, 0 if not set, and then the values themselves.  Offsets within a
+ * record are relative to its start, while references to other records are absolute.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+class GraphSnapshotWriter {
+    private final int segmentShift;
+    private final long segmentSize;
+
+    private final Map strings = new HashMap();
+    private final List stringList = new ArrayList();
+
+    /**
+     * The index of each layout by record kind and name.
+     */
+    private final Map layoutIndexes = new HashMap();
+    private final List layouts = new ArrayList();
+
+    /**
+     * The index of each record found so far, by identity.
+     */
+    private final Map records = new IdentityHashMap();
+    private final List recordList = new ArrayList();
+
+    /**
+     * The name of each record, which is the key under which a {@link ConfigObject} was found.
+     */
+    private final List recordNames = new ArrayList();
+    private final List roots = new ArrayList();
+
+    private int[] recordLayouts;
+    private long[] offsets;
+
+    GraphSnapshotWriter(int segmentShift) {
+        this.segmentShift = segmentShift;
+        this.segmentSize = 1L << segmentShift;
+    }
+
+    void addRoot(Object root) {
+        if(!isRecord(root)) {
+            throw new IllegalArgumentException("Roots must be nodes or config objects: " + root);
+        }
+        roots.add(root);
+        find(root, null);
+    }
+
+    void write(File file) throws IOException {
+        layout();
+        long headerSize = place();
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+            try {
+                writeHeader(out);
+                long position = headerSize;
+                byte[] padding = new byte[4096];
+                for(int i = 0; i < recordList.size(); i++) {
+                    for(long gap = offsets[i] - position; gap > 0; gap -= padding.length) {
+                        out.write(padding, 0, (int)Math.min(gap, padding.length));
+                    }
+                    position = offsets[i] + writeRecord(out, i);
+                }
+            }
+            finally {
+                out.close();
+            }
+            if(!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Can't replace " + file);
+            }
+        }
+        finally {
+            temp.delete();
+        }
+    }
+
+    private static boolean isRecord(Object value) {
+        return value instanceof Node || value instanceof ConfigObject;
+    }
+
+    private void find(Object value, Object name) {
+        if(isRecord(value)) {
+            if(!records.containsKey(value)) {
+                records.put(value, Integer.valueOf(recordList.size()));
+                recordList.add(value);
+                recordNames.add(value instanceof Node ? ((Node)value).name() : name);
+            }
+        }
+        else if(value instanceof List) {
+            for(Iterator i = ((List)value).iterator(); i.hasNext();) {
+                find(i.next(), null);
+            }
+        }
+        else if(value instanceof Map) {
+            for(Iterator i = ((Map)value).entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                find(entry.getKey(), null);
+                find(entry.getValue(), null);
+            }
+        }
+    }
+
+    private static Map getAttributes(Object record) {
+        return record instanceof Node ? ((Node)record).attributes() : (Map)record;
+    }
+
+    private static Object getValue(Object record) {
+        return record instanceof Node ? ((Node)record).value() : null;
+    }
+
+    /**
+     * Finds every record and collects the attribute names of each record name.
+     */
+    private void layout() {
+        List recordLayouts = new ArrayList();
+        for(int i = 0; i < recordList.size(); i++) {
+            Object record = recordList.get(i);
+            Object name = recordNames.get(i);
+            if(name != null && name instanceof String == false) {
+                throw new IllegalArgumentException("Names must be strings: " + name);
+            }
+            List key = Arrays.asList(new Object[] {Boolean.valueOf(record instanceof ConfigObject), name});
+            Integer index = (Integer)layoutIndexes.get(key);
+            if(index == null) {
+                index = Integer.valueOf(layouts.size());
+                layoutIndexes.put(key, index);
+                layouts.add(new Layout(record instanceof ConfigObject, name != null ? indexOf((String)name) : -1));
+            }
+            recordLayouts.add(index);
+            Layout layout = (Layout)layouts.get(index.intValue());
+            for(Iterator j = getAttributes(record).entrySet().iterator(); j.hasNext();) {
+                Map.Entry attribute = (Map.Entry)j.next();
+                if(attribute.getKey() instanceof String == false) {
+                    throw new IllegalArgumentException("Attribute names must be strings: " + attribute.getKey());
+                }
+                String attributeName = (String)attribute.getKey();
+                if(!layout.names.contains(attributeName)) {
+                    layout.names.add(attributeName);
+                    layout.nameIndexes.add(Integer.valueOf(indexOf(attributeName)));
+                }
+                find(attribute.getValue(), attributeName);
+            }
+            find(getValue(record), null);
+        }
+        this.recordLayouts = new int[recordLayouts.size()];
+        for(int i = 0; i < this.recordLayouts.length; i++) {
+            this.recordLayouts[i] = ((Integer)recordLayouts.get(i)).intValue();
+        }
+    }
+
+    private int indexOf(String s) {
+        Integer index = (Integer)strings.get(s);
+        if(index == null) {
+            index = Integer.valueOf(stringList.size());
+            strings.put(s, index);
+            stringList.add(s);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Places each record after the header, moving records which would span two segments to the next one.
+     *
+     * @return the size of the header
+     */
+    private long place() throws IOException {
+        long headerSize = 16;
+        for(int i = 0; i < stringList.size(); i++) {
+            headerSize += 4 + utf8((String)stringList.get(i)).length;
+        }
+        headerSize += 4;
+        for(int i = 0; i < layouts.size(); i++) {
+            headerSize += 12 + 4 * ((Layout)layouts.get(i)).names.size();
+        }
+        headerSize += 4 + 8L * roots.size();
+        if(headerSize > segmentSize) {
+            throw new IllegalArgumentException("Too many roots, names or attributes for one segment.");
+        }
+        offsets = new long[recordList.size()];
+        long position = headerSize;
+        for(int i = 0; i < offsets.length; i++) {
+            long size = sizeOf(i);
+            if(size > segmentSize) {
+                throw new IllegalArgumentException("Node too large for one segment: " + recordNames.get(i));
+            }
+            if((position & (segmentSize - 1)) + size > segmentSize) {
+                position = (position | (segmentSize - 1)) + 1;
+            }
+            offsets[i] = position;
+            position += size;
+        }
+        return headerSize;
+    }
+
+    private long sizeOf(int index) throws IOException {
+        Object record = recordList.get(index);
+        Layout layout = (Layout)layouts.get(recordLayouts[index]);
+        long size = GraphSnapshot.RECORD_HEADER + 4 * layout.names.size();
+        for(Iterator i = getAttributes(record).values().iterator(); i.hasNext();) {
+            size += sizeOf(i.next());
+        }
+        Object value = getValue(record);
+        if(value instanceof List) {
+            size += sizeOfChildren((List)value);
+        }
+        else if(value != null) {
+            size += sizeOf(value);
+        }
+        return size;
+    }
+
+    private long sizeOfChildren(List children) throws IOException {
+        long size = 5 + 4L * children.size();
+        for(Iterator i = children.iterator(); i.hasNext();) {
+            size += sizeOf(i.next());
+        }
+        return size;
+    }
+
+    private long sizeOf(Object value) throws IOException {
+        if(value == null) {
+            return 1;
+        }
+        if(isRecord(value)) {
+            return 9;
+        }
+        if(value instanceof CharSequence) {
+            return 5 + utf8(value.toString()).length;
+        }
+        Class c = value.getClass();
+        if(c == Integer.class || c == Float.class) {
+            return 5;
+        }
+        if(c == Long.class || c == Double.class || c == Date.class) {
+            return 9;
+        }
+        if(c == Short.class || c == Character.class) {
+            return 3;
+        }
+        if(c == Byte.class) {
+            return 2;
+        }
+        if(c == Boolean.class) {
+            return 1;
+        }
+        if(c == BigDecimal.class) {
+            return 9 + ((BigDecimal)value).unscaledValue().toByteArray().length;
+        }
+        if(c == BigInteger.class) {
+            return 5 + ((BigInteger)value).toByteArray().length;
+        }
+        if(value instanceof List) {
+            long size = 5;
+            for(Iterator i = ((List)value).iterator(); i.hasNext();) {
+                size += sizeOf(i.next());
+            }
+            return size;
+        }
+        if(value instanceof Map) {
+            long size = 5;
+            for(Iterator i = ((Map)value).entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+            return size;
+        }
+        throw new IllegalArgumentException("Values of " + c.getName() + " can't be written to a snapshot.");
+    }
+
+    private static byte[] utf8(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(GraphSnapshot.MAGIC);
+        out.writeInt(GraphSnapshot.FORMAT);
+        out.writeInt(segmentShift);
+        out.writeInt(stringList.size());
+        for(int i = 0; i < stringList.size(); i++) {
+            byte[] utf8 = utf8((String)stringList.get(i));
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        out.writeInt(layouts.size());
+        for(int i = 0; i < layouts.size(); i++) {
+            Layout layout = (Layout)layouts.get(i);
+            out.writeInt(layout.config ? 1 : 0);
+            out.writeInt(layout.name);
+            out.writeInt(layout.nameIndexes.size());
+            for(int j = 0; j < layout.nameIndexes.size(); j++) {
+                out.writeInt(((Integer)layout.nameIndexes.get(j)).intValue());
+            }
+        }
+        out.writeInt(roots.size());
+        for(int i = 0; i < roots.size(); i++) {
+            out.writeLong(offsetOf(roots.get(i)));
+        }
+    }
+
+    private long offsetOf(Object record) {
+        return offsets[((Integer)records.get(record)).intValue()];
+    }
+
+    /**
+     * @return the size of the record
+     */
+    private long writeRecord(DataOutputStream out, int index) throws IOException {
+        Object record = recordList.get(index);
+        Layout layout = (Layout)layouts.get(recordLayouts[index]);
+        Map attributes = getAttributes(record);
+        Object value = getValue(record);
+
+        int size = layout.names.size();
+        int[] attributeOffsets = new int[size];
+        long offset = GraphSnapshot.RECORD_HEADER + 4 * size;
+        for(int i = 0; i < size; i++) {
+            Object name = layout.names.get(i);
+            if(attributes.containsKey(name)) {
+                attributeOffsets[i] = (int)offset;
+                offset += sizeOf(attributes.get(name));
+            }
+        }
+        out.writeInt(recordLayouts[index]);
+        out.writeInt(value != null ? (int)offset : 0);
+        for(int i = 0; i < size; i++) {
+            out.writeInt(attributeOffsets[i]);
+        }
+        for(int i = 0; i < size; i++) {
+            if(attributeOffsets[i] != 0) {
+                writeValue(out, attributes.get(layout.names.get(i)));
+            }
+        }
+        if(value instanceof List) {
+            List children = (List)value;
+            out.writeByte(GraphSnapshot.CHILDREN);
+            out.writeInt(children.size());
+            long childOffset = offset + 5 + 4L * children.size();
+            for(int i = 0; i < children.size(); i++) {
+                out.writeInt((int)childOffset);
+                childOffset += sizeOf(children.get(i));
+            }
+            for(int i = 0; i < children.size(); i++) {
+                writeValue(out, children.get(i));
+            }
+            offset = childOffset;
+        }
+        else if(value != null) {
+            writeValue(out, value);
+            offset += sizeOf(value);
+        }
+        return offset;
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if(value == null) {
+            out.writeByte(GraphSnapshot.NULL);
+            return;
+        }
+        if(isRecord(value)) {
+            out.writeByte(GraphSnapshot.NODE);
+            out.writeLong(offsetOf(value));
+            return;
+        }
+        if(value instanceof CharSequence) {
+            byte[] utf8 = utf8(value.toString());
+            out.writeByte(GraphSnapshot.STRING);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+            return;
+        }
+        Class c = value.getClass();
+        if(c == Integer.class) {
+            out.writeByte(GraphSnapshot.INTEGER);
+            out.writeInt(((Integer)value).intValue());
+        }
+        else if(c == Long.class) {
+            out.writeByte(GraphSnapshot.LONG);
+            out.writeLong(((Long)value).longValue());
+        }
+        else if(c == Double.class) {
+            out.writeByte(GraphSnapshot.DOUBLE);
+            out.writeDouble(((Double)value).doubleValue());
+        }
+        else if(c == Float.class) {
+            out.writeByte(GraphSnapshot.FLOAT);
+            out.writeFloat(((Float)value).floatValue());
+        }
+        else if(c == Short.class) {
+            out.writeByte(GraphSnapshot.SHORT);
+            out.writeShort(((Short)value).shortValue());
+        }
+        else if(c == Byte.class) {
+            out.writeByte(GraphSnapshot.BYTE);
+            out.writeByte(((Byte)value).byteValue());
+        }
+        else if(c == Character.class) {
+            out.writeByte(GraphSnapshot.CHARACTER);
+            out.writeChar(((Character)value).charValue());
+        }
+        else if(c == Boolean.class) {
+            out.writeByte(((Boolean)value).booleanValue() ? GraphSnapshot.TRUE : GraphSnapshot.FALSE);
+        }
+        else if(c == BigDecimal.class) {
+            BigDecimal decimal = (BigDecimal)value;
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeByte(GraphSnapshot.BIG_DECIMAL);
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+            out.writeInt(decimal.scale());
+        }
+        else if(c == BigInteger.class) {
+            byte[] bytes = ((BigInteger)value).toByteArray();
+            out.writeByte(GraphSnapshot.BIG_INTEGER);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if(c == Date.class) {
+            out.writeByte(GraphSnapshot.DATE);
+            out.writeLong(((Date)value).getTime());
+        }
+        else if(value instanceof List) {
+            List list = (List)value;
+            out.writeByte(GraphSnapshot.LIST);
+            out.writeInt(list.size());
+            for(Iterator i = list.iterator(); i.hasNext();) {
+                writeValue(out, i.next());
+            }
+        }
+        else {
+            Map map = (Map)value;
+            out.writeByte(GraphSnapshot.MAP);
+            out.writeInt(map.size());
+            for(Iterator i = map.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * The attribute names of the records of one kind and name.
+     */
+    private static class Layout {
+        final boolean config;
+        final int name;
+        final List names = new ArrayList();
+        final List nameIndexes = new ArrayList();
+
+        Layout(boolean config, int name) {
+            this.config = config;
+            this.name = name;
+        }
+    }
+}
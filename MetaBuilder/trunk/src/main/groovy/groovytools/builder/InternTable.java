@@ -0,0 +1,182 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares equal, immutable property values, so that a large graph keeps one instance of each repeated value, such as
+ * a currency code or a price, instead of one per node.  Used by {@link MetaObjectGraphBuilder} for properties whose
+ * <code>intern</code> attribute is true, see {@link MetaBuilder#getInternTable()}.
+ * <p/>
+ * Only {@link String}s, {@link BigDecimal}s, {@link BigInteger}s and the primitive wrappers are interned, since
+ * sharing a mutable value, such as a {@link java.util.Date}, would let a change to one node show up in others.
+ * Other values are returned as is.  The table is bounded: once it holds <code>maxSize</code> values, new values are
+ * returned as is too, while the values already in it are still shared.
+ * <p/>
+ * <code>InternTable</code>s are thread-safe.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class InternTable {
+
+    /**
+     * The number of values kept by default.
+     */
+    public static final int DEFAULT_MAX_SIZE = 65536;
+
+    private final int maxSize;
+
+    /**
+     * Each value by itself.
+     */
+    private final ConcurrentMap values;
+    private final AtomicInteger size;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong overflows;
+
+    /**
+     * Constructs an <code>InternTable</code> that keeps up to {@link #DEFAULT_MAX_SIZE} values.
+     */
+    public InternTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs an <code>InternTable</code>.
+     *
+     * @param maxSize the maximum number of values to keep
+     */
+    public InternTable(int maxSize) {
+        if(maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.values = new ConcurrentHashMap();
+        this.size = new AtomicInteger();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.overflows = new AtomicLong();
+    }
+
+    /**
+     * Returns true if values of the given class may be interned.
+     *
+     * @param valueClass see above
+     * @return see above
+     */
+    public static boolean isInternable(Class valueClass) {
+        return valueClass == String.class
+            || valueClass == BigDecimal.class
+            || valueClass == BigInteger.class
+            || valueClass == Integer.class
+            || valueClass == Long.class
+            || valueClass == Double.class
+            || valueClass == Float.class
+            || valueClass == Short.class
+            || valueClass == Byte.class
+            || valueClass == Character.class
+            || valueClass == Boolean.class;
+    }
+
+    /**
+     * Returns the instance kept for values equal to the given one, adding the value if there is none and the table
+     * isn't full.
+     *
+     * @param value the value
+     * @return see above, or the value itself if it isn't {@link #isInternable(Class) internable} or the table is full
+     */
+    public Object intern(Object value) {
+        if(value == null || !isInternable(value.getClass())) {
+            return value;
+        }
+        Object interned = values.get(value);
+        if(interned != null) {
+            hits.incrementAndGet();
+            return interned;
+        }
+        if(size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            overflows.incrementAndGet();
+            return value;
+        }
+        interned = values.putIfAbsent(value, value);
+        if(interned != null) {
+            // added by another thread in the meantime
+            size.decrementAndGet();
+            hits.incrementAndGet();
+            return interned;
+        }
+        misses.incrementAndGet();
+        return value;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of values kept.
+     *
+     * @return see above
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of values replaced by an equal value that was already kept.
+     *
+     * @return see above
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of values that were added.
+     *
+     * @return see above
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of values that weren't added because the table was full.
+     *
+     * @return see above
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * Removes all values, so that new ones may be added.  The counts are kept.
+     */
+    public void clear() {
+        values.clear();
+        size.set(0);
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.*;
+import groovy.util.*;
+import org.codehaus.groovy.runtime.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link MetaObjectGraphBuilder} that dispatches nodes itself rather than through {@link FactoryBuilderSupport} and
+ * {@link ObjectGraphBuilder}.  Schemas mean the same to both builders, but this one:
+ * <ul><li>keeps the nodes being built on a flat, array based stack instead of a stack of context maps
+ * </li><li>loads the class given by a <code>factory</code> attribute and looks up its constructor once per schema, see
+ * {@link CompiledSchema#newFactoryInstance(ClassLoader)}, instead of resolving its name for every node
+ * </li><li>has no proxy builders, explicit methods, identifiers or references, and no attribute, instantiation or
+ * node completion delegates
+ * </li></ul>
+ * {@link FactoryBuilderSupport#getContext() Contexts} are not maintained, so factories must use the builder's
+ * accessors, such as {@link #getCurrent()} or {@link #getCurrentSchema()}, instead.
+ * <p>
+ * Use {@link MetaBuilder#setLightweight(boolean)} or override {@link MetaBuilder#createMetaObjectGraphBuilder} to
+ * build with it.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class LightweightMetaObjectGraphBuilder extends MetaObjectGraphBuilder {
+
+    /**
+     * Creates the nodes of schemas whose <code>factory</code> attribute is a class or class name.
+     */
+    private static final Factory BEAN_FACTORY = new BeanFactory(null);
+
+    /**
+     * Names matching this pattern become plural by replacing the final 'y' with 'ies', as in {@link ObjectGraphBuilder}.
+     */
+    private static final Pattern PLURAL_IES_PATTERN = Pattern.compile(".*[^aeiouy]y", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Plural names by node name, see {@link BeanFactory#setParent}.
+     */
+    private static final ConcurrentMap PLURAL_NAMES = new ConcurrentHashMap();
+
+    /**
+     * The nodes whose closures are being called, from the root up, with their factories and names.
+     */
+    private Object[] nodes;
+    private Factory[] factories;
+    private String[] names;
+
+    /**
+     * The factory and name of the node created last at each depth.
+     */
+    private Factory[] createdFactories;
+    private String[] createdNames;
+
+    /**
+     * The number of nodes whose closures are being called.
+     */
+    private int depth;
+
+    /**
+     * Constructs a {@link LightweightMetaObjectGraphBuilder}.
+     *
+     * @param metaBuilder the {@link MetaBuilder} providing the build context
+     * @param defaultSchema
+     * @param defaultFactory
+     */
+    public LightweightMetaObjectGraphBuilder(MetaBuilder metaBuilder, SchemaNode defaultSchema, Factory defaultFactory) {
+        this(metaBuilder, defaultSchema, defaultFactory, null);
+    }
+
+    /**
+     * Constructs a {@link LightweightMetaObjectGraphBuilder}.
+     *
+     * @param metaBuilder the {@link MetaBuilder} providing the build context
+     * @param defaultSchema
+     * @param defaultFactory
+     * @param objectVisitor
+     */
+    public LightweightMetaObjectGraphBuilder(MetaBuilder metaBuilder, SchemaNode defaultSchema, Factory defaultFactory, Closure objectVisitor) {
+        super(metaBuilder, defaultSchema, defaultFactory, objectVisitor);
+        nodes = new Object[16];
+        factories = new Factory[16];
+        names = new String[16];
+        createdFactories = new Factory[17];
+        createdNames = new String[17];
+    }
+
+    /**
+     * Overrides the default implementation to build a node without looking for explicit methods or going through
+     * the proxy builder.  The arguments are interpreted like {@link FactoryBuilderSupport} does: optional
+     * attributes, followed by an optional value, followed by an optional closure.
+     *
+     * @param methodName the name of the node
+     * @param args the arguments
+     * @return the node
+     */
+    public Object invokeMethod(String methodName, Object args) {
+        List list = InvokerHelper.asList(args);
+        Map attributes = Collections.EMPTY_MAP;
+        Closure closure = null;
+        if(!list.isEmpty() && list.get(0) instanceof LinkedHashMap) {
+            attributes = (Map)list.get(0);
+            list = list.subList(1, list.size());
+        }
+        if(!list.isEmpty() && list.get(list.size() - 1) instanceof Closure) {
+            closure = (Closure)list.get(list.size() - 1);
+            list = list.subList(0, list.size() - 1);
+        }
+        Object value = list.isEmpty() ? null : list.size() == 1 ? list.get(0) : list;
+        return dispatchNode(methodName, attributes, value, closure);
+    }
+
+    public void reset() {
+        super.reset();
+        Arrays.fill(nodes, null);
+        Arrays.fill(factories, null);
+        Arrays.fill(names, null);
+        Arrays.fill(createdFactories, null);
+        Arrays.fill(createdNames, null);
+        depth = 0;
+    }
+
+    /**
+     * Creates a node, calls its closure, if any, and completes it.
+     *
+     * @param name       the name of the node
+     * @param attributes the attributes of the node
+     * @param value      optional value of the node
+     * @param closure    optional closure building the node's children
+     * @return the node
+     */
+    protected Object dispatchNode(String name, Map attributes, Object value, Closure closure) {
+        Object parent = getCurrent();
+        Object node = createNode(name, attributes, value);
+        if(parent != null) {
+            setParent(parent, node);
+        }
+        if(closure != null) {
+            Factory factory = createdFactories[depth];
+            if(factory.isLeaf()) {
+                throw new RuntimeException("'" + name + "' doesn't support nesting.");
+            }
+            if(!factory.isHandlesNodeChildren() || factory.onNodeChildren(this, node, closure)) {
+                push(node, factory, name);
+                try {
+                    setClosureDelegate(closure, node);
+                    closure.call();
+                }
+                finally {
+                    pop();
+                }
+            }
+        }
+        nodeCompleted(parent, node);
+        return postNodeCompletion(parent, node);
+    }
+
+    /**
+     * Creates a node and makes it the current node, for building without closures.  The node must be completed by
+     * {@link #endNode()}.
+     *
+     * @param name       the name of the node
+     * @param attributes the attributes of the node
+     * @param value      optional value of the node
+     * @return the node
+     * @see FluentBuilder
+     */
+    protected Object beginNode(String name, Map attributes, Object value) {
+        if(depth > 0 && factories[depth - 1].isLeaf()) {
+            throw new RuntimeException("'" + names[depth - 1] + "' doesn't support nesting.");
+        }
+        Object parent = getCurrent();
+        Object node = createNode(name, attributes, value);
+        if(parent != null) {
+            setParent(parent, node);
+        }
+        push(node, createdFactories[depth], name);
+        return node;
+    }
+
+    /**
+     * Completes the node made current by {@link #beginNode}.
+     *
+     * @return the node
+     */
+    protected Object endNode() {
+        Object node = nodes[depth - 1];
+        pop();
+        Object parent = getCurrent();
+        nodeCompleted(parent, node);
+        return postNodeCompletion(parent, node);
+    }
+
+    private void push(Object node, Factory factory, String name) {
+        if(depth == nodes.length) {
+            int length = depth * 2;
+            nodes = copyOf(nodes, new Object[length]);
+            factories = (Factory[])copyOf(factories, new Factory[length]);
+            names = (String[])copyOf(names, new String[length]);
+            createdFactories = (Factory[])copyOf(createdFactories, new Factory[length + 1]);
+            createdNames = (String[])copyOf(createdNames, new String[length + 1]);
+        }
+        nodes[depth] = node;
+        factories[depth] = factory;
+        names[depth] = name;
+        depth++;
+    }
+
+    private void pop() {
+        createdFactories[depth] = null;
+        createdNames[depth] = null;
+        depth--;
+        nodes[depth] = null;
+        factories[depth] = null;
+        names[depth] = null;
+    }
+
+    private static Object[] copyOf(Object[] from, Object[] to) {
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    /**
+     * Overrides the default implementation to create the node with its factory directly.
+     *
+     * @param name       the name of the node
+     * @param attributes the attributes of the node
+     * @param value      optional value of the node
+     * @return the node
+     */
+    protected Object instantiate(Object name, Map attributes, Object value) {
+        Factory factory = resolveFactory(name, attributes, value);
+        createdFactories[depth] = factory;
+        createdNames[depth] = (String)name;
+
+        BuildMetrics metrics = getBuildMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        Object node;
+        try {
+            node = factory.newInstance(this, name, value, attributes);
+        }
+        catch(Exception e) {
+            // wrapped like FactoryBuilderSupport does, see MetaObjectGraphBuilder.createNode()
+            throw new RuntimeException("Failed to create component for '" + name + "' reason: " + e, e);
+        }
+        if(metrics != null) {
+            metrics.nodeCreated(getCurrentSchema(), System.nanoTime() - start);
+        }
+
+        if(node != null && factory.onHandleNodeAttributes(this, node, attributes)) {
+            setNodeAttributes(node, attributes);
+        }
+        return node;
+    }
+
+    /**
+     * Overrides the default implementation to return a factory which creates instances of the class given by the
+     * <code>factory</code> attribute itself, if it is a class or class name.
+     */
+    protected Factory resolveFactory(Object name, Map attributes, Object value) {
+        CompiledSchema schema = getCurrentCompiledSchema();
+        if(schema.getSchema() instanceof Factory) {
+            return (Factory)schema.getSchema();
+        }
+        Factory factory = schema.getFactory();
+        if(factory != null) {
+            return factory;
+        }
+        Object factoryAttribute = schema.getFactoryAttribute();
+        if(factoryAttribute instanceof String || factoryAttribute instanceof Class) {
+            return BEAN_FACTORY;
+        }
+        return getDefaultFactory();
+    }
+
+    /**
+     * Overrides the default implementation to create collections of the class given by the <code>factory</code>
+     * attribute itself, if it is a class or class name.
+     */
+    public Factory resolveCollectionFactory(SchemaNode collectionSchema) {
+        CompiledSchema schema = getMetaBuilder().getCompiledSchema(collectionSchema);
+        Factory factory = schema.getFactory();
+        if(factory != null) {
+            return factory;
+        }
+        factory = schema.getCollectionFactory();
+        if(factory == null) {
+            factory = new BeanFactory(schema);
+            schema.setCollectionFactory(factory);
+        }
+        return factory;
+    }
+
+    public Object getCurrent() {
+        return depth > 0 ? nodes[depth - 1] : null;
+    }
+
+    public Factory getCurrentFactory() {
+        return createdFactories[depth];
+    }
+
+    public String getCurrentName() {
+        return createdNames[depth];
+    }
+
+    public Object getParentNode() {
+        return depth > 1 ? nodes[depth - 2] : null;
+    }
+
+    public Factory getParentFactory() {
+        return depth > 0 ? factories[depth - 1] : null;
+    }
+
+    public String getParentName() {
+        return depth > 0 ? names[depth - 1] : null;
+    }
+
+    public FactoryBuilderSupport getCurrentBuilder() {
+        return this;
+    }
+
+    public FactoryBuilderSupport getChildBuilder() {
+        return this;
+    }
+
+    /**
+     * Creates instances of the class given by the <code>factory</code> attribute of a schema, by default the current
+     * one, and relates them to their parents like {@link ObjectGraphBuilder} does by default, though through the
+     * {@link MetaBuilder#getPropertyAccessor(Class, String) PropertyAccessor}s of their classes.
+     */
+    private static class BeanFactory extends AbstractFactory {
+        private final CompiledSchema schema;
+
+        BeanFactory(CompiledSchema schema) {
+            this.schema = schema;
+        }
+
+        public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
+            MetaObjectGraphBuilder mogb = (MetaObjectGraphBuilder)builder;
+            CompiledSchema schema = this.schema != null ? this.schema : mogb.getCurrentCompiledSchema();
+            try {
+                if(value != null && schema.getFactoryClass(mogb.getClassLoader()).isInstance(value)) {
+                    return value;
+                }
+                return schema.newFactoryInstance(mogb.getClassLoader());
+            }
+            catch(ClassNotFoundException e) {
+                throw MetaBuilder.createFactoryException(schema.getSchema().fqn(), e);
+            }
+        }
+
+        /**
+         * Sets the child to the parent property named after the child, or its plural, or adds it if that property is
+         * a collection.
+         */
+        public void setParent(FactoryBuilderSupport builder, Object parent, Object child) {
+            if(child == null || parent == null) {
+                return;
+            }
+            String childName = builder.getCurrentName();
+            MetaBuilder metaBuilder = ((MetaObjectGraphBuilder)builder).getMetaBuilder();
+            PropertyAccessor accessor = metaBuilder.getPropertyAccessor(parent.getClass(), pluralName(childName));
+            if(!accessor.hasProperty(parent)) {
+                accessor = metaBuilder.getPropertyAccessor(parent.getClass(), childName);
+            }
+            try {
+                Object property = accessor.getProperty(parent);
+                if(property instanceof Collection) {
+                    ((Collection)property).add(child);
+                }
+                else {
+                    accessor.setProperty(parent, child);
+                }
+            }
+            catch(MissingPropertyException e) {
+                // the parent doesn't care
+            }
+        }
+
+        /**
+         * Sets the parent to the child's <code>parent</code> property, if it has one.
+         */
+        public void setChild(FactoryBuilderSupport builder, Object parent, Object child) {
+            if(child == null || parent == null) {
+                return;
+            }
+            PropertyAccessor accessor = ((MetaObjectGraphBuilder)builder).getMetaBuilder().getPropertyAccessor(child.getClass(), "parent");
+            if(accessor.hasProperty(child)) {
+                accessor.setProperty(child, parent);
+            }
+        }
+
+        private static String pluralName(String name) {
+            String pluralName = (String)PLURAL_NAMES.get(name);
+            if(pluralName == null) {
+                pluralName = PLURAL_IES_PATTERN.matcher(name).matches()
+                    ? name.substring(0, name.length() - 1) + "ies"
+                    : name + "s";
+                PLURAL_NAMES.put(name, pluralName);
+            }
+            return pluralName;
+        }
+    }
+}
@@ -20,6 +20,9 @@ import groovy.lang.Closure;
 import groovy.lang.DelegatingMetaClass;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovyObject;
+import groovy.lang.GroovyObjectSupport;
+import groovy.lang.GroovySystem;
 import groovy.lang.MetaClass;
 import groovy.lang.MissingMethodException;
 import groovy.lang.Script;
@@ -29,16 +32,31 @@ import groovy.util.FactoryBuilderSupport;
 import groovy.util.ObjectGraphBuilder;
 
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
 import org.codehaus.groovy.runtime.ResourceGroovyMethods;
 import org.codehaus.groovy.runtime.StackTraceUtils;
 import sun.reflect.Reflection;
@@ -126,6 +144,10 @@ import sun.reflect.Reflection;
  *                     size(check: nullOrStringOrClosure)
  *                     key(check: nullOrStringOrClosure)
  *                     add(check: nullOrStringOrClosure)
+ *                     sizeHint(check: nullOrInt)
+ *                     bulk(check: nullOrBoolean)
+ *                     addAll(check: nullOrStringOrClosure)
+ *                     shareDef(check: nullOrBoolean)
  *                 }
  *                 '%'(shema: metaSchema)
  *             }
@@ -136,6 +158,7 @@ import sun.reflect.Reflection;
  *                     property(check: nullOrStringOrClosure)
  *                     req(check: nullOrBoolean)
  *                     def()
+ *                     intern(check: nullOrBoolean)
  *                     min()
  *                     max()
  *                     // Inherited from metaSchema:
@@ -235,6 +258,25 @@ import sun.reflect.Reflection;
  *  <td>n/a</td>
  * </tr>
  * <tr>
+ *  <td>sizeHint</td>
+ *  <td>Used to specify the expected collection size.  Optional.  Collections created by default are given this
+ *  initial capacity or, if not specified, that of <code>max</code> up to 1024.</td>
+ *  <td>An <code>int</code> greater than or equal to 0.</td>
+ *  <td>n/a</td>
+ *  <td>n/a</td>
+ *  <td>n/a</td>
+ * </tr>
+ * <tr>
+ *  <td>bulk</td>
+ *  <td>Used to add the children to the collection all at once, with <code>addAll</code> or <code>putAll</code>,
+ *  when the parent is complete.  Optional.  The default is false, which adds each child as soon as it is complete.
+ *  Has no effect if <code>add</code> is specified.</td>
+ *  <td>n/a</td>
+ *  <td><code>true</code> or <code>false</code></td>
+ *  <td>n/a</td>
+ *  <td>n/a</td>
+ * </tr>
+ * <tr>
  *  <td>size</td>
  *  <td>Used to specify an alternative way to retrieve the size of a collection.  Optional.  The default is to access the collection using the node's name.</td>
  *  <td>A property or field name</td>
@@ -348,10 +390,55 @@ import sun.reflect.Reflection;
  *  </td>
  * </tr>
  * <tr>
+ *  <td><code>intern</code></td>
+ *  <td>Used to share equal property values, such as repeated codes or amounts, through the <code>MetaBuilder</code>'s
+ *  {@link InternTable}.  Optional.  The default is false.  Only immutable values are shared, <a href="#interning">see below</a>.</td>
+ *  <td>n/a</td>
+ *  <td><code>true</code> or <code>false</code></td>
+ *  <td>n/a</td>
+ *  <td>n/a</td>
+ * </tr>
+ * <tr>
  *  <td><code>def (collection)</code></td>
  *  <td>Used to specify a default collection.  Optional.</td>
  *  <td>Any literal may be specified for non-map collections.
- *  <td>If a {@link Collection} is specified, its values are added individually to the collection.  Any other object is simply added to the collection.</td>
+ *  <td>If a {@link Collection} is specified, its values are added to the collection all at once, see
+ *  <code>addAll</code>.  If a {@link Map} is specified and the collection is a {@link Map}, its entries are put into
+ *  the collection all at once.  Any other object is simply added to the collection.</td>
+ *  <td>n/a</td>
+ *  <td>n/a</td>
+ * </tr>
+ * <tr>
+ *  <td><code>addAll</code></td>
+ *  <td>Used to specify an alternative for adding a default collection all at once.  Optional.  If not specified but
+ *  <code>add</code> is, the default's elements are added one at a time with <code>add</code>.</td>
+ *  <td>A method name.  The method must accept one argument, the default collection.</td>
+ *  <td>n/a</td>
+ *  <td>n/a</td>
+ *  <td>A {@link Closure} of the form
+ *   <ul>
+ *    <li><code>{p, c -> ...}</code></li>
+ *   </ul>
+ *   where
+ *   <ul>
+ *    <li><code>p</code> is the parent</li>
+ *    <li><code>c</code> is the default collection</li>
+ *   </ul>
+ *  </td>
+ * </tr>
+ * <tr>
+ *  <td><code>shareDef</code></td>
+ *  <td>Used to set the default collection itself as the parent's collection, rather than copying its elements, so
+ *  that every parent shares the same instance.  Optional.  The default is false.  The instance is shared for reading
+ *  only, it isn't copied on write, so any change through one parent would be seen by every parent.  The default
+ *  collection should therefore be unmodifiable, e.g. {@link java.util.Collections#unmodifiableMap}, in which case
+ *  changes fail instead.  Only shared if the collection has no <code>key</code> and the default collection is an
+ *  instance of the type of the parent's property, a {@link Map} for a {@link Map} or a {@link Collection} for a
+ *  {@link Collection}; otherwise it is copied as usual.
+ *  Has no effect unless the collection is accessed as a property and neither <code>add</code> nor
+ *  <code>addAll</code> is specified.</td>
+ *  <td>n/a</td>
+ *  <td><code>true</code> or <code>false</code></td>
  *  <td>n/a</td>
  *  <td>n/a</td>
  * </tr>
@@ -380,6 +467,174 @@ import sun.reflect.Reflection;
  *  }
  * </pre>
  * The above example also shows how a sub-schema can override the property settings of its super-schema.
+ * <a name="sealing"/>
+ * <h3>Compiled and Sealed Schemas</h3>
+ * Before building, schemas are compiled into {@link CompiledSchema}s, which resolve super-schemas, merge properties
+ * and collections and index child schemas by name up front.  Compiled schemas are cached and discarded whenever
+ * another schema is defined.  Once all schemas have been defined, {@link #seal} may be called to compile every schema
+ * immediately and to prevent any further definitions.
+ * <p/>
+ * <a name="threads"/>
+ * <h3>Concurrent Builds</h3>
+ * Building never modifies a schema: each build uses its own {@link MetaObjectGraphBuilder} and all state shared
+ * between builds, such as the compiled schemas and the factories resolved from them, is immutable.  Therefore, a
+ * sealed <code>MetaBuilder</code> may be used by any number of threads to build at the same time.  An unsealed
+ * <code>MetaBuilder</code> is just as safe as long as no schemas are defined while building.  Note that the
+ * closures and scripts passed to the <code>build</code> methods are not copied, so each thread should pass its own,
+ * and that any closures specified by schemas, such as factories and checks, must be thread-safe themselves.
+ * <p/>
+ * <a name="streaming"/>
+ * <h3>Streaming Builds</h3>
+ * <code>buildList</code> keeps every root object until the build is finished.  To process very large scripts in
+ * constant memory, use <code>buildEach</code> instead, which calls a closure with each root object as soon as the
+ * root is complete and keeps no reference to it afterwards:
+ * <pre>
+ * mb.buildEach({ order -> exporter.write(order) }, new URL('file:orders.dsl'))
+ * </pre>
+ * The closure is called on the building thread, so the build simply waits while it runs.  Objects given a
+ * <code>metaId</code> are an exception: they are remembered by the builder so that they can be referenced later.
+ * <p/>
+ * <a name="validation"/>
+ * <h3>Validation Reports</h3>
+ * By default, the first failed <code>req</code>, <code>min</code>, <code>max</code> or <code>check</code> attribute
+ * and the first unknown property stop the build with an exception.  To find every bad record of a large import in
+ * one pass instead, pass a {@link ValidationReport} to <code>buildList</code> or <code>buildEach</code>.  The build
+ * then records each violation, along with the index of the root and the path to the node it was found in, and
+ * continues.  Invalid values and unknown properties are simply not set:
+ * <pre>
+ * def report = new ValidationReport(1024, 10000)
+ * long seen = 0
+ * mb.buildEach(report, { order ->
+ *     if(report.violationCount == seen) exporter.write(order)  // only export valid orders
+ *     seen = report.violationCount
+ * }, new URL('file:orders.dsl'))
+ * report.violations.each { println it }
+ * </pre>
+ * Recording a violation creates no exception, so a validating build costs about as much as a successful one.
+ * Unknown node names and errors in the schemas themselves still throw.
+ * <p/>
+ * <a name="interning"/>
+ * <h3>Interning Values</h3>
+ * Every value set by a build script is kept by the node it is set on, even if an equal value was set on thousands of
+ * other nodes.  The values of properties whose <code>intern</code> attribute is true are shared instead, through the
+ * <code>MetaBuilder</code>'s {@link InternTable}:
+ * <pre>
+ * mb.define {
+ *     item {
+ *         properties {
+ *             currency(intern: true)
+ *             price(intern: true)
+ *         }
+ *     }
+ * }
+ * </pre>
+ * Only {@link String}s, {@link java.math.BigDecimal}s, {@link java.math.BigInteger}s and the primitive wrappers are
+ * shared.  The table keeps up to {@link InternTable#DEFAULT_MAX_SIZE} values by default and counts how many values
+ * it replaced, see {@link #setInternTable(InternTable)}.
+ * <p/>
+ * <a name="scripts"/>
+ * <h3>Script Caching</h3>
+ * Scripts loaded from a {@link URL} are compiled once and cached by content, so defining or building the same
+ * script again skips the Groovy compiler.  To also skip it after a restart, save the compiled scripts to a
+ * directory:
+ * <pre>
+ * mb.scriptCacheDirectory = new File('build/scripts')
+ * </pre>
+ * Saved scripts are only reused by the same Groovy version and compiler settings, and unreadable ones are compiled
+ * again.  See {@link #getScriptCache()} for the number of hits and misses.
+ * <p/>
+ * <a name="buildCache"/>
+ * <h3>Build Caching</h3>
+ * Scripts that build the same large graph every time, such as configurations, needn't even be run again.  Given a
+ * directory, <code>build</code> and <code>buildList</code> record the nodes and properties a script loaded from a
+ * {@link URL} gives the builder and save them, keyed by a hash of the script, the schemas and the classes they use:
+ * <pre>
+ * mb.buildCacheDirectory = new File('build/graphs')
+ * def config = mb.build(new URL('file:config.dsl'))  // runs the script and saves what it built
+ * config = mb.build(new URL('file:config.dsl'))      // builds the same objects without running the script
+ * </pre>
+ * Saved builds are replayed by a {@link LightweightMetaObjectGraphBuilder}, so the objects are created and checked
+ * again, but without compiling the script or Groovy's dynamic dispatch.  Only builds setting values of simple types
+ * are saved, and only if replaying them builds the same objects the script returned, which it doesn't if the script
+ * changed them outside the builder.  See {@link BuildCache} for the details.
+ * <p/>
+ * <a name="snapshots"/>
+ * <h3>Graph Snapshots</h3>
+ * Large read-only graphs, such as reference data, needn't be built, or kept on the heap, by every process using them.
+ * A graph built with the default {@link SchemaNode} factory, or by a {@link MetaConfigBuilder}, can be written to a
+ * file once and then mapped into memory by any number of processes, which share it through the operating system's
+ * page cache:
+ * <pre>
+ * GraphSnapshot.write(mb.buildList(new URL('file:products.dsl')), new File('products.snapshot'))
+ * ...
+ * def products = GraphSnapshot.open(new File('products.snapshot')).roots
+ * assert products[0].name() == 'product'
+ * assert products[0].variants.variant[0].attribute('sku') == 'A-1'
+ * </pre>
+ * The nodes of a snapshot are read-only views which read their attributes and children from the file as they are
+ * navigated.  The roots of a {@link MetaConfigBuilder}'s graph are {@link Map}s which look up values like a
+ * {@link groovy.util.ConfigObject}, see {@link GraphSnapshot} for the details.
+ * <p/>
+ * <a name="metrics"/>
+ * <h3>Build Metrics</h3>
+ * To find out where build time goes, set a {@link BuildMetrics} which is told how long schema resolution, node
+ * creation, property setting, checks, collection updates and node completion took for each schema.  Builds don't
+ * measure anything while no <code>BuildMetrics</code> is set.  {@link DefaultBuildMetrics} keeps counters and
+ * histograms by schema and, together with the schema and cache counts, can be monitored using JMX:
+ * <pre>
+ * mb.buildMetrics = new DefaultBuildMetrics()
+ * mb.registerMBean(new ObjectName('groovytools.builder:type=MetaBuilder,name=orders'))
+ * </pre>
+ * <a name="lightweight"/>
+ * <h3>Lightweight Builds</h3>
+ * {@link MetaObjectGraphBuilder} is an {@link ObjectGraphBuilder}, which keeps a map of context entries for every node
+ * and resolves each node's class by name.  A <code>MetaBuilder</code> set to be lightweight builds with a
+ * {@link LightweightMetaObjectGraphBuilder} instead, which gives schemas the same meaning but keeps its nodes on a flat
+ * stack and loads classes once per schema:
+ * <pre>
+ * mb.lightweight = true
+ * </pre>
+ * Factories written for it must not use the builder's context.  A {@link MetaObjectGraphBuilder} only resolves each
+ * node name once per parent schema, but still creates a context for every node with children, see
+ * {@link MetaObjectGraphBuilder#dispatch}.  Setting the <code>groovytools.builder.lightweight</code>
+ * system property to <code>true</code> makes new <code>MetaBuilder</code>s lightweight by default.
+ * <p/>
+ * <a name="sessions"/>
+ * <h3>Build Sessions</h3>
+ * Every call to <code>build</code> creates and sets up a new {@link MetaObjectGraphBuilder}, which can cost more than
+ * the build itself when the graph is small.  A {@link BuildSession} reuses one builder instead, resetting it between
+ * builds.  {@link #getSession()} returns one per thread:
+ * <pre>
+ * def order = mb.session.build {
+ *     order(id: 1)
+ * }
+ * </pre>
+ * Threads that outlive the <code>MetaBuilder</code>, such as those of a pool, should call {@link #releaseSession()}
+ * once they no longer need it.
+ * <p/>
+ * <a name="generatedClasses"/>
+ * <h3>Generated Classes</h3>
+ * Schemas without a <code>factory</code> attribute build {@link SchemaNode}s by default, each with its own map of
+ * attributes.  A {@link ClassGeneratingNodeFactory} builds instances of plain Java classes generated from the schemas
+ * instead, with a field and accessors for each property and collection:
+ * <pre>
+ * mb.defaultBuildNodeFactory = new ClassGeneratingNodeFactory(mb)
+ * </pre>
+ * Its classes are cached, and those of the top-level schemas are generated when the <code>MetaBuilder</code> is
+ * {@link #seal sealed}.
+ * <p/>
+ * <a name="fluent"/>
+ * <h3>Building from Java</h3>
+ * Java code, which has no closures to pass to <code>build</code>, may build the same objects through a
+ * {@link FluentBuilder} instead:
+ * <pre>
+ * TestParent parent = (TestParent)mb.fluent()
+ *     .root("parent").set("name", "p")
+ *         .child("listOfChildren")
+ *             .child("child").set("name", "c").end()
+ *         .end()
+ *     .build();
+ * </pre>
  *
  * @see ObjectGraphBuilder
  *
@@ -388,12 +643,60 @@ import sun.reflect.Reflection;
  */
 @SuppressWarnings({"unchecked", "rawtypes", "serial"})
 public class MetaBuilder {
+
+    /**
+     * The system property which, if <code>true</code>, makes new <code>MetaBuilder</code>s
+     * {@link #setLightweight(boolean) lightweight}.
+     */
+    public static final String LIGHTWEIGHT_PROPERTY = "groovytools.builder.lightweight";
+
 	private Map schemas;
     private SchemaNode defaultMetaSchema;
     private GroovyClassLoader classLoader;
     private Factory defaultBuildNodeFactory;
     private Factory defaultDefineNodeFactory;
     private String defaultEncoding;
+    private ScriptCache scriptCache;
+    private volatile BuildMetrics buildMetrics;
+
+    /**
+     * {@link CompiledSchema}s by {@link SchemaNode}, replaced whenever a schema is added.
+     */
+    private volatile ConcurrentMap compiledSchemas;
+    private volatile boolean sealed;
+    private final AtomicLong schemaCompilations;
+
+    /**
+     * {@link PropertyAccessor}s by bean class and then by property name.
+     */
+    private final ConcurrentMap propertyAccessors;
+
+    /**
+     * {@link WeakReference}s to {@link FactoryInterceptorMetaClass}es by script class.  Neither the classes nor the
+     * interceptors, which hold the classes' {@link MetaClass}es, are kept from being garbage collected, so that the
+     * scripts' class loaders aren't retained.
+     */
+    private final Map factoryInterceptors;
+
+    /**
+     * Whether to build with a {@link LightweightMetaObjectGraphBuilder}.
+     */
+    private boolean lightweight;
+
+    /**
+     * The {@link BuildSession} of each thread, see {@link #getSession()}.
+     */
+    private final ThreadLocal sessions;
+
+    /**
+     * Shares the values of properties whose <code>intern</code> attribute is true.
+     */
+    private volatile InternTable internTable;
+
+    /**
+     * Saves the builds of scripts loaded from a {@link URL}, if set.
+     */
+    private volatile BuildCache buildCache;
 
     static {
         String packagePrefixes = System.getProperty("groovy.sanitized.stacktraces",
@@ -423,7 +726,7 @@ public class MetaBuilder {
         public Object call(Object e) {
             CreateNodeEvent cne = (CreateNodeEvent)e;
             if(cne.getIsRoot()) {
-                schemas.put(cne.getName(), cne.getNode());
+                addSchema(cne.getName(), cne.getNode());
             }
             return cne.getNode();
         }
@@ -448,6 +751,18 @@ public class MetaBuilder {
         public List getList() {
             return objects;
         }
+
+        /**
+         * Returns the objects collected so far and starts a new list, so that the <code>ListBuilder</code> may be
+         * reused.
+         *
+         * @return see above
+         */
+        public List takeList() {
+            List list = objects;
+            objects = new ArrayList();
+            return list;
+        }
     }
 
     /**
@@ -482,6 +797,13 @@ public class MetaBuilder {
      */
     public MetaBuilder(SchemaNode defaultMetaSchema, ClassLoader classLoader) {
         schemas = new HashMap();
+        compiledSchemas = new ConcurrentHashMap();
+        propertyAccessors = new ConcurrentHashMap();
+        factoryInterceptors = Collections.synchronizedMap(new WeakHashMap());
+        sessions = new ThreadLocal();
+        internTable = new InternTable();
+        lightweight = Boolean.getBoolean(LIGHTWEIGHT_PROPERTY);
+        schemaCompilations = new AtomicLong();
         setClassLoader(classLoader);
         this.defaultMetaSchema = defaultMetaSchema;
         this.defaultBuildNodeFactory = createDefaultBuildNodeFactory();
@@ -644,6 +966,14 @@ public class MetaBuilder {
         colSchemaPropertiesAdd.attributes().put("check", nullOrStringOrClosure);
         SchemaNode colSchemaPropertiesKey = new SchemaNode(colSchemaProperties, "key");
         colSchemaPropertiesKey.attributes().put("check", nullOrStringOrClosure);
+        SchemaNode colSchemaPropertiesSizeHint = new SchemaNode(colSchemaProperties, "sizeHint");
+        colSchemaPropertiesSizeHint.attributes().put("check", nullOrInt);
+        SchemaNode colSchemaPropertiesBulk = new SchemaNode(colSchemaProperties, "bulk");
+        colSchemaPropertiesBulk.attributes().put("check", nullOrBoolean);
+        SchemaNode colSchemaPropertiesAddAll = new SchemaNode(colSchemaProperties, "addAll");
+        colSchemaPropertiesAddAll.attributes().put("check", nullOrStringOrClosure);
+        SchemaNode colSchemaPropertiesShareDef = new SchemaNode(colSchemaProperties, "shareDef");
+        colSchemaPropertiesShareDef.attributes().put("check", nullOrBoolean);
         SchemaNode colSchemaPropertiesDef = new SchemaNode(colSchemaProperties, "def");
         // don't need a check for collection default since it can take any object as a default value
         SchemaNode colSchemaPropertiesFactory = new SchemaNode(colSchemaProperties, "factory");
@@ -668,17 +998,19 @@ public class MetaBuilder {
         // no check needed for defa
         SchemaNode minNode = new SchemaNode(propertiesElementSchemaProperties, "min");
         SchemaNode maxNode = new SchemaNode(propertiesElementSchemaProperties, "max");
+        SchemaNode internNode = new SchemaNode(propertiesElementSchemaProperties, "intern");
+        internNode.attributes().put("check", nullOrBoolean);
 
         return metaSchema;
     }
 	
-	private Class loadClass(URL url, String encoding) throws IOException {
+	Class loadClass(URL url, String encoding) throws IOException {
 		if (encoding == null) {
-			return classLoader.parseClass(new GroovyCodeSource(url));
+			return scriptCache.loadClass(new GroovyCodeSource(url));
 		} else {
 			String name = url.toExternalForm();
 			String scriptContent = ResourceGroovyMethods.getText(url, encoding);
-			return classLoader.parseClass(new GroovyCodeSource(scriptContent, name, "/groovy/script"));
+			return scriptCache.loadClass(new GroovyCodeSource(scriptContent, name, "/groovy/script"));
 		}
 	}
 
@@ -712,7 +1044,7 @@ public class MetaBuilder {
             MetaClass scriptMetaClass = script.getMetaClass();
             try {
                 MetaObjectGraphBuilder metaObjectGraphBuilder = createMetaObjectGraphBuilder(defaultMetaSchema, defaultDefineNodeFactory, new SchemaAdder());
-                script.setMetaClass(new FactoryInterceptorMetaClass(scriptMetaClass, metaObjectGraphBuilder));
+                script.setMetaClass(getFactoryInterceptorMetaClass(script, scriptMetaClass));
                 script.setBinding(metaObjectGraphBuilder);
                 return script.run();
             } finally {
@@ -742,8 +1074,23 @@ public class MetaBuilder {
     }
 
     public List buildList(Closure c) {
+        return buildList((ValidationReport)null, c);
+    }
+
+    /**
+     * Builds the objects specified by the closure, recording violations in <code>report</code> instead of throwing
+     * an exception for the first one.
+     *
+     * @param report where to record violations, or null to throw
+     * @param c the closure specifying the objects to build
+     * @return the root objects
+     *
+     * @see <a href="#validation">Validation Reports</a>
+     */
+    public List buildList(ValidationReport report, Closure c) {
         ListBuilder listBuilder = new ListBuilder();
         MetaObjectGraphBuilder graphBuilder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, listBuilder);
+        graphBuilder.setValidationReport(report);
         c.setDelegate(graphBuilder);
         c.setResolveStrategy(Closure.DELEGATE_FIRST);
         c.call();
@@ -770,25 +1117,120 @@ public class MetaBuilder {
         }
     }
 
+    /**
+     * Builds the objects specified by the closure and calls <code>rootVisitor</code> with each root object as soon
+     * as it is complete.
+     *
+     * @param rootVisitor a Closure accepting the root object as its only argument
+     * @param c the closure specifying the objects to build
+     *
+     * @see <a href="#streaming">Streaming Builds</a>
+     */
+    public void buildEach(Closure rootVisitor, Closure c) {
+        buildEach(null, rootVisitor, c);
+    }
+
+    /**
+     * Builds the objects specified by the closure and calls <code>rootVisitor</code> with each root object as soon
+     * as it is complete, recording violations in <code>report</code> instead of throwing an exception for the first
+     * one.
+     *
+     * @param report where to record violations, or null to throw
+     * @param rootVisitor a Closure accepting the root object as its only argument
+     * @param c the closure specifying the objects to build
+     *
+     * @see <a href="#validation">Validation Reports</a>
+     */
+    public void buildEach(ValidationReport report, Closure rootVisitor, Closure c) {
+        MetaObjectGraphBuilder builder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, null);
+        builder.setRootVisitor(rootVisitor);
+        builder.setValidationReport(report);
+        c.setDelegate(builder);
+        c.setResolveStrategy(Closure.DELEGATE_FIRST);
+        c.call();
+    }
+
+    public void buildEach(Closure rootVisitor, Class viewClass) {
+        buildEach(null, rootVisitor, viewClass);
+    }
+
+    public void buildEach(ValidationReport report, Closure rootVisitor, Class viewClass) {
+        if (Script.class.isAssignableFrom(viewClass)) {
+            Script script = InvokerHelper.createScript(viewClass, new Binding());
+            buildEach(report, rootVisitor, script);
+        } else {
+            throw new RuntimeException("Only scripts can be executed via build(Class)");
+        }
+    }
+
+    public void buildEach(Closure rootVisitor, URL url) throws IOException {
+        buildEach(rootVisitor, loadClass(url, defaultEncoding));
+    }
+
+    public void buildEach(ValidationReport report, Closure rootVisitor, URL url) throws IOException {
+        buildEach(report, rootVisitor, loadClass(url, defaultEncoding));
+    }
+
+    public void buildEach(Closure rootVisitor, URL url, String encoding) throws IOException {
+        buildEach(rootVisitor, loadClass(url, encoding));
+    }
+
+    /**
+     * Runs the script and calls <code>rootVisitor</code> with each root object as soon as it is complete.
+     *
+     * @param rootVisitor a Closure accepting the root object as its only argument
+     * @param script the script specifying the objects to build
+     *
+     * @see <a href="#streaming">Streaming Builds</a>
+     */
+    public void buildEach(Closure rootVisitor, Script script) {
+        buildEach(null, rootVisitor, script);
+    }
+
+    /**
+     * Runs the script and calls <code>rootVisitor</code> with each root object as soon as it is complete, recording
+     * violations in <code>report</code> instead of throwing an exception for the first one.
+     *
+     * @param report where to record violations, or null to throw
+     * @param rootVisitor a Closure accepting the root object as its only argument
+     * @param script the script specifying the objects to build
+     *
+     * @see <a href="#validation">Validation Reports</a>
+     */
+    public void buildEach(ValidationReport report, Closure rootVisitor, Script script) {
+        MetaObjectGraphBuilder metaObjectGraphBuilder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, null);
+        metaObjectGraphBuilder.setRootVisitor(rootVisitor);
+        metaObjectGraphBuilder.setValidationReport(report);
+        run(script, metaObjectGraphBuilder);
+    }
+
     public List buildList(Class viewClass) {
+        return buildList((ValidationReport)null, viewClass);
+    }
+
+    public List buildList(ValidationReport report, Class viewClass) {
         if (Script.class.isAssignableFrom(viewClass)) {
             Script script = InvokerHelper.createScript(viewClass, new Binding());
-            return buildList(script);
+            return buildList(report, script);
         } else {
             throw new RuntimeException("Only scripts can be executed via build(Class)");
         }
     }
 
     public Object build(URL url) throws IOException {
-    	return build(loadClass(url, defaultEncoding));
+    	return build(url, defaultEncoding);
     }
     
     public Object build(URL url, String encoding) throws IOException {
+        BuildCache buildCache = this.buildCache;
+        if(buildCache != null) {
+            return buildCache.build(url, encoding);
+        }
         return build(loadClass(url, encoding));
     }
 
     public Object build(Closure objectVisitor, URL url) throws IOException {
-        return build(objectVisitor, classLoader.parseClass(new GroovyCodeSource(url)));
+        return build(objectVisitor, loadClass(url, null));
     }
 
     public Object build(Closure objectVisitor, URL url, String encoding) throws IOException {
@@ -796,11 +1238,23 @@ public class MetaBuilder {
     }
 
     public List buildList(URL url) throws IOException {
-        return buildList(loadClass(url, defaultEncoding));
+        return buildList(null, url, defaultEncoding);
+    }
+
+    public List buildList(ValidationReport report, URL url) throws IOException {
+        return buildList(report, url, defaultEncoding);
     }
     
     public List buildList(URL url, String encoding) throws IOException {
-        return buildList(loadClass(url, encoding));
+        return buildList(null, url, encoding);
+    }
+
+    public List buildList(ValidationReport report, URL url, String encoding) throws IOException {
+        BuildCache buildCache = this.buildCache;
+        if(buildCache != null) {
+            return buildCache.buildList(report, url, encoding);
+        }
+        return buildList(report, loadClass(url, encoding));
     }
 
     public Object build(Script script) {
@@ -808,11 +1262,59 @@ public class MetaBuilder {
     }
 
     public Object build(Closure objectVisitor, Script script) {
+        return run(script, createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, objectVisitor));
+    }
+
+    /**
+     * Runs the script class like {@link #build(Class)}, recording what it builds, see {@link BuildCache}.
+     */
+    Object build(Class viewClass, BuildRecording recording) {
+        MetaObjectGraphBuilder metaObjectGraphBuilder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, null);
+        metaObjectGraphBuilder.setRecording(recording);
+        return run(createScript(viewClass), metaObjectGraphBuilder);
+    }
+
+    public List buildList(Script script) {
+        return buildList((ValidationReport)null, script);
+    }
+
+    public List buildList(ValidationReport report, Script script) {
+        return buildList(report, script, null);
+    }
+
+    /**
+     * Runs the script class like {@link #buildList(ValidationReport, Class)}, recording what it builds, see
+     * {@link BuildCache}.
+     */
+    List buildList(ValidationReport report, Class viewClass, BuildRecording recording) {
+        return buildList(report, createScript(viewClass), recording);
+    }
+
+    private List buildList(ValidationReport report, Script script, BuildRecording recording) {
+        ListBuilder listBuilder = new ListBuilder();
+        MetaObjectGraphBuilder metaObjectGraphBuilder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, listBuilder);
+        metaObjectGraphBuilder.setValidationReport(report);
+        metaObjectGraphBuilder.setRecording(recording);
+        run(script, metaObjectGraphBuilder);
+        return listBuilder.getList();
+    }
+
+    private Script createScript(Class viewClass) {
+        if (Script.class.isAssignableFrom(viewClass)) {
+            return InvokerHelper.createScript(viewClass, new Binding());
+        } else {
+            throw new RuntimeException("Only scripts can be executed via build(Class)");
+        }
+    }
+
+    /**
+     * Runs the script with the builder as its binding.
+     */
+    private Object run(Script script, MetaObjectGraphBuilder metaObjectGraphBuilder) {
         synchronized (script) {
             MetaClass scriptMetaClass = script.getMetaClass();
             try {
-                MetaObjectGraphBuilder metaObjectGraphBuilder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, objectVisitor);
-                script.setMetaClass(new FactoryInterceptorMetaClass(scriptMetaClass, metaObjectGraphBuilder));
+                script.setMetaClass(getFactoryInterceptorMetaClass(script, scriptMetaClass));
                 script.setBinding(metaObjectGraphBuilder);
                 return script.run();
             } finally {
@@ -821,20 +1323,46 @@ public class MetaBuilder {
         }
     }
 
-    public List buildList(Script script) {
-        synchronized (script) {
-            MetaClass scriptMetaClass = script.getMetaClass();
-            try {
-                ListBuilder listBuilder = new ListBuilder();
-                MetaObjectGraphBuilder metaObjectGraphBuilder = createMetaObjectGraphBuilder(null, defaultBuildNodeFactory, listBuilder);
-                script.setMetaClass(new FactoryInterceptorMetaClass(scriptMetaClass, metaObjectGraphBuilder));
-                script.setBinding(metaObjectGraphBuilder);
-                script.run();
-                return listBuilder.getList();
-            } finally {
-                script.setMetaClass(scriptMetaClass);
-            }
+    /**
+     * Returns a {@link FluentBuilder} for building objects from Java, see <a href="#fluent">Building from Java</a>.
+     *
+     * @return see above
+     */
+    public FluentBuilder fluent() {
+        return fluent(null);
+    }
+
+    /**
+     * Returns a {@link FluentBuilder} that records violations in <code>report</code> instead of throwing an exception
+     * for the first one.
+     *
+     * @param report where to record violations, or null to throw
+     * @return see above
+     */
+    public FluentBuilder fluent(ValidationReport report) {
+        return new FluentBuilder(this, report);
+    }
+
+    /**
+     * Returns the current thread's {@link BuildSession}, creating it if needed.
+     *
+     * @return see above
+     * @see <a href="#sessions">Build Sessions</a>
+     */
+    public BuildSession getSession() {
+        BuildSession session = (BuildSession)sessions.get();
+        if(session == null) {
+            session = new BuildSession(this);
+            sessions.set(session);
         }
+        return session;
+    }
+
+    /**
+     * Discards the current thread's {@link BuildSession}, if any.
+     */
+    public void releaseSession() {
+        sessions.remove();
     }
 
     /**
@@ -856,7 +1384,158 @@ public class MetaBuilder {
      *
      */
     public void addSchema(String name, Object schema) {
+        if(sealed) {
+            throw new MetaBuilderException("Schema '" + name + "': MetaBuilder is sealed.");
+        }
         schemas.put(name, schema);
+        // Compiled schemas may refer to super-schemas by name, so start over.
+        compiledSchemas = new ConcurrentHashMap();
+    }
+
+    /**
+     * Returns the {@link CompiledSchema} for the given schema, compiling it if needed.
+     *
+     * @param schema see above
+     *
+     * @return see above
+     */
+    public CompiledSchema getCompiledSchema(SchemaNode schema) {
+        ConcurrentMap compiledSchemas = this.compiledSchemas;
+        CompiledSchema compiledSchema = (CompiledSchema)compiledSchemas.get(schema);
+        if(compiledSchema == null) {
+            compiledSchema = new CompiledSchema(this, schema);
+            schemaCompilations.incrementAndGet();
+            CompiledSchema previous = (CompiledSchema)compiledSchemas.putIfAbsent(schema, compiledSchema);
+            if(previous != null) {
+                compiledSchema = previous;
+            }
+        }
+        return compiledSchema;
+    }
+
+    /**
+     * Returns the number of schemas defined or added.
+     *
+     * @return see above
+     */
+    public int getSchemaCount() {
+        return schemas.size();
+    }
+
+    /**
+     * Returns the defined schemas by name.
+     *
+     * @return see above
+     */
+    Map getSchemas() {
+        return Collections.unmodifiableMap(schemas);
+    }
+
+    /**
+     * Returns the number of schemas compiled since a schema was last added.
+     *
+     * @return see above
+     */
+    public int getCompiledSchemaCount() {
+        return compiledSchemas.size();
+    }
+
+    /**
+     * Returns the number of times a schema was compiled.
+     *
+     * @return see above
+     */
+    public long getSchemaCompilationCount() {
+        return schemaCompilations.get();
+    }
+
+    /**
+     * Returns the {@link PropertyAccessor} for the named property of the given class, creating it if needed.
+     *
+     * @param beanClass the class declaring the property
+     * @param name the property name
+     *
+     * @return see above
+     */
+    public PropertyAccessor getPropertyAccessor(Class beanClass, String name) {
+        ConcurrentMap classAccessors = (ConcurrentMap)propertyAccessors.get(beanClass);
+        if(classAccessors == null) {
+            classAccessors = new ConcurrentHashMap();
+            ConcurrentMap previous = (ConcurrentMap)propertyAccessors.putIfAbsent(beanClass, classAccessors);
+            if(previous != null) {
+                classAccessors = previous;
+            }
+        }
+        PropertyAccessor accessor = (PropertyAccessor)classAccessors.get(name);
+        if(accessor == null) {
+            accessor = new PropertyAccessor(beanClass, name);
+            PropertyAccessor previous = (PropertyAccessor)classAccessors.putIfAbsent(name, accessor);
+            if(previous != null) {
+                accessor = previous;
+            }
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the number of {@link PropertyAccessor}s created so far.
+     *
+     * @return see above
+     */
+    public int getPropertyAccessorCount() {
+        int count = 0;
+        for(Iterator i = propertyAccessors.values().iterator(); i.hasNext();) {
+            count += ((Map)i.next()).size();
+        }
+        return count;
+    }
+
+    /**
+     * Compiles all of the schemas defined so far, including the default meta schema, and prevents any more schemas
+     * from being defined or added.
+     *
+     * @see <a href="#sealing">Compiled and Sealed Schemas</a>
+     * @see <a href="#threads">Concurrent Builds</a>
+     */
+    public void seal() {
+        Map compiled = new IdentityHashMap();
+        if(defaultMetaSchema != null) {
+            compileAll(defaultMetaSchema, compiled);
+        }
+        for(Iterator i = schemas.values().iterator(); i.hasNext();) {
+            Object schema = i.next();
+            if(schema instanceof SchemaNode) {
+                compileAll((SchemaNode)schema, compiled);
+                if(defaultBuildNodeFactory instanceof ClassGeneratingNodeFactory) {
+                    CompiledSchema compiledSchema = getCompiledSchema((SchemaNode)schema);
+                    if(compiledSchema.getFactoryAttribute() == null) {
+                        ((ClassGeneratingNodeFactory)defaultBuildNodeFactory).getGeneratedClass(compiledSchema);
+                    }
+                }
+            }
+        }
+        sealed = true;
+    }
+
+    /**
+     * Returns true if {@link #seal} has been called.
+     *
+     * @return see above
+     */
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    private void compileAll(SchemaNode schema, Map compiled) {
+        if(compiled.put(schema, schema) != null) return;
+        getCompiledSchema(schema);
+        List children = schema.children();
+        for(int i = 0; i < children.size(); i++) {
+            Object child = children.get(i);
+            if(child instanceof SchemaNode) {
+                compileAll((SchemaNode)child, compiled);
+            }
+        }
     }
 
     /**
@@ -877,6 +1556,31 @@ public class MetaBuilder {
         return defaultMetaSchema;
     }
 
+    /**
+     * Returns the {@link FactoryInterceptorMetaClass} to install on a script while it runs.  Scripts with their
+     * class's default {@link MetaClass} share one interceptor per class, so that its dispatch decisions, and the
+     * call sites Groovy caches for it, are kept from one build to the next.  The interceptor is only held weakly, so
+     * it is created again once it has been garbage collected.
+     *
+     * @param script the script
+     * @param scriptMetaClass the script's own {@link MetaClass}
+     *
+     * @return see above
+     */
+    protected FactoryInterceptorMetaClass getFactoryInterceptorMetaClass(Script script, MetaClass scriptMetaClass) {
+        Class scriptClass = script.getClass();
+        if(scriptMetaClass != GroovySystem.getMetaClassRegistry().getMetaClass(scriptClass)) {
+            return new FactoryInterceptorMetaClass(scriptMetaClass);
+        }
+        Reference reference = (Reference)factoryInterceptors.get(scriptClass);
+        FactoryInterceptorMetaClass interceptor = reference != null ? (FactoryInterceptorMetaClass)reference.get() : null;
+        if(interceptor == null || interceptor.getAdaptee() != scriptMetaClass) {
+            interceptor = new FactoryInterceptorMetaClass(scriptMetaClass);
+            factoryInterceptors.put(scriptClass, new WeakReference(interceptor));
+        }
+        return interceptor;
+    }
+
     /**
      * Returns a new {@link MetaObjectGraphBuilder} with the given default schema and node factory
      *
@@ -886,9 +1590,27 @@ public class MetaBuilder {
      * @return see above
      */
     protected MetaObjectGraphBuilder createMetaObjectGraphBuilder(SchemaNode defaultSchema, Factory defaultNodeFactory, Closure objectVisitor) {
+        if(lightweight) {
+            return new LightweightMetaObjectGraphBuilder(this, defaultSchema, defaultNodeFactory, objectVisitor);
+        }
         return new MetaObjectGraphBuilder(this, defaultSchema, defaultNodeFactory, objectVisitor);
     }
 
+    public boolean isLightweight() {
+        return lightweight;
+    }
+
+    /**
+     * Sets whether subsequent definitions and builds use a {@link LightweightMetaObjectGraphBuilder} rather than a
+     * {@link MetaObjectGraphBuilder}.
+     *
+     * @param lightweight see above
+     * @see <a href="#lightweight">Lightweight Builds</a>
+     */
+    public void setLightweight(boolean lightweight) {
+        this.lightweight = lightweight;
+    }
+
     /**
      * Sets the {@link ClassLoader} to use by the <code>MetaBuilder</code>.  It is sometimes necessary, especially in Groovy scripts,
      * to provide {@link ClassLoader} explicity to resolve classes by name.
@@ -897,6 +1619,117 @@ public class MetaBuilder {
      */
     public void setClassLoader(ClassLoader classLoader) {
         this.classLoader = classLoader instanceof GroovyClassLoader ? (GroovyClassLoader)classLoader : new GroovyClassLoader(classLoader);
+        this.scriptCache = new ScriptCache(this.classLoader, scriptCache != null ? scriptCache.getDirectory() : null);
+    }
+
+    /**
+     * Returns the cache of compiled scripts.
+     *
+     * @return see above
+     * @see <a href="#scripts">Script Caching</a>
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the directory where compiled scripts are saved, so that unchanged scripts need not be compiled again by
+     * another <code>MetaBuilder</code>.  Replaces the current {@link ScriptCache}.
+     *
+     * @param directory the directory, or null to keep compiled scripts in memory only
+     * @see <a href="#scripts">Script Caching</a>
+     */
+    public void setScriptCacheDirectory(File directory) {
+        this.scriptCache = new ScriptCache(classLoader, directory);
+    }
+
+    /**
+     * Returns the cache of recorded builds, if any.
+     *
+     * @return see above, or null if builds aren't cached
+     * @see <a href="#buildCache">Build Caching</a>
+     */
+    public BuildCache getBuildCache() {
+        return buildCache;
+    }
+
+    /**
+     * Sets the directory where the builds of scripts loaded from a {@link URL} are saved, so that unchanged scripts
+     * needn't be run again.  Replaces the current {@link BuildCache}.
+     *
+     * @param directory the directory, or null not to cache builds
+     * @see <a href="#buildCache">Build Caching</a>
+     */
+    public void setBuildCacheDirectory(File directory) {
+        this.buildCache = directory != null ? new BuildCache(this, directory) : null;
+    }
+
+    /**
+     * Returns the table through which the values of properties whose <code>intern</code> attribute is true are
+     * shared.
+     *
+     * @return see above
+     * @see <a href="#interning">Interning Values</a>
+     */
+    public InternTable getInternTable() {
+        return internTable;
+    }
+
+    /**
+     * Replaces the table through which the values of properties whose <code>intern</code> attribute is true are
+     * shared, e.g. with a larger one or with one shared by several <code>MetaBuilder</code>s.
+     *
+     * @param internTable see above
+     * @see <a href="#interning">Interning Values</a>
+     */
+    public void setInternTable(InternTable internTable) {
+        if(internTable == null) {
+            throw new IllegalArgumentException("internTable must not be null");
+        }
+        this.internTable = internTable;
+    }
+
+    public BuildMetrics getBuildMetrics() {
+        return buildMetrics;
+    }
+
+    /**
+     * Sets the {@link BuildMetrics} to be called by subsequent builds.
+     *
+     * @param buildMetrics see above, or null to stop measuring builds
+     * @see <a href="#metrics">Build Metrics</a>
+     */
+    public void setBuildMetrics(BuildMetrics buildMetrics) {
+        this.buildMetrics = buildMetrics;
+    }
+
+    /**
+     * Registers a {@link MetaBuilderStatsMBean} for this <code>MetaBuilder</code> with the platform MBean server.
+     *
+     * @param name the MBean's name
+     * @see <a href="#metrics">Build Metrics</a>
+     */
+    public void registerMBean(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetaBuilderStats(this), name);
+        }
+        catch(JMException e) {
+            throw new MetaBuilderException("MBean '" + name + "' could not be registered.", e);
+        }
+    }
+
+    /**
+     * Unregisters an MBean registered by {@link #registerMBean}.
+     *
+     * @param name the MBean's name
+     */
+    public void unregisterMBean(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch(JMException e) {
+            throw new MetaBuilderException("MBean '" + name + "' could not be unregistered.", e);
+        }
     }
 
     public static RuntimeException createNodeException(String name, String error) {
@@ -962,10 +1795,12 @@ public class MetaBuilder {
     /**
      * Default {@link SchemaNode} factory used when {@link MetaBuilder#build} is called.  Differs from
      * {@link DefaultDefineSchemaNodeFactory} in that it doesn't include {@link CollectionSchemaNode}s in the result.
+     * Builds {@link CompactSchemaNode}s sharing the {@link CompiledSchema#getCompactLayout() layout} of their schema.
      */
     protected static class DefaultBuildSchemaNodeFactory extends AbstractFactory {
         public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
-            return new SchemaNode(null, name);
+            CompiledSchema schema = ((MetaObjectGraphBuilder)builder).getCurrentCompiledSchema();
+            return new CompactSchemaNode(null, name, schema != null ? schema.getCompactLayout() : null);
         }
     }
 
@@ -982,14 +1817,48 @@ public class MetaBuilder {
      * Supports builder scripts by dispatching methods against {@link MetaObjectGraphBuilder}.
      * <p>
      * Borrowed from {@link FactoryBuilderSupport}.  Is there a reason it wasn't made a public class to begin with?
+     * <p>
+     * Whether a method name refers to the script, the builder or one of the builder's factories is decided once per
+     * name and cached, so that node names are dispatched to the builder directly rather than by catching a
+     * {@link MissingMethodException} from the script first.  Unless constructed with a builder, the builder is the
+     * script's binding, which allows one interceptor to be shared by all instances of a script class, see
+     * {@link MetaBuilder#getFactoryInterceptorMetaClass}.
      */
     public static class FactoryInterceptorMetaClass extends DelegatingMetaClass {
+        private static final Integer SCRIPT = Integer.valueOf(0);
+        private static final Integer BUILDER = Integer.valueOf(1);
+        private static final Integer FACTORY = Integer.valueOf(2);
 
         FactoryBuilderSupport factory;
 
+        /**
+         * {@link #SCRIPT}, {@link #BUILDER} or {@link #FACTORY} by method name.
+         */
+        private final ConcurrentMap dispatch;
+
+        /**
+         * True if the scripts define their own <code>invokeMethod</code>, once known.
+         */
+        private volatile Boolean overridesInvokeMethod;
+
+        /**
+         * Set while a script's own <code>invokeMethod</code> is called, which may call back through this MetaClass.
+         */
+        private final ThreadLocal invokingScript = new ThreadLocal();
+
         public FactoryInterceptorMetaClass(MetaClass delegate, FactoryBuilderSupport factory) {
             super(delegate);
             this.factory = factory;
+            this.dispatch = new ConcurrentHashMap();
+        }
+
+        /**
+         * Constructs a <code>FactoryInterceptorMetaClass</code> which dispatches to the builder bound to each script.
+         *
+         * @param delegate the script class's {@link MetaClass}
+         */
+        public FactoryInterceptorMetaClass(MetaClass delegate) {
+            this(delegate, null);
         }
 
         /* (non-Javadoc)
@@ -1019,43 +1888,132 @@ public class MetaBuilder {
         }
 
         public Object invokeMethod(Object object, String methodName, Object arguments) {
+            return invokeMethod(object, methodName, InvokerHelper.asArray(arguments));
+        }
+
+        public Object invokeMethod(Object object, String methodName, Object[] arguments) {
+            FactoryBuilderSupport factory = getFactory(object);
+            Object kind = dispatch.get(methodName);
+            if(kind == null) {
+                kind = resolve(object, factory, methodName);
+                dispatch.putIfAbsent(methodName, kind);
+            }
+            if(kind == SCRIPT || factory.getVariables().containsKey(methodName)) {
+                // the script, or a closure it bound to a variable
+                try {
+                    return invokeScript(object, methodName, arguments);
+                } catch (MissingMethodException mme) {
+                    return invokeFactory(factory, methodName, arguments, mme);
+                }
+            }
             try {
-                return delegate.invokeMethod(object, methodName, arguments);
+                return invokeFactory(factory, methodName, arguments, kind == BUILDER);
             } catch (MissingMethodException mme) {
-                // attempt factory resolution
-                try {
-                    if (factory.getMetaClass().respondsTo(factory, methodName).isEmpty()) {
-                        // dispatch to factories if it is not a literal method
-                        return factory.invokeMethod(methodName, arguments);
-                    } else {
-                        return InvokerHelper.invokeMethod(factory, methodName, arguments);
-                    }
-                } catch (MissingMethodException mme2) {
-                    // throw original
-                    // should we chain in mme2 somehow?
+                if(!methodName.equals(mme.getMethod())) {
                     throw mme;
                 }
+                // report it against the script, just like a script method that doesn't exist
+                throw new MissingMethodException(methodName, object.getClass(), arguments);
             }
         }
 
-        public Object invokeMethod(Object object, String methodName, Object[] arguments) {
+        /**
+         * Invokes the method on the script, including its own <code>methodMissing</code> or
+         * <code>invokeMethod</code>, if any.
+         *
+         * @throws MissingMethodException if the script doesn't handle the method
+         */
+        private Object invokeScript(Object object, String methodName, Object[] arguments) {
             try {
                 return delegate.invokeMethod(object, methodName, arguments);
+            } catch (InvokerInvocationException e) {
+                // thrown by the script's own methodMissing, which is called reflectively
+                Throwable cause = e.getCause();
+                if(cause instanceof MissingMethodException && methodName.equals(((MissingMethodException)cause).getMethod())) {
+                    throw (MissingMethodException)cause;
+                }
+                throw e;
             } catch (MissingMethodException mme) {
-                // attempt factory resolution
-                try {
-                    if (factory.getMetaClass().respondsTo(factory, methodName).isEmpty()) {
-                        // dispatch to factories if it is not a literal method
-                        return factory.invokeMethod(methodName, arguments);
-                    } else {
-                        return InvokerHelper.invokeMethod(factory, methodName, arguments);
-                    }
-                } catch (MissingMethodException mme2) {
-                    // throw original
-                    // should we chain in mme2 somehow?
+                // the MetaClass doesn't call an invokeMethod defined by the script, unless the script calls it itself
+                if(!overridesInvokeMethod(object) || invokingScript.get() != null) {
                     throw mme;
                 }
+                invokingScript.set(Boolean.TRUE);
+                try {
+                    return ((GroovyObject)object).invokeMethod(methodName, arguments);
+                } finally {
+                    invokingScript.remove();
+                }
+            }
+        }
+
+        /**
+         * Attempts factory resolution of a method the script doesn't have, throwing the script's exception if that
+         * fails, too.
+         */
+        private Object invokeFactory(FactoryBuilderSupport factory, String methodName, Object[] arguments, MissingMethodException mme) {
+            try {
+                return invokeFactory(factory, methodName, arguments, !factory.getMetaClass().respondsTo(factory, methodName).isEmpty());
+            } catch (MissingMethodException mme2) {
+                // throw original
+                // should we chain in mme2 somehow?
+                throw mme;
+            }
+        }
+
+        private Object invokeFactory(FactoryBuilderSupport factory, String methodName, Object[] arguments, boolean builderMethod) {
+            if (builderMethod) {
+                return InvokerHelper.invokeMethod(factory, methodName, arguments);
+            } else {
+                // dispatch to factories if it is not a literal method
+                return factory.invokeMethod(methodName, arguments);
+            }
+        }
+
+        /**
+         * Decides where calls to the named method go.  Names of script methods or properties, which may hold
+         * closures, are left to the script, as are all names if the script handles missing methods itself.
+         * Otherwise, names of builder methods go to the builder and any other name is the name of a node.
+         */
+        private Integer resolve(Object object, FactoryBuilderSupport factory, String methodName) {
+            if(!delegate.respondsTo(object, methodName).isEmpty() || delegate.hasProperty(object, methodName) != null
+                    || handlesMissingMethods(object)) {
+                return SCRIPT;
+            }
+            if(!factory.getMetaClass().respondsTo(factory, methodName).isEmpty()) {
+                return BUILDER;
+            }
+            return FACTORY;
+        }
+
+        /**
+         * Returns true if the object defines <code>methodMissing</code> or its own <code>invokeMethod</code>, which
+         * may handle any name.
+         */
+        private boolean handlesMissingMethods(Object object) {
+            return !delegate.respondsTo(object, "methodMissing").isEmpty() || overridesInvokeMethod(object);
+        }
+
+        private boolean overridesInvokeMethod(Object object) {
+            Boolean overrides = overridesInvokeMethod;
+            if(overrides == null) {
+                try {
+                    Class declaringClass = object.getClass().getMethod("invokeMethod", new Class[] {String.class, Object.class}).getDeclaringClass();
+                    overrides = Boolean.valueOf(declaringClass != Script.class && declaringClass != GroovyObjectSupport.class);
+                }
+                catch(NoSuchMethodException e) {
+                    overrides = Boolean.FALSE;
+                }
+                overridesInvokeMethod = overrides;
+            }
+            return overrides.booleanValue();
+        }
+
+        private FactoryBuilderSupport getFactory(Object object) {
+            if(factory != null) {
+                return factory;
             }
+            return (FactoryBuilderSupport)((Script)object).getBinding();
         }
     }
 }
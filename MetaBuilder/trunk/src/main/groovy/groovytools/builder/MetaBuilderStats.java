@@ -0,0 +1,146 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+/**
+ * Exposes a {@link MetaBuilder} to JMX, see {@link MetaBuilder#registerMBean}.
+ *
+ * @version $Id$
+ */
+public class MetaBuilderStats implements MetaBuilderStatsMBean {
+    private static final String[] NONE = new String[0];
+
+    private final MetaBuilder metaBuilder;
+
+    public MetaBuilderStats(MetaBuilder metaBuilder) {
+        this.metaBuilder = metaBuilder;
+    }
+
+    public int getSchemaCount() {
+        return metaBuilder.getSchemaCount();
+    }
+
+    public int getCompiledSchemaCount() {
+        return metaBuilder.getCompiledSchemaCount();
+    }
+
+    public long getSchemaCompilationCount() {
+        return metaBuilder.getSchemaCompilationCount();
+    }
+
+    public boolean isSealed() {
+        return metaBuilder.isSealed();
+    }
+
+    public long getScriptCacheHitCount() {
+        return metaBuilder.getScriptCache().getHitCount();
+    }
+
+    public long getScriptCacheDiskHitCount() {
+        return metaBuilder.getScriptCache().getDiskHitCount();
+    }
+
+    public long getScriptCacheMissCount() {
+        return metaBuilder.getScriptCache().getMissCount();
+    }
+
+    public double getScriptCacheHitRatio() {
+        ScriptCache scriptCache = metaBuilder.getScriptCache();
+        long hits = scriptCache.getHitCount() + scriptCache.getDiskHitCount();
+        long total = hits + scriptCache.getMissCount();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public int getPropertyAccessorCount() {
+        return metaBuilder.getPropertyAccessorCount();
+    }
+
+    public int getInternTableSize() {
+        return metaBuilder.getInternTable().size();
+    }
+
+    public long getInternHitCount() {
+        return metaBuilder.getInternTable().getHitCount();
+    }
+
+    public long getInternMissCount() {
+        return metaBuilder.getInternTable().getMissCount();
+    }
+
+    public long getInternOverflowCount() {
+        return metaBuilder.getInternTable().getOverflowCount();
+    }
+
+    public long getBuildCacheHitCount() {
+        BuildCache buildCache = metaBuilder.getBuildCache();
+        return buildCache != null ? buildCache.getHitCount() : 0;
+    }
+
+    public long getBuildCacheMissCount() {
+        BuildCache buildCache = metaBuilder.getBuildCache();
+        return buildCache != null ? buildCache.getMissCount() : 0;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metaBuilder.getBuildMetrics() != null;
+    }
+
+    public String[] getEvents() {
+        return DefaultBuildMetrics.getEvents();
+    }
+
+    public String[] getSchemaNames() {
+        DefaultBuildMetrics metrics = getMetrics();
+        return metrics != null ? metrics.getSchemaNames() : NONE;
+    }
+
+    public String[] getSlowestSchemas(int count) {
+        DefaultBuildMetrics metrics = getMetrics();
+        return metrics != null ? metrics.getSlowestSchemas(count) : NONE;
+    }
+
+    public long getCount(String fqn, String event) {
+        DefaultBuildMetrics metrics = getMetrics();
+        return metrics != null ? metrics.getCount(fqn, event) : 0;
+    }
+
+    public double getMeanNanos(String fqn, String event) {
+        DefaultBuildMetrics metrics = getMetrics();
+        return metrics != null ? metrics.getMeanNanos(fqn, event) : 0;
+    }
+
+    public long getMaxNanos(String fqn, String event) {
+        DefaultBuildMetrics metrics = getMetrics();
+        return metrics != null ? metrics.getMaxNanos(fqn, event) : 0;
+    }
+
+    public long getPercentileNanos(String fqn, String event, double percentile) {
+        DefaultBuildMetrics metrics = getMetrics();
+        return metrics != null ? metrics.getPercentileNanos(fqn, event, percentile) : 0;
+    }
+
+    public void resetMetrics() {
+        DefaultBuildMetrics metrics = getMetrics();
+        if(metrics != null) {
+            metrics.reset();
+        }
+    }
+
+    private DefaultBuildMetrics getMetrics() {
+        BuildMetrics metrics = metaBuilder.getBuildMetrics();
+        return metrics instanceof DefaultBuildMetrics ? (DefaultBuildMetrics)metrics : null;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+/**
+ * The JMX management interface of a {@link MetaBuilder}, see {@link MetaBuilder#registerMBean}.
+ * <p/>
+ * The per-schema operations report the metrics of the {@link MetaBuilder}'s {@link DefaultBuildMetrics}, if it has
+ * one, and report nothing otherwise.  Events are named by the constants of {@link DefaultBuildMetrics}, times are in
+ * nanoseconds.
+ *
+ * @version $Id$
+ */
+public interface MetaBuilderStatsMBean {
+
+    int getSchemaCount();
+
+    int getCompiledSchemaCount();
+
+    /**
+     * Returns the number of times a schema was compiled.  Greater than the compiled schema count when schemas had to
+     * be compiled again because another schema was added.
+     *
+     * @return see above
+     */
+    long getSchemaCompilationCount();
+
+    boolean isSealed();
+
+    long getScriptCacheHitCount();
+
+    long getScriptCacheDiskHitCount();
+
+    long getScriptCacheMissCount();
+
+    /**
+     * Returns the ratio of scripts found in memory or on disk to all scripts loaded.
+     *
+     * @return see above, or 0 if no scripts were loaded
+     */
+    double getScriptCacheHitRatio();
+
+    int getPropertyAccessorCount();
+
+    int getInternTableSize();
+
+    long getInternHitCount();
+
+    long getInternMissCount();
+
+    long getInternOverflowCount();
+
+    /**
+     * Returns the number of saved builds replayed instead of running their scripts.
+     *
+     * @return see above, or 0 if builds aren't cached
+     */
+    long getBuildCacheHitCount();
+
+    long getBuildCacheMissCount();
+
+    boolean isMetricsEnabled();
+
+    String[] getEvents();
+
+    String[] getSchemaNames();
+
+    String[] getSlowestSchemas(int count);
+
+    long getCount(String fqn, String event);
+
+    double getMeanNanos(String fqn, String event);
+
+    long getMaxNanos(String fqn, String event);
+
+    long getPercentileNanos(String fqn, String event, double percentile);
+
+    void resetMetrics();
+}
@@ -42,14 +42,21 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
     private SchemaNode defaultSchema;
 
     /**
-     * Keeps track of the current schema while descending into an object graph.
+     * Keeps track of the current {@link CompiledSchema} while descending into an object graph.
      */
 	private LinkedList schemaStack;
 
     /**
-     * Keeps track of which properties were set/unset
+     * Keeps track of which properties were set, one {@link BitSet} of
+     * {@link CompiledSchema#getPropertyIndex(String) property indexes} per node being built.  The BitSets are reused
+     * from node to node.
      */
-    private LinkedList propertiesStack;
+    private BitSet[] propertiesStack;
+
+    /**
+     * Index of the current node's entry in {@link #propertiesStack}, or -1.
+     */
+    private int propertiesDepth;
 
     /**
      * Default factory to use when no other can be resolved.
@@ -61,6 +68,62 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      */
     private Closure objectVisitor;
 
+    /**
+     * If set, called with each root node once it is complete.
+     */
+    private Closure rootVisitor;
+
+    /**
+     * Build-time parents of {@link CollectionSchemaNode}s.  Kept here rather than in the schema so that concurrent
+     * builds don't interfere with each other.
+     */
+    private Map parentBeans;
+
+    /**
+     * The {@link CollectionTarget}s of the parent beans being built, by parent bean and then by collection name.
+     * Collections are matched by name since the collections checked on completion are those merged by
+     * {@link CompiledSchema}, which are copies of the ones children were added with.
+     */
+    private Map collectionTargets;
+
+    /**
+     * The {@link MetaBuilder}'s {@link BuildMetrics} when this builder was created, if any.  Nothing is timed if
+     * null.
+     */
+    private final BuildMetrics metrics;
+
+    /**
+     * When the current factory's <code>newInstance</code> method was called, if there are metrics.
+     */
+    private long instantiationStart;
+
+    /**
+     * If set, violations are recorded here instead of thrown.
+     */
+    private ValidationReport validationReport;
+
+    /**
+     * The number of roots completed so far, i.e. the index of the root being built.
+     */
+    private long roots;
+
+    /**
+     * The schema of the node being checked by {@link #nodeCompleted}, which is no longer on the schema stack.
+     */
+    private CompiledSchema completedSchema;
+
+    /**
+     * Resolved child schemas, by the current {@link CompiledSchema} (<code>null</code> for roots) and then by node
+     * name.  Filled in as names are first seen, so that each name is only resolved once per parent schema.  Only the
+     * schema resolution is saved, see {@link #dispatch}.
+     */
+    private Map dispatchTable;
+
+    /**
+     * Records the nodes and properties given by the script, if it is to be cached, see {@link BuildCache}.
+     */
+    private BuildRecording recording;
+
     /**
      * Constructs a {@link MetaObjectGraphBuilder}.
      *
@@ -84,12 +147,18 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
         super();
         this.metaBuilder = metaBuilder;
         schemaStack = new LinkedList();
-        propertiesStack = new LinkedList();
+        propertiesStack = new BitSet[16];
+        propertiesDepth = -1;
+        parentBeans = new IdentityHashMap();
+        collectionTargets = new IdentityHashMap();
+        dispatchTable = new HashMap();
         this.defaultSchema = defaultSchema;
         this.defaultFactory = defaultFactory;
         this.objectVisitor = objectVisitor;
+        this.metrics = metaBuilder.getBuildMetrics();
 
         setClassNameResolver(createClassNameResolver());
+        setNewInstanceResolver(createNewInstanceResolver());
         setClassLoader(metaBuilder.getClassLoader());
         setIdentifierResolver(createIdentifierResolver());
     }
@@ -98,38 +167,277 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
         return metaBuilder;
     }
 
-    public void pushProperties(SchemaNode propertiesSchema) {
-        List propertiesList = (List)propertiesSchema.value();
-        Map propertiesMap = new HashMap();
-        for(int i = 0; i < propertiesList.size(); i++) {
-            SchemaNode propertySchema = (SchemaNode)propertiesList.get(i);
-            propertiesMap.put(propertySchema.name(), propertySchema);
+    /**
+     * Clears what is left of the last build, including its visitors and validation report, so that the builder may
+     * be used for another one, see {@link BuildSession}.  Resolved child schemas are kept while the
+     * {@link MetaBuilder} is {@link MetaBuilder#seal sealed}, since its compiled schemas can't change.
+     */
+    public void reset() {
+        super.reset();
+        schemaStack.clear();
+        propertiesDepth = -1;
+        parentBeans.clear();
+        collectionTargets.clear();
+        objectVisitor = null;
+        rootVisitor = null;
+        validationReport = null;
+        recording = null;
+        roots = 0;
+        completedSchema = null;
+        if(!metaBuilder.isSealed()) {
+            dispatchTable.clear();
+        }
+    }
+
+    /**
+     * Starts tracking the properties of a new node, none of which are set yet.
+     */
+    public void pushProperties() {
+        propertiesDepth++;
+        if(propertiesDepth == propertiesStack.length) {
+            propertiesStack = Arrays.copyOf(propertiesStack, propertiesStack.length * 2);
+        }
+        BitSet properties = propertiesStack[propertiesDepth];
+        if(properties == null) {
+            propertiesStack[propertiesDepth] = new BitSet();
+        }
+        else {
+            properties.clear();
         }
-        propertiesStack.addFirst(propertiesMap);
     }
 
-    public void pushProperties(Map properties) {
-        propertiesStack.addFirst(properties);
+    public void popProperties() {
+        propertiesDepth--;
     }
 
-    public Map popProperties() {
-        return (Map)propertiesStack.removeFirst();
+    /**
+     * Returns the indexes of the properties set on the current node so far.
+     *
+     * @return see above, or null if there is no current node
+     */
+    public BitSet getCurrentProperties() {
+        return propertiesDepth >= 0 ? propertiesStack[propertiesDepth] : null;
     }
 
-    public Map getCurrentProperties() {
-        return (Map)propertiesStack.peek();
+    /**
+     * Marks the named property as set on the current node so that its default won't be applied and it won't be
+     * reported as missing.
+     *
+     * @param schema the compiled schema of the current node
+     * @param name the property name
+     */
+    protected void markPropertySet(CompiledSchema schema, String name) {
+        int index = schema.getPropertyIndex(name);
+        if(index >= 0 && propertiesDepth >= 0) {
+            propertiesStack[propertiesDepth].set(index);
+        }
     }
 
     public void pushSchema(SchemaNode schema) {
+        pushSchema(metaBuilder.getCompiledSchema(schema));
+    }
+
+    public void pushSchema(CompiledSchema schema) {
         schemaStack.addFirst(schema);
     }
 
     public SchemaNode popSchema() {
-        return (SchemaNode)schemaStack.removeFirst();
+        return ((CompiledSchema)schemaStack.removeFirst()).getSchema();
     }
 
     public SchemaNode getCurrentSchema() {
-        return (SchemaNode)schemaStack.peek();
+        CompiledSchema schema = getCurrentCompiledSchema();
+        return schema != null ? schema.getSchema() : null;
+    }
+
+    public CompiledSchema getCurrentCompiledSchema() {
+        return (CompiledSchema)schemaStack.peek();
+    }
+
+    /**
+     * Returns the build-time parent of the given collection.
+     *
+     * @param collectionSchema see above
+     * @return see above
+     */
+    public Object getParentBean(CollectionSchemaNode collectionSchema) {
+        return parentBeans.get(collectionSchema);
+    }
+
+    /**
+     * Sets the build-time parent of the given collection.
+     *
+     * @param collectionSchema see above
+     * @param parentBean see above
+     */
+    public void setParentBean(CollectionSchemaNode collectionSchema, Object parentBean) {
+        parentBeans.put(collectionSchema, parentBean);
+    }
+
+    private CollectionTarget getTarget(CollectionSchemaNode collectionSchema, Object parentBean) {
+        Map targets = (Map)collectionTargets.get(parentBean);
+        return targets != null ? (CollectionTarget)targets.get(collectionSchema.name()) : null;
+    }
+
+    /**
+     * Returns the collection that children of the given collection schema are added to, if it has already been
+     * found for the given parent bean.
+     *
+     * @param collectionSchema the collection schema
+     * @param parentBean the collection's owner
+     * @return see above, or null if not found yet
+     * @see CompiledCollection
+     */
+    public Object getCollectionTarget(CollectionSchemaNode collectionSchema, Object parentBean) {
+        CollectionTarget target = getTarget(collectionSchema, parentBean);
+        return target != null ? target.collection : null;
+    }
+
+    /**
+     * Remembers the collection that children of the given collection schema are added to, until the parent bean
+     * is complete.
+     *
+     * @param collectionSchema the collection schema
+     * @param parentBean the collection's owner
+     * @param target the collection
+     */
+    public void setCollectionTarget(CollectionSchemaNode collectionSchema, Object parentBean, Object target) {
+        Map targets = (Map)collectionTargets.get(parentBean);
+        if(targets == null) {
+            targets = new HashMap();
+            collectionTargets.put(parentBean, targets);
+        }
+        CollectionTarget previous = (CollectionTarget)targets.put(collectionSchema.name(), new CollectionTarget(collectionSchema, target, resolveMax(collectionSchema)));
+        if(previous != null) {
+            previous.flush();
+        }
+    }
+
+    /**
+     * Returns the <code>max</code> attribute of the collection as merged by the schema of the parent bean, which
+     * follows the collection's own schema on the stack, or -1 if there is none.
+     */
+    private int resolveMax(CollectionSchemaNode collectionSchema) {
+        for(Iterator i = schemaStack.iterator(); i.hasNext();) {
+            if(((CompiledSchema)i.next()).getSchema() == collectionSchema) {
+                if(i.hasNext()) {
+                    SchemaNode merged = (SchemaNode)((CompiledSchema)i.next()).getMergedCollections().firstChild((String)collectionSchema.name());
+                    Integer max = merged != null ? (Integer)merged.attribute("max") : null;
+                    return max != null ? max.intValue() : -1;
+                }
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Throws a {@link CollectionException} as soon as a child added to the collection set by
+     * {@link #setCollectionTarget} exceeds its <code>max</code>, rather than once the parent bean is complete.
+     *
+     * @param collectionSchema the collection schema
+     * @param parentBean the collection's owner
+     */
+    public void checkCollectionMax(CollectionSchemaNode collectionSchema, Object parentBean) {
+        if(validationReport != null) {
+            // reported once by checkSize instead
+            return;
+        }
+        CollectionTarget target = getTarget(collectionSchema, parentBean);
+        if(target != null && target.max >= 0 && target.size() > target.max) {
+            throw MetaBuilder.createCollectionException(collectionSchema.fqn(), "max check failed");
+        }
+    }
+
+    /**
+     * Returns the size of the named collection of the parent bean, if children have been added to it since the
+     * parent bean was created, so that {@link CollectionSchemaNode#checkSize} and
+     * {@link CollectionSchemaNode#checkDef} don't have to look the collection up again.
+     *
+     * @param collectionSchema the collection schema
+     * @param parentBean the collection's owner
+     * @return see above, or null if unknown
+     */
+    public Integer getCollectionSize(CollectionSchemaNode collectionSchema, Object parentBean) {
+        CollectionTarget target = getTarget(collectionSchema, parentBean);
+        return target != null ? Integer.valueOf(target.size()) : null;
+    }
+
+    /**
+     * Adds the child to the collection set by {@link #setCollectionTarget} later, when the parent bean is complete
+     * or, at the latest, when the root is complete.  Used by collections with the <code>bulk</code> attribute.
+     *
+     * @param collectionSchema the collection schema
+     * @param parentBean the collection's owner
+     * @param key the child's key if the collection is a {@link Map}, else ignored
+     * @param child the child
+     */
+    public void deferChild(CollectionSchemaNode collectionSchema, Object parentBean, Object key, Object child) {
+        CollectionTarget target = getTarget(collectionSchema, parentBean);
+        if(target == null) {
+            throw MetaBuilder.createCollectionException(collectionSchema.fqn(), "no collection to add to");
+        }
+        target.defer(key, child);
+    }
+
+    /**
+     * Adds the children deferred by {@link #deferChild} for the given parent bean to its collections.
+     *
+     * @param parentBean the collections' owner
+     */
+    public void flushCollections(Object parentBean) {
+        Map targets = (Map)collectionTargets.get(parentBean);
+        if(targets == null) return;
+        for(Iterator i = targets.values().iterator(); i.hasNext();) {
+            ((CollectionTarget)i.next()).flush();
+        }
+    }
+
+    /**
+     * Returns the value of the named property of the bean, see {@link PropertyAccessor}.
+     *
+     * @param bean the bean
+     * @param name the property name
+     * @return see above
+     */
+    public Object getBeanProperty(Object bean, String name) {
+        if(bean == null) {
+            return InvokerHelper.getProperty(bean, name);
+        }
+        return metaBuilder.getPropertyAccessor(bean.getClass(), name).getProperty(bean);
+    }
+
+    /**
+     * Sets the named property of the bean, see {@link PropertyAccessor}.
+     *
+     * @param bean the bean
+     * @param name the property name
+     * @param value the property value
+     */
+    public void setBeanProperty(Object bean, String name, Object value) {
+        if(bean == null) {
+            InvokerHelper.setProperty(bean, name, value);
+            return;
+        }
+        metaBuilder.getPropertyAccessor(bean.getClass(), name).setProperty(bean, value);
+    }
+
+    /**
+     * Returns the factory used when no other can be resolved.
+     *
+     * @return see above
+     */
+    public Factory getDefaultFactory() {
+        return defaultFactory;
+    }
+
+    /**
+     * Returns the {@link BuildMetrics} called by this builder.
+     *
+     * @return see above, or null if nothing is measured
+     */
+    public BuildMetrics getBuildMetrics() {
+        return metrics;
     }
 
     public Closure getObjectVisitor() {
@@ -140,6 +448,105 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
         this.objectVisitor = objectVisitor;
     }
 
+    public Closure getRootVisitor() {
+        return rootVisitor;
+    }
+
+    /**
+     * Sets a closure to be called with each root node as soon as the root is complete, including any references to
+     * other nodes.
+     *
+     * @param rootVisitor a closure accepting the root node as its only argument
+     */
+    public void setRootVisitor(Closure rootVisitor) {
+        this.rootVisitor = rootVisitor;
+    }
+
+    /**
+     * Sets where to record the nodes and properties given by the script, see {@link BuildCache}.
+     *
+     * @param recording see above, or null to record nothing
+     */
+    void setRecording(BuildRecording recording) {
+        this.recording = recording;
+    }
+
+    public ValidationReport getValidationReport() {
+        return validationReport;
+    }
+
+    /**
+     * Sets a report to record violations in, rather than throwing an exception for the first one.  The build
+     * continues after a violation: invalid property values and unknown properties are not set, but all nodes are
+     * built, added to their collections and passed on as usual.
+     *
+     * @param validationReport see above, or null to throw
+     */
+    public void setValidationReport(ValidationReport validationReport) {
+        this.validationReport = validationReport;
+    }
+
+    /**
+     * Throws a {@link PropertyException} unless a {@link #setValidationReport validation report} is set, in which
+     * case the violation is recorded there.
+     *
+     * @param fqn the fully qualified name of the property
+     * @param name the property name
+     * @param reason see above
+     */
+    public void propertyViolation(String fqn, String name, String reason) {
+        if(validationReport == null) {
+            throw MetaBuilder.createPropertyException(fqn, reason);
+        }
+        validationReport.add(ValidationReport.PROPERTY, fqn, name, reason, roots, path());
+    }
+
+    /**
+     * Throws a {@link CollectionException} unless a {@link #setValidationReport validation report} is set, in which
+     * case the violation is recorded there.
+     *
+     * @param fqn the fully qualified name of the collection
+     * @param name the collection name
+     * @param reason see above
+     */
+    public void collectionViolation(String fqn, String name, String reason) {
+        if(validationReport == null) {
+            throw MetaBuilder.createCollectionException(fqn, reason);
+        }
+        validationReport.add(ValidationReport.COLLECTION, fqn, name, reason, roots, path());
+    }
+
+    /**
+     * Throws a {@link NodeException} unless a {@link #setValidationReport validation report} is set, in which case
+     * the violation is recorded there.
+     *
+     * @param fqn the fully qualified name of the node's schema
+     * @param reason see above
+     */
+    public void nodeViolation(String fqn, String reason) {
+        if(validationReport == null) {
+            throw MetaBuilder.createNodeException(fqn, reason);
+        }
+        validationReport.add(ValidationReport.NODE, fqn, null, reason, roots, path());
+    }
+
+    /**
+     * Returns the names of the nodes being built, from the root down, separated by <code>/</code>.
+     */
+    private String path() {
+        StringBuilder path = new StringBuilder();
+        for(Iterator i = schemaStack.descendingIterator(); i.hasNext();) {
+            path.append(((CompiledSchema)i.next()).getSchema().name()).append('/');
+        }
+        if(completedSchema != null) {
+            path.append(completedSchema.getSchema().name()).append('/');
+        }
+        if(path.length() > 0) {
+            path.setLength(path.length() - 1);
+        }
+        return path.toString();
+    }
+
     /**
      * Returns the schema referenced by name.
      *
@@ -147,9 +554,7 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @return see above
      */
     protected SchemaNode resolveSchemaRef(Object schemaRef) {
-        return schemaRef instanceof String
-                ? metaBuilder.getSchema((String)schemaRef)
-                : (SchemaNode)schemaRef;
+        return CompiledSchema.resolveSchemaRef(metaBuilder, schemaRef);
     }
 
     /**
@@ -162,68 +567,15 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @return see above
      */
     protected SchemaNode findSchema(SchemaNode parentSchema, String containerName, String name) {
-        SchemaNode childSchema = null;
-        SchemaNode containerSchema = (SchemaNode)parentSchema.firstChild(containerName);
-        if(containerSchema != null) {
-            childSchema = (SchemaNode)containerSchema.firstChild(name);
-        }
-        if(childSchema == null) {
-            // Search super schemas for name
-            Object extendSchemaRef = parentSchema.attribute("schema");
-            SchemaNode extendSchema = resolveSchemaRef(extendSchemaRef);
-            if(extendSchema != null) childSchema = findSchema(extendSchema, containerName, name);
-        }
-
-        return childSchema;
+        return CompiledSchema.findSchema(metaBuilder, parentSchema, containerName, name);
     }
 
     protected SchemaNode findCollectionSchema(SchemaNode parentSchema, String containerName, String name) {
-        SchemaNode result = null;
-        SchemaNode collectionsSchema = (SchemaNode)parentSchema.firstChild(containerName);
-        List collectionList = collectionsSchema != null ? collectionsSchema.children() : null;
-
-        /*
-            Priority :
-            1. parentSchema's collection
-            2. parentSchema's super schema's collection
-         */
-
-        if(collectionList != null) {
-            // have a collection, so check each member
-            for(int i = 0; i < collectionList.size(); i++) {
-                Object o = collectionList.get(i);
-                if(o instanceof SchemaNode == false) continue;
-                SchemaNode collectionSchema = (SchemaNode)o;
-                result = (SchemaNode)collectionSchema.firstChild(name);
-
-                if(result == null) {
-                    // Search the collection's super schemas for name
-                    Object extendSchemaRef = collectionSchema.attribute("schema");
-                    SchemaNode extendSchema = resolveSchemaRef(extendSchemaRef);
-                    if(extendSchema != null) {
-                        result = findCollectionSchema(extendSchema, containerName, name);
-                    }
-                }
-                if(result != null) return result;
-            }
-        }
-        // still no result, check the parentSchema's super schema
-        Object extendSchemaRef = parentSchema.attribute("schema");
-        SchemaNode extendSchema = resolveSchemaRef(extendSchemaRef);
-        if(extendSchema != null) {
-            result = findCollectionSchema(extendSchema, containerName, name);
-        }
-        return result;
+        return CompiledSchema.findCollectionSchema(metaBuilder, parentSchema, containerName, name);
     }
 
     protected Object findSchemaAttribute(SchemaNode parentSchema, String name) {
-        Object attribute = parentSchema.attribute(name);
-        if(attribute == null) {
-            Object extendedSchemaRef = parentSchema.attribute("schema");
-            SchemaNode extendedSchema = resolveSchemaRef(extendedSchemaRef);
-            if(extendedSchema != null) attribute = findSchemaAttribute(extendedSchema, name);
-        }
-        return attribute;
+        return CompiledSchema.findSchemaAttribute(metaBuilder, parentSchema, name);
     }
 
     /**
@@ -235,8 +587,98 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @return a node
      */
     protected Object createNode(Object name, Map attributes, Object value) {
+        long start = metrics != null ? System.nanoTime() : 0;
         String childSchemaName = (String)name;
+        if(recording != null) {
+            recording.begin(childSchemaName, attributes, value);
+        }
         Object current = getCurrent();
+        CompiledSchema compiledChildSchema = dispatch(current, childSchemaName);
+        if(metrics != null) {
+            metrics.schemaResolved(compiledChildSchema.getSchema(), System.nanoTime() - start);
+        }
+        pushSchema(compiledChildSchema);
+        // Keep track of the properties as they are set.  Only the merged properties that are left unset are checked
+        // for req and def.
+        pushProperties();
+
+        Object node = null;
+        try {
+            node = instantiate(childSchemaName, attributes, value);
+        }
+        catch(RuntimeException e) {
+            // If FactoryBuilderSupport throws an exception caused by
+            // a MetaBuilder, simply unwrap and rethrow the cause.
+            // This will be a lot easier for the user to understand
+            // than the FactoryBuilderSupport exception.
+            Throwable t = e.getCause();
+            if(t instanceof MetaBuilderException) {
+                throw (MetaBuilderException)t;
+            }
+            else throw e;
+        }
+
+        if(objectVisitor != null) {
+            CreateNodeEvent e = new CreateNodeEvent(childSchemaName, node, current);
+            node = objectVisitor.call(e);
+        }
+
+        return node;
+    }
+
+    /**
+     * Creates the node once its schema is current, by way of {@link FactoryBuilderSupport#createNode}.
+     *
+     * @param name       the name of the node
+     * @param attributes optional attributes of the current node
+     * @param value      optional value of the current node
+     * @return a node
+     */
+    protected Object instantiate(Object name, Map attributes, Object value) {
+        return super.createNode(name, attributes, value);
+    }
+
+    /**
+     * Returns the compiled schema of the named child of the current node, looking it up in the dispatch table first.
+     * Names are only added to the table once resolved by {@link #resolveChildSchema(Object, String)}, which also
+     * handles wild cards and the default schema.
+     * <p/>
+     * Known names still go through {@link FactoryBuilderSupport}'s dispatch, which creates a context map for every
+     * node with a closure, since factories, delegates and proxy builders may rely on the context.  The
+     * {@link LightweightMetaObjectGraphBuilder} dispatches nodes without contexts instead.
+     *
+     * @param current the current node
+     * @param childSchemaName the name of the child
+     * @return see above
+     */
+    protected CompiledSchema dispatch(Object current, String childSchemaName) {
+        CompiledSchema currentSchema = getCurrentCompiledSchema();
+        Map names = (Map)dispatchTable.get(currentSchema);
+        CompiledSchema childSchema = names != null ? (CompiledSchema)names.get(childSchemaName) : null;
+        if(childSchema != null) {
+            return childSchema;
+        }
+        childSchema = metaBuilder.getCompiledSchema(resolveChildSchema(current, childSchemaName));
+        // a schema without a current node matches by its own name instead of its children's
+        if(current != null || currentSchema == null) {
+            if(names == null) {
+                names = new HashMap();
+                dispatchTable.put(currentSchema, names);
+            }
+            names.put(childSchemaName, childSchema);
+        }
+        return childSchema;
+    }
+
+    /**
+     * Resolves the schema of the named child of the current node.
+     *
+     * @param current the current node
+     * @param childSchemaName the name of the child
+     * @return see above
+     * @throws SchemaNotFoundException if there is no such schema
+     */
+    protected SchemaNode resolveChildSchema(Object current, String childSchemaName) {
         // MetaObjectGraphBuilder basically works by matching name against a child node of the current schema.
         SchemaNode currentSchema = getCurrentSchema();
         SchemaNode childSchema = null;
@@ -268,61 +710,40 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
                 }
             }
             else {
-                // search for a property
-                childSchema = childSchema != null ? childSchema : findSchema(currentSchema, "properties", childSchemaName);
-
-                // search for a named collection
-                childSchema = childSchema != null ? childSchema : findSchema(currentSchema, "collections", childSchemaName);
-
-                // search for a collection member (current schema is a collection node)
-                childSchema = childSchema != null ? childSchema : (SchemaNode)currentSchema.firstChild(childSchemaName);
-
-                // search all collections for a named collection member
-                childSchema = childSchema != null ? childSchema : findCollectionSchema(currentSchema, "collections", childSchemaName);
-
-                // search for an unnamed property
-                childSchema = childSchema != null ? childSchema : findSchema(currentSchema, "properties", "%");
-
-                // search for an unnamed collection
-                childSchema = childSchema != null ? childSchema : findSchema(currentSchema, "collections", "%");
-
-                // search for an unnamed schema node
-                childSchema = childSchema != null ? childSchema : (SchemaNode)currentSchema.firstChild("%");
+                // search properties, collections and their members, in that order, see CompiledSchema.resolveChild()
+                CompiledSchema compiledSchema = getCurrentCompiledSchema();
+                if(compiledSchema == null) {
+                    compiledSchema = metaBuilder.getCompiledSchema(currentSchema);
+                }
+                childSchema = compiledSchema.resolveChild(childSchemaName);
             }
         }
         if(childSchema == null) {
             throw MetaBuilder.createSchemaNotFoundException(childSchemaName);
         }
+        return childSchema;
+    }
 
-        pushSchema(childSchema);
-        // Store a mutable copy of the merged properties for later checking of defaults and missing req properties
-        // As properties are set, they are removed from the copy of merged properties.
-        // Only the merged properties that are left are checked for req and def
-        SchemaNode mergedProperties = getMergedProperties(childSchema);
-        pushProperties(mergedProperties);
-
-        Object node = null;
-        try {
-            node = super.createNode(childSchemaName, attributes, value);
-        }
-        catch(RuntimeException e) {
-            // If FactoryBuilderSupport throws an exception caused by
-            // a MetaBuilder, simply unwrap and rethrow the cause.
-            // This will be a lot easier for the user to understand
-            // than the FactoryBuilderSupport exception.
-            Throwable t = e.getCause();
-            if(t instanceof MetaBuilderException) {
-                throw (MetaBuilderException)t;
-            }
-            else throw e;
+    /**
+     * Overrides the default implementation to time the factory's <code>newInstance</code> method, if there are
+     * metrics.
+     */
+    protected void preInstantiate(Object name, Map attributes, Object value) {
+        super.preInstantiate(name, attributes, value);
+        if(metrics != null) {
+            instantiationStart = System.nanoTime();
         }
+    }
 
-        if(objectVisitor != null) {
-            CreateNodeEvent e = new CreateNodeEvent(childSchemaName, node, current);
-            node = objectVisitor.call(e);
+    /**
+     * Overrides the default implementation to time the factory's <code>newInstance</code> method, if there are
+     * metrics.
+     */
+    protected void postInstantiate(Object name, Map attributes, Object node) {
+        if(metrics != null) {
+            metrics.nodeCreated(getCurrentSchema(), System.nanoTime() - instantiationStart);
         }
-
-        return node;
+        super.postInstantiate(name, attributes, node);
     }
 
     /**
@@ -335,11 +756,12 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @see #setVariable(Object, SchemaNode, String, Object)
      */
     public void setVariable(String name, Object value) {
-        setVariable(getCurrent(), getCurrentSchema(), name, value);
+        if(recording != null) {
+            recording.set(name, value);
+        }
+        setVariable(getCurrent(), getCurrentCompiledSchema(), name, value);
     }
 
-
-
     /**
      * Sets the given node's property value by name referencing the given schema.
      *
@@ -349,35 +771,44 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @param value the property value
      */
     public void setVariable(Object node, SchemaNode schema, String name, Object value) {
-        SchemaNode mergedProperties = getMergedProperties(schema);
-        SchemaNode propertySchema = (SchemaNode)mergedProperties.firstChild(name);
+        setVariable(node, metaBuilder.getCompiledSchema(schema), name, value);
+    }
+
+    /**
+     * Sets the given node's property value by name referencing the given compiled schema.
+     *
+     * @param node the property owner
+     * @param schema the property owner's compiled schema
+     * @param name the property name
+     * @param value the property value
+     */
+    protected void setVariable(Object node, CompiledSchema schema, String name, Object value) {
+        long start = metrics != null ? System.nanoTime() : 0;
+        // falls back to a wild card indicated by a schema with name = %
+        CompiledProperty property = schema.getCompiledProperty(name);
 
-        // remove the entry from the currentProperties so we won't try to set a default or check req later.
-        Map currentProperties = getCurrentProperties();
-        currentProperties.remove(name);
+        // mark the property as set so we won't try to set a default or check req later.
+        markPropertySet(schema, name);
 
-        if(propertySchema == null) {
-            // Check for the possibility of a wild card indicated by a schema with name = %
-            propertySchema = findSchema(schema, "properties", "%");
-            if(propertySchema == null) {
-                throw MetaBuilder.createPropertyException(schema.fqn() + '.' + name, "property unkown");
-            }
+        if(property == null) {
+            propertyViolation(schema.fqn(name), name, "property unkown");
+            return;
         }
 
-        if(value != null) {
-            Comparable min = (Comparable)propertySchema.attribute("min");
-            Comparable minMaxValComp = null;
-            if(min != null && min.compareTo(minMaxValComp = getMinMaxValComp(schema, name, value)) > 0) {
-                throw MetaBuilder.createPropertyException(schema.fqn(name), "min check failed");
-            }
-            Comparable max = (Comparable)propertySchema.attribute("max");
-            if(max != null && max.compareTo(minMaxValComp) < 0) {
-                throw MetaBuilder.createPropertyException(schema.fqn(name), "max check failed");
-            }
+        if(value != null && property.hasBounds() && !checkPropertyBounds(schema, name, property, value)) {
+            return;
+        }
+        if(!checkPropertyValue(property, value)) {
+            return;
+        }
+        if(property.isIntern()) {
+            value = metaBuilder.getInternTable().intern(value);
         }
-        checkPropertyValue(propertySchema, value);
 
-        setProperty(node, value, propertySchema);
+        setProperty(node, value, property.getSchema());
+        if(metrics != null) {
+            metrics.propertySet(property.getSchema(), System.nanoTime() - start);
+        }
     }
 
     /**
@@ -392,63 +823,109 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @param node the node that is being completed
      */
     protected void nodeCompleted(Object parent, Object node) {
+        long start = metrics != null ? System.nanoTime() : 0;
         super.nodeCompleted(parent, node);
 
         // add the node to the parent's collection only after the node is complete
-        SchemaNode currentSchema = getCurrentSchema();
-        SchemaNode parentSchema = (SchemaNode)currentSchema.parent();
+        CompiledSchema currentSchema = getCurrentCompiledSchema();
+        SchemaNode parentSchema = (SchemaNode)currentSchema.getSchema().parent();
         if(parent != parentSchema && parentSchema instanceof CollectionSchemaNode) {
             Factory parentFactory = (Factory)parentSchema;
             parentFactory.setChild(this, parent, node);
         }
 
         // check the node for any issues
-        currentSchema = popSchema();
-        handleUnsetProperties(currentSchema, node);
-        checkCollections(currentSchema, node);
-        checkNode(currentSchema, node);
+        popSchema();
+        completedSchema = currentSchema;
+        try {
+            handleUnsetProperties(currentSchema, node);
+            checkCollections(currentSchema, node);
+            checkNode(currentSchema, node);
+        }
+        finally {
+            completedSchema = null;
+        }
+        if(metrics != null) {
+            metrics.nodeCompleted(currentSchema.getSchema(), System.nanoTime() - start);
+        }
     }
 
-    protected void checkCollections(SchemaNode currentSchema, Object node) {
-        SchemaNode collectionsSchema = getMergedCollections(currentSchema);
-        List collectionsList = collectionsSchema.children();
-        if(collectionsList == null) return;
+    /**
+     * Overrides the default implementation to forget the collections' parents and to call the
+     * {@link #setRootVisitor root visitor}, if any, once a root node is complete.
+     *
+     * @param parent the parent node, null if <code>node</code> is a root
+     * @param node the node that was completed
+     * @return see above
+     */
+    protected Object postNodeCompletion(Object parent, Object node) {
+        node = super.postNodeCompletion(parent, node);
+        if(parent == null) {
+            roots++;
+            parentBeans.clear();
+            for(Iterator i = collectionTargets.values().iterator(); i.hasNext();) {
+                for(Iterator j = ((Map)i.next()).values().iterator(); j.hasNext();) {
+                    ((CollectionTarget)j.next()).flush();
+                }
+            }
+            collectionTargets.clear();
+            if(rootVisitor != null) {
+                rootVisitor.call(node);
+            }
+        }
+        if(recording != null) {
+            recording.end(node);
+        }
+        return node;
+    }
 
+    protected void checkCollections(CompiledSchema currentSchema, Object node) {
+        List collectionsList = currentSchema.getCollections();
+
+        if(collectionsList.isEmpty()) return;
+
+        // bulk collections must be filled before they are checked
+        flushCollections(node);
         for(int i = 0; i < collectionsList.size(); i++) {
             CollectionSchemaNode collectionSchema = (CollectionSchemaNode)collectionsList.get(i);
             collectionSchema.checkDef(this, node);
-            collectionSchema.checkSize(node);
         }
+        flushCollections(node);
+        for(int i = 0; i < collectionsList.size(); i++) {
+            CollectionSchemaNode collectionSchema = (CollectionSchemaNode)collectionsList.get(i);
+            collectionSchema.checkSize(this, node);
+        }
+        // no more children are added to a complete bean
+        collectionTargets.remove(node);
     }
 
-    protected void handleUnsetProperties(SchemaNode currentSchema, Object node) {
-        // go through the unset properties and set defaults or check if req
-        Map unsetProperties = new HashMap(getCurrentProperties()); // use copy to avoid ConcurrentModificationException
-        for(Iterator properties = unsetProperties.entrySet().iterator(); properties.hasNext();) {
-            Map.Entry property = (Map.Entry)properties.next();
-            SchemaNode propertySchema = (SchemaNode)property.getValue();
-            Map attributes = propertySchema.attributes();
-            if(attributes.containsKey("def")) {
-                Object value = attributes.get("def");
+    protected void handleUnsetProperties(CompiledSchema currentSchema, Object node) {
+        // go through the unset properties and check if req or set defaults
+        BitSet setProperties = getCurrentProperties();
+        int[] required = currentSchema.getRequiredProperties();
+        for(int i = 0; i < required.length; i++) {
+            if(!setProperties.get(required[i])) {
+                SchemaNode propertySchema = currentSchema.getProperty(required[i]);
+                propertyViolation(propertySchema.fqn(), (String)propertySchema.name(), "property required");
+            }
+        }
+        int[] defaulted = currentSchema.getDefaultedProperties();
+        for(int i = 0; i < defaulted.length; i++) {
+            if(!setProperties.get(defaulted[i])) {
+                SchemaNode propertySchema = currentSchema.getProperty(defaulted[i]);
+                Object value = propertySchema.attribute("def");
                 if(value instanceof Closure) {
                     value = ((Closure)value).call();
                 }
                 setVariable(node, currentSchema, (String)propertySchema.name(), value);
             }
-            else {
-                Boolean req = (Boolean)attributes.get("req");
-                if(req != null && req) {
-                    throw MetaBuilder.createPropertyException(propertySchema.fqn(), "property required");
-                }
-            }
         }
         popProperties();
 
-        // remove the child schema from the parents list of unset properties
-        // in case it was defined as a node and not as an attribute
-        Map parentProperties = getCurrentProperties();
-        if(parentProperties != null) {
-            parentProperties.remove(currentSchema.name());
+        // mark the child schema as set in the parent in case it was defined as a node and not as an attribute
+        CompiledSchema parentSchema = getCurrentCompiledSchema();
+        if(parentSchema != null) {
+            markPropertySet(parentSchema, (String)currentSchema.getSchema().name());
         }
     }
 
@@ -481,8 +958,7 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      */
     public class FactoryClassNameResolver implements ObjectGraphBuilder.ClassNameResolver {
         public String resolveClassname(String className) {
-            SchemaNode schema = getCurrentSchema();
-            Object factory = findSchemaAttribute(schema, "factory");
+            Object factory = getCurrentCompiledSchema().getFactoryAttribute();
             if(factory instanceof String)
                 return (String)factory;
             else if(factory instanceof Class) {
@@ -492,6 +968,35 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
         }
     }
 
+    /**
+     * Override to modify the {@link NewInstanceResolver} behavior.
+     *
+     * @return see above
+     */
+    protected NewInstanceResolver createNewInstanceResolver() {
+        return new MetaObjectGraphBuilder.FactoryNewInstanceResolver();
+    }
+
+    /**
+     * Overrides the default implementation in {@link NewInstanceResolver} in order to instantiate the class given by
+     * the <code>factory</code> schema attribute through the constructor cached by the current schema, see
+     * {@link CompiledSchema#newFactoryInstance(ClassLoader)}.
+     */
+    public class FactoryNewInstanceResolver implements ObjectGraphBuilder.NewInstanceResolver {
+        public Object newInstance(Class klass, Map attributes) throws InstantiationException, IllegalAccessException {
+            CompiledSchema schema = getCurrentCompiledSchema();
+            try {
+                if(schema != null && schema.getFactoryClass(getClassLoader()) == klass) {
+                    return schema.newFactoryInstance(getClassLoader());
+                }
+            }
+            catch(ClassNotFoundException e) {
+                // loaded by another class loader
+            }
+            return klass.newInstance();
+        }
+    }
+
     /**
      * Overrides the default implementation to support lookup of a factory defined in a schema attribute.  The
      * {@link Factory} is resolved as follows:
@@ -500,7 +1005,7 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * <li>If the schema defines an attribute value called <code>factory</code> which is an instance of {@link Factory},
      * then the attribute value is returned.</li>
      * <li>If the schema defines an attribute value called <code>factory</code> which is an instance of {@link Closure},
-     * then the Closure will be returned, wrapped by {@link ClosureFactoryAdapter}</li>
+     * then the Closure will be returned, wrapped by {@link ClosureFactoryAdapter} when the schema was compiled</li>
      * <li>If the schema defines an attribute value called <code>factory</code> which is an instance of {@link String}
      * or {@link Class}, then the corresponding class will be instantiated and returned.</li>
      * </ol>
@@ -511,72 +1016,44 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @return see above
      */
     protected Factory resolveFactory(Object name, Map attributes, Object value) {
-        // Need to have this implementation act first before super,
-        // but FactoryBuilderSupport.resolveFactory() sets the CHILD_BUILDER context
-        // So it must be done directly here.  Not using CHILD_BUILDER for Groovy 1.5 compatibility.
-        getContext().put("_CHILD_BUILDER_"/* CHILD_BUILDER */, this);
-
-        SchemaNode schema = getCurrentSchema();
-        if(schema instanceof Factory) {
-            return (Factory)schema;
-        }
-        Object factory = findSchemaAttribute(schema, "factory");
-        if(factory != null && factory instanceof Factory) {
-            return (Factory)factory;
-        }
-        if(factory instanceof Closure) {
-            // Is it cool to wrap the closure and replace it?
-            // It does save having to keep wrapping the closure every time, but is there a downside?
-            ClosureFactoryAdapter closureFactoryAdapter = new ClosureFactoryAdapter((Closure)factory);
-            schema.attributes().put("factory", closureFactoryAdapter);
-            return closureFactoryAdapter;
-        }
-        if(factory instanceof String || factory instanceof Class) {
+        setChildBuilder();
+
+        CompiledSchema schema = getCurrentCompiledSchema();
+        if(schema.getSchema() instanceof Factory) {
+            return (Factory)schema.getSchema();
+        }
+        Factory factory = schema.getFactory();
+        if(factory != null) {
+            return factory;
+        }
+        Object factoryAttribute = schema.getFactoryAttribute();
+        if(factoryAttribute instanceof String || factoryAttribute instanceof Class) {
             return super.resolveFactory(name, attributes, value);
         }
         return defaultFactory;
     }
 
-    public Factory resolveCollectionFactory(SchemaNode collectionSchema) {
-        // Need to have this implementation act first before super,
-        // but FactoryBuilderSupport.resolveFactory() sets the CHILD_BUILDER context
-        // So it must be done directly here.  Not using CHILD_BUILDER for Groovy 1.5 compatibility.
-        getContext().put("_CHILD_BUILDER_"/* CHILD_BUILDER */, this);
-
-        Object factory = findSchemaAttribute(collectionSchema, "factory");
-        if(factory != null && factory instanceof Factory) {
-            return (Factory)factory;
+    /**
+     * Need to have this implementation act first before super, but FactoryBuilderSupport.resolveFactory() sets the
+     * CHILD_BUILDER context.  So it must be done directly here.  Not using CHILD_BUILDER for Groovy 1.5 compatibility.
+     * Siblings share their parent's context, so it is only put once per parent.
+     */
+    private void setChildBuilder() {
+        Map context = getContext();
+        if(context.get("_CHILD_BUILDER_"/* CHILD_BUILDER */) != this) {
+            context.put("_CHILD_BUILDER_"/* CHILD_BUILDER */, this);
         }
+    }
 
-        Factory result = null;
-        if(factory instanceof Closure) {
-            result = new ClosureFactoryAdapter((Closure)factory);
-        }
-        else if(factory instanceof String || factory instanceof Class) {
-            result = super.resolveFactory(collectionSchema.name(), collectionSchema.attributes(), collectionSchema);
-        }
-        else {
-            if (findSchemaAttribute(collectionSchema, "key") == null) { //if key attribute is not defined then we assume it is a List
-                result = new AbstractFactory() {
-                    @Override
-                    public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
-                        return new ArrayList();
-                    }
-                };
-            }
-            else { //if key attribute is defined then we assume it is a map
-                result = new AbstractFactory() {
-                    @Override
-                    public Object newInstance(FactoryBuilderSupport builder, Object name, Object value, Map attributes) throws InstantiationException, IllegalAccessException {
-                        return new LinkedHashMap();
-                    }
-                };
-            }
+    public Factory resolveCollectionFactory(SchemaNode collectionSchema) {
+        setChildBuilder();
+
+        // Closures, Lists and Maps are resolved when the schema is compiled, see CompiledSchema.getFactory()
+        Factory factory = metaBuilder.getCompiledSchema(collectionSchema).getFactory();
+        if(factory != null) {
+            return factory;
         }
-        // Is it cool to wrap the closure and replace it?
-        // It does save having to keep wrapping the closure every time, but is there a downside?
-        collectionSchema.attributes().put("factory", result);
-        return result;
+        return super.resolveFactory(collectionSchema.name(), collectionSchema.attributes(), collectionSchema);
     }
 
     /**
@@ -586,42 +1063,10 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      *
      * @param schema the owner of the properties
      * @return see above
+     * @see CompiledSchema#getMergedProperties()
      */
     protected SchemaNode getMergedProperties(SchemaNode schema) {
-        SchemaNode mergedProperties = (SchemaNode)schema.firstChild("mergedProperties");
-
-        if(mergedProperties == null) {
-            mergedProperties = new SchemaNode(schema, "mergedProperties");
-
-            SchemaNode superSchema = resolveSchemaRef(schema.attribute("schema"));
-            if(superSchema != null) {
-                // add all of the super schema's properties first
-                SchemaNode superMergedProperties = getMergedProperties(superSchema);
-                for(Iterator children = superMergedProperties.children().iterator(); children.hasNext();) {
-                    SchemaNode property = (SchemaNode)children.next();
-                    new SchemaNode(mergedProperties, property.name(), property.attributes());
-                }
-            }
-            SchemaNode properties = (SchemaNode)schema.firstChild("properties");
-            if(properties != null) {
-                for(Iterator children = properties.children().iterator(); children.hasNext();) {
-                    SchemaNode property = (SchemaNode)children.next();
-                    SchemaNode mergedProperty = (SchemaNode)mergedProperties.firstChild((String)property.name());
-                    if(mergedProperty == null) {
-                        // simple copy
-                        new SchemaNode(mergedProperties, property.name(), property.attributes());
-                    }
-                    else {
-                        // Copies and overwrites any previous attributes, if present
-                        Map mergedPropertyAttributes = new HashMap(mergedProperty.attributes());
-                        mergedPropertyAttributes.putAll(property.attributes());
-                        mergedProperties.remove(mergedProperty);
-                        new SchemaNode(mergedProperties, property.name(), mergedPropertyAttributes);
-                    }
-                }
-            }
-        }
-        return mergedProperties;
+        return metaBuilder.getCompiledSchema(schema).getMergedProperties();
     }
 
     /**
@@ -630,43 +1075,10 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      *
      * @param schema the owner of the collections
      * @return see above
+     * @see CompiledSchema#getMergedCollections()
      */
     protected SchemaNode getMergedCollections(SchemaNode schema) {
-        SchemaNode mergedCollections = (SchemaNode)schema.firstChild("mergedCollections");
-
-        if(mergedCollections == null) {
-            mergedCollections = new SchemaNode(schema, "mergedCollections");
-
-            SchemaNode superSchema = resolveSchemaRef(schema.attribute("schema"));
-            if(superSchema != null) {
-                // add all of the super schema's collections first
-                SchemaNode superMergedCollections = getMergedCollections(superSchema);
-                for(Iterator children = superMergedCollections.children().iterator(); children.hasNext();) {
-                    SchemaNode collection = (SchemaNode)children.next();
-                    new CollectionSchemaNode(mergedCollections, collection.name(), collection.attributes());
-                }
-            }
-
-            SchemaNode collections = (SchemaNode)schema.firstChild("collections");
-            if(collections != null) {
-                for(Iterator children = collections.children().iterator(); children.hasNext();) {
-                    SchemaNode collection = (SchemaNode)children.next();
-                    SchemaNode mergedCollection = (SchemaNode)mergedCollections.firstChild((String)collection.name());
-                    if(mergedCollection == null) {
-                        // simple copy
-                        new CollectionSchemaNode(mergedCollections, collection.name(), collection.attributes());
-                    }
-                    else {
-                        // Copies and overwrites any previous attributes, if present
-                        Map mergedCollectionAttributes = new HashMap(mergedCollection.attributes());
-                        mergedCollectionAttributes.putAll(collection.attributes());
-                        mergedCollections.remove(mergedCollection);
-                        new CollectionSchemaNode(mergedCollections, collection.name(), mergedCollectionAttributes);
-                    }
-                }
-            }
-        }
-        return mergedCollections;
+        return metaBuilder.getCompiledSchema(schema).getMergedCollections();
     }
 
     /**
@@ -678,52 +1090,130 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @see #setProperty
      */
     protected void setNodeAttributes(Object node, Map attributesMap) {
+        CompiledSchema schema = getCurrentCompiledSchema();
         for(Iterator attributes = attributesMap.entrySet().iterator(); attributes.hasNext();) {
             Map.Entry attribute = (Map.Entry)attributes.next();
-            setVariable(node, getCurrentSchema(), (String)attribute.getKey(), attribute.getValue());
+            setVariable(node, schema, (String)attribute.getKey(), attribute.getValue());
         }
     }
 
     /**
-     * Check <code>value</code> against a <code>propertySchema</code>'s <code>check</code> attribute, if it exists.
+     * Check <code>value</code> against a property's compiled <code>check</code> attribute, if it exists.
      *
-     * @param schema see above
+     * @param property see above
      * @param val the value
+     * @return false if the check failed and the violation was {@link #setValidationReport recorded}
      */
-    protected void checkPropertyValue(SchemaNode schema, Object val) {
-        if(val == null || schema.attributes().containsKey("check") == false) return;
-        Object check = schema.attribute("check");
+    protected boolean checkPropertyValue(CompiledProperty property, Object val) {
+        Check check = property.getCheck();
+        if(val == null || check == null) return true;
+        long start = metrics != null ? System.nanoTime() : 0;
         boolean b = true;
         try {
-            b =  ScriptBytecodeAdapter.isCase(val, check);
+            b = check.isCase(val);
         }
         catch(Throwable t) {
-            throw MetaBuilder.createPropertyException(schema.fqn(), t);
+            if(validationReport == null) {
+                throw MetaBuilder.createPropertyException(property.getSchema().fqn(), t);
+            }
+            propertyViolation(property.getSchema().fqn(), (String)property.getSchema().name(), String.valueOf(t));
+            return false;
+        }
+        if(metrics != null) {
+            metrics.checkEvaluated(property.getSchema(), System.nanoTime() - start);
         }
         if(!b) {
-            throw MetaBuilder.createPropertyException((String)schema.fqn(), "value invalid");
+            propertyViolation(property.getSchema().fqn(), (String)property.getSchema().name(), "value invalid");
         }
+        return b;
     }
 
     /**
-     * Execute check against <code>node</code>, if one exists.
+     * Execute the schema's compiled check against <code>node</code>, if one exists.
      *
      * @param schema see above
      * @param node the node
      */
-    protected void checkNode(SchemaNode schema, Object node) {
-        if(node == null || schema.attributes().containsKey("check") == false) return;
-        Object check = schema.attribute("check");
+    protected void checkNode(CompiledSchema schema, Object node) {
+        Check check = schema.getCheck();
+        if(node == null || check == null) return;
+        long start = metrics != null ? System.nanoTime() : 0;
         boolean b = true;
         try {
-            b =  ScriptBytecodeAdapter.isCase(node, check);
+            b = check.isCase(node);
         }
         catch(Throwable t) {
-            throw MetaBuilder.createNodeException(schema.fqn(), t);
+            if(validationReport == null) {
+                throw MetaBuilder.createNodeException(schema.fqn(), t);
+            }
+            nodeViolation(schema.fqn(), String.valueOf(t));
+            return;
+        }
+        if(metrics != null) {
+            metrics.checkEvaluated(schema.getSchema(), System.nanoTime() - start);
         }
         if(!b) {
-            throw MetaBuilder.createNodeException(schema.fqn(), "check failed");
+            nodeViolation(schema.fqn(), "check failed");
+        }
+    }
+
+    /**
+     * Checks <code>value</code> against a property's <code>min</code> and <code>max</code> attributes.  Lengths,
+     * sizes and {@link Integer}s are compared as <code>int</code>s when possible, anything else is compared using
+     * {@link #getMinMaxValComp}.
+     *
+     * @param schema the property owner's compiled schema
+     * @param name the property name
+     * @param property the compiled property
+     * @param value the property value, not null
+     * @return false if a check failed and the violation was {@link #setValidationReport recorded}
+     */
+    protected boolean checkPropertyBounds(CompiledSchema schema, String name, CompiledProperty property, Object value) {
+        if(property.hasIntBounds()) {
+            int size = 0;
+            boolean sized = true;
+            if(value instanceof String) {
+                size = ((String)value).length();
+            }
+            else if(value instanceof Integer) {
+                size = ((Integer)value).intValue();
+            }
+            else if(value instanceof Collection) {
+                size = ((Collection)value).size();
+            }
+            else if(value instanceof Map) {
+                size = ((Map)value).size();
+            }
+            else {
+                sized = false;
+            }
+            if(sized) {
+                if(size < property.getIntMin()) {
+                    propertyViolation(schema.fqn(name), name, "min check failed");
+                    return false;
+                }
+                if(size > property.getIntMax()) {
+                    propertyViolation(schema.fqn(name), name, "max check failed");
+                    return false;
+                }
+                return true;
+            }
+        }
+        Comparable minMaxValComp = getMinMaxValComp(schema.getSchema(), name, value);
+        if(minMaxValComp == null) {
+            return false;
         }
+        Comparable min = property.getMin();
+        if(min != null && min.compareTo(minMaxValComp) > 0) {
+            propertyViolation(schema.fqn(name), name, "min check failed");
+            return false;
+        }
+        Comparable max = property.getMax();
+        if(max != null && max.compareTo(minMaxValComp) < 0) {
+            propertyViolation(schema.fqn(name), name, "max check failed");
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -732,7 +1222,8 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
      * @param schema the property owner (used to report errors)
      * @param name the property name (used to report errors)
      * @param val the property value
-     * @return see above
+     * @return see above, or null if the value is not comparable and the violation was
+     * {@link #setValidationReport recorded}
      */
     protected Comparable getMinMaxValComp(SchemaNode schema, String name, Object val) {
         if(val instanceof String) {
@@ -748,7 +1239,8 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
             return (Comparable)val;
         }
         else {
-            throw MetaBuilder.createPropertyException(schema.fqn(name), "value is not comparable");
+            propertyViolation(schema.fqn(name), name, "value is not comparable");
+            return null;
         }
     }
 
@@ -785,7 +1277,7 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
             schemaNode.attributes().put(propertyName, value);
         }
         else {
-            InvokerHelper.setProperty(node, propertyName, value);
+            setBeanProperty(node, propertyName, value);
         }
     }
 
@@ -814,7 +1306,7 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
             else if(propertyAttr instanceof String) {
             	String propertyName = (String)propertyAttr;
 
-                InvokerHelper.setProperty(parent, propertyName, child);
+                setBeanProperty(parent, propertyName, child);
             }
             else {
                 throw MetaBuilder.createPropertyException(currentSchema.fqn(""), "'property' attribute of schema does not specify a string or closure.");
@@ -834,4 +1326,66 @@ public class MetaObjectGraphBuilder extends ObjectGraphBuilder {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The collection that children of a {@link CollectionSchemaNode} are added to for one parent bean, and the
+     * children not added yet if the collection is filled in bulk.
+     */
+    private static class CollectionTarget {
+        final CollectionSchemaNode collectionSchema;
+        final Object collection;
+        final int max;
+        private Object deferred;
+
+        CollectionTarget(CollectionSchemaNode collectionSchema, Object collection, int max) {
+            this.collectionSchema = collectionSchema;
+            this.collection = collection;
+            this.max = max;
+        }
+
+        /**
+         * Returns the size of the collection, including the children not added yet.
+         */
+        int size() {
+            int size = collection instanceof Map ? ((Map)collection).size() : ((Collection)collection).size();
+            if(deferred != null) {
+                size += deferred instanceof Map ? ((Map)deferred).size() : ((List)deferred).size();
+            }
+            return size;
+        }
+
+        void defer(Object key, Object child) {
+            if(collection instanceof Map) {
+                if(deferred == null) {
+                    int capacity = CompiledSchema.initialCapacity(collectionSchema.attributes());
+                    deferred = capacity < 0 ? new LinkedHashMap() : new LinkedHashMap((int)(capacity / 0.75f) + 1);
+                }
+                ((Map)deferred).put(key, child);
+            }
+            else {
+                if(deferred == null) {
+                    int capacity = CompiledSchema.initialCapacity(collectionSchema.attributes());
+                    deferred = capacity < 0 ? new ArrayList() : new ArrayList(capacity);
+                }
+                ((List)deferred).add(child);
+            }
+        }
+
+        void flush() {
+            if(deferred == null) return;
+            Object children = deferred;
+            deferred = null;
+            try {
+                if(collection instanceof Map) {
+                    ((Map)collection).putAll((Map)children);
+                }
+                else {
+                    ((Collection)collection).addAll((List)children);
+                }
+            }
+            catch(RuntimeException e) {
+                throw MetaBuilder.createCollectionException(collectionSchema.fqn(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.*;
+import org.codehaus.groovy.runtime.GroovyCategorySupport;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.*;
+import java.util.Map;
+
+/**
+ * Gets and sets one property of the beans of one class, calling the property's accessor methods or accessing its
+ * public field directly instead of going through the {@link MetaClass}.
+ * <p/>
+ * The accessors are resolved once when the <code>PropertyAccessor</code> is constructed.  Direct access is only used
+ * when it is sure to behave as the {@link MetaClass} would, otherwise {@link InvokerHelper} is used as usual.  Direct
+ * access is not used for:
+ * <ul>
+ * <li>{@link Map}s, {@link Expando}s and other {@link GroovyObject}s that handle properties themselves</li>
+ * <li>beans whose {@link MetaClass} has been replaced, e.g. by an {@link ExpandoMetaClass}, or while a category is in
+ * use</li>
+ * <li>overloaded setters</li>
+ * <li>values which would have to be coerced to the property's type</li>
+ * </ul>
+ * Obtain instances from {@link MetaBuilder#getPropertyAccessor(Class, String)}, which caches them.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class PropertyAccessor {
+    private final Class beanClass;
+    private final String name;
+    private final Method getter;
+    private final Method setter;
+    private final Class setterType;
+    private final Field field;
+
+    /**
+     * Whether the {@link MetaClassImpl} of {@link #beanClass} has the property, looked up on first use, see
+     * {@link #hasProperty(Object)}.
+     */
+    private volatile Boolean metaProperty;
+
+    PropertyAccessor(Class beanClass, String name) {
+        this.beanClass = beanClass;
+        this.name = name;
+
+        Method getter = null;
+        Method setter = null;
+        Field field = null;
+        if(!Map.class.isAssignableFrom(beanClass) && !handlesProperties(beanClass)) {
+            try {
+                BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
+                PropertyDescriptor[] descriptors = beanInfo.getPropertyDescriptors();
+                for(int i = 0; i < descriptors.length; i++) {
+                    if(descriptors[i].getName().equals(name)) {
+                        getter = accessible(descriptors[i].getReadMethod());
+                        setter = accessible(descriptors[i].getWriteMethod());
+                        break;
+                    }
+                }
+            }
+            catch(IntrospectionException e) {
+                // use the MetaClass
+            }
+            if(setter != null && isOverloaded(setter)) {
+                setter = null;
+            }
+            if(getter == null || setter == null) {
+                try {
+                    field = beanClass.getField(name);
+                    if(Modifier.isStatic(field.getModifiers())) {
+                        field = null;
+                    }
+                }
+                catch(NoSuchFieldException e) {
+                    // use the MetaClass
+                }
+            }
+        }
+        this.getter = getter;
+        this.setter = setter;
+        this.setterType = setter != null ? setter.getParameterTypes()[0] : null;
+        this.field = field;
+    }
+
+    /**
+     * Returns true if the class or one of its super-classes implements {@link GroovyObject#getProperty(String)} or
+     * {@link GroovyObject#setProperty(String, Object)} itself rather than having the compiler generate them.
+     */
+    private static boolean handlesProperties(Class beanClass) {
+        if(!GroovyObject.class.isAssignableFrom(beanClass)) {
+            return false;
+        }
+        for(Class c = beanClass; c != null && c != GroovyObjectSupport.class && c != Object.class; c = c.getSuperclass()) {
+            Method[] methods = c.getDeclaredMethods();
+            for(int i = 0; i < methods.length; i++) {
+                Method method = methods[i];
+                if(!method.isSynthetic() && (method.getName().equals("getProperty") || method.getName().equals("setProperty"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Method accessible(Method method) {
+        if(method == null) {
+            return null;
+        }
+        try {
+            method.setAccessible(true);
+            return method;
+        }
+        catch(SecurityException e) {
+            return null;
+        }
+    }
+
+    private boolean isOverloaded(Method setter) {
+        int count = 0;
+        Method[] methods = beanClass.getMethods();
+        for(int i = 0; i < methods.length; i++) {
+            if(methods[i].getName().equals(setter.getName()) && methods[i].getParameterTypes().length == 1) {
+                count++;
+            }
+        }
+        return count > 1;
+    }
+
+    public Class getBeanClass() {
+        return beanClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the type the property is declared with by its setter, public field or getter.
+     *
+     * @return see above, or null if unknown, e.g. if the property is only known to the {@link MetaClass}
+     */
+    public Class getType() {
+        if(setterType != null) {
+            return setterType;
+        }
+        if(field != null) {
+            return field.getType();
+        }
+        return getter != null ? getter.getReturnType() : null;
+    }
+
+    /**
+     * Returns true if the property of the given bean may be accessed directly.
+     *
+     * @param bean the bean
+     * @return see above
+     */
+    protected boolean isDirect(Object bean) {
+        if(bean == null || bean.getClass() != beanClass || GroovyCategorySupport.hasCategoryInCurrentThread()) {
+            return false;
+        }
+        MetaClass metaClass = bean instanceof GroovyObject
+            ? ((GroovyObject)bean).getMetaClass()
+            : GroovySystem.getMetaClassRegistry().getMetaClass(beanClass);
+        return metaClass.getClass() == MetaClassImpl.class;
+    }
+
+    /**
+     * Returns true if the given bean has the property, like {@link MetaClass#hasProperty} does.  The answer is only
+     * looked up once if the property may be accessed directly, see {@link #isDirect(Object)}.
+     *
+     * @param bean the bean
+     * @return see above
+     */
+    public boolean hasProperty(Object bean) {
+        if(!isDirect(bean)) {
+            return InvokerHelper.getMetaClass(bean).hasProperty(bean, name) != null;
+        }
+        Boolean metaProperty = this.metaProperty;
+        if(metaProperty == null) {
+            metaProperty = Boolean.valueOf(InvokerHelper.getMetaClass(bean).hasProperty(bean, name) != null);
+            this.metaProperty = metaProperty;
+        }
+        return metaProperty.booleanValue();
+    }
+
+    /**
+     * Returns the value of the property of the given bean.
+     *
+     * @param bean the bean
+     * @return see above
+     */
+    public Object getProperty(Object bean) {
+        if((getter != null || field != null) && isDirect(bean)) {
+            if(getter != null) {
+                return invoke(getter, bean, null);
+            }
+            try {
+                return field.get(bean);
+            }
+            catch(IllegalAccessException e) {
+                // fall through
+            }
+        }
+        return InvokerHelper.getProperty(bean, name);
+    }
+
+    /**
+     * Sets the property of the given bean.
+     *
+     * @param bean the bean
+     * @param value the property value
+     */
+    public void setProperty(Object bean, Object value) {
+        if(setter != null) {
+            if(isAssignable(setterType, value) && isDirect(bean)) {
+                invoke(setter, bean, new Object[]{value});
+                return;
+            }
+        }
+        else if(field != null && !Modifier.isFinal(field.getModifiers()) && isAssignable(field.getType(), value) && isDirect(bean)) {
+            try {
+                field.set(bean, value);
+                return;
+            }
+            catch(IllegalAccessException e) {
+                // fall through
+            }
+        }
+        InvokerHelper.setProperty(bean, name, value);
+    }
+
+    private static boolean isAssignable(Class type, Object value) {
+        if(value == null) {
+            return !type.isPrimitive();
+        }
+        if(type.isPrimitive()) {
+            Class valueClass = value.getClass();
+            return type == Integer.TYPE ? valueClass == Integer.class
+                : type == Long.TYPE ? valueClass == Long.class
+                : type == Boolean.TYPE ? valueClass == Boolean.class
+                : type == Double.TYPE ? valueClass == Double.class
+                : type == Float.TYPE ? valueClass == Float.class
+                : type == Short.TYPE ? valueClass == Short.class
+                : type == Byte.TYPE ? valueClass == Byte.class
+                : type == Character.TYPE && valueClass == Character.class;
+        }
+        return type.isInstance(value);
+    }
+
+    static Object invoke(Method method, Object bean, Object[] args) {
+        try {
+            return method.invoke(bean, args);
+        }
+        catch(InvocationTargetException e) {
+            // same as the MetaClass would
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new InvokerInvocationException(e);
+        }
+        catch(IllegalAccessException e) {
+            throw new InvokerInvocationException(e);
+        }
+    }
+}
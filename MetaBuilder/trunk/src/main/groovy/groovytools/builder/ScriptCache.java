@@ -0,0 +1,416 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovySystem;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.tools.GroovyClass;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the classes compiled from the scripts loaded by {@link MetaBuilder}'s <code>define</code>,
+ * <code>build</code>, <code>buildEach</code> and <code>buildList</code> methods which accept a {@link java.net.URL},
+ * so that unchanged scripts are compiled only once.
+ * <p/>
+ * Scripts are identified by a hash of their content, so a script is recompiled as soon as it changes, no matter
+ * where it was loaded from.  Compiled classes are always kept in memory.  If a directory is given, the bytecode is
+ * also saved there so that unchanged scripts don't have to be compiled again after a restart.  Like
+ * {@link GroovyClassLoader#parseClass(GroovyCodeSource)}, classes loaded from the directory are registered with the
+ * {@link GroovyClassLoader} so that they may be found by name, e.g. when used as factories.
+ * <p/>
+ * The hash also covers the Groovy version and the {@link CompilerConfiguration} the scripts are saved with, so that
+ * classes compiled by another version or with other settings aren't loaded.  Saved classes which can't be read, e.g.
+ * because the file was truncated, are deleted and the script is compiled and saved again.
+ * <p/>
+ * <code>ScriptCache</code>s are thread-safe.
+ *
+ * @version $Id$
+ * @see MetaBuilder#setScriptCacheDirectory(File)
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ScriptCache {
+    private static final String EXTENSION = ".classes";
+    private static final int MAGIC = 0x4d425343;
+    private static final int FORMAT = 1;
+
+    /**
+     * {@link GroovyClassLoader}'s <code>setClassCacheEntry</code>, used to register loaded classes by name.
+     */
+    private static final Method SET_CLASS_CACHE_ENTRY;
+
+    static {
+        Method method;
+        try {
+            method = GroovyClassLoader.class.getDeclaredMethod("setClassCacheEntry", new Class[]{Class.class});
+            method.setAccessible(true);
+        }
+        catch(Exception e) {
+            method = null;
+        }
+        SET_CLASS_CACHE_ENTRY = method;
+    }
+
+    private final GroovyClassLoader classLoader;
+    private final File directory;
+    private final CompilerConfiguration configuration;
+
+    /**
+     * The Groovy version and the settings of {@link #configuration} which affect the bytecode, hashed with each script.
+     */
+    private final String compilerKey;
+
+    /**
+     * Script classes by content hash.
+     */
+    private final ConcurrentMap classes;
+
+    private final AtomicLong hits;
+    private final AtomicLong diskHits;
+    private final AtomicLong misses;
+
+    /**
+     * Constructs a <code>ScriptCache</code> that keeps compiled classes in memory only.
+     *
+     * @param classLoader the class loader used to compile and load scripts
+     */
+    public ScriptCache(GroovyClassLoader classLoader) {
+        this(classLoader, null);
+    }
+
+    /**
+     * Constructs a <code>ScriptCache</code>.
+     *
+     * @param classLoader the class loader used to compile and load scripts
+     * @param directory where to save compiled classes, or null to keep them in memory only
+     */
+    public ScriptCache(GroovyClassLoader classLoader, File directory) {
+        this(classLoader, directory, CompilerConfiguration.DEFAULT);
+    }
+
+    /**
+     * Constructs a <code>ScriptCache</code>.
+     *
+     * @param classLoader the class loader used to compile and load scripts
+     * @param directory where to save compiled classes, or null to keep them in memory only
+     * @param configuration the configuration used to compile the scripts saved to the directory
+     */
+    public ScriptCache(GroovyClassLoader classLoader, File directory, CompilerConfiguration configuration) {
+        this.classLoader = classLoader;
+        this.directory = directory;
+        this.configuration = configuration;
+        this.compilerKey = compilerKey(configuration);
+        this.classes = new ConcurrentHashMap();
+        this.hits = new AtomicLong();
+        this.diskHits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the script class for the given source, compiling the source only if it is neither in memory nor on
+     * disk.
+     *
+     * @param source the script source
+     * @return see above
+     * @throws IOException if the directory can't be read from or written to
+     */
+    public Class loadClass(GroovyCodeSource source) throws IOException {
+        String key = hash(compilerKey, source.getScriptText());
+        Class scriptClass = (Class)classes.get(key);
+        if(scriptClass != null) {
+            hits.incrementAndGet();
+            return scriptClass;
+        }
+        if(directory == null) {
+            scriptClass = classLoader.parseClass(source);
+            misses.incrementAndGet();
+        }
+        else {
+            File file = new File(directory, key + EXTENSION);
+            scriptClass = file.isFile() ? load(file) : null;
+            if(scriptClass != null) {
+                diskHits.incrementAndGet();
+            }
+            else {
+                scriptClass = compile(source, file);
+                misses.incrementAndGet();
+            }
+        }
+        Class previous = (Class)classes.putIfAbsent(key, scriptClass);
+        return previous != null ? previous : scriptClass;
+    }
+
+    /**
+     * Returns the number of scripts found in memory.
+     *
+     * @return see above
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of scripts loaded from the directory.
+     *
+     * @return see above
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * Returns the number of scripts that had to be compiled.
+     *
+     * @return see above
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Removes all classes from memory.  Saved classes are kept.
+     */
+    public void clear() {
+        classes.clear();
+    }
+
+    /**
+     * Compiles the script, saves the bytecode to the file and returns the script class.
+     */
+    private Class compile(GroovyCodeSource source, File file) throws IOException {
+        CompilationUnit unit = new CompilationUnit(configuration, null, classLoader);
+        SourceUnit sourceUnit = unit.addSource(source.getName(), source.getScriptText());
+        unit.compile(Phases.CLASS_GENERATION);
+
+        // the script class is the module's first class, see GroovyClassLoader.ClassCollector
+        String mainClassName = sourceUnit.getAST().getClasses().get(0).getName();
+        Map byteCode = new LinkedHashMap();
+        List generated = unit.getClasses();
+        for(int i = 0; i < generated.size(); i++) {
+            GroovyClass groovyClass = (GroovyClass)generated.get(i);
+            byteCode.put(groovyClass.getName(), groovyClass.getBytes());
+        }
+
+        save(file, mainClassName, byteCode);
+        return define(mainClassName, byteCode);
+    }
+
+    /**
+     * Loads the classes saved to the file.  If the file can't be read, it is deleted.
+     *
+     * @return the script class, or null if the file can't be read
+     */
+    private Class load(File file) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        catch(FileNotFoundException e) {
+            // deleted in the meantime
+            return null;
+        }
+        String mainClassName = null;
+        Map byteCode = new LinkedHashMap();
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new StreamCorruptedException(file.getPath());
+            }
+            mainClassName = in.readUTF();
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int length = in.readInt();
+                if(length < 0 || length > file.length()) {
+                    throw new StreamCorruptedException(file.getPath());
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                byteCode.put(name, bytes);
+            }
+        }
+        catch(IOException e) {
+            mainClassName = null;
+        }
+        finally {
+            in.close();
+        }
+        Class mainClass = null;
+        if(mainClassName != null && byteCode.containsKey(mainClassName)) {
+            try {
+                mainClass = define(mainClassName, byteCode);
+            }
+            catch(ClassFormatError e) {
+                // corrupt bytecode
+            }
+        }
+        if(mainClass == null) {
+            // unreadable, compile and save it again
+            file.delete();
+        }
+        return mainClass;
+    }
+
+    /**
+     * Writes to a temporary file first so that concurrent readers never see a partial file.
+     */
+    private void save(File file, String mainClassName, Map byteCode) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create script cache directory " + directory);
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeUTF(mainClassName);
+            out.writeInt(byteCode.size());
+            for(Iterator i = byteCode.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry)i.next();
+                byte[] bytes = (byte[])entry.getValue();
+                out.writeUTF((String)entry.getKey());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        finally {
+            out.close();
+        }
+        if(!temp.renameTo(file)) {
+            // someone else saved it first
+            temp.delete();
+        }
+    }
+
+    private Class define(String mainClassName, Map byteCode) {
+        ScriptClassLoader loader = new ScriptClassLoader(classLoader, byteCode);
+        Class mainClass = null;
+        for(Iterator i = byteCode.keySet().iterator(); i.hasNext();) {
+            String name = (String)i.next();
+            Class c;
+            try {
+                c = loader.loadClass(name, false, true, false);
+            }
+            catch(ClassNotFoundException e) {
+                throw new MetaBuilderException("Script class '" + name + "' not found in script cache.", e);
+            }
+            register(c);
+            if(name.equals(mainClassName)) {
+                mainClass = c;
+            }
+        }
+        return mainClass;
+    }
+
+    private void register(Class c) {
+        if(SET_CLASS_CACHE_ENTRY == null) {
+            return;
+        }
+        try {
+            SET_CLASS_CACHE_ENTRY.invoke(classLoader, new Object[]{c});
+        }
+        catch(IllegalAccessException e) {
+            // the class is still visible to the script itself
+        }
+        catch(InvocationTargetException e) {
+            throw new MetaBuilderException("Script class '" + c.getName() + "' could not be registered.", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the Groovy version and the settings of the configuration which affect the bytecode.
+     */
+    private static String compilerKey(CompilerConfiguration configuration) {
+        StringBuilder key = new StringBuilder(GroovySystem.getVersion());
+        key.append('\n').append(configuration.getTargetBytecode());
+        key.append('\n').append(configuration.getSourceEncoding());
+        key.append('\n').append(configuration.getScriptBaseClass());
+        key.append('\n').append(configuration.getDebug());
+        key.append('\n').append(new TreeMap(configuration.getOptimizationOptions()));
+        Set disabled = configuration.getDisabledGlobalASTTransformations();
+        key.append('\n').append(disabled != null ? new TreeSet(disabled) : null);
+        List customizers = configuration.getCompilationCustomizers();
+        for(int i = 0; i < customizers.size(); i++) {
+            key.append('\n').append(customizers.get(i).getClass().getName());
+        }
+        return key.toString();
+    }
+
+    private static String hash(String compilerKey, String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(compilerKey.getBytes("UTF-8"));
+            md.update((byte)0);
+            byte[] digest = md.digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(int i = 0; i < digest.length; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Defines the classes of one script on demand, delegating everything else to the {@link GroovyClassLoader}.
+     */
+    private static class ScriptClassLoader extends GroovyClassLoader.InnerLoader {
+        private final Map byteCode;
+
+        ScriptClassLoader(GroovyClassLoader delegate, Map byteCode) {
+            super(delegate);
+            this.byteCode = byteCode;
+        }
+
+        public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve) throws ClassNotFoundException {
+            synchronized(this) {
+                Class c = findLoadedClass(name);
+                if(c == null && byteCode.containsKey(name)) {
+                    byte[] bytes = (byte[])byteCode.get(name);
+                    c = defineClass(name, bytes, 0, bytes.length);
+                }
+                if(c != null) {
+                    if(resolve) {
+                        resolveClass(c);
+                    }
+                    return c;
+                }
+            }
+            return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *      Copyright 2008 the original author or authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package groovytools.builder;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the violations found by a build instead of throwing an exception for the first one, see
+ * {@link MetaBuilder#buildEach(ValidationReport, groovy.lang.Closure, groovy.lang.Closure)}.
+ * <p/>
+ * A violation is a failed <code>req</code>, <code>min</code>, <code>max</code> or <code>check</code> attribute or an
+ * unknown property.  Violations are recorded into preallocated arrays without creating an exception, so recording
+ * is cheap even when a large import has many bad records.  {@link Violation}s are only created when they are read.
+ * Once the limit is reached, further violations are only counted.
+ * <p/>
+ * <code>ValidationReport</code>s are not thread-safe and should be used for one build at a time.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("rawtypes")
+public class ValidationReport {
+    public static final int PROPERTY = 0;
+    public static final int COLLECTION = 1;
+    public static final int NODE = 2;
+
+    private final int limit;
+    private int size;
+    private long count;
+
+    private int[] kinds;
+    private String[] fqns;
+    private String[] names;
+    private String[] reasons;
+    private long[] roots;
+    private String[] paths;
+
+    /**
+     * Constructs a <code>ValidationReport</code> which keeps every violation.
+     */
+    public ValidationReport() {
+        this(16, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a <code>ValidationReport</code>.
+     *
+     * @param initialCapacity the number of violations to allocate room for up front
+     * @param limit the maximum number of violations to keep
+     */
+    public ValidationReport(int initialCapacity, int limit) {
+        if(limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+        this.limit = limit;
+        int capacity = Math.max(Math.min(initialCapacity, limit), 1);
+        kinds = new int[capacity];
+        fqns = new String[capacity];
+        names = new String[capacity];
+        reasons = new String[capacity];
+        roots = new long[capacity];
+        paths = new String[capacity];
+    }
+
+    /**
+     * Records a violation.
+     *
+     * @param kind {@link #PROPERTY}, {@link #COLLECTION} or {@link #NODE}
+     * @param fqn the fully qualified name of the schema that was violated
+     * @param name the name of the property or collection, or null for a node
+     * @param reason why the schema was violated
+     * @param root the index of the root being built, starting at 0
+     * @param path the names of the nodes from the root to the node the violation was found in
+     */
+    public void add(int kind, String fqn, String name, String reason, long root, String path) {
+        count++;
+        if(size == limit) return;
+        if(size == kinds.length) {
+            int capacity = (int)Math.min((long)size * 2, limit);
+            kinds = Arrays.copyOf(kinds, capacity);
+            fqns = Arrays.copyOf(fqns, capacity);
+            names = Arrays.copyOf(names, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+            roots = Arrays.copyOf(roots, capacity);
+            paths = Arrays.copyOf(paths, capacity);
+        }
+        kinds[size] = kind;
+        fqns[size] = fqn;
+        names[size] = name;
+        reasons[size] = reason;
+        roots[size] = root;
+        paths[size] = path;
+        size++;
+    }
+
+    /**
+     * Returns the number of violations kept.
+     *
+     * @return see above
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Returns the number of violations found, including those that were not kept because of the limit.
+     *
+     * @return see above
+     */
+    public long getViolationCount() {
+        return count;
+    }
+
+    /**
+     * Returns true if violations were found but not kept because of the limit.
+     *
+     * @return see above
+     */
+    public boolean isTruncated() {
+        return count > size;
+    }
+
+    /**
+     * Returns the violation kept at the given index.
+     *
+     * @param index see above
+     * @return see above
+     */
+    public Violation get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new Violation(kinds[index], fqns[index], names[index], reasons[index], roots[index], paths[index]);
+    }
+
+    /**
+     * Returns a read-only view of the violations kept.
+     *
+     * @return see above
+     */
+    public List getViolations() {
+        return new AbstractList() {
+            public Object get(int index) {
+                return ValidationReport.this.get(index);
+            }
+
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Forgets all violations, keeping the allocated room.
+     */
+    public void clear() {
+        Arrays.fill(fqns, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(reasons, 0, size, null);
+        Arrays.fill(paths, 0, size, null);
+        size = 0;
+        count = 0;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder().append(count).append(" violation(s)");
+        for(int i = 0; i < size; i++) {
+            s.append('\n').append(get(i));
+        }
+        if(isTruncated()) {
+            s.append("\n...");
+        }
+        return s.toString();
+    }
+
+    /**
+     * A violation read from a {@link ValidationReport}.
+     */
+    public static class Violation {
+        private final int kind;
+        private final String fqn;
+        private final String name;
+        private final String reason;
+        private final long root;
+        private final String path;
+
+        Violation(int kind, String fqn, String name, String reason, long root, String path) {
+            this.kind = kind;
+            this.fqn = fqn;
+            this.name = name;
+            this.reason = reason;
+            this.root = root;
+            this.path = path;
+        }
+
+        /**
+         * Returns {@link ValidationReport#PROPERTY}, {@link ValidationReport#COLLECTION} or
+         * {@link ValidationReport#NODE}.
+         *
+         * @return see above
+         */
+        public int getKind() {
+            return kind;
+        }
+
+        public String getFqn() {
+            return fqn;
+        }
+
+        /**
+         * Returns the name of the property or collection, or null if the node itself failed its check.
+         *
+         * @return see above
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * Returns the index of the root that was being built, starting at 0.
+         *
+         * @return see above
+         */
+        public long getRoot() {
+            return root;
+        }
+
+        /**
+         * Returns the names of the nodes from the root to the node the violation was found in, separated by
+         * <code>/</code>.
+         *
+         * @return see above
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public String toString() {
+            return "'" + fqn + "': " + reason + " (root " + root + ": " + path + ")";
+        }
+    }
+}
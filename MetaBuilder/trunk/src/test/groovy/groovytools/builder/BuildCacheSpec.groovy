@@ -0,0 +1,323 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class BuildCacheSpec extends Specification {
+
+	static final String RUNS = 'groovytools.builder.BuildCacheSpec.runs'
+
+	MetaBuilder mb = new MetaBuilder()
+	File dir
+
+	def setup() {
+		dir = File.createTempFile('builds', '')
+		dir.delete()
+		dir.mkdir()
+		System.clearProperty(RUNS)
+	}
+
+	def cleanup() {
+		dir.deleteDir()
+		System.clearProperty(RUNS)
+	}
+
+	private void defineParent(MetaBuilder metaBuilder, int maxLength = 5) {
+		metaBuilder.define {
+			parent(factory: TestParent) {
+				properties {
+					name(max: maxLength)
+				}
+				collections {
+					listOfChildren {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private URL script(String text) {
+		File file = File.createTempFile('script', '.groovy', dir)
+		file.text = """System.setProperty('$RUNS', String.valueOf(Integer.getInteger('$RUNS', 0) + 1))
+$text"""
+		file.toURI().toURL()
+	}
+
+	private int getRuns() {
+		Integer.getInteger(RUNS, 0)
+	}
+
+	@Unroll
+	def "A saved build is replayed without running the script, lightweight: #lightweight"() {
+		given:
+		mb.lightweight = lightweight
+		defineParent(mb)
+		mb.buildCacheDirectory = dir
+		URL url = script("""
+parent(name: 'p') {
+	listOfChildren {
+		child(name: 'a')
+		child(name: 'b')
+	}
+}
+""")
+
+		when:
+		TestParent first = mb.build(url)
+		TestParent second = mb.build(url)
+
+		then:
+		runs == 1
+		!first.is(second)
+		second.name == 'p'
+		second.listOfChildren*.name == ['a', 'b']
+		mb.buildCache.missCount == 1
+		mb.buildCache.hitCount == 1
+		mb.buildCache.saveCount == 1
+		new MetaBuilderStats(mb).buildCacheHitCount == 1
+
+		where:
+		lightweight << [false, true]
+	}
+
+	def "Schema nodes and values of simple types are replayed"() {
+		given:
+		mb.define {
+			item {
+				properties {
+					name()
+					price()
+					count()
+					tags()
+					options()
+					when()
+					flag()
+				}
+			}
+		}
+		mb.buildCacheDirectory = dir
+		URL url = script("""
+item(name: 'a', price: 1.5, count: 10000000000L, tags: ['x', 'y'], options: [k: 1], when: new Date(0), flag: true)
+item(name: 'b')
+""")
+		List first = mb.buildList(url)
+
+		when:
+		List second = mb.buildList(url)
+
+		then:
+		runs == 1
+		second*.name() == ['item', 'item']
+		['name', 'price', 'count', 'tags', 'options', 'when', 'flag'].every { second[0].attribute(it) == first[0].attribute(it) }
+		second[0].attribute('price') instanceof BigDecimal
+		second[0].attribute('count') instanceof Long
+		second[1].attribute('name') == 'b'
+	}
+
+	def "A changed script or schema is run again"() {
+		given:
+		defineParent(mb)
+		mb.buildCacheDirectory = dir
+		File file = new File(dir, 'script.groovy')
+		file.text = "parent(name: 'p')"
+
+		when:
+		mb.build(file.toURI().toURL())
+		file.text = "parent(name: 'q')"
+		TestParent changed = mb.build(file.toURI().toURL())
+
+		then:
+		changed.name == 'q'
+		mb.buildCache.missCount == 2
+
+		when:
+		MetaBuilder other = new MetaBuilder()
+		defineParent(other, 6)
+		other.buildCacheDirectory = dir
+		other.build(file.toURI().toURL())
+
+		then:
+		other.buildCache.missCount == 1
+		other.buildCache.hitCount == 0
+
+		when:
+		MetaBuilder same = new MetaBuilder()
+		defineParent(same)
+		same.buildCacheDirectory = dir
+		same.build(file.toURI().toURL())
+
+		then:
+		same.buildCache.hitCount == 1
+	}
+
+	def "Builds that can't be recorded aren't saved"() {
+		given:
+		defineParent(mb)
+		mb.define {
+			holder {
+				properties {
+					name()
+					child()
+				}
+			}
+		}
+		mb.buildCacheDirectory = dir
+		URL url = script(text)
+
+		when:
+		mb.build(url)
+		mb.build(url)
+
+		then:
+		runs == 2
+		mb.buildCache.saveCount == 0
+
+		where:
+		text << [
+			'holder(name: "h${1}")',
+			"parent(name: 'p')\n3",
+			"holder(child: new groovytools.builder.support.TestChild('c'))"
+		]
+	}
+
+	def "Builds whose objects the script changes aren't saved"() {
+		given:
+		defineParent(mb, 10)
+		mb.define {
+			holder {
+				properties {
+					name()
+				}
+			}
+		}
+		mb.buildCacheDirectory = dir
+		URL url = script(text)
+
+		when:
+		def first = mb.build(url)
+		def second = mb.build(url)
+		List list = mb.buildList(url)
+
+		then:
+		runs == 3
+		mb.buildCache.saveCount == 0
+		[first, second, list[0]].every { nameOf(it) == 'mutated' }
+
+		where:
+		text << [
+			"def p = parent(name: 'p')\np.name = 'mutated'\np",
+			"def p = parent(name: 'p') {\n listOfChildren {\n child(name: 'c')\n }\n}\np.listOfChildren[0].name = 'mutated'\np",
+			"def h = holder(name: 'h')\nh.attributes().name = 'mutated'\nh"
+		]
+	}
+
+	private String nameOf(Object built) {
+		if(built instanceof Node) {
+			return built.attribute('name')
+		}
+		built.listOfChildren ? built.listOfChildren[0].name : built.name
+	}
+
+	def "Builds and lists of the same script are saved separately"() {
+		given:
+		defineParent(mb, 10)
+		mb.buildCacheDirectory = dir
+		URL url = script("parent(name: 'p').name = 'mutated'\nparent(name: 'q')")
+
+		when:
+		TestParent last = mb.build(url)
+		List list = mb.buildList(url)
+		List again = mb.buildList(url)
+
+		then:
+		last.name == 'q'
+		list*.name == ['mutated', 'q']
+		again*.name == ['mutated', 'q']
+		runs == 3
+		mb.buildCache.saveCount == 1
+		mb.buildCache.hitCount == 0
+	}
+
+	def "Violations are reported when a build is replayed"() {
+		given:
+		defineParent(mb)
+		mb.buildCacheDirectory = dir
+		URL url = script("parent(name: 'much too long')")
+		ValidationReport first = new ValidationReport()
+		ValidationReport second = new ValidationReport()
+
+		when:
+		mb.buildList(first, url)
+		List built = mb.buildList(second, url)
+
+		then:
+		runs == 1
+		built.size() == 1
+		first.violations*.reason == ['max check failed']
+		second.violations*.reason == ['max check failed']
+
+		when:
+		mb.buildList(url)
+
+		then:
+		thrown(PropertyException)
+	}
+
+	def "Unreadable builds are run and saved again"() {
+		given:
+		defineParent(mb)
+		mb.buildCacheDirectory = dir
+		URL url = script("parent(name: 'p')")
+		mb.build(url)
+		File saved = dir.listFiles().find { it.name.endsWith('.build') }
+		saved.bytes = saved.bytes[0..-3] as byte[]
+
+		when:
+		TestParent built = mb.build(url)
+
+		then:
+		built.name == 'p'
+		runs == 2
+		mb.buildCache.saveCount == 2
+
+		when:
+		built = mb.build(url)
+
+		then:
+		built.name == 'p'
+		runs == 2
+		mb.buildCache.hitCount == 1
+
+		when:
+		mb.buildCache.clear()
+		mb.build(url)
+
+		then:
+		runs == 3
+	}
+
+	def "Builds aren't cached without a directory"() {
+		given:
+		defineParent(mb)
+		URL url = script("parent(name: 'p')")
+
+		when:
+		mb.buildCacheDirectory = dir
+		mb.buildCacheDirectory = null
+		mb.build(url)
+		mb.build(url)
+
+		then:
+		mb.buildCache == null
+		runs == 2
+		new MetaBuilderStats(mb).buildCacheMissCount == 0
+	}
+}
@@ -0,0 +1,173 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import java.lang.management.ManagementFactory
+import javax.management.ObjectName
+
+import spock.lang.Specification
+
+import static groovytools.builder.DefaultBuildMetrics.*
+
+class BuildMetricsSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	DefaultBuildMetrics metrics = new DefaultBuildMetrics()
+
+	def setup() {
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name(check: ~/c.*/)
+				}
+			}
+			parent(factory: TestParent, check: { it.name }) {
+				properties {
+					name(def: 'p')
+				}
+				collections {
+					listOfChildren {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+	}
+
+	private build() {
+		mb.build {
+			parent(name: 'p1') {
+				listOfChildren {
+					child(name: 'c1')
+					child(name: 'c2')
+				}
+			}
+		}
+	}
+
+	def "Nothing is measured without metrics"() {
+		when:
+		build()
+		mb.buildMetrics = metrics
+
+		then:
+		metrics.schemaNames.length == 0
+	}
+
+	def "Events are counted by schema"() {
+		given:
+		mb.buildMetrics = metrics
+		String child = 'parent.collections.listOfChildren.child'
+
+		when:
+		build()
+
+		then:
+		counts('parent') == [1, 1, 0, 1, 0, 1]
+		counts('parent.collections.listOfChildren') == [1, 1, 0, 0, 2, 1]
+		counts(child) == [2, 2, 0, 0, 0, 2]
+		counts(child + '.mergedProperties.name') == [0, 0, 2, 2, 0, 0]
+		counts('parent.mergedProperties.name') == [0, 0, 1, 0, 0, 0]
+		counts('unknown') == [0, 0, 0, 0, 0, 0]
+		metrics.getSlowestSchemas(10).length == 5
+		metrics.getSlowestSchemas(1).length == 1
+	}
+
+	private List counts(String fqn) {
+		DefaultBuildMetrics.events.collect { metrics.getCount(fqn, it) }
+	}
+
+	def "Times are summarized"() {
+		given:
+		mb.buildMetrics = metrics
+
+		when:
+		10.times { build() }
+		long max = metrics.getMaxNanos('parent', NODE_COMPLETION)
+
+		then:
+		metrics.getCount('parent', NODE_COMPLETION) == 10
+		metrics.getTotalNanos('parent', NODE_COMPLETION) >= max
+		metrics.getMeanNanos('parent', NODE_COMPLETION) <= max
+		metrics.getPercentileNanos('parent', NODE_COMPLETION, 0) <= metrics.getPercentileNanos('parent', NODE_COMPLETION, 50)
+		metrics.getPercentileNanos('parent', NODE_COMPLETION, 50) <= metrics.getPercentileNanos('parent', NODE_COMPLETION, 100)
+		metrics.getPercentileNanos('parent', NODE_COMPLETION, 100) == max
+
+		when:
+		metrics.reset()
+
+		then:
+		metrics.schemaNames.length == 0
+		metrics.getPercentileNanos('parent', NODE_COMPLETION, 99) == 0
+
+		when:
+		metrics.getCount('parent', 'unknown')
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "Redefined schemas are counted by name and not retained"() {
+		given:
+		mb.buildMetrics = metrics
+		build()
+
+		when:
+		mb.addSchema('parent', new MetaBuilder().define {
+			parent(factory: TestParent) {
+				properties {
+					name()
+				}
+			}
+		})
+		mb.build {
+			parent(name: 'p2')
+		}
+
+		then:
+		metrics.getCount('parent', NODE_CREATION) == 2
+		metrics.getCount('parent.mergedProperties.name', PROPERTY_SET) == 2
+		metrics.@timers.keySet().every { it instanceof String }
+	}
+
+	def "MetaBuilder is exposed to JMX"() {
+		given:
+		def server = ManagementFactory.platformMBeanServer
+		def name = new ObjectName('groovytools.builder:type=MetaBuilder,name=BuildMetricsSpec')
+		mb.buildMetrics = metrics
+		mb.registerMBean(name)
+		build()
+
+		expect:
+		server.getAttribute(name, 'SchemaCount') == 2
+		server.getAttribute(name, 'CompiledSchemaCount') > 0
+		server.getAttribute(name, 'MetricsEnabled') == true
+		server.getAttribute(name, 'SchemaNames').contains('parent')
+		server.invoke(name, 'getCount', ['parent', NODE_CREATION] as Object[], [String.name, String.name] as String[]) == 1
+
+		cleanup:
+		mb.unregisterMBean(name)
+	}
+
+	def "Script cache hit ratio is reported"() {
+		given:
+		def stats = new MetaBuilderStats(mb)
+		URL script = getClass().getResource('/BuildScript.dsl')
+
+		expect:
+		stats.scriptCacheHitRatio == 0
+
+		when:
+		mb.define(getClass().getResource('/DefineScript.dsl'))
+		3.times { mb.buildList(script) }
+
+		then:
+		stats.scriptCacheMissCount == 2
+		stats.scriptCacheHitCount == 2
+		stats.scriptCacheHitRatio == 0.5d
+		!stats.metricsEnabled
+		stats.getSlowestSchemas(3).length == 0
+	}
+}
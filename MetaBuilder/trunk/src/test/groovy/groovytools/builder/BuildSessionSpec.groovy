@@ -0,0 +1,246 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class BuildSessionSpec extends Specification {
+
+	ResolveCountingMetaBuilder mb = new ResolveCountingMetaBuilder()
+
+	def setup() {
+		mb.define {
+			parent(factory: TestParent) {
+				properties {
+					name(req: true)
+				}
+				collections {
+					listOfChildren(min: 1) {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	def "Object visitors may keep the events they are passed"() {
+		given:
+		List events = []
+
+		when:
+		mb.build({ e -> events << e; e.node }) {
+			parent(name: 'p') {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		then:
+		events*.name == ['parent', 'listOfChildren', 'child']
+		events[0].node instanceof TestParent
+		events[2].node.name == 'c'
+		events[2].parent != null
+	}
+
+	def "A session reuses its builder from build to build"() {
+		given:
+		BuildSession session = mb.session
+		Set builders = []
+		Closure script = {
+			builders << delegate
+			parent(name: 'p') {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		when:
+		List results = (0..<3).collect { session.buildList(script) }
+
+		then:
+		builders.size() == 1
+		session.buildCount == 3
+		results*.size() == [1, 1, 1]
+		results.flatten()*.name == ['p', 'p', 'p']
+		results.flatten()*.listOfChildren*.name == [['c'], ['c'], ['c']]
+		!results[0].is(results[1])
+		session.build(script).name == 'p'
+		builders.size() == 1
+	}
+
+	def "Each thread has its own session"() {
+		given:
+		BuildSession other = null
+		Thread thread = new Thread({ other = mb.session })
+
+		when:
+		thread.start()
+		thread.join()
+
+		then:
+		mb.session.is(mb.session)
+		other != null
+		!other.is(mb.session)
+
+		when:
+		BuildSession released = mb.session
+		mb.releaseSession()
+
+		then:
+		!released.is(mb.session)
+	}
+
+	def "Nothing carries over from one build to the next"() {
+		given:
+		BuildSession session = mb.session
+		ValidationReport report = new ValidationReport()
+		List roots = []
+
+		when:
+		session.buildEach(report, { roots << it }) {
+			parent()
+		}
+
+		then:
+		report.violationCount == 2
+		roots.size() == 1
+
+		when:
+		session.buildList {
+			parent(name: 'p')
+		}
+
+		then:
+		thrown(CollectionException)
+		report.violationCount == 2
+		roots.size() == 1
+	}
+
+	def "A builder that failed is replaced"() {
+		given:
+		BuildSession session = mb.session
+		List builders = []
+
+		when:
+		session.build {
+			builders << delegate
+			parent {
+				listOfChildren {
+					child(name: 'c')
+					throw new IllegalStateException()
+				}
+			}
+		}
+
+		then:
+		thrown(IllegalStateException)
+		session.buildCount == 0
+
+		when:
+		TestParent built = session.build {
+			builders << delegate
+			parent(name: 'p') {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		then:
+		built.listOfChildren*.name == ['c']
+		!builders[0].is(builders[1])
+		session.buildCount == 1
+	}
+
+	def "A build within a build uses another builder"() {
+		given:
+		BuildSession session = mb.session
+		List builders = []
+		Closure script = {
+			builders << delegate
+			parent(name: 'p') {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		when:
+		List built = session.buildList {
+			builders << delegate
+			parent(name: 'outer') {
+				listOfChildren {
+					child(name: session.build(script).name)
+				}
+			}
+		}
+
+		then:
+		built*.name == ['outer']
+		built[0].listOfChildren*.name == ['p']
+		builders.size() == 2
+		!builders[0].is(builders[1])
+	}
+
+	def "A new builder is created when the MetaBuilder's settings change"() {
+		given:
+		BuildSession session = mb.session
+		List builders = []
+		Closure script = {
+			builders << delegate
+			parent(name: 'p') {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		when:
+		mb.lightweight = false
+		session.build(script)
+		mb.lightweight = true
+		session.build(script)
+		session.build(script)
+		mb.buildMetrics = new DefaultBuildMetrics()
+		session.build(script)
+
+		then:
+		!builders[0].is(builders[1])
+		builders[1].is(builders[2])
+		!builders[2].is(builders[3])
+	}
+
+	def "Resolved schemas are kept while the MetaBuilder is sealed"() {
+		given:
+		BuildSession session = mb.session
+		Closure script = {
+			parent(name: 'p') {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		when:
+		mb.resolved.clear()
+		2.times { session.build(script) }
+
+		then:
+		mb.resolved == ['parent', 'listOfChildren', 'child'] * 2
+
+		when:
+		mb.seal()
+		mb.resolved.clear()
+		2.times { session.build(script) }
+
+		then:
+		mb.resolved == ['parent', 'listOfChildren', 'child']
+	}
+}
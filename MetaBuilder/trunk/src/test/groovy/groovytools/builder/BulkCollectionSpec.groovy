@@ -0,0 +1,189 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class BulkCollectionSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def "Bulk collections are filled once the parent is complete"() {
+		given:
+		List seen = []
+		mb.define {
+			owner(factory: BulkOwner) {
+				collections {
+					items(bulk: true) {
+						item(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+					byName(bulk: true, key: 'name') {
+						entry(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		when:
+		BulkOwner built = mb.build {
+			owner {
+				items {
+					100.times { item(name: "i$it") }
+				}
+				seen << current.items.size()
+				byName {
+					10.times { entry(name: "e$it") }
+					entry(name: 'e0')
+				}
+			}
+		}
+
+		then:
+		seen == [0]
+		built.calls.findAll { it.key in ['add', 'addAll', 'put', 'putAll'] } == [addAll: 1, putAll: 1]
+		built.items*.name == (0..<100).collect { "i$it" }
+		built.byName.keySet() as List == (0..<10).collect { "e$it" }
+	}
+
+	def "Bulk collections are checked after they are filled"() {
+		given:
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren(bulk: true, min: 1, max: 2, def: [new TestChild(name: 'default')]) {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		expect:
+		mb.build { parent { listOfChildren { child(name: 'c1') } } }.listOfChildren*.name == ['c1']
+		mb.build { parent() }.listOfChildren*.name == ['default']
+
+		when:
+		mb.build { parent { listOfChildren { 3.times { child(name: "c$it") } } } }
+
+		then:
+		CollectionException e = thrown()
+		e.message.contains('max check failed')
+	}
+
+	def "Bulk and immediate collections build the same recursive tree"() {
+		given:
+		MetaBuilder bulkMb = new MetaBuilder()
+		[mb, bulkMb].each { builder ->
+			boolean isBulk = builder.is(bulkMb)
+			builder.define {
+				node(factory: TestParent) {
+					properties {
+						name()
+					}
+					collections {
+						listOfChildren(bulk: isBulk) {
+							child(schema: 'node')
+						}
+						mapOfChildren(bulk: isBulk, key: 'name') {
+							entry(schema: 'node')
+						}
+					}
+				}
+			}
+		}
+		Closure tree = {
+			def nest
+			nest = { String element, String name, int depth ->
+				"$element"(name: name) {
+					if(depth > 0) {
+						listOfChildren {
+							nest('child', "$name.1", depth - 1)
+							nest('child', "$name.2", depth - 1)
+						}
+						mapOfChildren {
+							nest('entry', "$name.3", depth - 1)
+						}
+					}
+				}
+			}
+			nest.delegate = delegate
+			nest('node', '1', 3)
+		}
+
+		expect:
+		dump(bulkMb.build(tree)) == dump(mb.build(tree))
+	}
+
+	private String dump(TestParent node) {
+		"$node.name${node.listOfChildren.collect { dump(it) }}${node.mapOfChildren.collectEntries { k, v -> [k, dump(v)] }}"
+	}
+
+	@Unroll
+	def "Collections are presized from #attributes"() {
+		expect:
+		CompiledSchema.initialCapacity(attributes) == capacity
+
+		where:
+		attributes                  | capacity
+		[:]                         | -1
+		[sizeHint: 10]              | 10
+		[sizeHint: 5000, max: 10]   | 5000
+		[max: 10]                   | 10
+		[max: 1000000]              | CompiledSchema.MAX_PRESIZE
+		[min: 10]                   | -1
+	}
+
+	def "sizeHint and bulk are checked by the meta schema"() {
+		when:
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren((attribute): value) {
+						child(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		then:
+		thrown(PropertyException)
+
+		where:
+		attribute  | value
+		'sizeHint' | 'many'
+		'bulk'     | 'yes'
+	}
+}
+
+class BulkOwner {
+	Map calls = [:]
+	List items = counting(List, [], calls)
+	Map byName = counting(Map, [:], calls)
+
+	/**
+	 * A proxy rather than a subclass, so that the collection classes' default methods don't get in the way.
+	 */
+	private static Object counting(Class type, Object target, Map calls) {
+		Proxy.newProxyInstance(type.classLoader, [type] as Class[], { proxy, Method method, Object[] args ->
+			calls[method.name] = (calls[method.name] ?: 0) + 1
+			method.invoke(target, args)
+		} as InvocationHandler)
+	}
+}
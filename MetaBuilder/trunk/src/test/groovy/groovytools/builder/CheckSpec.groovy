@@ -0,0 +1,96 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CheckSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	@Unroll
+	def "Compiled check #check agrees with isCase for #value"() {
+		expect:
+		Check.compile(check).isCase(value) == ScriptBytecodeAdapter.isCase(value, check)
+
+		where:
+		[check, value] << [
+			String, Number, CharSequence, Object,
+			~/a.*/, ~/\d+/,
+			1..3, 3..1, 'a'..'c', 1.0..2.0,
+			[1, 2, 'a'], ['a', 'b'] as Set,
+			{ it > 1 }, { String s -> s.size() > 1 }, { Integer i -> i == 1 }, { a, b = 0 -> a == 2 }
+		].collectMany { c ->
+			[1, 2, 3L, 'a', 'abc', 1.5, String, new StringBuilder('abc')].collect { v -> [c, v] }
+		}.findAll { c, v -> safe(c, v) }
+	}
+
+	private static boolean safe(check, value) {
+		try {
+			ScriptBytecodeAdapter.isCase(value, check)
+			return true
+		}
+		catch(Throwable t) {
+			return false
+		}
+	}
+
+	def "Property checks and bounds are applied"() {
+		given:
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name(max: 3, check: ['a', 'bb', 'cccc', 'd'])
+				}
+			}
+			parent(factory: TestParent, check: { it.name != 'bad' }) {
+				properties {
+					name(min: 2, check: ~/[a-z]+/)
+				}
+			}
+		}
+
+		expect:
+		mb.build { child(name: 'bb') }.name == 'bb'
+		mb.build { parent(name: 'good') }.name == 'good'
+
+		when:
+		mb.build { child(name: value) }
+
+		then:
+		PropertyException e = thrown()
+		e.message.contains(message)
+
+		where:
+		value  | message
+		'cccc' | 'max check failed'
+		'e'    | 'value invalid'
+	}
+
+	def "Node checks are applied"() {
+		given:
+		mb.define {
+			parent(factory: TestParent, check: { it.name != 'bad' }) {
+				properties {
+					name(min: 2, check: ~/[a-z]+/)
+				}
+			}
+		}
+
+		when:
+		mb.build { parent(name: value) }
+
+		then:
+		thrown(exception)
+
+		where:
+		value | exception
+		'bad' | NodeException
+		'a'   | PropertyException
+		'B'   | PropertyException
+	}
+}
@@ -0,0 +1,151 @@
+package groovytools.builder
+
+import spock.lang.Specification
+
+class ClassGeneratingNodeFactorySpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+	ClassGeneratingNodeFactory factory = new ClassGeneratingNodeFactory(mb)
+
+	def setup() {
+		mb.defaultBuildNodeFactory = factory
+		mb.define {
+			invoice {
+				properties {
+					id(req: true)
+					date()
+					customer {
+						properties {
+							name()
+						}
+					}
+				}
+				collections {
+					items(max: 10) {
+						item {
+							properties {
+								upc()
+								qty(def: 1)
+							}
+						}
+					}
+					notes(key: 'text') {
+						note {
+							properties {
+								text()
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	def "Objects are instances of classes generated from their schemas"() {
+		given:
+		Date invoiceDate = new Date()
+
+		when:
+		def invoice = mb.build {
+			invoice(id: 1, date: invoiceDate) {
+				customer(name: 'c')
+				items {
+					item(upc: 123, qty: 2)
+					item(upc: 234)
+				}
+				notes {
+					note(text: 'a')
+				}
+			}
+		}
+
+		then:
+		!(invoice instanceof SchemaNode)
+		invoice.getClass().name == ClassGeneratingNodeFactory.PACKAGE + '.Invoice'
+		invoice.getClass().declaredFields*.type as Set == [Object, List, Map] as Set
+		invoice.id == 1
+		invoice.date.is(invoiceDate)
+		invoice.customer.name == 'c'
+		invoice.items*.upc == [123, 234]
+		invoice.items*.qty == [2, 1]
+		invoice.items instanceof ArrayList
+		invoice.notes.keySet() as List == ['a']
+		invoice.notes instanceof LinkedHashMap
+	}
+
+	def "Classes are generated once per schema"() {
+		when:
+		List built = (0..<3).collect { i -> mb.build { invoice(id: i) { items { item(upc: i) } } } }
+
+		then:
+		built*.getClass().unique().size() == 1
+		built*.items.flatten()*.getClass().unique().size() == 1
+		factory.generatedClassCount == 2
+	}
+
+	def "Schemas with the same name get their own classes"() {
+		given:
+		mb.define {
+			item {
+				properties {
+					sku()
+				}
+			}
+		}
+
+		when:
+		def topItem = mb.build { item(sku: 'x') }
+		def builtInvoice = mb.build { invoice(id: 1) { items { item(upc: 1) } } }
+
+		then:
+		topItem.sku == 'x'
+		topItem.getClass() != builtInvoice.items[0].getClass()
+		[topItem.getClass(), builtInvoice.items[0].getClass()]*.simpleName as Set == ['Item', 'Item2'] as Set
+	}
+
+	def "Schemas are checked as usual"() {
+		when:
+		mb.build { invoice() }
+
+		then:
+		PropertyException e = thrown()
+		e.message.contains('property required')
+
+		when:
+		mb.build { invoice(id: 1) { items { 11.times { item(upc: it) } } } }
+
+		then:
+		thrown(CollectionException)
+	}
+
+	def "Sealing generates the classes of the top-level schemas"() {
+		when:
+		mb.seal()
+
+		then:
+		factory.generatedClassCount == 1
+
+		when:
+		mb.build { invoice(id: 1) }
+
+		then:
+		factory.generatedClassCount == 1
+	}
+
+	def "Properties must be Java identifiers"() {
+		given:
+		mb.define {
+			odd {
+				properties {
+					'first-name'()
+				}
+			}
+		}
+
+		when:
+		mb.build { odd() }
+
+		then:
+		thrown(FactoryException)
+	}
+}
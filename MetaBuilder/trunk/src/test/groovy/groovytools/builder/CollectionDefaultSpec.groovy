@@ -0,0 +1,178 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class CollectionDefaultSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def "Default collections are added all at once"() {
+		given:
+		mb.define {
+			owner(factory: BulkOwner) {
+				collections {
+					items(def: (0..<100).collect { new TestChild("i$it") }) {
+						item(factory: TestChild)
+					}
+					byName(key: 'name', def: (0..<10).collect { new TestChild("e$it") }) {
+						entry(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		when:
+		BulkOwner built = mb.build {
+			owner()
+		}
+
+		then:
+		built.calls.findAll { it.key in ['add', 'addAll', 'put', 'putAll'] } == [addAll: 1, putAll: 1]
+		built.items*.name == (0..<100).collect { "i$it" }
+		built.byName.keySet() as List == (0..<10).collect { "e$it" }
+	}
+
+	def "A default map is put into a map collection as is"() {
+		given:
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					mapOfChildren(key: 'name', def: [a: new TestChild('x'), b: new TestChild('y')]) {
+						child(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		when:
+		TestParent built = mb.build {
+			parent()
+		}
+
+		then:
+		built.mapOfChildren.collectEntries { k, v -> [k, v.name] } == [a: 'x', b: 'y']
+	}
+
+	def "addAll is called once with the default collection"() {
+		given:
+		List calls = []
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren(add: { p, c -> calls << 'add' }, addAll: { p, c -> calls << c*.name }, def: [new TestChild('a'), new TestChild('b')]) {
+						child(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		when:
+		mb.build {
+			parent()
+		}
+
+		then:
+		calls == [['a', 'b']]
+	}
+
+	def "Without addAll, add is called for each default element"() {
+		given:
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren(add: 'addChildToList', def: [new TestChild('a'), new TestChild('b')]) {
+						child(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		expect:
+		mb.build { parent() }.listOfChildren*.name == ['a', 'b']
+	}
+
+	def "Shared defaults are set as is"() {
+		given:
+		List defaults = Collections.unmodifiableList([new TestChild('a'), new TestChild('b')])
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren(shareDef: true, def: defaults) {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		when:
+		List built = mb.buildList {
+			parent()
+			parent()
+			parent {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		then:
+		built[0].listOfChildren.is(defaults)
+		built[1].listOfChildren.is(defaults)
+		built[2].listOfChildren*.name == ['c']
+		defaults*.name == ['a', 'b']
+	}
+
+	def "Shared defaults of another shape than the collection are copied"() {
+		given:
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					mapOfChildren(key: 'name', shareDef: true, def: Collections.unmodifiableList([new TestChild('a'), new TestChild('b')])) {
+						child(factory: TestChild)
+					}
+					listOfChildren(shareDef: true, def: Collections.singleton(new TestChild('x'))) {
+						child(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		when:
+		TestParent built = mb.build {
+			parent()
+		}
+
+		then:
+		built.mapOfChildren.collectEntries { k, v -> [k, v.name] } == [a: 'a', b: 'b']
+		built.listOfChildren instanceof List
+		built.listOfChildren*.name == ['x']
+	}
+
+	def "addAll and shareDef are checked by the meta schema"() {
+		when:
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren((attribute): value) {
+						child(factory: TestChild)
+					}
+				}
+			}
+		}
+
+		then:
+		thrown(PropertyException)
+
+		where:
+		attribute  | value
+		'addAll'   | 1
+		'shareDef' | 'yes'
+	}
+}
@@ -0,0 +1,170 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class CollectionSizeSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def "Size checks don't look the collection up again"() {
+		given:
+		mb.define {
+			owner(factory: CountingOwner) {
+				collections {
+					items(min: 1, max: 200, def: [new CountingItem(name: 'default')]) {
+						item(factory: CountingItem) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		when:
+		CountingOwner built = mb.build {
+			owner {
+				items {
+					100.times { item(name: "i$it") }
+				}
+			}
+		}
+
+		then:
+		built.itemReads == 1
+		built.items.size() == 100
+	}
+
+	def "Sizes are kept per parent in recursive schemas"() {
+		given:
+		mb.define {
+			owner(factory: NestedOwner) {
+				properties {
+					name()
+				}
+				collections {
+					items(max: 2) {
+						item(schema: 'owner')
+					}
+				}
+			}
+		}
+
+		when:
+		NestedOwner built = mb.build {
+			owner(name: 'a') {
+				items {
+					item(name: 'b') {
+						items {
+							item(name: 'c')
+							item(name: 'd')
+						}
+					}
+				}
+			}
+		}
+		// read before the items are, which counts too
+		List reads = [built.itemReads]
+		NestedOwner b = built.items[0]
+		reads << b.itemReads << b.items[0].itemReads
+
+		then:
+		reads == [1, 1, 1]
+		built.items*.name == ['b']
+		b.items*.name == ['c', 'd']
+	}
+
+	def "max is enforced as soon as it is exceeded"() {
+		given:
+		List seen = []
+		mb.define {
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren(max: 2) {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		when:
+		mb.build {
+			parent {
+				listOfChildren {
+					5.times {
+						child(name: "c$it")
+						seen << it
+					}
+				}
+			}
+		}
+
+		then:
+		CollectionException e = thrown()
+		e.message.contains('max check failed')
+		seen == [0, 1]
+	}
+
+	def "max is enforced as merged with the super-schema"() {
+		given:
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name()
+				}
+			}
+			parent(factory: TestParent) {
+				collections {
+					listOfChildren(max: 1) {
+						child(schema: 'child')
+					}
+				}
+			}
+			bigParent(schema: 'parent') {
+				collections {
+					listOfChildren(max: 3) {
+						child(schema: 'child')
+					}
+				}
+			}
+			otherParent(schema: 'parent') {
+				collections {
+					listOfChildren(min: 0) {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+
+		expect:
+		mb.build { bigParent { listOfChildren { 3.times { child(name: "c$it") } } } }.listOfChildren.size() == 3
+
+		when:
+		mb.build { bigParent { listOfChildren { 4.times { child(name: "c$it") } } } }
+
+		then:
+		CollectionException e = thrown()
+		e.message.contains('max check failed')
+
+		when:
+		mb.build { otherParent { listOfChildren { 2.times { child(name: "c$it") } } } }
+
+		then:
+		e = thrown()
+		e.message.contains('max check failed')
+	}
+}
+
+class NestedOwner extends CountingOwner {
+	NestedOwner() {
+		items = []
+	}
+}
@@ -0,0 +1,179 @@
+package groovytools.builder
+
+import spock.lang.Specification
+
+class CompactSchemaNodeSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			invoice {
+				properties {
+					id()
+					date()
+					customer(property: 'client')
+				}
+				collections {
+					items {
+						item {
+							properties {
+								upc()
+								qty()
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	def "Default builds create compact nodes sharing their schema's layout"() {
+		when:
+		Node invoice = mb.build {
+			invoice(id: 1, customer: 'c') {
+				items {
+					item(upc: 123, qty: 1)
+					item(upc: 234)
+				}
+			}
+		}
+		List items = invoice.items[0].children()
+
+		then:
+		invoice instanceof CompactSchemaNode
+		invoice.attributes() == [id: 1, client: 'c']
+		invoice.attributes().keySet() as List == ['id', 'client']
+		items*.getClass().unique() == [CompactSchemaNode]
+		items*.attributes() == [[upc: 123, qty: 1], [upc: 234]]
+		mb.getCompiledSchema(mb.getSchema('invoice')).compactLayout.is(mb.getCompiledSchema(mb.getSchema('invoice')).compactLayout)
+		(0..<mb.getCompiledSchema(mb.getSchema('invoice')).compactLayout.size()).collect {
+			mb.getCompiledSchema(mb.getSchema('invoice')).compactLayout.getName(it)
+		} == ['id', 'date', 'client']
+	}
+
+	def "Leaves have no list of children until one is needed"() {
+		given:
+		java.lang.reflect.Field valueField = Node.getDeclaredField('value')
+		valueField.accessible = true
+
+		when:
+		Node item = mb.build { invoice { items { item(upc: 1) } } }.items[0].children()[0]
+
+		then:
+		valueField.get(item) == null
+		item.children().isEmpty()
+
+		when:
+		item.appendNode('note', [text: 'x'])
+
+		then:
+		valueField.get(item) instanceof NodeList
+		item.children()*.name() == ['note']
+		item.note[0].attribute('text') == 'x'
+	}
+
+	def "Attributes behave like a map"() {
+		given:
+		Node item = new CompactSchemaNode(null, 'item', new CompactSchemaNode.Layout(['upc', 'qty']))
+		Map attributes = item.attributes()
+
+		when:
+		attributes.qty = null
+		attributes.other = 2
+		attributes.upc = 1
+
+		then:
+		attributes.size() == 3
+		attributes.containsKey('qty')
+		!attributes.containsKey('nothing')
+		attributes == [upc: 1, qty: null, other: 2]
+		attributes.keySet() as List == ['upc', 'qty', 'other']
+		item.attribute('other') == 2
+
+		when:
+		attributes.remove('upc')
+		attributes.entrySet().iterator().with { next(); remove() }
+		attributes.entrySet().each { it.value = 3 }
+
+		then:
+		attributes == [other: 3]
+
+		when:
+		attributes.clear()
+
+		then:
+		attributes.isEmpty()
+		attributes.upc == null
+	}
+
+	def "Children added to the list of a leaf are the leaf's"() {
+		when:
+		Node leaf = mb.build { invoice { items { item(upc: 1) } } }.items[0].children()[0]
+		leaf.children().add(new Node(null, 'note'))
+
+		then:
+		leaf.children()*.name() == ['note']
+		leaf.value()*.name() == ['note']
+
+		when:
+		Node copy = mb.build { invoice { items { item(upc: 2) } } }.items[0].children()[0].clone()
+
+		then:
+		copy.value() == []
+		copy.attributes() == [upc: 2]
+	}
+
+	def "Built graphs serialize"() {
+		given:
+		Node invoice = mb.build {
+			invoice(id: 1, customer: 'c') {
+				items {
+					item(upc: 123, qty: 1)
+					item(upc: 234)
+				}
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+
+		when:
+		new ObjectOutputStream(bytes).withStream { it.writeObject(invoice) }
+		Node copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).withStream { it.readObject() }
+
+		then:
+		copy instanceof CompactSchemaNode
+		copy.toString() == invoice.toString()
+		copy.attributes().keySet() as List == ['id', 'client']
+		copy.items[0].children()*.attributes() == [[upc: 123, qty: 1], [upc: 234]]
+		copy.items[0].parent().is(copy)
+
+		when:
+		copy.attributes().date = 'd'
+
+		then:
+		copy.attributes().keySet() as List == ['id', 'date', 'client']
+	}
+
+	def "Compact nodes print like other nodes"() {
+		given:
+		Node compact = mb.build {
+			invoice(id: 1) {
+				items {
+					item(upc: 123, qty: 1)
+				}
+			}
+		}
+		Node plain = new Node(null, 'invoice', [id: 1])
+		new Node(plain, 'items').appendNode('item', [upc: 123, qty: 1])
+
+		expect:
+		print(compact) == print(plain)
+		compact.toString() == plain.toString()
+	}
+
+	private String print(Node node) {
+		StringWriter writer = new StringWriter()
+		new XmlNodePrinter(new PrintWriter(writer)).print(node)
+		writer.toString()
+	}
+}
@@ -0,0 +1,79 @@
+package groovytools.builder
+
+import spock.lang.Specification
+
+class CompiledCollectionSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def "The collection is looked up once per parent"() {
+		given:
+		mb.define {
+			owner(factory: CountingOwner) {
+				properties {
+					name()
+				}
+				collections {
+					items {
+						item(factory: CountingItem) {
+							properties {
+								name()
+							}
+						}
+					}
+					byName(collection: { o -> o.lookups++; o.byName }, key: 'name') {
+						entry(factory: CountingItem) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		when:
+		List owners = mb.buildList {
+			owner(name: 'a') {
+				items {
+					100.times { item(name: "a$it") }
+				}
+				byName {
+					50.times { entry(name: "a$it") }
+				}
+			}
+			owner(name: 'b') {
+				items {
+					item(name: 'b0')
+				}
+				items {
+					item(name: 'b1')
+				}
+			}
+		}
+
+		then:
+		owners*.itemReads == [1, 1]
+		owners*.lookups == [1, 0]
+		owners*.items*.size() == [100, 2]
+		owners[0].byName.size() == 50
+		owners[0].byName.a7.name == 'a7'
+	}
+}
+
+class CountingOwner {
+	String name
+	List items
+	Map byName = [:]
+	int itemReads
+	int lookups
+
+	List getItems() {
+		itemReads++
+		items
+	}
+}
+
+class CountingItem {
+	String name
+}
@@ -0,0 +1,198 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class CompiledSchemaSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name()
+				}
+			}
+			parent(factory: TestParent) {
+				properties {
+					name(req: true)
+				}
+				collections {
+					listOfChildren {
+						child(schema: 'child')
+					}
+				}
+			}
+			extended(schema: 'parent') {
+				properties {
+					name(req: false, def: 'extended')
+					'%'()
+				}
+			}
+		}
+	}
+
+	def "Children are resolved by name, including those of super-schemas"() {
+		when:
+		CompiledSchema compiled = mb.getCompiledSchema(mb.getSchema('extended'))
+
+		then:
+		compiled.superSchema.is(mb.getSchema('parent'))
+		compiled.resolveChild('name').is(mb.getSchema('extended').firstChild('properties').firstChild('name'))
+		compiled.resolveChild('listOfChildren') instanceof CollectionSchemaNode
+		compiled.resolveChild('child').fqn() == 'parent.collections.listOfChildren.child'
+		compiled.resolveChild('unknown').name() == '%'
+	}
+
+	def "Merged properties override those of super-schemas"() {
+		when:
+		CompiledSchema compiled = mb.getCompiledSchema(mb.getSchema('extended'))
+
+		then:
+		compiled.properties.keySet() == ['name', '%'] as Set
+		compiled.getProperty('name').attribute('def') == 'extended'
+		compiled.getProperty('name').attribute('req') == false
+		compiled.getProperty('unknown').name() == '%'
+		compiled.collections*.name() == ['listOfChildren']
+		mb.getCompiledSchema(mb.getSchema('parent')).getProperty('name').attribute('req') == true
+	}
+
+	def "Compiling does not modify the schema"() {
+		given:
+		SchemaNode parentSchema = mb.getSchema('parent')
+		def childNames = parentSchema.children()*.name()
+
+		when:
+		mb.getCompiledSchema(parentSchema)
+		mb.build {
+			parent(name: 'p') {
+				child(name: 'c')
+			}
+		}
+
+		then:
+		parentSchema.children()*.name() == childNames
+	}
+
+	def "Properties are indexed with their defaults and requirements"() {
+		when:
+		CompiledSchema compiled = mb.getCompiledSchema(mb.getSchema('extended'))
+		int name = compiled.getPropertyIndex('name')
+		CompiledSchema parentCompiled = mb.getCompiledSchema(mb.getSchema('parent'))
+
+		then:
+		compiled.propertyCount == 2
+		compiled.getProperty(name).is(compiled.getProperty('name'))
+		compiled.getPropertyIndex('unknown') == -1
+		compiled.defaultedProperties as List == [name]
+		compiled.requiredProperties as List == []
+		parentCompiled.requiredProperties as List == [parentCompiled.getPropertyIndex('name')]
+		parentCompiled.defaultedProperties as List == []
+	}
+
+	def "Properties are tracked separately at every level of deeply nested nodes"() {
+		given:
+		mb.define {
+			level {
+				properties {
+					name(req: true)
+					kind(def: 'leaf')
+				}
+				collections {
+					levels {
+						level(schema: 'level')
+					}
+				}
+			}
+		}
+		Closure nest
+		nest = { int depth ->
+			level(name: "$depth", kind: depth == 0 ? 'root' : null) {
+				if(depth < 40) {
+					levels {
+						nest(depth + 1)
+					}
+				}
+			}
+		}
+
+		when:
+		def root = mb.build {
+			nest.delegate = delegate
+			nest(0)
+		}
+		def names = []
+		def kinds = []
+		for(def node = root; node != null; node = node.levels ? node.levels.level[0] : null) {
+			names << node.attribute('name')
+			kinds << node.attribute('kind')
+		}
+
+		then:
+		names == (0..40)*.toString()
+		kinds == ['root'] + [null] * 40
+
+		when:
+		mb.build {
+			level(name: 'root') {
+				levels {
+					level(kind: 'leaf')
+				}
+			}
+		}
+
+		then:
+		PropertyException e = thrown()
+		e.message.contains('levels.level.mergedProperties.name')
+	}
+
+	def "Super-schemas defined later are picked up"() {
+		given:
+		mb.define {
+			late(schema: 'later')
+		}
+		mb.getCompiledSchema(mb.getSchema('late'))
+
+		when:
+		mb.define {
+			later(factory: TestChild) {
+				properties {
+					name()
+				}
+			}
+		}
+		def late = mb.build {
+			late(name: 'late')
+		}
+
+		then:
+		late instanceof TestChild
+		late.name == 'late'
+	}
+
+	def "Sealed MetaBuilders build but do not define"() {
+		when:
+		mb.seal()
+		TestParent parent = mb.build {
+			extended {
+				child(name: 'c')
+			}
+		}
+
+		then:
+		mb.sealed
+		parent.name == 'extended'
+		parent.listOfChildren*.name == ['c']
+
+		when:
+		mb.define {
+			other()
+		}
+
+		then:
+		thrown(MetaBuilderException)
+	}
+}
@@ -0,0 +1,149 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ConcurrentBuildSpec extends Specification {
+
+	static final int THREADS = 8
+	static final int BUILDS = 200
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			child(factory: { name -> new TestChild() }) {
+				properties {
+					name(req: true)
+				}
+			}
+			parent(factory: TestParent) {
+				properties {
+					name(req: true)
+				}
+				collections {
+					listOfChildren(def: [new TestChild('default')]) {
+						child(schema: 'child')
+					}
+					mapOfChildren(key: 'name') {
+						child(schema: 'child')
+					}
+				}
+			}
+			node {
+				properties {
+					name()
+				}
+				collections {
+					nodes {
+						node(schema: 'node')
+					}
+				}
+			}
+		}
+	}
+
+	@Unroll
+	def "Concurrent builds do not interfere with each other (sealed: #sealed)"() {
+		given:
+		if(sealed) {
+			mb.seal()
+		}
+		List results = runConcurrently { int t, int b ->
+			String id = "$t-$b"
+			def built = mb.build {
+				parent(name: id) {
+					listOfChildren {
+						child(name: "$id-1")
+						child(name: "$id-2")
+					}
+					mapOfChildren {
+						child(name: "$id-3")
+					}
+				}
+			}
+			def defaulted = mb.build {
+				parent(name: "$id-other")
+			}
+			[id, built, defaulted, buildTree(id)]
+		}
+		// recursive collections must come out exactly as they do when built alone
+		String reference = buildTree('ref').toString()
+
+		expect:
+		results.size() == THREADS * BUILDS
+		results.each { id, TestParent built, TestParent defaulted, SchemaNode tree ->
+			assert built.name == id
+			assert built.listOfChildren*.name == ["$id-1", "$id-2"]*.toString()
+			assert built.mapOfChildren.keySet() == ["$id-3"]*.toString() as Set
+			assert defaulted.listOfChildren*.name == ['default']
+			assert defaulted.mapOfChildren.isEmpty()
+			assert tree.toString() == reference.replace('ref', id)
+		}
+
+		where:
+		sealed << [false, true]
+	}
+
+	def "Builds do not modify the schema"() {
+		given:
+		def names = ['child', 'parent', 'node']
+		def before = names.collect { mb.getSchema(it).toString() }
+
+		when:
+		runConcurrently { int t, int b ->
+			mb.build {
+				parent(name: 'p') {
+					listOfChildren {
+						child(name: 'c')
+					}
+				}
+			}
+		}
+
+		then:
+		names.collect { mb.getSchema(it).toString() } == before
+	}
+
+	private SchemaNode buildTree(String id) {
+		mb.build {
+			node(name: id) {
+				nodes {
+					node(name: "$id.1") {
+						nodes {
+							node(name: "$id.1.1")
+						}
+					}
+					node(name: "$id.2")
+				}
+			}
+		}
+	}
+
+	private List runConcurrently(Closure build) {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS)
+		CountDownLatch start = new CountDownLatch(1)
+		try {
+			def futures = (0..<THREADS).collect { int t ->
+				executor.submit({
+					start.await()
+					(0..<BUILDS).collect { int b -> build(t, b) }
+				} as Callable)
+			}
+			start.countDown()
+			return futures.collectMany { it.get(1, TimeUnit.MINUTES) }
+		}
+		finally {
+			executor.shutdownNow()
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class DispatchTableSpec extends Specification {
+
+	ResolveCountingMetaBuilder mb = new ResolveCountingMetaBuilder()
+
+	def setup() {
+		mb.define {
+			parent(factory: TestParent) {
+				properties {
+					name()
+				}
+				collections {
+					listOfChildren {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+					mapOfChildren(key: 'name') {
+						'%'(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+		mb.resolved.clear()
+	}
+
+	def "Each name is resolved once per parent schema"() {
+		when:
+		List built = mb.buildList {
+			3.times { i ->
+				parent(name: "p$i") {
+					listOfChildren {
+						5.times { child(name: "c$it") }
+					}
+					mapOfChildren {
+						a(name: 'a')
+						b(name: 'b')
+						a(name: 'a2')
+					}
+				}
+			}
+		}
+
+		then:
+		built*.name == ['p0', 'p1', 'p2']
+		built[2].listOfChildren*.name == ['c0', 'c1', 'c2', 'c3', 'c4']
+		built[2].mapOfChildren.keySet() as List == ['a', 'b', 'a2']
+		mb.resolved == ['parent', 'listOfChildren', 'child', 'mapOfChildren', 'a', 'b']
+	}
+
+	def "Unknown names are resolved, and fail, every time"() {
+		when:
+		mb.build {
+			parent {
+				unknown()
+			}
+		}
+
+		then:
+		thrown(SchemaNotFoundException)
+
+		when:
+		mb.build {
+			parent {
+				unknown()
+			}
+		}
+
+		then:
+		thrown(SchemaNotFoundException)
+		mb.resolved == ['parent', 'unknown', 'parent', 'unknown']
+	}
+}
+
+class ResolveCountingMetaBuilder extends MetaBuilder {
+	List resolved = []
+
+	protected MetaObjectGraphBuilder createMetaObjectGraphBuilder(SchemaNode defaultSchema, Factory defaultNodeFactory, Closure objectVisitor) {
+		new ResolveCountingBuilder(this, defaultSchema, defaultNodeFactory, objectVisitor)
+	}
+}
+
+class ResolveCountingBuilder extends MetaObjectGraphBuilder {
+	ResolveCountingBuilder(MetaBuilder metaBuilder, SchemaNode defaultSchema, Factory defaultFactory, Closure objectVisitor) {
+		super(metaBuilder, defaultSchema, defaultFactory, objectVisitor)
+	}
+
+	protected SchemaNode resolveChildSchema(Object current, String childSchemaName) {
+		metaBuilder.resolved << childSchemaName
+		super.resolveChildSchema(current, childSchemaName)
+	}
+}
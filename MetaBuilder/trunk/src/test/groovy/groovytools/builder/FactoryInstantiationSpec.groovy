@@ -0,0 +1,180 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class FactoryInstantiationSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	@Unroll
+	def "Classes are instantiated through the cached constructor, lightweight: #lightweight"() {
+		given:
+		mb.lightweight = lightweight
+		mb.define {
+			parent(factory: 'groovytools.builder.support.TestParent') {
+				properties {
+					name()
+				}
+				collections {
+					listOfChildren {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+
+		when:
+		List built = mb.buildList {
+			2.times { i ->
+				parent(name: "p$i") {
+					listOfChildren {
+						child(name: "c$i")
+					}
+				}
+			}
+		}
+
+		then:
+		built*.getClass() == [TestParent, TestParent]
+		built*.name == ['p0', 'p1']
+		built*.listOfChildren*.name == [['c0'], ['c1']]
+		!built[0].listOfChildren.is(built[1].listOfChildren)
+
+		where:
+		lightweight << [false, true]
+	}
+
+	def "Each call creates a new instance"() {
+		given:
+		mb.define {
+			parent(factory: TestParent)
+		}
+		CompiledSchema compiled = mb.getCompiledSchema(mb.getSchema('parent'))
+
+		when:
+		Object first = compiled.newFactoryInstance(mb.classLoader)
+		Object second = compiled.newFactoryInstance(mb.classLoader)
+
+		then:
+		first instanceof TestParent
+		second instanceof TestParent
+		!first.is(second)
+	}
+
+	def "Constructor exceptions are thrown as is"() {
+		given:
+		mb.define {
+			failing(factory: FailingBean)
+		}
+
+		when:
+		mb.getCompiledSchema(mb.getSchema('failing')).newFactoryInstance(mb.classLoader)
+
+		then:
+		IllegalStateException e = thrown()
+		e.message == 'failing'
+	}
+
+	def "Classes without a public no-argument constructor still fail"() {
+		given:
+		mb.define {
+			named(factory: NamedBean)
+		}
+
+		when:
+		mb.getCompiledSchema(mb.getSchema('named')).newFactoryInstance(mb.classLoader)
+
+		then:
+		thrown(InstantiationException)
+	}
+
+	def "Nothing is instantiated without a class"() {
+		given:
+		mb.define {
+			closure(factory: { new TestChild() })
+		}
+
+		expect:
+		mb.getCompiledSchema(mb.getSchema('closure')).newFactoryInstance(mb.classLoader) == null
+	}
+
+	@Unroll
+	def "Closure factories are called with #count arguments"() {
+		given:
+		List seen = []
+		mb.define {
+			node(factory: factory.curry(seen)) {
+				properties {
+					name()
+				}
+			}
+		}
+
+		when:
+		mb.buildList {
+			node('v', name: 'a')
+			node('w', name: 'b')
+		}
+
+		then:
+		seen == expected
+
+		where:
+		count | factory                                                                    | expected
+		0     | { List s -> s << []; new TestChild() }                                     | [[], []]
+		1     | { List s, n -> s << [n]; new TestChild() }                                 | [['node'], ['node']]
+		2     | { List s, String n, v -> s << [n, v]; new TestChild() }                    | [['node', 'v'], ['node', 'w']]
+		3     | { List s, n, v, Map a -> s << [n, v, a]; new TestChild() }                 | [['node', 'v', [name: 'a']], ['node', 'w', [name: 'b']]]
+		3     | { List s, n, v, a, extra = 'x' -> s << [n, v, a, extra]; new TestChild() } | [['node', 'v', [name: 'a'], 'x'], ['node', 'w', [name: 'b'], 'x']]
+	}
+
+	def "Arguments that don't fit the closure's parameters go through the MetaClass"() {
+		given:
+		List seen = []
+		ClosureFactoryAdapter adapter = new ClosureFactoryAdapter({ String n, Integer v -> seen << v; new TestChild() })
+
+		when:
+		adapter.newInstance(null, 'node', 3, [:])
+		adapter.newInstance(null, 'node', null, [:])
+		adapter.newInstance(null, 'node', 'x', [:])
+
+		then:
+		seen == [3, null]
+		thrown(MissingMethodException)
+	}
+
+	def "Closures with a replaced MetaClass are called through it"() {
+		given:
+		Closure factory = { n -> new TestChild(n) }
+		ExpandoMetaClass emc = new ExpandoMetaClass(factory.getClass(), false, true)
+		emc.doCall = { n -> new TestChild("expando $n") }
+		emc.initialize()
+		factory.metaClass = emc
+		ClosureFactoryAdapter adapter = new ClosureFactoryAdapter(factory)
+
+		expect:
+		adapter.newInstance(null, 'node', null, [:]).name == 'expando node'
+	}
+}
+
+class FailingBean {
+	FailingBean() {
+		throw new IllegalStateException('failing')
+	}
+}
+
+class NamedBean {
+	String name
+
+	NamedBean(String name) {
+		this.name = name
+	}
+}
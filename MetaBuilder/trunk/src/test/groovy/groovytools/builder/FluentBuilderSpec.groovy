@@ -0,0 +1,229 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class FluentBuilderSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name(req: true)
+				}
+			}
+			parent(factory: TestParent) {
+				properties {
+					name(check: ~/p.*/)
+					onlyChild(schema: 'child')
+				}
+				collections {
+					listOfChildren(min: 1) {
+						child(schema: 'child')
+					}
+					mapOfChildren(key: 'name') {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+	}
+
+	def "The fluent builder builds the same graph as the DSL"() {
+		given:
+		List expected = mb.buildList {
+			2.times { i ->
+				parent(name: "p$i") {
+					onlyChild(name: "only$i")
+					listOfChildren {
+						3.times { child(name: "c$it") }
+					}
+					mapOfChildren {
+						child(name: 'a')
+						child(name: 'b')
+					}
+				}
+			}
+		}
+		FluentBuilder fluent = mb.fluent()
+
+		when:
+		2.times { i ->
+			fluent.root('parent').set('name', "p$i")
+				.child('onlyChild').set('name', "only$i").end()
+				.child('listOfChildren')
+			3.times { fluent.child('child').set('name', "c$it").end() }
+			fluent.end()
+				.child('mapOfChildren')
+					.child('child').set(name: 'a').end()
+					.child('child').set(name: 'b').end()
+				.end()
+			.end()
+		}
+		List built = fluent.buildList()
+
+		then:
+		built.size() == 2
+		built.every { it instanceof TestParent }
+		dump(built) == dump(expected)
+		fluent.buildList().empty
+	}
+
+	def "Properties set after a child are set on the node"() {
+		when:
+		TestParent built = mb.fluent()
+			.root('parent')
+				.child('listOfChildren')
+					.child('child').set('name', 'c').end()
+				.end()
+				.set('name', 'p')
+			.build()
+
+		then:
+		built.name == 'p'
+		built.listOfChildren*.name == ['c']
+	}
+
+	def "build ends the open nodes and returns the last root"() {
+		expect:
+		mb.fluent()
+			.root('parent').set('name', 'p0').child('listOfChildren').child('child').set('name', 'c0').end().end().end()
+			.root('parent').set('name', 'p1').child('listOfChildren').child('child').set('name', 'c1')
+			.build().name == 'p1'
+	}
+
+	def "The fluent builder checks the same way as the DSL"() {
+		given:
+		FluentBuilder fluent = mb.fluent()
+
+		when:
+		fluent.root('parent').child('listOfChildren').child('child').end()
+
+		then:
+		PropertyException e = thrown()
+		e.message.contains('property required')
+		fluent.depth == 0
+
+		when:
+		fluent.root('parent').end()
+
+		then:
+		thrown(CollectionException)
+
+		when:
+		fluent.root('parent').set('name', 'bad').child('listOfChildren').child('child').set('name', 'c').build()
+
+		then:
+		thrown(PropertyException)
+
+		expect:
+		fluent.root('parent').child('listOfChildren').child('child').set('name', 'c').build().listOfChildren*.name == ['c']
+	}
+
+	def "Violations are recorded in a report"() {
+		given:
+		ValidationReport expected = new ValidationReport()
+		mb.buildList(expected) {
+			parent(name: 'bad') {
+				listOfChildren {
+					child()
+				}
+			}
+			parent()
+		}
+		ValidationReport report = new ValidationReport()
+
+		when:
+		List built = mb.fluent(report)
+			.root('parent').set('name', 'bad').child('listOfChildren').child('child').end().end().end()
+			.root('parent')
+			.buildList()
+
+		then:
+		built.size() == 2
+		report.violationCount == 3
+		report.violations.collect { [it.root, it.path, it.name, it.reason] } ==
+			expected.violations.collect { [it.root, it.path, it.name, it.reason] }
+	}
+
+	def "Unknown names fail like the DSL"() {
+		when:
+		mb.fluent().root('parent').child('nothing').build()
+
+		then:
+		thrown(SchemaNotFoundException)
+	}
+
+	def "Misplaced calls are rejected"() {
+		given:
+		FluentBuilder fluent = mb.fluent()
+
+		when:
+		misuse.call(fluent)
+
+		then:
+		thrown(IllegalStateException)
+
+		where:
+		misuse << [
+			{ it.child('child') },
+			{ it.set('name', 'p') },
+			{ it.end() },
+			{ it.root('parent').root('parent') },
+		]
+	}
+
+	def "Names are resolved once per parent schema"() {
+		given:
+		List resolved = []
+		FluentBuilder fluent = new ResolveCountingFluentBuilder(mb, resolved)
+
+		when:
+		3.times { i ->
+			fluent.root('parent').child('listOfChildren')
+			5.times { fluent.child('child').set('name', "c$it").end() }
+			fluent.end().end()
+		}
+
+		then:
+		fluent.buildList().size() == 3
+		resolved == ['parent', 'listOfChildren', 'child']
+	}
+
+	private String dump(List nodes) {
+		nodes.collect { TestParent p ->
+			"$p.name/$p.onlyChild.name${p.listOfChildren*.name}${p.mapOfChildren.collectEntries { k, v -> [k, v.name] }}"
+		}
+	}
+}
+
+class ResolveCountingFluentBuilder extends FluentBuilder {
+	List resolved
+
+	ResolveCountingFluentBuilder(MetaBuilder metaBuilder, List resolved) {
+		super(metaBuilder, null)
+		this.resolved = resolved
+	}
+
+	protected LightweightMetaObjectGraphBuilder createBuilder() {
+		new ResolveCountingLightweightBuilder(metaBuilder, resolved)
+	}
+}
+
+class ResolveCountingLightweightBuilder extends LightweightMetaObjectGraphBuilder {
+	List resolved
+
+	ResolveCountingLightweightBuilder(MetaBuilder metaBuilder, List resolved) {
+		super(metaBuilder, null, metaBuilder.defaultBuildNodeFactory)
+		this.resolved = resolved
+	}
+
+	protected SchemaNode resolveChildSchema(Object current, String childSchemaName) {
+		resolved << childSchemaName
+		super.resolveChildSchema(current, childSchemaName)
+	}
+}
@@ -0,0 +1,264 @@
+package groovytools.builder
+
+import spock.lang.Specification
+
+class GraphSnapshotSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+	File file
+
+	def setup() {
+		file = File.createTempFile('graph', '.snapshot')
+	}
+
+	def cleanup() {
+		file.delete()
+	}
+
+	private void same(Node view, Node node) {
+		assert view instanceof GraphSnapshot.NodeView
+		assert view.name() == node.name()
+		assert view.attributes().keySet() == node.attributes().keySet()
+		node.attributes().each { k, v ->
+			if(v instanceof Node) {
+				same(view.attribute(k), v)
+			}
+			else {
+				assert view.attribute(k) == v
+			}
+		}
+		assert view.children().size() == node.children().size()
+		[view.children(), node.children()].transpose().each { v, n ->
+			if(n instanceof Node) {
+				same(v, n)
+			}
+			else {
+				assert v == n
+			}
+		}
+	}
+
+	def "Built schema nodes are read back through views"() {
+		given:
+		mb.define {
+			customer {
+				properties {
+					name(req: true)
+					address {
+						properties {
+							city()
+						}
+					}
+				}
+				collections {
+					orders {
+						order {
+							properties {
+								id()
+								total()
+							}
+						}
+					}
+				}
+			}
+		}
+		List built = mb.buildList {
+			customer(name: 'a', address: [city: 'x']) {
+				orders {
+					order(id: 1, total: 9.99)
+					order(id: 2)
+				}
+			}
+			customer(name: 'b')
+		}
+
+		when:
+		GraphSnapshot.write(built, file)
+		GraphSnapshot snapshot = GraphSnapshot.open(file)
+		List roots = snapshot.roots
+
+		then:
+		roots.size() == 2
+		[roots, built].transpose().each { v, n -> same(v, n) }
+		snapshot.root.attribute('name') == 'a'
+		roots[0].attribute('address') == [city: 'x']
+		roots[0].orders.order*.attribute('id') == [1, 2]
+		roots[0].orders[0].order[1].parent().name() == 'orders'
+		roots[0].depthFirst()*.name() == built[0].depthFirst()*.name()
+	}
+
+	def "Values of simple types are read back as written"() {
+		given:
+		Node node = new Node(null, 'item', [
+			s: 'text', g: "g${1}", i: 1, l: 2L, d: 1.5d, f: 2.5f, sh: (short)3, b: (byte)4, c: 'c' as char,
+			t: true, n: false, bd: 14.99, bi: 10G ** 30, date: new Date(0), nil: null,
+			list: ['a', 1, [2]], map: [k: 'v', (1): [x: null]], unicode: 'äöü €'
+		])
+
+		when:
+		GraphSnapshot.write(node, file)
+		Map attributes = GraphSnapshot.open(file).root.attributes()
+
+		then:
+		attributes.keySet() == node.attributes().keySet()
+		node.attributes().every { k, v -> attributes[k] == v }
+		attributes.g == 'g1'
+		attributes.g instanceof String
+		attributes.sh instanceof Short
+		attributes.bd.scale() == 2
+		attributes.containsKey('nil')
+		!attributes.containsKey('missing')
+	}
+
+	def "Nodes referenced more than once are written once"() {
+		given:
+		Node a = new Node(null, 'peer', [name: 'a'])
+		Node b = new Node(null, 'peer', [name: 'b', peer: a])
+		a.attributes().peer = b
+
+		when:
+		GraphSnapshot.write([a, b], file)
+		List roots = GraphSnapshot.open(file).roots
+
+		then:
+		roots[0].attribute('peer').attribute('name') == 'b'
+		roots[0].attribute('peer').attribute('peer').attribute('name') == 'a'
+		roots[1].attribute('peer').attribute('peer').attribute('peer').attribute('name') == 'a'
+		file.length() < 200
+	}
+
+	def "Views of the same node are equal"() {
+		given:
+		Node a = new Node(null, 'peer', [name: 'a'])
+		Node b = new Node(null, 'peer', [name: 'b', peer: a])
+		a.attributes().peer = b
+
+		when:
+		GraphSnapshot.write([a, b], file)
+		GraphSnapshot snapshot = GraphSnapshot.open(file)
+		List roots = snapshot.roots
+
+		then:
+		!roots[0].is(roots[1].attribute('peer'))
+		roots[0] == roots[1].attribute('peer')
+		roots[0].hashCode() == roots[1].attribute('peer').hashCode()
+		roots[0] != roots[1]
+		roots[0] != GraphSnapshot.open(file).roots[0]
+		([roots[0], roots[1].attribute('peer'), snapshot.roots[0]] as Set).size() == 1
+	}
+
+	def "Config objects built by MetaConfigBuilder are looked up like config objects"() {
+		given:
+		MetaConfigBuilder mcb = new MetaConfigBuilder()
+		mcb.define {
+			invoice {
+				properties {
+					id()
+					date(def: new Date(0))
+					customer {
+						properties {
+							fname()
+							lname()
+						}
+					}
+				}
+			}
+		}
+		ConfigObject built = mcb.build {
+			invoice {
+				id = 1
+				customer {
+					fname = 'didge'
+				}
+			}
+		}
+
+		when:
+		GraphSnapshot.write(built, file)
+		def config = GraphSnapshot.open(file).root
+
+		then:
+		config instanceof GraphSnapshot.ConfigView
+		config.customer.fname == 'didge'
+		config.customer.name() == 'customer'
+		config.id == 1
+		config.missing == null
+		config == built
+		config.flatten() == built.flatten()
+		config.toProperties() == built.toProperties()
+	}
+
+	def "Records never span two segments"() {
+		given:
+		List built = (0..<200).collect { i -> new Node(null, 'item', [name: 'x' * (i % 50), index: i]) }
+
+		when:
+		GraphSnapshot.write(built, file, 12)
+		List roots = GraphSnapshot.open(file).roots
+
+		then:
+		file.length() > 3 * 4096
+		roots*.attribute('index') == 0..<200
+		roots*.attribute('name') == built*.attribute('name')
+
+		when:
+		GraphSnapshot.write(new Node(null, 'item', [name: 'x' * 5000]), file, 12)
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def "Views are read-only"() {
+		given:
+		Node node = new Node(null, 'item', [name: 'a'])
+		node.appendNode('child')
+		GraphSnapshot.write(node, file)
+		Node view = GraphSnapshot.open(file).root
+
+		when:
+		action.call(view)
+
+		then:
+		thrown(UnsupportedOperationException)
+
+		where:
+		action << [
+			{ it.attributes().name = 'b' },
+			{ it.attributes().remove('name') },
+			{ it.appendNode('other') },
+			{ it.value = 'v' },
+			{ it.children().clear() }
+		]
+	}
+
+	def "Values that can't be written are rejected"() {
+		given:
+		file.delete()
+
+		when:
+		GraphSnapshot.write(value, file)
+
+		then:
+		thrown(IllegalArgumentException)
+		!file.exists()
+
+		where:
+		value << [
+			new Node(null, 'item', [bean: new Object()]),
+			new Node(null, 'item', [(1): 'x']),
+			new Node(null, new groovy.xml.QName('item'), [:]),
+			'not a node'
+		]
+	}
+
+	def "Files that aren't snapshots can't be opened"() {
+		given:
+		file.bytes = 'not a snapshot'.bytes
+
+		when:
+		GraphSnapshot.open(file)
+
+		then:
+		thrown(StreamCorruptedException)
+	}
+}
@@ -0,0 +1,162 @@
+package groovytools.builder
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class InternTableSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	@Unroll
+	def "Interned property values are shared, lightweight: #lightweight"() {
+		given:
+		mb.lightweight = lightweight
+		mb.define {
+			order {
+				properties {
+					currency(intern: true)
+					price(intern: true)
+					status(intern: true, def: { new String('open') })
+					note()
+				}
+			}
+		}
+
+		when:
+		List built = mb.buildList {
+			3.times {
+				order(currency: new String('USD'), price: new BigDecimal('14.99'), note: new String('n'))
+			}
+		}
+
+		then:
+		values(built, 'currency') == ['USD'] * 3
+		shared(values(built, 'currency'))
+		shared(values(built, 'price'))
+		shared(values(built, 'status'))
+		!shared(values(built, 'note'))
+		mb.internTable.size() == 3
+		mb.internTable.missCount == 3
+		mb.internTable.hitCount == 6
+
+		where:
+		lightweight << [false, true]
+	}
+
+	private List values(List nodes, String name) {
+		nodes.collect { it.attribute(name) }
+	}
+
+	private boolean shared(List values) {
+		values.every { it.is(values[0]) }
+	}
+
+	def "Mutable and unknown values are not interned"() {
+		given:
+		InternTable table = new InternTable()
+		Date date = new Date(0)
+		List list = ['a']
+
+		expect:
+		table.intern(date).is(date)
+		!table.intern(new Date(0)).is(date)
+		table.intern(list).is(list)
+		table.intern(null) == null
+		table.size() == 0
+		table.hitCount == 0
+		table.missCount == 0
+	}
+
+	def "The table stops adding values when it is full"() {
+		given:
+		InternTable table = new InternTable(2)
+		String a = new String('a')
+
+		when:
+		table.intern(a)
+		table.intern(new String('b'))
+		String c = new String('c')
+		Object interned = table.intern(c)
+
+		then:
+		interned.is(c)
+		table.size() == 2
+		table.overflowCount == 1
+		table.intern(new String('a')).is(a)
+		table.hitCount == 1
+
+		when:
+		table.clear()
+
+		then:
+		table.size() == 0
+		table.intern(c).is(c)
+		table.intern(new String('c')).is(c)
+	}
+
+	def "Threads interning the same values share one instance"() {
+		given:
+		InternTable table = new InternTable()
+		List results = Collections.synchronizedList([])
+
+		when:
+		List threads = (0..<4).collect {
+			Thread.start {
+				1000.times { i -> results << table.intern(new String("v${i % 10}")) }
+			}
+		}
+		threads*.join()
+
+		then:
+		table.size() == 10
+		results.groupBy { it }.values().every { shared(it) }
+		table.hitCount + table.missCount == 4000
+		table.missCount == 10
+	}
+
+	def "Intern statistics are reported"() {
+		given:
+		def stats = new MetaBuilderStats(mb)
+		mb.internTable = new InternTable(1)
+
+		when:
+		['a', 'a', 'b'].each { mb.internTable.intern(new String(it)) }
+
+		then:
+		stats.internTableSize == 1
+		stats.internHitCount == 1
+		stats.internMissCount == 1
+		stats.internOverflowCount == 1
+	}
+
+	def "The intern attribute is checked by the meta schema"() {
+		when:
+		mb.define {
+			order {
+				properties {
+					currency(intern: 'yes')
+				}
+			}
+		}
+
+		then:
+		thrown(PropertyException)
+	}
+
+	def "The intern table can be replaced"() {
+		given:
+		InternTable shared = new InternTable(10)
+
+		when:
+		mb.internTable = shared
+
+		then:
+		mb.internTable.is(shared)
+
+		when:
+		mb.internTable = null
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+}
@@ -0,0 +1,174 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class LightweightBuilderSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			child(factory: 'groovytools.builder.support.TestChild') {
+				properties {
+					name(req: true)
+				}
+			}
+			parent(factory: TestParent) {
+				properties {
+					name()
+					onlyChild(schema: 'child')
+				}
+				collections {
+					listOfChildren(min: 1) {
+						child(schema: 'child')
+					}
+					mapOfChildren(key: 'name') {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+	}
+
+	def "The builder is chosen by the lightweight property"() {
+		given:
+		Class builderClass = null
+
+		when:
+		mb.lightweight = lightweight
+		mb.build {
+			builderClass = delegate.getClass()
+			parent {
+				listOfChildren {
+					child(name: 'c')
+				}
+			}
+		}
+
+		then:
+		builderClass == expected
+
+		where:
+		lightweight | expected
+		false       | MetaObjectGraphBuilder
+		true        | LightweightMetaObjectGraphBuilder
+	}
+
+	@Unroll
+	def "Both builders build the same graph, lightweight: #lightweight"() {
+		given:
+		mb.lightweight = lightweight
+
+		when:
+		List built = mb.buildList {
+			2.times { i ->
+				parent(name: "p$i") {
+					onlyChild(name: "only$i")
+					listOfChildren {
+						3.times { child(name: "c$it") }
+					}
+					mapOfChildren {
+						child(name: 'a')
+						child(name: 'b')
+					}
+				}
+			}
+		}
+
+		then:
+		built*.name == ['p0', 'p1']
+		built*.onlyChild*.name == ['only0', 'only1']
+		built[1].listOfChildren*.name == ['c0', 'c1', 'c2']
+		built[1].mapOfChildren.collectEntries { k, v -> [k, v.name] } == [a: 'a', b: 'b']
+
+		where:
+		lightweight << [false, true]
+	}
+
+	@Unroll
+	def "Both builders check the same way, lightweight: #lightweight"() {
+		given:
+		mb.lightweight = lightweight
+
+		when:
+		mb.build {
+			parent {
+				listOfChildren {
+					child()
+				}
+			}
+		}
+
+		then:
+		PropertyException e = thrown()
+		e.message.contains('property required')
+
+		when:
+		mb.build {
+			parent()
+		}
+
+		then:
+		thrown(CollectionException)
+
+		where:
+		lightweight << [false, true]
+	}
+
+	def "The lightweight builder keeps its own stack"() {
+		given:
+		mb.lightweight = true
+		List seen = []
+
+		when:
+		mb.build {
+			parent(name: 'p') {
+				seen << [current, currentName, parentNode, parentName]
+				listOfChildren {
+					seen << [current, currentName, parentNode?.name, parentName]
+					child(name: 'c')
+					seen << [current, currentName, parentNode?.name, parentName]
+				}
+			}
+		}
+
+		then:
+		seen[0][0] instanceof TestParent
+		seen[0][1..3] == [null, null, 'parent']
+		seen[1][0] instanceof CollectionSchemaNode
+		seen[1][1..3] == [null, 'p', 'listOfChildren']
+		seen[2][1..3] == ['child', 'p', 'listOfChildren']
+	}
+
+	def "Collections of a schema are created by one factory"() {
+		given:
+		mb.lightweight = true
+		mb.define {
+			holder(factory: TestParent) {
+				collections {
+					listOfChildren(factory: LinkedList) {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+		SchemaNode collection = mb.getCompiledSchema(mb.getSchema('holder')).collections[0]
+		List factories = []
+		Object created = null
+
+		when:
+		mb.build {
+			2.times { factories << delegate.resolveCollectionFactory(collection) }
+			created = factories[0].newInstance(delegate, 'listOfChildren', null, [:])
+			holder()
+		}
+
+		then:
+		factories[0].is(factories[1])
+		created instanceof LinkedList
+	}
+}
@@ -0,0 +1,177 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class PropertyAccessorSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	static class Bean {
+		public String field
+		String name
+		int count
+		private String set
+
+		void setValue(String value) {
+			set = 'string'
+		}
+
+		void setValue(Integer value) {
+			set = 'integer'
+		}
+	}
+
+	static class Handler {
+		def values = [:]
+
+		Object getProperty(String name) {
+			values[name]
+		}
+
+		void setProperty(String name, Object value) {
+			values[name] = "handled $value"
+		}
+	}
+
+	def "Properties are set and read directly"() {
+		given:
+		Bean bean = new Bean()
+
+		when:
+		mb.getPropertyAccessor(Bean, 'name').setProperty(bean, 'n')
+		mb.getPropertyAccessor(Bean, 'count').setProperty(bean, 3)
+		mb.getPropertyAccessor(Bean, 'field').setProperty(bean, 'f')
+
+		then:
+		bean.name == 'n'
+		bean.count == 3
+		bean.field == 'f'
+		mb.getPropertyAccessor(Bean, 'name').getProperty(bean) == 'n'
+		mb.getPropertyAccessor(Bean, 'count').getProperty(bean) == 3
+		mb.getPropertyAccessor(Bean, 'field').getProperty(bean) == 'f'
+		mb.getPropertyAccessor(Bean, 'name').is(mb.getPropertyAccessor(Bean, 'name'))
+	}
+
+	def "Values are coerced as usual"() {
+		given:
+		Bean bean = new Bean()
+		def n = 'n'
+
+		when:
+		mb.getPropertyAccessor(Bean, 'name').setProperty(bean, "$n")
+		mb.getPropertyAccessor(Bean, 'count').setProperty(bean, 3L)
+
+		then:
+		bean.name == 'n'
+		bean.name instanceof String
+		bean.count == 3
+	}
+
+	def "Overloaded setters are dispatched as usual"() {
+		given:
+		Bean bean = new Bean()
+		Bean expected = new Bean()
+
+		when:
+		mb.getPropertyAccessor(Bean, 'value').setProperty(bean, value)
+		expected.value = value
+
+		then:
+		bean.@set == expected.@set
+
+		where:
+		value << [1, 's']
+	}
+
+	def "Maps, Expandos and beans handling properties themselves are accessed as usual"() {
+		given:
+		Map map = [:]
+		Expando expando = new Expando()
+		Handler handler = new Handler()
+
+		when:
+		mb.getPropertyAccessor(map.getClass(), 'name').setProperty(map, 'm')
+		mb.getPropertyAccessor(Expando, 'name').setProperty(expando, 'e')
+		mb.getPropertyAccessor(Handler, 'values').setProperty(handler, 'h')
+
+		then:
+		map.name == 'm'
+		expando.name == 'e'
+		handler.@values == [values: 'handled h']
+		mb.getPropertyAccessor(Handler, 'values').getProperty(handler) == 'handled h'
+	}
+
+	def "Beans with replaced MetaClasses are accessed as usual"() {
+		given:
+		Bean bean = new Bean()
+		bean.metaClass.setName = { String name -> delegate.field = "meta $name" }
+
+		when:
+		mb.getPropertyAccessor(Bean, 'name').setProperty(bean, 'n')
+
+		then:
+		bean.field == 'meta n'
+		bean.@name == null
+	}
+
+	def "Properties are looked up like the MetaClass does"() {
+		given:
+		Bean bean = new Bean()
+		Bean expanded = new Bean()
+		expanded.metaClass.getExtra = { -> 'extra' }
+
+		expect:
+		mb.getPropertyAccessor(Bean, 'name').hasProperty(bean)
+		mb.getPropertyAccessor(Bean, 'field').hasProperty(bean)
+		!mb.getPropertyAccessor(Bean, 'extra').hasProperty(bean)
+		mb.getPropertyAccessor(Bean, 'extra').hasProperty(expanded)
+		!mb.getPropertyAccessor(Bean, 'extra').hasProperty(bean)
+	}
+
+	def "Builds set properties and collections through accessors"() {
+		given:
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name()
+				}
+			}
+			parent(factory: TestParent) {
+				properties {
+					name()
+					onlyChild(schema: 'child')
+				}
+				collections {
+					listOfChildren(size: 'listSize', min: 1) {
+						child(schema: 'child')
+					}
+					mapOfChildren(key: 'name') {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+
+		when:
+		TestParent parent = mb.build {
+			parent(name: 'p') {
+				onlyChild(name: 'o')
+				listOfChildren {
+					child(name: 'c1')
+				}
+				mapOfChildren {
+					child(name: 'c2')
+				}
+			}
+		}
+
+		then:
+		parent.name == 'p'
+		parent.onlyChild.name == 'o'
+		parent.listOfChildren*.name == ['c1']
+		parent.mapOfChildren.c2.name == 'c2'
+	}
+}
@@ -0,0 +1,147 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import org.codehaus.groovy.control.CompilerConfiguration
+
+import spock.lang.Specification
+
+class ScriptCacheSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	File dir = File.createTempFile('scripts', '')
+
+	def setup() {
+		dir.delete()
+		dir.mkdirs()
+	}
+
+	def cleanup() {
+		dir.deleteDir()
+	}
+
+	private URL script(String name, String text) {
+		File file = new File(dir, name)
+		file.text = text
+		file.toURI().toURL()
+	}
+
+	def "Unchanged scripts are compiled once"() {
+		given:
+		URL define = getClass().getResource('/DefineScript.dsl')
+		URL build = getClass().getResource('/BuildScript.dsl')
+		mb.define(define)
+
+		when:
+		def first = mb.buildList(build)
+		def second = mb.buildList(build)
+		mb.build(build)
+		mb.buildEach({}, build, 'UTF-8')
+
+		then:
+		first*.id == second*.id
+		mb.scriptCache.missCount == 2
+		mb.scriptCache.hitCount == 3
+		mb.scriptCache.diskHitCount == 0
+	}
+
+	def "Changed scripts are compiled again"() {
+		given:
+		mb.define {
+			item(factory: TestChild) {
+				properties {
+					name()
+				}
+			}
+		}
+		URL url = script('items.dsl', "item(name: 'a')")
+
+		expect:
+		mb.build(url).name == 'a'
+
+		when:
+		new File(url.toURI()).text = "item(name: 'b')"
+
+		then:
+		mb.build(url).name == 'b'
+		mb.build(url).name == 'b'
+		mb.scriptCache.missCount == 2
+		mb.scriptCache.hitCount == 1
+	}
+
+	def "Compiled scripts are reused from the directory"() {
+		given:
+		File cacheDir = new File(dir, 'cache')
+		URL url = script('schema.dsl', '''
+			class Named { String name }
+			item(factory: Named) {
+				properties {
+					name(def: 'none')
+				}
+			}
+		''')
+		mb.scriptCacheDirectory = cacheDir
+		mb.define(url)
+
+		when:
+		MetaBuilder other = new MetaBuilder()
+		other.scriptCacheDirectory = cacheDir
+		other.define(url)
+		def item = other.build { item() }
+
+		then:
+		mb.scriptCache.missCount == 1
+		other.scriptCache.missCount == 0
+		other.scriptCache.diskHitCount == 1
+		item.class.name == 'Named'
+		item.name == 'none'
+		cacheDir.list().findAll { it.endsWith('.tmp') } == []
+	}
+
+	def "Unreadable saved scripts are compiled and saved again"() {
+		given:
+		File cacheDir = new File(dir, 'cache')
+		URL url = script('schema.dsl', "item(factory: ${TestChild.name})")
+		mb.scriptCacheDirectory = cacheDir
+		mb.define(url)
+		File saved = cacheDir.listFiles().find { it.name.endsWith('.classes') }
+		long length = saved.length()
+		saved.bytes = damage.call(saved.bytes)
+
+		when:
+		MetaBuilder other = new MetaBuilder()
+		other.scriptCacheDirectory = cacheDir
+		other.define(url)
+
+		then:
+		other.build { item() } instanceof TestChild
+		other.scriptCache.missCount == 1
+		other.scriptCache.diskHitCount == 0
+		saved.length() == length
+
+		where:
+		damage << [
+			{ byte[] bytes -> bytes[0..<(bytes.length / 2)] as byte[] },
+			{ byte[] bytes -> new byte[0] },
+			{ byte[] bytes -> bytes.length.times { bytes[it] = (byte)0xff }; bytes }
+		]
+	}
+
+	def "Scripts are saved per compiler configuration"() {
+		given:
+		File cacheDir = new File(dir, 'cache')
+		URL url = script('schema.dsl', "item(factory: ${TestChild.name})")
+		mb.scriptCacheDirectory = cacheDir
+		mb.define(url)
+		CompilerConfiguration configuration = new CompilerConfiguration()
+		configuration.debug = !CompilerConfiguration.DEFAULT.debug
+
+		when:
+		ScriptCache other = new ScriptCache(new GroovyClassLoader(), cacheDir, configuration)
+		other.loadClass(new GroovyCodeSource(url))
+
+		then:
+		other.missCount == 1
+		cacheDir.list().findAll { it.endsWith('.classes') }.size() == 2
+	}
+}
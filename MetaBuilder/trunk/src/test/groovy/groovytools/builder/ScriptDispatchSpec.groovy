@@ -0,0 +1,145 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+import java.lang.ref.WeakReference
+
+class ScriptDispatchSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			parent(factory: TestParent) {
+				properties {
+					name()
+				}
+				collections {
+					listOfChildren {
+						child(factory: TestChild) {
+							properties {
+								name()
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private Class compile(String text) {
+		new GroovyClassLoader(getClass().classLoader).parseClass(text)
+	}
+
+	def "One interceptor serves every build of a script class"() {
+		given:
+		Class scriptClass = compile("parent(name: 'p') { listOfChildren { child(name: 'c') } }")
+		Script first = scriptClass.newInstance()
+		Script second = scriptClass.newInstance()
+		MetaClass scriptMetaClass = GroovySystem.metaClassRegistry.getMetaClass(scriptClass)
+
+		expect:
+		mb.build(first).listOfChildren*.name == ['c']
+		mb.build(second).listOfChildren*.name == ['c']
+		mb.getFactoryInterceptorMetaClass(first, scriptMetaClass).is(mb.getFactoryInterceptorMetaClass(second, scriptMetaClass))
+	}
+
+	def "Interceptors are only held weakly"() {
+		given:
+		Script script = compile("parent(name: 'p')").newInstance()
+		MetaClass scriptMetaClass = GroovySystem.metaClassRegistry.getMetaClass(script.getClass())
+		WeakReference interceptor = new WeakReference(mb.getFactoryInterceptorMetaClass(script, scriptMetaClass))
+
+		when:
+		for(int i = 0; i < 20 && interceptor.get() != null; i++) {
+			System.gc()
+			Thread.sleep(50)
+		}
+
+		then:
+		interceptor.get() == null
+		mb.build(script).name == 'p'
+	}
+
+	def "Node names don't go through the script's own dispatch"() {
+		given:
+		Script script = compile("""
+			String parentName(int i) { "p\$i" }
+			parent(name: parentName(0))
+			parent(name: parentName(1))
+		""").newInstance()
+		List invoked = []
+		script.setMetaClass(new DelegatingMetaClass(script.getMetaClass()) {
+			Object invokeMethod(Object object, String methodName, Object[] arguments) {
+				invoked << methodName
+				super.invokeMethod(object, methodName, arguments)
+			}
+		})
+
+		when:
+		List built = mb.buildList(script)
+
+		then:
+		built*.name == ['p0', 'p1']
+		invoked == ['parentName', 'parentName']
+	}
+
+	def "Closures held by the script are still called"() {
+		given:
+		Script script = compile("""
+			@groovy.transform.Field Closure makeName = { -> 'held' }
+			parent(name: makeName())
+		""").newInstance()
+
+		expect:
+		mb.build(script).name == 'held'
+	}
+
+	def "Scripts handling missing methods themselves are tried first"() {
+		given:
+		Script script = compile(text).newInstance()
+
+		expect:
+		mb.buildList(script)*.name == ['handled', 'p']
+
+		where:
+		text << [
+			'''
+			def methodMissing(String name, args) {
+				if(name == 'helper') return 'handled'
+				throw new MissingMethodException(name, getClass(), args)
+			}
+			parent(name: helper())
+			parent(name: 'p')
+			''',
+			'''
+			def invokeMethod(String name, args) {
+				if(name == 'helper') return 'handled'
+				throw new MissingMethodException(name, getClass(), args)
+			}
+			parent(name: helper())
+			parent(name: 'p')
+			'''
+,
+			'''
+			def invokeMethod(String name, args) {
+				if(name == 'helper') return 'handled'
+				super.invokeMethod(name, args)
+			}
+			parent(name: helper())
+			parent(name: 'p')
+			'''
+		]
+	}
+
+	def "Unknown names still fail"() {
+		when:
+		mb.build(compile("unknown(name: 'u')").newInstance())
+
+		then:
+		thrown(SchemaNotFoundException)
+	}
+}
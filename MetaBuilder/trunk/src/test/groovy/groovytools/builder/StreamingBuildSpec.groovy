@@ -0,0 +1,102 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import java.lang.ref.WeakReference
+
+import spock.lang.Specification
+
+class StreamingBuildSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			child(factory: TestChild) {
+				properties {
+					name()
+				}
+			}
+			parent(factory: TestParent) {
+				properties {
+					name(def: 'default')
+				}
+				collections {
+					listOfChildren {
+						child(schema: 'child')
+					}
+				}
+			}
+		}
+	}
+
+	def "Each root is visited once it is complete"() {
+		given:
+		def visited = []
+
+		when:
+		mb.buildEach({ TestParent root ->
+			visited << [root.name, root.listOfChildren*.name]
+		}) {
+			parent(name: 'p1') {
+				listOfChildren {
+					child(name: 'c1')
+					child(name: 'c2')
+				}
+			}
+			assert visited.size() == 1
+			parent {
+				listOfChildren {
+					child(name: 'c3')
+				}
+			}
+		}
+
+		then:
+		visited == [['p1', ['c1', 'c2']], ['default', ['c3']]]
+	}
+
+	def "Roots of scripts are visited"() {
+		given:
+		mb.define(getClass().getResource('/DefineScript.dsl'))
+		def orders = []
+
+		when:
+		mb.buildEach({ orders << it }, getClass().getResource('/BuildScript.dsl'))
+
+		then:
+		orders*.id == [1, 2, 3, 4]
+		orders*.lines*.size() == [4, 4, 4, 4]
+	}
+
+	def "Visited roots are not kept by the builder"() {
+		given:
+		int count = 20
+		List refs = []
+		List uncollected = null
+
+		when:
+		mb.buildEach({ root ->
+			refs << new WeakReference(root)
+			if(refs.size() == count) {
+				for(int i = 0; i < 10 && refs.count { it.get() != null } > 1; i++) {
+					System.gc()
+					Thread.sleep(10)
+				}
+				uncollected = refs.findAll { it.get() != null }*.get()*.name
+			}
+		}) {
+			count.times { int i ->
+				parent(name: "p$i") {
+					listOfChildren {
+						child(name: "c$i")
+					}
+				}
+			}
+		}
+
+		then:
+		uncollected == ["p${count - 1}"]
+	}
+}
@@ -0,0 +1,124 @@
+package groovytools.builder
+
+import groovytools.builder.support.TestChild
+import groovytools.builder.support.TestParent
+
+import spock.lang.Specification
+
+class ValidationReportSpec extends Specification {
+
+	MetaBuilder mb = new MetaBuilder()
+
+	def setup() {
+		mb.define {
+			parent(factory: TestParent, check: { p -> p.name != 'bad' }) {
+				properties {
+					name(req: true, max: 5)
+				}
+				collections {
+					listOfChildren(min: 1, max: 2) {
+						child(factory: TestChild) {
+							properties {
+								name(check: ~/c.*/)
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	def "Every violation is recorded and the build goes on"() {
+		given:
+		ValidationReport report = new ValidationReport()
+
+		when:
+		List built = mb.buildList(report) {
+			parent(name: 'p0') {
+				listOfChildren {
+					child(name: 'c0')
+				}
+			}
+			parent(name: 'much too long', age: 3) {
+				listOfChildren {
+					child(name: 'x0')
+					child(name: 'c1')
+					child(name: 'c2')
+				}
+			}
+			parent()
+			parent(name: 'bad') {
+				listOfChildren {
+					child(name: 'c3')
+				}
+			}
+		}
+
+		then:
+		built.size() == 4
+		built*.name == ['p0', null, null, 'bad']
+		built[1].listOfChildren*.name == [null, 'c1', 'c2']
+		report.violationCount == 7
+		!report.truncated
+		report.violations.collect { [it.root, it.path, it.name, it.reason] } == [
+			[1, 'parent', 'name', 'max check failed'],
+			[1, 'parent', 'age', 'property unkown'],
+			[1, 'parent/listOfChildren/child', 'name', 'value invalid'],
+			[1, 'parent', 'listOfChildren', 'max check failed'],
+			[2, 'parent', 'name', 'property required'],
+			[2, 'parent', 'listOfChildren', 'min check failed'],
+			[3, 'parent', null, 'check failed'],
+		]
+		report.violations*.kind == [
+			ValidationReport.PROPERTY, ValidationReport.PROPERTY, ValidationReport.PROPERTY, ValidationReport.COLLECTION,
+			ValidationReport.PROPERTY, ValidationReport.COLLECTION, ValidationReport.NODE
+		]
+		report.get(0).fqn == 'parent.name'
+	}
+
+	def "Only the first violations are kept once the limit is reached"() {
+		given:
+		ValidationReport report = new ValidationReport(2, 3)
+		List valid = []
+		long seen = 0
+
+		when:
+		mb.buildEach(report, { p ->
+			if(report.violationCount == seen) valid << p.name
+			seen = report.violationCount
+		}) {
+			10.times { i ->
+				parent(name: (i % 2 ? "p$i" : "p$i too long").toString()) {
+					listOfChildren {
+						child(name: "c$i")
+					}
+				}
+			}
+		}
+
+		then:
+		valid == ['p1', 'p3', 'p5', 'p7', 'p9']
+		report.violationCount == 5
+		report.size() == 3
+		report.truncated
+		report.violations*.root == [0, 2, 4]
+
+		when:
+		report.clear()
+
+		then:
+		report.empty
+		report.size() == 0
+	}
+
+	def "Violations are thrown without a report"() {
+		when:
+		mb.buildList {
+			parent(name: 'p0')
+		}
+
+		then:
+		CollectionException e = thrown()
+		e.message.contains('min check failed')
+	}
+}